@@ -0,0 +1,8 @@
+FUNCTION fib#(N#) {
+  IF N# < 2 THEN RETURN N#
+  RETURN fib#(N# - 1) + fib#(N# - 2)
+}
+
+T0# = TIMER
+PRINT fib#(25)
+PRINT "Time (s):", TIMER - T0#
@@ -0,0 +1,166 @@
+package org.puffinbasic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.puffinbasic.PuffinBasicInterpreterMain.UserOptions;
+import org.puffinbasic.error.PuffinBasicRuntimeError;
+import org.puffinbasic.parser.PuffinBasicIR;
+import org.puffinbasic.runtime.Environment;
+import org.puffinbasic.runtime.Environment.SystemEnv;
+import org.puffinbasic.runtime.PuffinBasicRuntime;
+import org.puffinbasic.runtime.PuffinBasicRuntime.ExecutionEngine;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.IO_ERROR;
+
+/**
+ * Benchmarks of the interpreter phases on the programs in src/jmh/resources/benchmarks.
+ * <ul>
+ *     <li>{@code frontEnd}: parse, sort by line number and generate the IR.</li>
+ *     <li>{@code runtime}: run the IR with {@link PuffinBasicRuntime}, the IR is generated before each call.</li>
+ *     <li>{@code endToEnd}: {@link PuffinBasicInterpreterMain#interpretAndRun}.</li>
+ * </ul>
+ * Build and run with:
+ * <pre>
+ * mvn -P jmh package -DskipTests
+ * java -jar target/benchmarks.jar [-p program=forloop] [-p engine=compile]
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PuffinBasicBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Program {
+
+        @Param({
+                "forloop",
+                "nested_forloop",
+                "string_concat",
+                "array_ops",
+                "collections",
+                "recursion",
+                "print",
+                "random_access_file"
+        })
+        String program;
+
+        String sourceCode;
+        Environment env;
+        Path tmpFile;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            sourceCode = loadProgram(program);
+            tmpFile = Files.createTempFile("puffin_basic_bench_", ".data");
+            env = new SystemEnv();
+            env.set("BENCH_TMP_DIR", tmpFile.getParent().toString());
+            env.set("BENCH_FILENAME", tmpFile.getFileName().toString());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Engine {
+
+        @Param({"switch", "closure", "compile"})
+        String engine;
+
+        ExecutionEngine executionEngine;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            executionEngine = ExecutionEngine.valueOf(engine.toUpperCase());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Interpreted {
+
+        PuffinBasicIR ir;
+
+        // The runtime mutates the symbol table, so each run needs a fresh IR.
+        @Setup(Level.Invocation)
+        public void setup(Program program) {
+            ir = PuffinBasicInterpreterMain.interpret(
+                    UserOptions.ofTest(), program.program + ".bas", program.sourceCode);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Output {
+
+        PrintStream out;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            out = new PrintStream(OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    public PuffinBasicIR frontEnd(Program program) {
+        return PuffinBasicInterpreterMain.interpret(
+                UserOptions.ofTest(), program.program + ".bas", program.sourceCode);
+    }
+
+    @Benchmark
+    public void runtime(Program program, Engine engine, Interpreted interpreted, Output output) {
+        new PuffinBasicRuntime(interpreted.ir, output.out, program.env, engine.executionEngine).run();
+    }
+
+    @Benchmark
+    public void endToEnd(Program program, Engine engine, Output output) {
+        PuffinBasicInterpreterMain.interpretAndRun(
+                UserOptions.ofTest(engine.executionEngine),
+                program.program + ".bas",
+                program.sourceCode,
+                output.out,
+                program.env);
+    }
+
+    private static String loadProgram(String name) {
+        var resource = PuffinBasicBenchmark.class.getClassLoader()
+                .getResource("benchmarks/" + name + ".bas");
+        if (resource == null) {
+            throw new PuffinBasicRuntimeError(
+                    IO_ERROR,
+                    "Missing benchmark program: " + name
+            );
+        }
+        try (InputStream in = new BufferedInputStream(resource.openStream())) {
+            return new String(in.readAllBytes());
+        } catch (IOException e) {
+            throw new PuffinBasicRuntimeError(
+                    IO_ERROR,
+                    "Failed to read file: " + resource + ", error: " + e.getMessage()
+            );
+        }
+    }
+}
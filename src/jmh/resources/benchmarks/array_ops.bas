@@ -0,0 +1,11 @@
+DIM A%(100000)
+DIM B%(100000)
+FOR I% = 0 TO 99999
+  A%(I%) = (I% * 7919) MOD 100003
+NEXT I%
+ARRAYCOPY A%, B%
+ARRAY1DSORT B%
+PRINT ARRAY1DSUM(A%), ARRAY1DMEAN(A%), ARRAY1DMEDIAN(A%), ARRAY1DPCT(A%, 90)
+PRINT ARRAY1DMIN(A%), ARRAY1DMAX(A%), ARRAY1DBINSEARCH(B%, B%(500))
+ARRAYFILL A%, 1
+PRINT ARRAY1DSUM(A%)
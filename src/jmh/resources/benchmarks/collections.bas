@@ -0,0 +1,14 @@
+LIST<%> L
+SET<%> S
+DICT<%,%> D
+FOR I% = 0 TO 9999
+  L.append(I%)
+  S.add(I% MOD 1000)
+  D.put(I%, I% * 2)
+NEXT I%
+T@ = 0
+FOR I% = 0 TO 9999
+  T@ = T@ + L.get(I%) + D.getOrDefault(I%, 0)
+  IF S.contains(I%) THEN T@ = T@ + 1
+NEXT I%
+PRINT LEN(L), LEN(S), LEN(D), T@
@@ -0,0 +1,6 @@
+10 S@ = 0
+20 FOR I% = 1 TO 1000
+30 FOR J% = 1 TO 1000
+40 S@ = S@ + I% * J%
+50 NEXT J%, I%
+60 PRINT S@
@@ -0,0 +1,3 @@
+FOR I% = 1 TO 20000
+  PRINT I%, "x", I% * 2, "=", I% * I% * 2
+NEXT I%
@@ -0,0 +1,16 @@
+FILE$ = ENVIRON$("BENCH_TMP_DIR") + "/" + ENVIRON$("BENCH_FILENAME")
+OPEN "R", #1, FILE$, 24
+FIELD#1, 8 AS A$, 8 AS B$, 8 AS C$
+FOR I% = 1 TO 2000
+  LSET A$ = STR$(I%)
+  LSET B$ = STR$(I% + 1)
+  LSET C$ = STR$(I% + 2)
+  PUT #1
+NEXT I%
+S@ = 0
+FOR I% = 1 TO 2000
+  GET #1, I% - 1
+  S@ = S@ + VAL(A$) + VAL(C$)
+NEXT I%
+CLOSE
+PRINT S@
@@ -0,0 +1,5 @@
+FUNCTION fib#(N#) {
+  IF N# < 2 THEN RETURN N#
+  RETURN fib#(N# - 1) + fib#(N# - 2)
+}
+PRINT fib#(20)
@@ -0,0 +1,9 @@
+S$ = ""
+FOR I% = 1 TO 10000
+  S$ = S$ + CHR$(65 + I% MOD 26)
+NEXT I%
+N% = 0
+FOR I% = 1 TO LEN(S$) STEP 100
+  IF MID$(S$, I%, 1) = "B" THEN N% = N% + 1
+NEXT I%
+PRINT LEN(S$), N%
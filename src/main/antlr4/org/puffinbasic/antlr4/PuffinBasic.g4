@@ -34,6 +34,7 @@ stmt
     | elsebeginstmt
     | endifstmt
     | forstmt
+    | parforstmt
     | nextstmt
     | gotostmt
     | gotolabelstmt
@@ -99,6 +100,9 @@ stmt
     | array1dsortstmt
     | array2dshifthorstmt
     | array2dshiftverstmt
+    | arrayopstmt
+    | array1dpctsstmt
+    | array1dhiststmt
     | loadwavstmt
     | playwavstmt
     | stopwavstmt
@@ -107,6 +111,7 @@ stmt
     | liststmt
     | dictstmt
     | setstmt
+    | stringbuilderstmt
     | structstmt
     | structinstancestmt
     | func
@@ -241,7 +246,7 @@ func
     ;
 
 funcname
-    : varname | GET | APPEND | PUT
+    : varname | GET | APPEND | PUT | LEN
     ;
 
 gosubstmt
@@ -324,6 +329,10 @@ forstmt
     : FOR variable RELEQ expr TO expr (STEP expr)?
     ;
 
+parforstmt
+    : PARFOR variable RELEQ expr TO expr (STEP expr)?
+    ;
+
 nextstmt
     : NEXT variable? (COMMA variable)*
     ;
@@ -595,6 +604,18 @@ array2dshiftverstmt
     : ARRAY2DSHIFTVER variable COMMA step=expr
     ;
 
+arrayopstmt
+    : ARRAYOP dst=variable COMMA src1=expr COMMA op=STRING (COMMA src2=expr)?
+    ;
+
+array1dpctsstmt
+    : ARRAY1DPCTS src=variable COMMA pcts=variable COMMA dst=variable
+    ;
+
+array1dhiststmt
+    : ARRAY1DHIST src=variable COMMA dst=variable (COMMA lo=expr COMMA hi=expr)?
+    ;
+
 loadwavstmt
     : LOADWAV path=expr COMMA variable
     ;
@@ -627,6 +648,10 @@ setstmt
     : SET RELLT (typesuffix=varsuffix) RELGT setname=varname
     ;
 
+stringbuilderstmt
+    : STRINGBUILDER sbname=varname
+    ;
+
 structstmt
     : STRUCT structname=varname LBRACE compositetype (COMMA compositetype)* RBRACE
     ;
@@ -637,7 +662,8 @@ compositetype
         | struct1=varname elem=varname
         | LIST RELLT (list1=varname|list2=varsuffix|DIM list3=varsuffix) RELGT elem=varname
         | SET RELLT (set1=varname|set2=varsuffix) RELGT elem=varname
-        | DICT RELLT (dictk1=varsuffix) COMMA (dictv1=varname|dictv2=varsuffix) RELGT elem=varname)
+        | DICT RELLT (dictk1=varsuffix) COMMA (dictv1=varname|dictv2=varsuffix) RELGT elem=varname
+        | STRINGBUILDER elem=varname)
     ;
 
 structinstancestmt
@@ -655,6 +681,10 @@ SET
     : S E T
     ;
 
+STRINGBUILDER
+    : S T R I N G B U I L D E R
+    ;
+
 EQGT
     : '=' '>'
     ;
@@ -707,6 +737,10 @@ FOR
     : F O R
     ;
 
+PARFOR
+    : P A R F O R
+    ;
+
 NEXT
     : N E X T
     ;
@@ -1252,6 +1286,14 @@ ARRAY1DPCT
     : A R R A Y '1' D P C T
     ;
 
+ARRAY1DPCTS
+    : A R R A Y '1' D P C T S
+    ;
+
+ARRAY1DHIST
+    : A R R A Y '1' D H I S T
+    ;
+
 ARRAY1DSORT
     : A R R A Y '1' D S O R T
     ;
@@ -1280,6 +1322,10 @@ ARRAY2DSHIFTHOR
     : A R R A Y '2' D S H I F T H O R
     ;
 
+ARRAYOP
+    : A R R A Y O P
+    ;
+
 ARRAY2DSHIFTVER
     : A R R A Y '2' D S H I F T V E R
     ;
@@ -16,24 +16,44 @@ import org.puffinbasic.antlr4.PuffinBasicParser;
 import org.puffinbasic.domain.PuffinBasicSymbolTable;
 import org.puffinbasic.error.PuffinBasicRuntimeError;
 import org.puffinbasic.error.PuffinBasicSyntaxError;
+import org.puffinbasic.file.PuffinBasicFile;
+import org.puffinbasic.file.PuffinBasicFile.FlushPolicy;
 import org.puffinbasic.parser.LinenumberListener;
 import org.puffinbasic.parser.LinenumberListener.ThrowOnDuplicate;
 import org.puffinbasic.parser.PuffinBasicIR;
+import org.puffinbasic.parser.PuffinBasicIRCache;
 import org.puffinbasic.parser.PuffinBasicIRListener;
 import org.puffinbasic.parser.PuffinBasicImportPath;
 import org.puffinbasic.parser.PuffinBasicSourceFile;
+import org.puffinbasic.runtime.CompiledProgram;
 import org.puffinbasic.runtime.Environment;
 import org.puffinbasic.runtime.Environment.SystemEnv;
+import org.puffinbasic.runtime.IROptimizer;
+import org.puffinbasic.runtime.PuffinBasicHost;
+import org.puffinbasic.runtime.PuffinBasicHost.Job;
+import org.puffinbasic.runtime.PuffinBasicHost.JobResult;
+import org.puffinbasic.runtime.PuffinBasicHost.Status;
 import org.puffinbasic.runtime.PuffinBasicRuntime;
+import org.puffinbasic.runtime.Profiler;
+import org.puffinbasic.runtime.PuffinBasicRuntime.ExecutionEngine;
+import org.puffinbasic.runtime.RuntimeMetrics;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Stream;
 
 import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.IMPORT_ERROR;
@@ -44,6 +64,7 @@ import static org.puffinbasic.parser.LinenumberListener.ThrowOnDuplicate.THROW;
 public final class PuffinBasicInterpreterMain {
 
     private static final String UNKNOWN_SOURCE_FILE = "<UNKNOWN>";
+    private static final int DEFAULT_MAX_JOBS = 64;
 
     private enum SourceFileMode {
         MAIN,
@@ -53,13 +74,26 @@ public final class PuffinBasicInterpreterMain {
     public static void main(String... args) {
         var userOptions = parseCommandLineArgs(args);
 
+        if (userOptions.filenames.size() > 1) {
+            runHost(userOptions);
+            return;
+        }
+
         String mainSource = userOptions.filename;
+        // Buffered and flushed by the runtime as per the flush policy, System.out flushes every write.
+        var out = new PrintStream(new FileOutputStream(FileDescriptor.out));
+        var env = new SystemEnv(System.in, null, userOptions.outputBufferSize, userOptions.outputFlushPolicy);
+
+        if (userOptions.cache) {
+            interpretCachedAndRun(userOptions, mainSource, out, env);
+            return;
+        }
 
         Instant t0 = Instant.now();
         var sourceCode = loadSource(mainSource);
         logTimeTaken("LOAD", t0, userOptions.timing);
 
-        interpretAndRun(userOptions, mainSource, sourceCode, System.out, new SystemEnv());
+        interpretAndRun(userOptions, mainSource, sourceCode, out, env);
     }
 
     private static UserOptions parseCommandLineArgs(String... args) {
@@ -81,7 +115,64 @@ public final class PuffinBasicInterpreterMain {
         parser.addArgument("-g", "--graphics")
                 .help("Enable graphics")
                 .action(Arguments.storeTrue());
-        parser.addArgument("file").nargs(1);
+        parser.addArgument("-e", "--engine")
+                .help("Execution engine")
+                .choices("switch", "closure", "compile")
+                .setDefault("switch");
+        parser.addArgument("-c", "--compile")
+                .help("Compile to JVM bytecode, same as --engine compile")
+                .action(Arguments.storeTrue());
+        parser.addArgument("-O", "--optimize")
+                .help("IR optimization level")
+                .type(Integer.class)
+                .choices(0, IROptimizer.MAX_LEVEL)
+                .setDefault(IROptimizer.MAX_LEVEL);
+        parser.addArgument("--dump-ir")
+                .help("Print the IR before and after each optimization pass")
+                .action(Arguments.storeTrue());
+        parser.addArgument("-k", "--cache")
+                .help("Cache the IR in a .pbc file next to the source, and reuse it if the sources are unchanged")
+                .action(Arguments.storeTrue());
+        parser.addArgument("--cache-dir")
+                .help("Directory for the IR cache, implies --cache");
+        parser.addArgument("-p", "--profile")
+                .help("Sample the running program and print its hot lines to stderr")
+                .action(Arguments.storeTrue());
+        parser.addArgument("--profile-rate")
+                .help("Profiler samples per second, implies --profile")
+                .type(Integer.class);
+        parser.addArgument("--profile-out")
+                .help("Write the sampled call stacks in collapsed (flame graph) format to the file, implies --profile");
+        parser.addArgument("--jmx")
+                .help("Expose the runtime counters as an MBean")
+                .action(Arguments.storeTrue());
+        parser.addArgument("--metrics-file")
+                .help("Periodically write the runtime counters to the file in OpenMetrics text format");
+        parser.addArgument("--metrics-interval")
+                .help("Seconds between writes of --metrics-file")
+                .type(Integer.class)
+                .setDefault(RuntimeMetrics.DEFAULT_DUMP_INTERVAL_SECONDS);
+        parser.addArgument("--max-jobs")
+                .help("Programs run at a time, when more than one file is given")
+                .type(Integer.class)
+                .setDefault(DEFAULT_MAX_JOBS);
+        parser.addArgument("--job-timeout")
+                .help("Seconds after which a program is stopped, when more than one file is given")
+                .type(Integer.class)
+                .setDefault(0);
+        parser.addArgument("--output-buffer-size")
+                .help("Bytes of output buffered for stdout and for each file opened for OUTPUT or APPEND")
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .setDefault(PuffinBasicFile.DEFAULT_OUTPUT_BUFFER_SIZE);
+        parser.addArgument("--output-flush")
+                .help("Flush stdout after each line, when the buffer is full and before SLEEP, INKEY$"
+                        + " and repaints, or only before reading input and at the end")
+                .choices("line", "size", "explicit")
+                .setDefault("size");
+        parser.addArgument("file")
+                .help("Program to run, several programs are run concurrently")
+                .nargs("+");
         Namespace res = null;
         try {
             res = parser.parseArgs(args);
@@ -99,10 +190,40 @@ public final class PuffinBasicInterpreterMain {
                 res.getBoolean("ir"),
                 res.getBoolean("timing"),
                 res.getBoolean("graphics"),
-                (String) res.getList("file").get(0)
+                res.getBoolean("compile")
+                        ? ExecutionEngine.COMPILE
+                        : ExecutionEngine.valueOf(res.getString("engine").toUpperCase()),
+                res.getInt("optimize"),
+                res.getBoolean("dump_ir"),
+                res.getBoolean("cache") || res.getString("cache_dir") != null,
+                res.getString("cache_dir"),
+                res.getBoolean("profile") || res.get("profile_rate") != null || res.getString("profile_out") != null
+                        ? Objects.requireNonNullElse(res.getInt("profile_rate"), Profiler.DEFAULT_RATE)
+                        : 0,
+                res.getString("profile_out"),
+                System.err,
+                res.getBoolean("jmx"),
+                res.getString("metrics_file"),
+                res.getInt("metrics_interval"),
+                res.getInt("max_jobs"),
+                res.getInt("job_timeout"),
+                res.getInt("output_buffer_size"),
+                FlushPolicy.valueOf(res.getString("output_flush").toUpperCase()),
+                res.getList("file")
         );
     }
 
+    private static byte[] loadSourceBytes(String filename) {
+        try {
+            return Files.readAllBytes(Paths.get(filename));
+        } catch (IOException e) {
+            throw new PuffinBasicRuntimeError(
+                    IO_ERROR,
+                    "Failed to read source code: " + filename + ", error: " + e.getMessage()
+            );
+        }
+    }
+
     private static String loadSource(String filename) {
         var sb = new StringBuilder();
         try (Stream<String> stream = Files.lines(Paths.get(filename), StandardCharsets.US_ASCII)) {
@@ -130,9 +251,172 @@ public final class PuffinBasicInterpreterMain {
             String sourceCode,
             PrintStream out,
             Environment env)
+    {
+        var ir = interpret(userOptions, sourceFilename, sourceCode);
+
+        run(userOptions, ir, out, env);
+    }
+
+    static void interpretCachedAndRun(
+            UserOptions userOptions,
+            String sourceFilename,
+            PrintStream out,
+            Environment env)
+    {
+        var ir = interpretCached(userOptions, sourceFilename);
+
+        run(userOptions, ir, out, env);
+    }
+
+    private static void run(UserOptions userOptions, PuffinBasicIR ir, PrintStream out, Environment env) {
+        var profiler = userOptions.profileRate > 0 ? new Profiler(userOptions.profileRate) : null;
+        var metrics = userOptions.jmx || userOptions.metricsFile != null
+                ? new RuntimeMetrics(userOptions.jmx, userOptions.metricsFile, userOptions.metricsInterval)
+                : null;
+
+        log("RUN", userOptions.timing);
+        Instant t3 = Instant.now();
+        new PuffinBasicRuntime(ir, out, env, userOptions.engine, profiler, metrics).run();
+        logTimeTaken("RUN", t3, userOptions.timing);
+
+        if (profiler != null) {
+            printProfile(userOptions, profiler);
+        }
+    }
+
+    // Runs each file as a job of a host, the output of each job is printed when it finishes.
+    private static void runHost(UserOptions userOptions) {
+        var timeout = userOptions.jobTimeoutSeconds > 0 ? Duration.ofSeconds(userOptions.jobTimeoutSeconds) : null;
+        var outputs = new HashMap<String, ByteArrayOutputStream>();
+        try (var host = new PuffinBasicHost(userOptions.maxJobs)) {
+            for (var filename : new LinkedHashSet<>(userOptions.filenames)) {
+                CompiledProgram program;
+                try {
+                    program = CompiledProgram.of(userOptions.cache
+                            ? interpretCached(userOptions, filename)
+                            : interpret(userOptions, filename, loadSource(filename)));
+                } catch (Exception e) {
+                    System.err.println("[" + Status.FAILED + "] " + filename);
+                    e.printStackTrace(System.err);
+                    continue;
+                }
+                var output = new ByteArrayOutputStream();
+                outputs.put(filename, output);
+                // Relative file names of a job are resolved against the directory of its program.
+                var env = new SystemEnv(
+                        InputStream.nullInputStream(), Paths.get(filename).toAbsolutePath().getParent(),
+                        userOptions.outputBufferSize, userOptions.outputFlushPolicy);
+                host.submit(new Job(filename, program, new PrintStream(output), env, userOptions.engine, timeout));
+            }
+            for (int i = 0; i < outputs.size(); i++) {
+                printJobResult(userOptions, host.getResults().take(), outputs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void printJobResult(
+            UserOptions userOptions, JobResult result, Map<String, ByteArrayOutputStream> outputs)
+    {
+        var output = outputs.get(result.name).toByteArray();
+        System.out.println("==> " + result.name + " <==");
+        System.out.write(output, 0, output.length);
+        System.out.flush();
+        if (result.status == Status.FAILED) {
+            System.err.println("[" + result.status + "] " + result.name);
+            result.error.printStackTrace(System.err);
+        } else if (result.status == Status.TIMED_OUT) {
+            System.err.println("[" + result.status + "] " + result.name + " after " + userOptions.jobTimeoutSeconds + " s");
+        }
+        var elapsed = result.elapsed;
+        log("[" + result.name + "] time taken = " + (elapsed.getSeconds() + elapsed.getNano() / 1000_000_000.0) + " s",
+                userOptions.timing);
+    }
+
+    // The hot lines go to stderr (on the command line) and the stacks to the file, stdout is the program's output.
+    private static void printProfile(UserOptions userOptions, Profiler profiler) {
+        profiler.printHotLines(userOptions.profileReport, Profiler.DEFAULT_TOP_N);
+        if (userOptions.profileOut != null) {
+            try (var out = new PrintStream(userOptions.profileOut, StandardCharsets.UTF_8)) {
+                profiler.printCollapsedStacks(out);
+            } catch (IOException e) {
+                throw new PuffinBasicRuntimeError(
+                        IO_ERROR,
+                        "Failed to write profile: " + userOptions.profileOut + ", error: " + e.getMessage()
+                );
+            }
+        }
+    }
+
+    // Loads the IR from the cache, or generates it and writes it to the cache.
+    static PuffinBasicIR interpretCached(UserOptions userOptions, String sourceFilename) {
+        var importPath = new PuffinBasicImportPath(sourceFilename);
+        var cache = new PuffinBasicIRCache(importPath, userOptions.graphics, userOptions.optimizationLevel);
+
+        Instant t0 = Instant.now();
+        var sourceHash = PuffinBasicIRCache.hash(loadSourceBytes(sourceFilename));
+        var cacheFile = PuffinBasicIRCache.getCacheFile(sourceFilename, userOptions.cacheDir, sourceHash);
+        var entry = cache.load(cacheFile, sourceHash);
+        if (entry != null) {
+            logTimeTaken("CACHE", t0, userOptions.timing);
+            listSourceCode(entry.getSourceFile(), userOptions);
+            printIR(entry.getIR(), userOptions);
+            return entry.getIR();
+        }
+
+        Instant t1 = Instant.now();
+        var sourceCode = loadSource(sourceFilename);
+        logTimeTaken("LOAD", t1, userOptions.timing);
+
+        Instant t2 = Instant.now();
+        var sourceFile = syntaxCheckAndSortByLineNumber(userOptions, importPath, sourceFilename, sourceCode);
+        var ir = generateIR(userOptions, sourceFile);
+        // Sources are parsed once, in SORT, and the IR is generated from the parse trees.
+        logTimeTaken("SORT+IR", t2, userOptions.timing);
+        optimize(userOptions, ir);
+
+        // The IR is stored before it is run, running it changes the symbol table.
+        Instant t3 = Instant.now();
+        cache.store(cacheFile, sourceHash, sourceFile, ir);
+        logTimeTaken("CACHE", t3, userOptions.timing);
+        printIR(ir, userOptions);
+        return ir;
+    }
+
+    // Parses the source code once, the program can then be run many times, concurrently.
+    static CompiledProgram compile(
+            UserOptions userOptions,
+            String sourceFilename,
+            String sourceCode)
+    {
+        return CompiledProgram.of(interpret(userOptions, sourceFilename, sourceCode));
+    }
+
+    // Parses the source code and its imports and generates the IR, without running it.
+    static PuffinBasicIR interpret(
+            UserOptions userOptions,
+            String sourceFilename,
+            String sourceCode)
     {
         var importPath = new PuffinBasicImportPath(sourceFilename);
 
+        Instant t1 = Instant.now();
+        var sourceFile = syntaxCheckAndSortByLineNumber(userOptions, importPath, sourceFilename, sourceCode);
+        var ir = generateIR(userOptions, sourceFile);
+        // Sources are parsed once, in SORT, and the IR is generated from the parse trees.
+        logTimeTaken("SORT+IR", t1, userOptions.timing);
+        optimize(userOptions, ir);
+        printIR(ir, userOptions);
+        return ir;
+    }
+
+    private static PuffinBasicSourceFile syntaxCheckAndSortByLineNumber(
+            UserOptions userOptions,
+            PuffinBasicImportPath importPath,
+            String sourceFilename,
+            String sourceCode)
+    {
         Instant t1 = Instant.now();
         var sourceFile = syntaxCheckAndSortByLineNumber(
                 importPath,
@@ -146,12 +430,29 @@ public final class PuffinBasicInterpreterMain {
         }
         logTimeTaken("SORT", t1, userOptions.timing);
 
+        listSourceCode(sourceFile, userOptions);
+        return sourceFile;
+    }
+
+    private static PuffinBasicIR generateIR(UserOptions userOptions, PuffinBasicSourceFile sourceFile) {
+        Instant t1 = Instant.now();
+        var ir = generateIR(sourceFile, userOptions.graphics);
+        logTimeTaken("IR", t1, userOptions.timing);
+        return ir;
+    }
+
+    private static void optimize(UserOptions userOptions, PuffinBasicIR ir) {
+        Instant t1 = Instant.now();
+        IROptimizer.optimize(ir, userOptions.optimizationLevel, userOptions.dumpIR ? System.out : null);
+        logTimeTaken("OPT", t1, userOptions.timing);
+    }
+
+    private static void listSourceCode(PuffinBasicSourceFile sourceFile, UserOptions userOptions) {
         log("LIST", userOptions.listSourceCode);
         log(sourceFile.getSourceCode(), userOptions.listSourceCode);
+    }
 
-        Instant t2 = Instant.now();
-        var ir = generateIR(sourceFile, userOptions.graphics);
-        logTimeTaken("IR", t2, userOptions.timing);
+    private static void printIR(PuffinBasicIR ir, UserOptions userOptions) {
         log("IR", userOptions.printIR);
         if (userOptions.printIR) {
             int i = 0;
@@ -159,11 +460,6 @@ public final class PuffinBasicInterpreterMain {
                 log(i++ + ": " + instruction, true);
             }
         }
-
-        log("RUN", userOptions.timing);
-        Instant t3 = Instant.now();
-        run(ir, out, env);
-        logTimeTaken("RUN", t3, userOptions.timing);
     }
 
     private static void log(String s, boolean log) {
@@ -178,11 +474,6 @@ public final class PuffinBasicInterpreterMain {
         log("[" + tag + "] time taken = " + timeSec + " s", log);
     }
 
-    private static void run(PuffinBasicIR ir, PrintStream out, Environment env) {
-        var runtime = new PuffinBasicRuntime(ir, out, env);
-        runtime.run();
-    }
-
     private static PuffinBasicIR generateIR(PuffinBasicSourceFile sourceFile, boolean graphics) {
         var symbolTable = new PuffinBasicSymbolTable();
         var ir = new PuffinBasicIR(symbolTable);
@@ -195,13 +486,11 @@ public final class PuffinBasicInterpreterMain {
 
     private static void generateIR(PuffinBasicSourceFile sourceFile, PuffinBasicIR ir, boolean graphics) {
         var in = sourceFile.getSourceCodeStream();
-        var lexer = new PuffinBasicLexer(in);
-        var tokens = new CommonTokenStream(lexer);
-        var parser = new PuffinBasicParser(tokens);
-        var tree = parser.prog();
         var walker = new ParseTreeWalker();
         var irListener = new PuffinBasicIRListener(sourceFile, in, ir, graphics);
-        walker.walk(irListener, tree);
+        for (var line : sourceFile.getSortedLines()) {
+            walker.walk(irListener, line);
+        }
         irListener.semanticCheckAfterParsing();
     }
 
@@ -251,12 +540,12 @@ public final class PuffinBasicInterpreterMain {
             importSourceFiles.addAll(importSourceFile.getImportFiles());
         }
 
-        String sortedCode = linenumListener.getSortedCode();
         return new PuffinBasicSourceFile(
                 sourceFile,
                 linenumListener.getLibtag(),
-                sortedCode,
-                CharStreams.fromString(sortedCode),
+                linenumListener.getSortedCode(),
+                in,
+                linenumListener.getSortedLines(),
                 importSourceFiles);
     }
 
@@ -300,8 +589,36 @@ public final class PuffinBasicInterpreterMain {
     public static final class UserOptions {
 
         static UserOptions ofTest() {
+            return ofTest(ExecutionEngine.SWITCH);
+        }
+
+        static UserOptions ofTest(ExecutionEngine engine) {
+            return ofTest(engine, IROptimizer.MAX_LEVEL);
+        }
+
+        static UserOptions ofTest(ExecutionEngine engine, int optimizationLevel) {
+            return new UserOptions(
+                    false, false, false, false, false, engine, optimizationLevel, false, false, null,
+                    0, null, System.err, false, null, RuntimeMetrics.DEFAULT_DUMP_INTERVAL_SECONDS,
+                    DEFAULT_MAX_JOBS, 0, PuffinBasicFile.DEFAULT_OUTPUT_BUFFER_SIZE, FlushPolicy.SIZE, List.of()
+            );
+        }
+
+        static UserOptions ofTestProfiled(
+                ExecutionEngine engine, int profileRate, String profileOut, PrintStream profileReport)
+        {
+            return new UserOptions(
+                    false, false, false, false, false, engine, IROptimizer.MAX_LEVEL, false, false, null,
+                    profileRate, profileOut, profileReport, false, null, RuntimeMetrics.DEFAULT_DUMP_INTERVAL_SECONDS,
+                    DEFAULT_MAX_JOBS, 0, PuffinBasicFile.DEFAULT_OUTPUT_BUFFER_SIZE, FlushPolicy.SIZE, List.of()
+            );
+        }
+
+        static UserOptions ofTestMetered(ExecutionEngine engine, String metricsFile) {
             return new UserOptions(
-                    false, false, false, false, false, null
+                    false, false, false, false, false, engine, IROptimizer.MAX_LEVEL, false, false, null,
+                    0, null, System.err, true, metricsFile, RuntimeMetrics.DEFAULT_DUMP_INTERVAL_SECONDS,
+                    DEFAULT_MAX_JOBS, 0, PuffinBasicFile.DEFAULT_OUTPUT_BUFFER_SIZE, FlushPolicy.SIZE, List.of()
             );
         }
 
@@ -310,7 +627,28 @@ public final class PuffinBasicInterpreterMain {
         final boolean printIR;
         final boolean timing;
         final boolean graphics;
+        final ExecutionEngine engine;
+        final int optimizationLevel;
+        final boolean dumpIR;
+        final boolean cache;
+        final String cacheDir;
+        // Profiler samples per second, 0 if not profiled
+        final int profileRate;
+        final String profileOut;
+        // Where the hot lines are printed, stderr on the command line
+        final PrintStream profileReport;
+        final boolean jmx;
+        // File the runtime counters are written to, null if not written
+        final String metricsFile;
+        final int metricsInterval;
+        final int maxJobs;
+        // 0 if jobs can run forever
+        final int jobTimeoutSeconds;
+        final int outputBufferSize;
+        final FlushPolicy outputFlushPolicy;
         public final String filename;
+        // More than one file are run by a host
+        final List<String> filenames;
 
         UserOptions(
                 boolean logOnDuplicate,
@@ -318,14 +656,45 @@ public final class PuffinBasicInterpreterMain {
                 boolean printIR,
                 boolean timing,
                 boolean graphics,
-                String filename)
+                ExecutionEngine engine,
+                int optimizationLevel,
+                boolean dumpIR,
+                boolean cache,
+                String cacheDir,
+                int profileRate,
+                String profileOut,
+                PrintStream profileReport,
+                boolean jmx,
+                String metricsFile,
+                int metricsInterval,
+                int maxJobs,
+                int jobTimeoutSeconds,
+                int outputBufferSize,
+                FlushPolicy outputFlushPolicy,
+                List<String> filenames)
         {
             this.logOnDuplicate = logOnDuplicate;
             this.listSourceCode = listSourceCode;
             this.printIR = printIR;
             this.timing = timing;
             this.graphics = graphics;
-            this.filename = filename;
+            this.engine = engine;
+            this.optimizationLevel = optimizationLevel;
+            this.dumpIR = dumpIR;
+            this.cache = cache;
+            this.cacheDir = cacheDir;
+            this.profileRate = profileRate;
+            this.profileOut = profileOut;
+            this.profileReport = profileReport;
+            this.jmx = jmx;
+            this.metricsFile = metricsFile;
+            this.metricsInterval = metricsInterval;
+            this.maxJobs = maxJobs;
+            this.jobTimeoutSeconds = jobTimeoutSeconds;
+            this.outputBufferSize = outputBufferSize;
+            this.outputFlushPolicy = outputFlushPolicy;
+            this.filename = filenames.isEmpty() ? null : filenames.get(0);
+            this.filenames = filenames;
         }
     }
 
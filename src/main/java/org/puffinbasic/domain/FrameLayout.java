@@ -0,0 +1,228 @@
+package org.puffinbasic.domain;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.puffinbasic.domain.STObjects.AbstractSTEntry;
+import org.puffinbasic.domain.STObjects.ArrayReferenceValue;
+import org.puffinbasic.domain.STObjects.STEntry;
+import org.puffinbasic.domain.STObjects.STLabel;
+import org.puffinbasic.domain.STObjects.STRef;
+import org.puffinbasic.domain.STObjects.STUDF;
+import org.puffinbasic.domain.STObjects.STValue;
+import org.puffinbasic.error.PuffinBasicInternalError;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import static org.puffinbasic.domain.STObjects.PuffinBasicTypeId.SCALAR;
+
+/**
+ * Slots of a function scope. Each entry declared in the scope gets a fixed slot index.
+ * The entries are shared by all calls of the function, a call made while the function
+ * is already active saves the slots of the active call in a pooled {@link Frame}
+ * and restores them on return.
+ */
+final class FrameLayout implements Serializable {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private static final byte INT = 0;
+    private static final byte FLOAT = 1;
+    private static final byte STRING = 2;
+    private static final byte VALUE = 3;
+    private static final byte REF = 4;
+    private static final byte ARRAY_REF = 5;
+
+    private final IntSet slotIds;
+    private STEntry[] slots;
+    private byte[] kinds;
+    private int numSlots;
+    private Frame[] frames;
+    private int depth;
+
+    FrameLayout() {
+        this.slotIds = new IntOpenHashSet();
+        this.slots = new STEntry[INITIAL_CAPACITY];
+        this.kinds = new byte[INITIAL_CAPACITY];
+        this.frames = new Frame[INITIAL_CAPACITY];
+    }
+
+    void addSlot(int id, STEntry entry) {
+        // Labels and functions are not part of a call's state.
+        if (entry instanceof STLabel || entry instanceof STUDF) {
+            return;
+        }
+        if (numSlots == slots.length) {
+            slots = Arrays.copyOf(slots, numSlots * 2);
+            kinds = Arrays.copyOf(kinds, numSlots * 2);
+        }
+        slots[numSlots] = entry;
+        kinds[numSlots] = kindOf(entry);
+        numSlots++;
+        slotIds.add(id);
+    }
+
+    boolean hasSlot(int id) {
+        return slotIds.contains(id);
+    }
+
+    private static byte kindOf(STEntry entry) {
+        if (entry instanceof STRef) {
+            return REF;
+        }
+        // Array references have the type of their array, but a call only changes their index
+        if (entry instanceof AbstractSTEntry
+                && ((AbstractSTEntry) entry).getValueOrNull() instanceof ArrayReferenceValue) {
+            return ARRAY_REF;
+        }
+        if (entry.getType().getTypeId() != SCALAR) {
+            return VALUE;
+        }
+        switch (entry.getType().getAtomTypeId()) {
+            case INT32:
+            case INT64:
+                return INT;
+            case FLOAT:
+            case DOUBLE:
+                return FLOAT;
+            case STRING:
+                return STRING;
+            default:
+                throw new PuffinBasicInternalError("Unsupported slot type: " + entry.getType());
+        }
+    }
+
+    Frame enter(int callerInstrId) {
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        var frame = frames[depth];
+        if (frame == null) {
+            frame = new Frame(this);
+            frames[depth] = frame;
+        }
+        frame.callerInstrId = callerInstrId;
+        if (depth > 0) {
+            save(frame);
+        }
+        depth++;
+        return frame;
+    }
+
+    void exit(Frame frame) {
+        depth--;
+        if (depth > 0) {
+            restore(frame);
+        }
+    }
+
+    private void save(Frame frame) {
+        frame.ensureCapacity(numSlots);
+        var numbers = frame.numbers;
+        var objects = frame.objects;
+        var initialized = frame.initialized;
+        for (int i = 0; i < numSlots; i++) {
+            var entry = slots[i];
+            switch (kinds[i]) {
+                case INT: {
+                    var value = entry.getValue();
+                    if (initialized[i] = value.isInitialized()) {
+                        numbers[i] = value.getInt64();
+                    }
+                }
+                    break;
+                case FLOAT: {
+                    var value = entry.getValue();
+                    if (initialized[i] = value.isInitialized()) {
+                        numbers[i] = Double.doubleToRawLongBits(value.getFloat64());
+                    }
+                }
+                    break;
+                case STRING: {
+                    var value = entry.getValue();
+                    if (initialized[i] = value.isInitialized()) {
+                        objects[i] = value.getString();
+                    }
+                }
+                    break;
+                case VALUE:
+                    objects[i] = ((AbstractSTEntry) entry).getValueOrNull();
+                    break;
+                case REF:
+                    objects[i] = ((STRef) entry).getRefOrNull();
+                    break;
+                case ARRAY_REF:
+                    numbers[i] = ((ArrayReferenceValue) entry.getValue()).getArrayReferenceIndex1D();
+                    break;
+            }
+        }
+    }
+
+    private void restore(Frame frame) {
+        var numbers = frame.numbers;
+        var objects = frame.objects;
+        var initialized = frame.initialized;
+        for (int i = 0; i < numSlots; i++) {
+            var entry = slots[i];
+            switch (kinds[i]) {
+                case INT:
+                    if (initialized[i]) {
+                        entry.getValue().setInt64(numbers[i]);
+                    }
+                    break;
+                case FLOAT:
+                    if (initialized[i]) {
+                        entry.getValue().setFloat64(Double.longBitsToDouble(numbers[i]));
+                    }
+                    break;
+                case STRING:
+                    if (initialized[i]) {
+                        entry.getValue().setString((String) objects[i]);
+                    }
+                    break;
+                case VALUE:
+                    ((AbstractSTEntry) entry).setValue((STValue) objects[i]);
+                    break;
+                case REF:
+                    ((STRef) entry).resetRef((STEntry) objects[i]);
+                    break;
+                case ARRAY_REF:
+                    entry.getValue().setArrayReferenceIndex1D((int) numbers[i]);
+                    break;
+            }
+            objects[i] = null;
+        }
+    }
+
+    // One call of a function, holds the state of the call it interrupted (if any).
+    static final class Frame implements Serializable {
+        private final FrameLayout layout;
+        private int callerInstrId;
+        private long[] numbers;
+        private Object[] objects;
+        private boolean[] initialized;
+
+        private Frame(FrameLayout layout) {
+            this.layout = layout;
+            this.numbers = new long[0];
+            this.objects = new Object[0];
+            this.initialized = new boolean[0];
+        }
+
+        private void ensureCapacity(int numSlots) {
+            if (numbers.length < numSlots) {
+                numbers = new long[numSlots];
+                objects = new Object[numSlots];
+                initialized = new boolean[numSlots];
+            }
+        }
+
+        FrameLayout getLayout() {
+            return layout;
+        }
+
+        int getCallerInstrId() {
+            return callerInstrId;
+        }
+    }
+}
@@ -2,17 +2,23 @@ package org.puffinbasic.domain;
 
 import it.unimi.dsi.fastutil.chars.Char2ObjectMap;
 import it.unimi.dsi.fastutil.chars.Char2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.puffinbasic.domain.FrameLayout.Frame;
 import org.puffinbasic.domain.STObjects.ArrayReferenceValue;
 import org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId;
 import org.puffinbasic.domain.STObjects.PuffinBasicType;
 import org.puffinbasic.domain.STObjects.STEntry;
 import org.puffinbasic.domain.STObjects.STLValue;
 import org.puffinbasic.domain.STObjects.STRef;
+import org.puffinbasic.domain.STObjects.STRegister;
 import org.puffinbasic.domain.STObjects.STTmp;
+import org.puffinbasic.domain.STObjects.STUDF;
 import org.puffinbasic.domain.STObjects.STVariable;
 import org.puffinbasic.domain.STObjects.StructType;
 import org.puffinbasic.domain.Scope.GlobalScope;
@@ -20,6 +26,8 @@ import org.puffinbasic.domain.Variable.VariableName;
 import org.puffinbasic.error.PuffinBasicInternalError;
 import org.puffinbasic.error.PuffinBasicRuntimeError;
 
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
@@ -28,35 +36,43 @@ import java.util.function.Predicate;
 
 import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.COMPOSITE;
 import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.DOUBLE;
+import static org.puffinbasic.domain.STObjects.PuffinBasicTypeId.SCALAR;
 import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.BAD_FIELD;
 import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.ILLEGAL_FUNCTION_PARAM;
 import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.MISSING_STRUCT;
 
-public class PuffinBasicSymbolTable {
+public class PuffinBasicSymbolTable implements Serializable {
 
     public interface VariableConsumer {
         void consume(int id, STVariable entry, Variable variable);
     }
 
     public static final int NULL_ID = -1;
+    private static final int INITIAL_ENTRY_TABLE_SIZE = 1024;
 
     private final Char2ObjectMap<PuffinBasicAtomTypeId> defaultDataTypes;
     private final Object2ObjectMap<String, StructType> userDefinedTypes;
     private final Object2IntMap<String> labelNameToId;
     private final AtomicInteger idmaker;
+    private final Scope globalScope;
+    private final RegisterFile registers;
+    private final Int2ObjectMap<FrameLayout> funcIdToFrameLayout;
+    private final ObjectArrayList<Frame> callStack;
     private Scope currentScope;
-    private int lastId;
-    private int lastLastId;
-    private STEntry lastEntry;
-    private STEntry lastLastEntry;
+    // Ids are unique across scopes, so all entries are also indexed by id.
+    private STEntry[] entries;
 
     public PuffinBasicSymbolTable() {
         this.defaultDataTypes = new Char2ObjectOpenHashMap<>();
         this.userDefinedTypes = new Object2ObjectOpenHashMap<>();
         this.labelNameToId = new Object2IntOpenHashMap<>();
         this.idmaker = new AtomicInteger();
-        this.currentScope = new GlobalScope();
-        this.lastId = this.lastLastId = -1;
+        this.globalScope = new GlobalScope();
+        this.registers = new RegisterFile();
+        this.funcIdToFrameLayout = new Int2ObjectOpenHashMap<>();
+        this.callStack = new ObjectArrayList<>();
+        this.currentScope = globalScope;
+        this.entries = new STEntry[INITIAL_ENTRY_TABLE_SIZE];
     }
 
     private int generateNextId() {
@@ -79,37 +95,35 @@ public class PuffinBasicSymbolTable {
         return Optional.empty();
     }
 
-    private STEntry getEntry(int id) {
-        var scope = getCurrentScope();
-        var entry = scope.getNullableEntry(id);
-        if (entry != null) {
-            return entry;
-        } else {
-            scope = scope.getParent();
-            while (scope != null) {
-                entry = scope.getNullableEntry(id);
-                if (entry != null) {
-                    return entry;
-                }
-                scope = scope.getParent();
-            }
+    private void putEntry(Scope scope, int id, STEntry entry) {
+        scope.putEntry(id, entry);
+        if (id >= entries.length) {
+            entries = Arrays.copyOf(entries, Math.max(entries.length << 1, id + 1));
         }
-        throw new PuffinBasicInternalError("Failed to find entry for id: " + id);
+        entries[id] = entry;
     }
 
     public STEntry get(int id) {
-        // Cache for better performance
-        if (id == lastId) {
-            return lastEntry;
+        var entry = getNullableEntry(id);
+        if (entry == null) {
+            throw new PuffinBasicInternalError("Failed to find entry for id: " + id);
         }
-        if (id == lastLastId) {
-            return lastLastEntry;
-        }
-        lastLastId = lastId;
-        lastLastEntry = lastEntry;
-        lastId = id;
-        lastEntry = getEntry(id);
-        return lastEntry;
+        return entry;
+    }
+
+    public STEntry getNullableEntry(int id) {
+        return id >= 0 && id < entries.length ? entries[id] : null;
+    }
+
+    public RegisterFile getRegisters() {
+        return registers;
+    }
+
+    // Whether the entry is a scalar temporary (an expression result or a constant), not a variable.
+    public boolean isScalarTmp(int id) {
+        var entry = getNullableEntry(id);
+        return (entry instanceof STTmp || entry instanceof STRegister)
+                && entry.getType().getTypeId() == SCALAR;
     }
 
     public int getCompositeVariableIdForVariable(VariableName variableName) {
@@ -137,7 +151,8 @@ public class PuffinBasicSymbolTable {
             Function<VariableName, Variable> variableCreator,
             VariableConsumer consumer)
     {
-        var scope = findScope(s -> s.containsVariable(variableName)).orElse(getCurrentScope());
+        var scope = findScope(s -> s.containsVariable(variableName))
+                .orElseGet(() -> isUDF(globalScope, variableName) ? globalScope : getCurrentScope());
         int id = scope.getIdForVariable(variableName);
         final STVariable entry;
         if (id == -1) {
@@ -145,7 +160,7 @@ public class PuffinBasicSymbolTable {
             scope.putVariable(variableName, id);
             var variable = variableCreator.apply(variableName);
             entry = variableName.getDataType().createVariableEntry(variable);
-            scope.putEntry(id, entry);
+            putEntry(scope, id, entry);
         } else {
             entry = (STVariable) get(id);
         }
@@ -153,6 +168,13 @@ public class PuffinBasicSymbolTable {
         return id;
     }
 
+    // Functions are declared in the global scope and can be called from any function body,
+    // including their own.
+    private boolean isUDF(Scope scope, VariableName variableName) {
+        return scope.containsVariable(variableName)
+                && get(scope.getIdForVariable(variableName)) instanceof STUDF;
+    }
+
     public int addCompositeVariable(
             VariableName variableName,
             STVariable variable)
@@ -160,7 +182,7 @@ public class PuffinBasicSymbolTable {
         var scope = findScope(s -> s.containsVariable(variableName)).orElse(getCurrentScope());
         int id = generateNextId();
         scope.putVariable(variableName, id);
-        scope.putEntry(id, variable);
+        putEntry(scope, id, variable);
         return id;
     }
 
@@ -177,23 +199,24 @@ public class PuffinBasicSymbolTable {
         var scope = getCurrentScope();
         var id = generateNextId();
         var entry = new STObjects.STLabel();
-        scope.putEntry(id, entry);
+        putEntry(scope, id, entry);
         return id;
     }
 
     public int addGotoTarget() {
         var scope = getCurrentScope();
         int id = generateNextId();
-        var entry = PuffinBasicAtomTypeId.INT32.createTmpEntry();
-        scope.putEntry(id, entry);
+        var entry = PuffinBasicAtomTypeId.INT32.createTmpEntry(registers);
+        putEntry(scope, id, entry);
         return id;
     }
 
     public int addArrayReference(STLValue lvalue) {
+        var scope = getCurrentScope();
         var ref = new ArrayReferenceValue(lvalue);
         int id = generateNextId();
         var entry = new STLValue(ref, lvalue.getType());
-        getCurrentScope().putEntry(id, entry);
+        putEntry(scope, id, entry);
         return id;
     }
 
@@ -202,7 +225,7 @@ public class PuffinBasicSymbolTable {
         int id = generateNextId();
         var entry = type.canBeLValue() ? new STLValue(null, type) : new STTmp(null, type);
         entry.createAndSetInstance(this);
-        scope.putEntry(id, entry);
+        putEntry(scope, id, entry);
         consumer.accept(entry);
         return id;
     }
@@ -210,8 +233,8 @@ public class PuffinBasicSymbolTable {
     public int addTmp(PuffinBasicAtomTypeId dataType, Consumer<STEntry> consumer) {
         var scope = getCurrentScope();
         int id = generateNextId();
-        var entry = dataType.createTmpEntry();
-        scope.putEntry(id, entry);
+        var entry = dataType.createTmpEntry(registers);
+        putEntry(scope, id, entry);
         consumer.accept(entry);
         return id;
     }
@@ -220,15 +243,15 @@ public class PuffinBasicSymbolTable {
         var scope = getCurrentScope();
         int id = generateNextId();
         var entry = new STRef(type);
-        scope.putEntry(id, entry);
+        putEntry(scope, id, entry);
         return id;
     }
 
     public int addTmpCompatibleWith(int srcId) {
         var scope = getCurrentScope();
-        var dataType = scope.getEntry(srcId).getType().getAtomTypeId();
+        var dataType = get(srcId).getType().getAtomTypeId();
         int id = generateNextId();
-        scope.putEntry(id, dataType.createTmpEntry());
+        putEntry(scope, id, dataType.createTmpEntry(registers));
         return id;
     }
 
@@ -278,14 +301,56 @@ public class PuffinBasicSymbolTable {
 
     public void pushDeclarationScope(int funcId, boolean localScope) {
         currentScope = getCurrentScope().createChild(funcId, localScope);
+        funcIdToFrameLayout.put(funcId, currentScope.getFrameLayout());
     }
 
     public void pushRuntimeScope(int funcId, int callerInstrId) {
-        var funcDeclScope = getCurrentScope().getChild(funcId);
-        if (funcDeclScope == null) {
+        var frameLayout = funcIdToFrameLayout.get(funcId);
+        if (frameLayout == null) {
             throw new PuffinBasicInternalError("Failed to find scope for id: " + funcId);
         }
-        currentScope = funcDeclScope.createRuntimeScope(callerInstrId);
+        callStack.push(frameLayout.enter(callerInstrId));
+    }
+
+    public void popRuntimeScope() {
+        if (callStack.isEmpty()) {
+            throw new PuffinBasicInternalError("Scope underflow!");
+        }
+        var frame = callStack.pop();
+        frame.getLayout().exit(frame);
+    }
+
+    // Whether the entry is saved and restored by calls of the function.
+    public boolean isFrameEntry(int funcId, int id) {
+        var frameLayout = funcIdToFrameLayout.get(funcId);
+        return frameLayout != null && frameLayout.hasSlot(id);
+    }
+
+    public int getCallerInstrId() {
+        if (callStack.isEmpty()) {
+            throw new PuffinBasicInternalError("Scope underflow!");
+        }
+        return callStack.top().getCallerInstrId();
+    }
+
+    // Copies the caller instruction ids of the active calls, outermost first, and returns
+    // their number. It can be called by another thread (the profiler), which then gets
+    // a best-effort snapshot of the call stack.
+    public int getCallerInstrIds(int[] callerInstrIds) {
+        int depth = Math.min(callStack.size(), callerInstrIds.length);
+        int n = 0;
+        try {
+            for (int i = 0; i < depth; i++) {
+                var frame = callStack.get(i);
+                if (frame == null) {
+                    break;
+                }
+                callerInstrIds[n++] = frame.getCallerInstrId();
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // The stack shrunk while it was copied
+        }
+        return n;
     }
 
     public void popScope() {
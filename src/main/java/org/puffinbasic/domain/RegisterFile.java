@@ -0,0 +1,75 @@
+package org.puffinbasic.domain;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Typed register banks holding the values of numeric temporaries.
+ * A temporary is an index into the bank of its type, see {@link STObjects.STRegister}.
+ */
+public class RegisterFile implements Serializable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    int[] int32;
+    long[] int64;
+    float[] float32;
+    double[] float64;
+    private int numInt32;
+    private int numInt64;
+    private int numFloat32;
+    private int numFloat64;
+
+    public RegisterFile() {
+        this.int32 = new int[INITIAL_CAPACITY];
+        this.int64 = new long[INITIAL_CAPACITY];
+        this.float32 = new float[INITIAL_CAPACITY];
+        this.float64 = new double[INITIAL_CAPACITY];
+    }
+
+    // Banks grow while temporaries are allocated, so don't hold on to them before the IR is complete.
+
+    public int[] getInt32() {
+        return int32;
+    }
+
+    public long[] getInt64() {
+        return int64;
+    }
+
+    public float[] getFloat32() {
+        return float32;
+    }
+
+    public double[] getFloat64() {
+        return float64;
+    }
+
+    int allocateInt32() {
+        if (numInt32 == int32.length) {
+            int32 = Arrays.copyOf(int32, int32.length * 2);
+        }
+        return numInt32++;
+    }
+
+    int allocateInt64() {
+        if (numInt64 == int64.length) {
+            int64 = Arrays.copyOf(int64, int64.length * 2);
+        }
+        return numInt64++;
+    }
+
+    int allocateFloat32() {
+        if (numFloat32 == float32.length) {
+            float32 = Arrays.copyOf(float32, float32.length * 2);
+        }
+        return numFloat32++;
+    }
+
+    int allocateFloat64() {
+        if (numFloat64 == float64.length) {
+            float64 = Arrays.copyOf(float64, float64.length * 2);
+        }
+        return numFloat64++;
+    }
+}
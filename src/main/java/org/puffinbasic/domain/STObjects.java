@@ -1,36 +1,31 @@
 package org.puffinbasic.domain;
 
 import com.google.common.collect.ImmutableList;
-import it.unimi.dsi.fastutil.ints.Int2IntMap;
-import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import com.google.common.collect.ImmutableSet;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
-import it.unimi.dsi.fastutil.objects.ObjectSet;
+import org.puffinbasic.domain.STCollections.DictStorage;
+import org.puffinbasic.domain.STCollections.ListStorage;
+import org.puffinbasic.domain.STCollections.SetStorage;
 import org.puffinbasic.domain.Variable.VariableName;
 import org.puffinbasic.error.PuffinBasicInternalError;
 import org.puffinbasic.error.PuffinBasicRuntimeError;
 import org.puffinbasic.runtime.Formatter;
 
+import java.io.Serializable;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
-import static org.puffinbasic.domain.PuffinBasicSymbolTable.NULL_ID;
 import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.COMPOSITE;
 import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.DOUBLE;
 import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.FLOAT;
@@ -51,6 +46,7 @@ public class STObjects {
         LIST,
         SET,
         DICT,
+        STRINGBUILDER,
     }
 
     public enum PuffinBasicAtomTypeId {
@@ -70,8 +66,8 @@ public class STObjects {
             }
 
             @Override
-            public STTmp createTmpEntry() {
-                return new STTmp(new STInt32ScalarValue(), ScalarType.INT32);
+            public STEntry createTmpEntry(RegisterFile registers) {
+                return new STInt32Register(registers);
             }
 
             @Override
@@ -139,8 +135,8 @@ public class STObjects {
             }
 
             @Override
-            public STTmp createTmpEntry() {
-                return new STTmp(new STInt64ScalarValue(), ScalarType.INT64);
+            public STEntry createTmpEntry(RegisterFile registers) {
+                return new STInt64Register(registers);
             }
 
             @Override
@@ -208,8 +204,8 @@ public class STObjects {
             }
 
             @Override
-            public STTmp createTmpEntry() {
-                return new STTmp(new STFloat32ScalarValue(), ScalarType.FLOAT32);
+            public STEntry createTmpEntry(RegisterFile registers) {
+                return new STFloat32Register(registers);
             }
 
             @Override
@@ -277,8 +273,8 @@ public class STObjects {
             }
 
             @Override
-            public STTmp createTmpEntry() {
-                return new STTmp(new STFloat64ScalarValue(), ScalarType.FLOAT64);
+            public STEntry createTmpEntry(RegisterFile registers) {
+                return new STFloat64Register(registers);
             }
 
             @Override
@@ -353,7 +349,7 @@ public class STObjects {
             }
 
             @Override
-            public STTmp createTmpEntry() {
+            public STEntry createTmpEntry(RegisterFile registers) {
                 return new STTmp(new STStringScalarValue(), ScalarType.STRING);
             }
 
@@ -414,7 +410,7 @@ public class STObjects {
             }
 
             @Override
-            public STTmp createTmpEntry() {
+            public STEntry createTmpEntry(RegisterFile registers) {
                 throw new PuffinBasicInternalError("Not implemented");
             }
 
@@ -478,7 +474,7 @@ public class STObjects {
 
         public abstract STVariable createVariableEntry(Variable variable);
 
-        public abstract STTmp createTmpEntry();
+        public abstract STEntry createTmpEntry(RegisterFile registers);
 
         public abstract STTmp createArrayEntry();
 
@@ -510,7 +506,7 @@ public class STObjects {
         }
     }
 
-    public interface PuffinBasicType {
+    public interface PuffinBasicType extends Serializable {
         PuffinBasicTypeId getTypeId();
 
         PuffinBasicAtomTypeId getAtomTypeId();
@@ -528,8 +524,24 @@ public class STObjects {
             );
         }
 
+        default int getFuncCallIndex(String funcName) {
+            throw new PuffinBasicRuntimeError(
+                    BAD_FIELD,
+                    "Unsupported function: " + funcName + " in type: " + this
+            );
+        }
+
         default void checkFuncCallArguments(String funcName, List<PuffinBasicType> paramTypes) {}
 
+        default boolean isMutatingFuncCall(int funcIndex) {
+            return false;
+        }
+
+        // For error messages
+        default String getFuncCallName(int funcIndex) {
+            return "#" + funcIndex;
+        }
+
         default boolean isCompatibleWith(PuffinBasicType other) {
             return this.equals(other);
         }
@@ -754,6 +766,11 @@ public class STObjects {
             return memberRefId;
         }
 
+        public int getNumMembers() {
+            return counter;
+        }
+
+        // Members are numbered in declaration order, the number is the member's slot in STStruct.
         public void declareField(VariableName memberName, PuffinBasicType type) {
             final int refId = counter++;
             refIdToTypeMap.put(refId, type);
@@ -818,23 +835,44 @@ public class STObjects {
         }
     }
 
+    // Calls are bound to the index of their function when the IR is generated.
     private static final class MemberFunctions {
-        private final Map<String, MemberFunction> memberFunctions;
+        private static final Set<String> MUTATING_FUNCTIONS =
+                ImmutableSet.of("append", "insert", "add", "remove", "put", "removeKey", "clear");
+
+        private final MemberFunction[] memberFunctions;
+        private final Object2IntMap<String> nameToIndex;
 
         MemberFunctions(List<MemberFunction> memberFunctions) {
-            this.memberFunctions = new HashMap<>();
-            memberFunctions.forEach(mf -> this.memberFunctions.put(mf.functionName, mf));
+            this.memberFunctions = memberFunctions.toArray(new MemberFunction[0]);
+            this.nameToIndex = new Object2IntOpenHashMap<>();
+            this.nameToIndex.defaultReturnValue(-1);
+            for (int i = 0; i < this.memberFunctions.length; i++) {
+                this.nameToIndex.put(this.memberFunctions[i].functionName, i);
+            }
         }
 
-        public MemberFunction get(String funcName) {
-            var mf = memberFunctions.get(funcName);
-            if (mf == null) {
+        int indexOf(String funcName) {
+            int index = nameToIndex.getInt(funcName);
+            if (index == -1) {
                 throw new PuffinBasicRuntimeError(
                         BAD_FIELD,
                         "Unknown member function: " + funcName
                 );
             }
-            return mf;
+            return index;
+        }
+
+        MemberFunction get(String funcName) {
+            return memberFunctions[indexOf(funcName)];
+        }
+
+        MemberFunction get(int index) {
+            return memberFunctions[index];
+        }
+
+        boolean isMutating(int index) {
+            return MUTATING_FUNCTIONS.contains(memberFunctions[index].functionName);
         }
 
         void checkFuncCallArguments(String funcName, List<PuffinBasicType> paramTypes) {
@@ -861,7 +899,8 @@ public class STObjects {
     public static final class ListType implements PuffinBasicType {
 
         private final PuffinBasicType type;
-        private final MemberFunctions memberFunctions;
+        // Member functions are closures, they are rebuilt on deserialization.
+        private final transient MemberFunctions memberFunctions;
 
         public ListType(PuffinBasicType type) {
             this.type = type;
@@ -871,34 +910,19 @@ public class STObjects {
                             .add(new MemberFunction(
                                     "append", new PuffinBasicType[] {type}, ScalarType.INT32,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var list = (List<Object>) obj;
-                                        if (type.getTypeId() == PuffinBasicTypeId.SCALAR) {
-                                            list.add(type.getAtomTypeId().getValueFrom(params[0]));
-                                        } else {
-                                            list.add(params[0]);
-                                        }
+                                        ((ListStorage) obj).add(params[0]);
                                         result.setInt32(0);
                                     }))
                             .add(new MemberFunction(
                                     "insert", new PuffinBasicType[] {ScalarType.INT32, type}, ScalarType.INT32,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var list = (List<Object>) obj;
-                                        int index = params[0].getInt32();
-                                        if (type.getTypeId() == PuffinBasicTypeId.SCALAR) {
-                                            var value = type.getAtomTypeId().getValueFrom(params[1]);
-                                            list.add(index, value);
-                                        } else {
-                                            list.add(index, params[1]);
-                                        }
+                                        ((ListStorage) obj).add(params[0].getInt32(), params[1]);
                                         result.setInt32(0);
                                     }))
                             .add(new MemberFunction(
                                     "get", new PuffinBasicType[] {ScalarType.INT32}, type,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var list = (List<Object>) obj;
+                                        var list = (ListStorage) obj;
                                         int index = params[0].getInt32();
                                         if (index < 0 || index >= list.size()) {
                                             throw new PuffinBasicRuntimeError(
@@ -907,27 +931,13 @@ public class STObjects {
                                                             + " is out of bounds, list size: " + list.size()
                                             );
                                         }
-                                        if (type.getTypeId() == PuffinBasicTypeId.SCALAR) {
-                                            type.getAtomTypeId().setValueIn(list.get(index), result);
-                                        } else {
-                                            STValue item = (STValue) list.get(index);
-                                            if (item == null) {
-                                                throw new PuffinBasicRuntimeError(
-                                                        NOT_INITIALIZED,
-                                                        "Value at list index: " + index
-                                                                + " is not set!"
-                                                );
-                                            }
-                                            result.replace(item);
-                                        }
+                                        list.get(index, result);
                                     }))
                             .add(new MemberFunction(
                                     "values", new PuffinBasicType[] {}, valuesType,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var list = (List<Object>) obj;
                                         if (type.getTypeId() == PuffinBasicTypeId.SCALAR) {
-                                            type.getAtomTypeId().copyArray(list, result);
+                                            ((ListStorage) obj).copyArray(result);
                                         } else {
                                             throw new PuffinBasicRuntimeError(
                                                     BAD_FUNCTION_CALL,
@@ -938,9 +948,7 @@ public class STObjects {
                             .add(new MemberFunction(
                                     "clear", new PuffinBasicType[] {}, ScalarType.INT32,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var list = (List<Object>) obj;
-                                        list.clear();
+                                        ((ListStorage) obj).clear();
                                         result.setInt32(0);
                                     }))
                             .build()
@@ -959,7 +967,11 @@ public class STObjects {
 
         @Override
         public STValue newInstance(PuffinBasicSymbolTable symbolTable) {
-            return new STList(type, memberFunctions);
+            return new STList(this);
+        }
+
+        private Object readResolve() {
+            return new ListType(type);
         }
 
         @Override
@@ -967,11 +979,26 @@ public class STObjects {
             return memberFunctions.get(funcName).returnType;
         }
 
+        @Override
+        public int getFuncCallIndex(String funcName) {
+            return memberFunctions.indexOf(funcName);
+        }
+
         @Override
         public void checkFuncCallArguments(String funcName, List<PuffinBasicType> paramTypes) {
             memberFunctions.checkFuncCallArguments(funcName, paramTypes);
         }
 
+        @Override
+        public boolean isMutatingFuncCall(int funcIndex) {
+            return memberFunctions.isMutating(funcIndex);
+        }
+
+        @Override
+        public String getFuncCallName(int funcIndex) {
+            return memberFunctions.get(funcIndex).functionName;
+        }
+
         @Override
         public boolean equals(Object obj) {
             if (this == obj) {
@@ -994,7 +1021,7 @@ public class STObjects {
     public static final class SetType implements PuffinBasicType {
 
         private final PuffinBasicType type;
-        private final MemberFunctions memberFunctions;
+        private final transient MemberFunctions memberFunctions;
 
         public SetType(PuffinBasicType type) {
             this.type = type;
@@ -1004,42 +1031,29 @@ public class STObjects {
                             .add(new MemberFunction(
                                     "add", new PuffinBasicType[] {type}, ScalarType.INT32,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var set = (Set<Object>) obj;
-                                        var value = type.getAtomTypeId().getValueFrom(params[0]);
-                                        set.add(value);
+                                        ((SetStorage) obj).add(params[0]);
                                         result.setInt32(0);
                                     }))
                             .add(new MemberFunction(
                                     "remove", new PuffinBasicType[] {type}, ScalarType.INT32,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var set = (Set<Object>) obj;
-                                        var value = type.getAtomTypeId().getValueFrom(params[0]);
-                                        var removeRes = set.remove(value);
+                                        var removeRes = ((SetStorage) obj).remove(params[0]);
                                         result.setInt32(removeRes ? -1 : 0);
                                     }))
                             .add(new MemberFunction(
                                     "contains", new PuffinBasicType[] {type}, ScalarType.INT32,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var set = (Set<Object>) obj;
-                                        var value = type.getAtomTypeId().getValueFrom(params[0]);
-                                        result.setInt32(set.contains(value) ? -1 : 0);
+                                        result.setInt32(((SetStorage) obj).contains(params[0]) ? -1 : 0);
                                     }))
                             .add(new MemberFunction(
                                     "values", new PuffinBasicType[] {}, valuesType,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var set = (Set<Object>) obj;
-                                        type.getAtomTypeId().copyArray(set, result);
+                                        ((SetStorage) obj).copyArray(result);
                                     }))
                             .add(new MemberFunction(
                                     "clear", new PuffinBasicType[] {}, ScalarType.INT32,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var set = (Set<Object>) obj;
-                                        set.clear();
+                                        ((SetStorage) obj).clear();
                                         result.setInt32(0);
                                     }))
                             .build()
@@ -1058,7 +1072,11 @@ public class STObjects {
 
         @Override
         public STValue newInstance(PuffinBasicSymbolTable symbolTable) {
-            return new STSet(type, memberFunctions);
+            return new STSet(this);
+        }
+
+        private Object readResolve() {
+            return new SetType(type);
         }
 
         @Override
@@ -1066,11 +1084,26 @@ public class STObjects {
             return memberFunctions.get(funcName).returnType;
         }
 
+        @Override
+        public int getFuncCallIndex(String funcName) {
+            return memberFunctions.indexOf(funcName);
+        }
+
         @Override
         public void checkFuncCallArguments(String funcName, List<PuffinBasicType> paramTypes) {
             memberFunctions.checkFuncCallArguments(funcName, paramTypes);
         }
 
+        @Override
+        public boolean isMutatingFuncCall(int funcIndex) {
+            return memberFunctions.isMutating(funcIndex);
+        }
+
+        @Override
+        public String getFuncCallName(int funcIndex) {
+            return memberFunctions.get(funcIndex).functionName;
+        }
+
         @Override
         public boolean equals(Object obj) {
             if (this == obj) {
@@ -1094,7 +1127,7 @@ public class STObjects {
 
         private final PuffinBasicType keyType;
         private final PuffinBasicType valueType;
-        private final MemberFunctions memberFunctions;
+        private final transient MemberFunctions memberFunctions;
 
         public DictType(PuffinBasicType keyType, PuffinBasicType valueType) {
             this.keyType = keyType;
@@ -1105,53 +1138,34 @@ public class STObjects {
                             .add(new MemberFunction(
                                     "put", new PuffinBasicType[] {keyType, valueType}, ScalarType.INT32,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var dict = (Map<Object, Object>) obj;
-                                        var key = keyType.getAtomTypeId().getValueFrom(params[0]);
-                                        var value = valueType.getAtomTypeId().getValueFrom(params[1]);
-                                        dict.put(key, value);
+                                        ((DictStorage) obj).put(params[0], params[1]);
                                         result.setInt32(0);
                                     }))
                             .add(new MemberFunction(
                                     "removeKey", new PuffinBasicType[] {keyType}, ScalarType.INT32,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var dict = (Map<Object, Object>) obj;
-                                        var key = keyType.getAtomTypeId().getValueFrom(params[0]);
-                                        var removeRes = dict.remove(key);
-                                        result.setInt32(removeRes != null ? -1 : 0);
+                                        var removeRes = ((DictStorage) obj).remove(params[0]);
+                                        result.setInt32(removeRes ? -1 : 0);
                                     }))
                             .add(new MemberFunction(
                                     "getOrDefault", new PuffinBasicType[] {keyType, valueType}, valueType,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var dict = (Map<Object, Object>) obj;
-                                        var key = keyType.getAtomTypeId().getValueFrom(params[0]);
-                                        var value = valueType.getAtomTypeId().getValueFrom(params[1]);
-                                        var getRes = dict.getOrDefault(key, value);
-                                        valueType.getAtomTypeId().setValueIn(getRes, result);
+                                        ((DictStorage) obj).getOrDefault(params[0], params[1], result);
                                     }))
                             .add(new MemberFunction(
                                     "containsKey", new PuffinBasicType[] {keyType}, ScalarType.INT32,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var dict = (Map<Object, Object>) obj;
-                                        var key = keyType.getAtomTypeId().getValueFrom(params[0]);
-                                        result.setInt32(dict.containsKey(key) ? -1 : 0);
+                                        result.setInt32(((DictStorage) obj).containsKey(params[0]) ? -1 : 0);
                                     }))
                             .add(new MemberFunction(
                                     "keys", new PuffinBasicType[] {}, valuesType,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var dict = (Map<Object, Object>) obj;
-                                        keyType.getAtomTypeId().copyArray(dict.keySet(), result);
+                                        ((DictStorage) obj).copyKeys(result);
                                     }))
                             .add(new MemberFunction(
                                     "clear", new PuffinBasicType[] {}, ScalarType.INT32,
                                     (obj, params, result) -> {
-                                        @SuppressWarnings("unchecked")
-                                        var dict = (Map<Object, Object>) obj;
-                                        dict.clear();
+                                        ((DictStorage) obj).clear();
                                         result.setInt32(0);
                                     }))
                             .build()
@@ -1170,7 +1184,11 @@ public class STObjects {
 
         @Override
         public STValue newInstance(PuffinBasicSymbolTable symbolTable) {
-            return new STDict(valueType, memberFunctions);
+            return new STDict(this);
+        }
+
+        private Object readResolve() {
+            return new DictType(keyType, valueType);
         }
 
         @Override
@@ -1178,11 +1196,26 @@ public class STObjects {
             return memberFunctions.get(funcName).returnType;
         }
 
+        @Override
+        public int getFuncCallIndex(String funcName) {
+            return memberFunctions.indexOf(funcName);
+        }
+
         @Override
         public void checkFuncCallArguments(String funcName, List<PuffinBasicType> paramTypes) {
             memberFunctions.checkFuncCallArguments(funcName, paramTypes);
         }
 
+        @Override
+        public boolean isMutatingFuncCall(int funcIndex) {
+            return memberFunctions.isMutating(funcIndex);
+        }
+
+        @Override
+        public String getFuncCallName(int funcIndex) {
+            return memberFunctions.get(funcIndex).functionName;
+        }
+
         @Override
         public boolean equals(Object obj) {
             if (this == obj) {
@@ -1203,7 +1236,106 @@ public class STObjects {
         }
     }
 
-    public interface STEntry {
+    public static final class StringBuilderType implements PuffinBasicType {
+
+        private final transient MemberFunctions memberFunctions;
+
+        public StringBuilderType() {
+            this.memberFunctions = new MemberFunctions(
+                    ImmutableList.<MemberFunction>builder()
+                            .add(new MemberFunction(
+                                    "append", new PuffinBasicType[] {ScalarType.STRING}, ScalarType.INT32,
+                                    (obj, params, result) -> {
+                                        ((StringBuilder) obj).append(params[0].getString());
+                                        result.setInt32(0);
+                                    }))
+                            .add(new MemberFunction(
+                                    "insert", new PuffinBasicType[] {ScalarType.INT32, ScalarType.STRING}, ScalarType.INT32,
+                                    (obj, params, result) -> {
+                                        var sb = (StringBuilder) obj;
+                                        int index = params[0].getInt32();
+                                        if (index < 0 || index > sb.length()) {
+                                            throw new PuffinBasicRuntimeError(
+                                                    ILLEGAL_FUNCTION_PARAM,
+                                                    "StringBuilder index: " + index
+                                                            + " is out of bounds, length: " + sb.length()
+                                            );
+                                        }
+                                        sb.insert(index, params[1].getString());
+                                        result.setInt32(0);
+                                    }))
+                            .add(new MemberFunction(
+                                    "len", new PuffinBasicType[] {}, ScalarType.INT32,
+                                    (obj, params, result) -> result.setInt32(((StringBuilder) obj).length())))
+                            .add(new MemberFunction(
+                                    "toString", new PuffinBasicType[] {}, ScalarType.STRING,
+                                    (obj, params, result) -> result.setString(obj.toString())))
+                            .add(new MemberFunction(
+                                    "clear", new PuffinBasicType[] {}, ScalarType.INT32,
+                                    (obj, params, result) -> {
+                                        ((StringBuilder) obj).setLength(0);
+                                        result.setInt32(0);
+                                    }))
+                            .build()
+            );
+        }
+
+        @Override
+        public PuffinBasicTypeId getTypeId() {
+            return PuffinBasicTypeId.STRINGBUILDER;
+        }
+
+        @Override
+        public PuffinBasicAtomTypeId getAtomTypeId() {
+            return COMPOSITE;
+        }
+
+        @Override
+        public STValue newInstance(PuffinBasicSymbolTable symbolTable) {
+            return new STStringBuilder(this);
+        }
+
+        private Object readResolve() {
+            return new StringBuilderType();
+        }
+
+        @Override
+        public PuffinBasicType getFuncCallReturnType(String funcName) {
+            return memberFunctions.get(funcName).returnType;
+        }
+
+        @Override
+        public int getFuncCallIndex(String funcName) {
+            return memberFunctions.indexOf(funcName);
+        }
+
+        @Override
+        public void checkFuncCallArguments(String funcName, List<PuffinBasicType> paramTypes) {
+            memberFunctions.checkFuncCallArguments(funcName, paramTypes);
+        }
+
+        @Override
+        public boolean isMutatingFuncCall(int funcIndex) {
+            return memberFunctions.isMutating(funcIndex);
+        }
+
+        @Override
+        public String getFuncCallName(int funcIndex) {
+            return memberFunctions.get(funcIndex).functionName;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj != null && obj.getClass() == StringBuilderType.class;
+        }
+
+        @Override
+        public int hashCode() {
+            return getTypeId().hashCode();
+        }
+    }
+
+    public interface STEntry extends Serializable {
         default boolean isLValue() {
             return false;
         }
@@ -1229,6 +1361,10 @@ public class STObjects {
             this.value = value;
         }
 
+        STValue getValueOrNull() {
+            return value;
+        }
+
         @Override
         public STValue getValue() {
             if (value == null) {
@@ -1283,6 +1419,14 @@ public class STObjects {
             this.ref = ref;
         }
 
+        STEntry getRefOrNull() {
+            return ref;
+        }
+
+        void resetRef(STEntry ref) {
+            this.ref = ref;
+        }
+
         private STEntry getRef() {
             if (ref == null) {
                 throw new PuffinBasicInternalError("Ref is null");
@@ -1291,14 +1435,343 @@ public class STObjects {
         }
 
         @Override
-        public STValue getValue() {
-            return getRef().getValue();
+        public STValue getValue() {
+            return getRef().getValue();
+        }
+    }
+
+    static final class STTmp extends AbstractSTEntry {
+        STTmp(STValue value, PuffinBasicType type) {
+            super(value, type);
+        }
+    }
+
+    // A numeric temporary, its value lives in the register file.
+    public static abstract class STRegister implements STEntry, STValue {
+        final RegisterFile registers;
+        final int index;
+        private final PuffinBasicType type;
+
+        STRegister(RegisterFile registers, int index, PuffinBasicType type) {
+            this.registers = registers;
+            this.index = index;
+            this.type = type;
+        }
+
+        public RegisterFile getRegisters() {
+            return registers;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public STValue getValue() {
+            return this;
+        }
+
+        @Override
+        public PuffinBasicType getType() {
+            return type;
+        }
+
+        @Override
+        public String getString() {
+            throw new PuffinBasicInternalError("Can't cast " + type.getAtomTypeId() + " to String");
+        }
+
+        @Override
+        public void setString(String value) {
+            throw new PuffinBasicInternalError("Can't cast String to " + type.getAtomTypeId() + ": '" + value + "'");
+        }
+    }
+
+    static final class STInt32Register extends STRegister {
+
+        STInt32Register(RegisterFile registers) {
+            super(registers, registers.allocateInt32(), ScalarType.INT32);
+        }
+
+        @Override
+        public String printFormat() {
+            return Formatter.printFormatInt32(registers.int32[index]);
+        }
+
+        @Override
+        public String writeFormat() {
+            return Formatter.writeFormatInt32(registers.int32[index]);
+        }
+
+        @Override
+        public void assign(STValue entry) {
+            registers.int32[index] = entry.getInt32();
+        }
+
+        @Override
+        public int getInt32() {
+            return registers.int32[index];
+        }
+
+        @Override
+        public long getInt64() {
+            return registers.int32[index];
+        }
+
+        @Override
+        public float getFloat32() {
+            return registers.int32[index];
+        }
+
+        @Override
+        public double getFloat64() {
+            return registers.int32[index];
+        }
+
+        @Override
+        public int getRoundedInt32() {
+            return registers.int32[index];
+        }
+
+        @Override
+        public long getRoundedInt64() {
+            return registers.int32[index];
+        }
+
+        @Override
+        public void setInt32(int value) {
+            registers.int32[index] = value;
+        }
+
+        @Override
+        public void setInt64(long value) {
+            registers.int32[index] = (int) value;
+        }
+
+        @Override
+        public void setFloat32(float value) {
+            registers.int32[index] = (int) value;
+        }
+
+        @Override
+        public void setFloat64(double value) {
+            registers.int32[index] = (int) value;
+        }
+    }
+
+    static final class STInt64Register extends STRegister {
+
+        STInt64Register(RegisterFile registers) {
+            super(registers, registers.allocateInt64(), ScalarType.INT64);
+        }
+
+        @Override
+        public String printFormat() {
+            return Formatter.printFormatInt64(registers.int64[index]);
+        }
+
+        @Override
+        public String writeFormat() {
+            return Formatter.writeFormatInt64(registers.int64[index]);
+        }
+
+        @Override
+        public void assign(STValue entry) {
+            registers.int64[index] = entry.getInt64();
+        }
+
+        @Override
+        public int getInt32() {
+            return (int) registers.int64[index];
+        }
+
+        @Override
+        public long getInt64() {
+            return registers.int64[index];
+        }
+
+        @Override
+        public float getFloat32() {
+            return registers.int64[index];
+        }
+
+        @Override
+        public double getFloat64() {
+            return registers.int64[index];
+        }
+
+        @Override
+        public int getRoundedInt32() {
+            return (int) registers.int64[index];
+        }
+
+        @Override
+        public long getRoundedInt64() {
+            return registers.int64[index];
+        }
+
+        @Override
+        public void setInt32(int value) {
+            registers.int64[index] = value;
+        }
+
+        @Override
+        public void setInt64(long value) {
+            registers.int64[index] = value;
+        }
+
+        @Override
+        public void setFloat32(float value) {
+            registers.int64[index] = (long) value;
+        }
+
+        @Override
+        public void setFloat64(double value) {
+            registers.int64[index] = (long) value;
+        }
+    }
+
+    static final class STFloat32Register extends STRegister {
+
+        STFloat32Register(RegisterFile registers) {
+            super(registers, registers.allocateFloat32(), ScalarType.FLOAT32);
+        }
+
+        @Override
+        public String printFormat() {
+            return Formatter.printFormatFloat32(registers.float32[index]);
+        }
+
+        @Override
+        public String writeFormat() {
+            return Formatter.writeFormatFloat32(registers.float32[index]);
+        }
+
+        @Override
+        public void assign(STValue entry) {
+            registers.float32[index] = entry.getFloat32();
+        }
+
+        @Override
+        public int getInt32() {
+            return (int) registers.float32[index];
+        }
+
+        @Override
+        public long getInt64() {
+            return (long) registers.float32[index];
+        }
+
+        @Override
+        public float getFloat32() {
+            return registers.float32[index];
+        }
+
+        @Override
+        public double getFloat64() {
+            return registers.float32[index];
+        }
+
+        @Override
+        public int getRoundedInt32() {
+            return Math.round(registers.float32[index]);
+        }
+
+        @Override
+        public long getRoundedInt64() {
+            return Math.round(registers.float32[index]);
+        }
+
+        @Override
+        public void setInt32(int value) {
+            registers.float32[index] = value;
+        }
+
+        @Override
+        public void setInt64(long value) {
+            registers.float32[index] = value;
+        }
+
+        @Override
+        public void setFloat32(float value) {
+            registers.float32[index] = value;
+        }
+
+        @Override
+        public void setFloat64(double value) {
+            registers.float32[index] = (float) value;
+        }
+    }
+
+    static final class STFloat64Register extends STRegister {
+
+        STFloat64Register(RegisterFile registers) {
+            super(registers, registers.allocateFloat64(), ScalarType.FLOAT64);
+        }
+
+        @Override
+        public String printFormat() {
+            return Formatter.printFormatFloat64(registers.float64[index]);
+        }
+
+        @Override
+        public String writeFormat() {
+            return Formatter.writeFormatFloat64(registers.float64[index]);
+        }
+
+        @Override
+        public void assign(STValue entry) {
+            registers.float64[index] = entry.getFloat64();
+        }
+
+        @Override
+        public int getInt32() {
+            return (int) registers.float64[index];
+        }
+
+        @Override
+        public long getInt64() {
+            return (long) registers.float64[index];
+        }
+
+        @Override
+        public float getFloat32() {
+            return (float) registers.float64[index];
+        }
+
+        @Override
+        public double getFloat64() {
+            return registers.float64[index];
+        }
+
+        @Override
+        public int getRoundedInt32() {
+            return (int) Math.round(registers.float64[index]);
+        }
+
+        @Override
+        public long getRoundedInt64() {
+            return Math.round(registers.float64[index]);
+        }
+
+        @Override
+        public void setInt32(int value) {
+            registers.float64[index] = value;
+        }
+
+        @Override
+        public void setInt64(long value) {
+            registers.float64[index] = value;
+        }
+
+        @Override
+        public void setFloat32(float value) {
+            registers.float64[index] = value;
         }
-    }
 
-    static final class STTmp extends AbstractSTEntry {
-        STTmp(STValue value, PuffinBasicType type) {
-            super(value, type);
+        @Override
+        public void setFloat64(double value) {
+            registers.float64[index] = value;
         }
     }
 
@@ -1335,7 +1808,7 @@ public class STObjects {
         }
     }
 
-    public interface STValue {
+    public interface STValue extends Serializable {
         String printFormat();
         String writeFormat();
         void assign(STValue entry);
@@ -1354,6 +1827,9 @@ public class STObjects {
         void setFloat32(float value);
         void setFloat64(double value);
         void setString(String value);
+        default void appendString(String value) {
+            setString(getString() + value);
+        }
         default int getFieldLength() {
             return 0;
         }
@@ -1368,10 +1844,14 @@ public class STObjects {
         default int getNumArrayDimensions() {
             return 0;
         }
-        default void setArrayIndex(int dim, int index) {}
-        default void resetArrayIndex() {}
-        default int getArrayIndex1D() {
-            return 0;
+        default void setArrayReferenceIndex(int index) {
+            throw new PuffinBasicInternalError("Unsupported");
+        }
+        default void setArrayReferenceIndex(int index1, int index2) {
+            throw new PuffinBasicInternalError("Unsupported");
+        }
+        default void setArrayReferenceIndex(int[] indices, int numIndices) {
+            throw new PuffinBasicInternalError("Unsupported");
         }
         default void setArrayReferenceIndex1D(int index1d) {
             throw new PuffinBasicInternalError("Unsupported");
@@ -1397,11 +1877,11 @@ public class STObjects {
             }
         }
         default void setInitialized() {}
-        default void call(String funcName, STValue[] params, STValue result) {
-            throw new PuffinBasicRuntimeError(
-                    BAD_FIELD,
-                    "Function call is not supported: " + funcName
-            );
+        default boolean hasMemberFunctions() {
+            return false;
+        }
+        default void call(int funcIndex, STValue[] params, STValue result) {
+            throw new PuffinBasicInternalError("Member functions are not supported, function#" + funcIndex);
         }
         default boolean hasLen() {
             return false;
@@ -1832,6 +2312,11 @@ public class STObjects {
         private boolean isSet;
         private int fieldLength;
         private String value = "";
+        // Set by in-place appends, value is stale until it's read.
+        private StringBuilder builder;
+        // Volatile, as PARFOR workers read the strings in shared collections concurrently.
+        // It's only written when it changes, appends in a loop only read it.
+        private volatile boolean stale;
 
         @Override
         public boolean isInitialized() {
@@ -1845,20 +2330,17 @@ public class STObjects {
 
         @Override
         public String printFormat() {
-            checkInitialized();
-            return Formatter.printFormatString(value);
+            return Formatter.printFormatString(getString());
         }
 
         @Override
         public String writeFormat() {
-            checkInitialized();
-            return Formatter.writeFormatString(value);
+            return Formatter.writeFormatString(getString());
         }
 
         @Override
         public void assign(STValue entry) {
-            this.isSet = true;
-            this.value = entry.getString();
+            setString(entry.getString());
         }
 
         @Override
@@ -1894,6 +2376,10 @@ public class STObjects {
         @Override
         public String getString() {
             checkInitialized();
+            if (stale) {
+                value = builder.toString();
+                stale = false;
+            }
             return value;
         }
 
@@ -1921,6 +2407,23 @@ public class STObjects {
         public void setString(String value) {
             this.isSet = true;
             this.value = value;
+            this.builder = null;
+            if (stale) {
+                stale = false;
+            }
+        }
+
+        @Override
+        public void appendString(String value) {
+            checkInitialized();
+            if (builder == null) {
+                // Like concatenation, a null string is appended as "null"
+                builder = new StringBuilder().append(this.value);
+            }
+            builder.append(value);
+            if (!stale) {
+                stale = true;
+            }
         }
 
         @Override
@@ -1940,7 +2443,8 @@ public class STObjects {
 
         @Override
         public int len() {
-            return getString().length();
+            checkInitialized();
+            return builder != null ? builder.length() : value.length();
         }
     }
 
@@ -2143,6 +2647,7 @@ public class STObjects {
     static class ArrayReferenceValue implements STValue {
 
         private final STLValue variable;
+        // Index of the referenced element, set by ARRAY_ELEM, the array itself has no index.
         private int index1d;
 
         ArrayReferenceValue(STLValue variable) {
@@ -2153,114 +2658,103 @@ public class STObjects {
             return (AbstractSTArrayValue) variable.getValue();
         }
 
+        @Override
+        public void setArrayReferenceIndex(int index) {
+            this.index1d = getValue().toIndex1D(index);
+        }
+
+        @Override
+        public void setArrayReferenceIndex(int index1, int index2) {
+            this.index1d = getValue().toIndex1D(index1, index2);
+        }
+
+        @Override
+        public void setArrayReferenceIndex(int[] indices, int numIndices) {
+            this.index1d = getValue().toIndex1D(indices, numIndices);
+        }
+
         @Override
         public void setArrayReferenceIndex1D(int index1d) {
             this.index1d = index1d;
         }
 
+        int getArrayReferenceIndex1D() {
+            return index1d;
+        }
+
         @Override
         public String printFormat() {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            return array.printFormat();
+            return getValue().printFormatAt(index1d);
         }
 
         @Override
         public String writeFormat() {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            return array.writeFormat();
+            return getValue().writeFormatAt(index1d);
         }
 
         @Override
         public void assign(STValue entry) {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            array.assign(entry);
+            getValue().assignAt(index1d, entry);
         }
 
         @Override
         public int getInt32() {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            return array.getInt32();
+            return getValue().getInt32At(index1d);
         }
 
         @Override
         public long getInt64() {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            return array.getInt64();
+            return getValue().getInt64At(index1d);
         }
 
         @Override
         public float getFloat32() {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            return array.getFloat32();
+            return getValue().getFloat32At(index1d);
         }
 
         @Override
         public double getFloat64() {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            return array.getFloat64();
+            return getValue().getFloat64At(index1d);
         }
 
         @Override
         public int getRoundedInt32() {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            return array.getRoundedInt32();
+            return getValue().getRoundedInt32At(index1d);
         }
 
         @Override
         public long getRoundedInt64() {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            return array.getRoundedInt64();
+            return getValue().getRoundedInt64At(index1d);
         }
 
         @Override
         public String getString() {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            return array.getString();
+            return getValue().getStringAt(index1d);
         }
 
         @Override
         public void setInt32(int value) {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            array.setInt32(value);
+            getValue().setInt32At(index1d, value);
         }
 
         @Override
         public void setInt64(long value) {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            array.setInt64(value);
+            getValue().setInt64At(index1d, value);
         }
 
         @Override
         public void setFloat32(float value) {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            array.setFloat32(value);
+            getValue().setFloat32At(index1d, value);
         }
 
         @Override
         public void setFloat64(double value) {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            array.setFloat64(value);
+            getValue().setFloat64At(index1d, value);
         }
 
         @Override
         public void setString(String value) {
-            var array = getValue();
-            array.setArrayIndexID(index1d);
-            array.setString(value);
+            getValue().setStringAt(index1d, value);
         }
     }
 
@@ -2268,8 +2762,10 @@ public class STObjects {
 
         private IntList dimensions;
         private int totalLength;
-        private int index1d;
         private int ndim;
+        // Copies of the dimensions, and the number of elements a step in each dimension skips.
+        private int[] dims = new int[0];
+        private int[] strides = new int[0];
 
         @Override
         public void replace(STValue entry) {
@@ -2277,6 +2773,8 @@ public class STObjects {
             dimensions = from.dimensions;
             totalLength = from.totalLength;
             ndim = from.ndim;
+            dims = from.dims;
+            strides = from.strides;
         }
 
         @Override
@@ -2293,9 +2791,12 @@ public class STObjects {
         public void setArrayDimensions(IntList dims) {
             this.dimensions = new IntArrayList(dims);
             this.ndim = dimensions.size();
+            this.dims = dimensions.toIntArray();
+            this.strides = new int[ndim];
             int totalLen = 1;
-            for (int i = 0; i < ndim; i++) {
-                totalLen *= dimensions.getInt(i);
+            for (int i = ndim - 1; i >= 0; i--) {
+                strides[i] = totalLen;
+                totalLen *= this.dims[i];
             }
             totalLength = totalLen;
         }
@@ -2305,37 +2806,154 @@ public class STObjects {
             return dimensions;
         }
 
-        @Override
-        public void resetArrayIndex() {
-            this.index1d = 0;
+        // Index of an element in the elements of the array, missing trailing indices are 0.
+
+        int toIndex1D(int index) {
+            checkIndex(0, index);
+            return index * strides[0];
         }
 
-        @Override
-        public void setArrayIndex(int dim, int index) {
-            if (dim < 0 || dim >= dimensions.size()) {
+        int toIndex1D(int index1, int index2) {
+            checkIndex(0, index1);
+            checkIndex(1, index2);
+            return index1 * strides[0] + index2 * strides[1];
+        }
+
+        int toIndex1D(int[] indices, int numIndices) {
+            int index1d = 0;
+            for (int i = 0; i < numIndices; i++) {
+                checkIndex(i, indices[i]);
+                index1d += indices[i] * strides[i];
+            }
+            return index1d;
+        }
+
+        private void checkIndex(int dim, int index) {
+            if (dim >= ndim) {
                 throw new PuffinBasicRuntimeError(
                         ARRAY_INDEX_OUT_OF_BOUNDS,
-                        "Dimension index " + dim + " is out of range, #dims=" + dimensions.size()
+                        "Dimension index " + dim + " is out of range, #dims=" + ndim
                 );
             }
-            if (index < 0 || index >= dimensions.getInt(dim)) {
+            if (index < 0 || index >= dims[dim]) {
                 throw new PuffinBasicRuntimeError(
                         ARRAY_INDEX_OUT_OF_BOUNDS,
                         "Index " + index + " is out of range for dimension["
-                                + dim + "]=" + dimensions.getInt(dim)
+                                + dim + "]=" + dims[dim]
                 );
             }
-            int dIplus1 = dim + 1 < ndim ? dimensions.getInt(dim + 1) : 1;
-            this.index1d = (this.index1d + index) * dIplus1;
+        }
+
+        // An array sharing the elements of this one.
+        abstract AbstractSTArrayValue newView();
+
+        // Elements are read and written through an ArrayReferenceValue, which holds the index.
+
+        abstract String printFormatAt(int index1d);
+
+        abstract String writeFormatAt(int index1d);
+
+        abstract void assignAt(int index1d, STValue entry);
+
+        abstract int getInt32At(int index1d);
+
+        abstract long getInt64At(int index1d);
+
+        abstract float getFloat32At(int index1d);
+
+        abstract double getFloat64At(int index1d);
+
+        abstract int getRoundedInt32At(int index1d);
+
+        abstract long getRoundedInt64At(int index1d);
+
+        abstract String getStringAt(int index1d);
+
+        abstract void setInt32At(int index1d, int value);
+
+        abstract void setInt64At(int index1d, long value);
+
+        abstract void setFloat32At(int index1d, float value);
+
+        abstract void setFloat64At(int index1d, double value);
+
+        abstract void setStringAt(int index1d, String value);
+
+        // Used as a scalar, an array is its first element.
+
+        @Override
+        public String printFormat() {
+            return printFormatAt(0);
         }
 
         @Override
-        public int getArrayIndex1D() {
-            return index1d;
+        public String writeFormat() {
+            return writeFormatAt(0);
         }
 
-        public void setArrayIndexID(int index1d) {
-            this.index1d = index1d;
+        @Override
+        public void assign(STValue entry) {
+            assignAt(0, entry);
+        }
+
+        @Override
+        public int getInt32() {
+            return getInt32At(0);
+        }
+
+        @Override
+        public long getInt64() {
+            return getInt64At(0);
+        }
+
+        @Override
+        public float getFloat32() {
+            return getFloat32At(0);
+        }
+
+        @Override
+        public double getFloat64() {
+            return getFloat64At(0);
+        }
+
+        @Override
+        public int getRoundedInt32() {
+            return getRoundedInt32At(0);
+        }
+
+        @Override
+        public long getRoundedInt64() {
+            return getRoundedInt64At(0);
+        }
+
+        @Override
+        public String getString() {
+            return getStringAt(0);
+        }
+
+        @Override
+        public void setInt32(int value) {
+            setInt32At(0, value);
+        }
+
+        @Override
+        public void setInt64(long value) {
+            setInt64At(0, value);
+        }
+
+        @Override
+        public void setFloat32(float value) {
+            setFloat32At(0, value);
+        }
+
+        @Override
+        public void setFloat64(double value) {
+            setFloat64At(0, value);
+        }
+
+        @Override
+        public void setString(String value) {
+            setStringAt(0, value);
         }
     }
 
@@ -2343,6 +2961,14 @@ public class STObjects {
 
         private int[] value;
 
+        @Override
+        STInt32ArrayValue newView() {
+            var view = new STInt32ArrayValue();
+            view.replace(this);
+            view.value = value;
+            return view;
+        }
+
         @Override
         public void replace(STValue entry) {
             super.replace(entry);
@@ -2371,77 +2997,77 @@ public class STObjects {
         }
 
         @Override
-        public String printFormat() {
-            return Formatter.printFormatInt32(value[getArrayIndex1D()]);
+        String printFormatAt(int index1d) {
+            return Formatter.printFormatInt32(value[index1d]);
         }
 
         @Override
-        public String writeFormat() {
-            return Formatter.writeFormatInt32(value[getArrayIndex1D()]);
+        String writeFormatAt(int index1d) {
+            return Formatter.writeFormatInt32(value[index1d]);
         }
 
         @Override
-        public void assign(STValue entry) {
-            value[getArrayIndex1D()] = entry.getInt32();
+        void assignAt(int index1d, STValue entry) {
+            value[index1d] = entry.getInt32();
         }
 
         @Override
-        public int getInt32() {
-            return value[getArrayIndex1D()];
+        int getInt32At(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public long getInt64() {
-            return value[getArrayIndex1D()];
+        long getInt64At(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public float getFloat32() {
-            return value[getArrayIndex1D()];
+        float getFloat32At(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public double getFloat64() {
-            return value[getArrayIndex1D()];
+        double getFloat64At(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public int getRoundedInt32() {
-            return value[getArrayIndex1D()];
+        int getRoundedInt32At(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public long getRoundedInt64() {
-            return value[getArrayIndex1D()];
+        long getRoundedInt64At(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public String getString() {
+        String getStringAt(int index1d) {
             throw new PuffinBasicInternalError("Can't cast int32 to String");
         }
 
         @Override
-        public void setInt32(int value) {
-            this.value[getArrayIndex1D()] = value;
+        void setInt32At(int index1d, int value) {
+            this.value[index1d] = value;
         }
 
         @Override
-        public void setInt64(long value) {
-            this.value[getArrayIndex1D()] = (int) value;
+        void setInt64At(int index1d, long value) {
+            this.value[index1d] = (int) value;
         }
 
         @Override
-        public void setFloat32(float value) {
-            this.value[getArrayIndex1D()] = (int) value;
+        void setFloat32At(int index1d, float value) {
+            this.value[index1d] = (int) value;
         }
 
         @Override
-        public void setFloat64(double value) {
-            this.value[getArrayIndex1D()] = (int) value;
+        void setFloat64At(int index1d, double value) {
+            this.value[index1d] = (int) value;
         }
 
         @Override
-        public void setString(String value) {
+        void setStringAt(int index1d, String value) {
             throw new PuffinBasicInternalError("Can't cast String to int32: '" + value + "'");
         }
     }
@@ -2450,6 +3076,14 @@ public class STObjects {
 
         private long[] value;
 
+        @Override
+        STInt64ArrayValue newView() {
+            var view = new STInt64ArrayValue();
+            view.replace(this);
+            view.value = value;
+            return view;
+        }
+
         @Override
         public void fill(Number fill) {
             Arrays.fill(value, fill.longValue());
@@ -2466,77 +3100,77 @@ public class STObjects {
         }
 
         @Override
-        public String printFormat() {
-            return Formatter.printFormatInt64(value[getArrayIndex1D()]);
+        String printFormatAt(int index1d) {
+            return Formatter.printFormatInt64(value[index1d]);
         }
 
         @Override
-        public String writeFormat() {
-            return Formatter.writeFormatInt64(value[getArrayIndex1D()]);
+        String writeFormatAt(int index1d) {
+            return Formatter.writeFormatInt64(value[index1d]);
         }
 
         @Override
-        public void assign(STValue entry) {
-            value[getArrayIndex1D()] = entry.getInt64();
+        void assignAt(int index1d, STValue entry) {
+            value[index1d] = entry.getInt64();
         }
 
         @Override
-        public int getInt32() {
-            return (int) value[getArrayIndex1D()];
+        int getInt32At(int index1d) {
+            return (int) value[index1d];
         }
 
         @Override
-        public long getInt64() {
-            return value[getArrayIndex1D()];
+        long getInt64At(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public float getFloat32() {
-            return value[getArrayIndex1D()];
+        float getFloat32At(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public double getFloat64() {
-            return value[getArrayIndex1D()];
+        double getFloat64At(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public int getRoundedInt32() {
-            return (int) value[getArrayIndex1D()];
+        int getRoundedInt32At(int index1d) {
+            return (int) value[index1d];
         }
 
         @Override
-        public long getRoundedInt64() {
-            return value[getArrayIndex1D()];
+        long getRoundedInt64At(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public String getString() {
+        String getStringAt(int index1d) {
             throw new PuffinBasicInternalError("Can't cast int32 to String");
         }
 
         @Override
-        public void setInt32(int value) {
-            this.value[getArrayIndex1D()] = value;
+        void setInt32At(int index1d, int value) {
+            this.value[index1d] = value;
         }
 
         @Override
-        public void setInt64(long value) {
-            this.value[getArrayIndex1D()] = (int) value;
+        void setInt64At(int index1d, long value) {
+            this.value[index1d] = (int) value;
         }
 
         @Override
-        public void setFloat32(float value) {
-            this.value[getArrayIndex1D()] = (int) value;
+        void setFloat32At(int index1d, float value) {
+            this.value[index1d] = (int) value;
         }
 
         @Override
-        public void setFloat64(double value) {
-            this.value[getArrayIndex1D()] = (int) value;
+        void setFloat64At(int index1d, double value) {
+            this.value[index1d] = (int) value;
         }
 
         @Override
-        public void setString(String value) {
+        void setStringAt(int index1d, String value) {
             throw new PuffinBasicInternalError("Can't cast String to int32: '" + value + "'");
         }
     }
@@ -2545,6 +3179,14 @@ public class STObjects {
 
         private float[] value;
 
+        @Override
+        STFloat32ArrayValue newView() {
+            var view = new STFloat32ArrayValue();
+            view.replace(this);
+            view.value = value;
+            return view;
+        }
+
         @Override
         public void fill(Number fill) {
             Arrays.fill(value, fill.floatValue());
@@ -2561,77 +3203,77 @@ public class STObjects {
         }
 
         @Override
-        public String printFormat() {
-            return Formatter.printFormatFloat32(value[getArrayIndex1D()]);
+        String printFormatAt(int index1d) {
+            return Formatter.printFormatFloat32(value[index1d]);
         }
 
         @Override
-        public String writeFormat() {
-            return Formatter.writeFormatFloat32(value[getArrayIndex1D()]);
+        String writeFormatAt(int index1d) {
+            return Formatter.writeFormatFloat32(value[index1d]);
         }
 
         @Override
-        public void assign(STValue entry) {
-            value[getArrayIndex1D()] = entry.getFloat32();
+        void assignAt(int index1d, STValue entry) {
+            value[index1d] = entry.getFloat32();
         }
 
         @Override
-        public int getInt32() {
-            return (int) value[getArrayIndex1D()];
+        int getInt32At(int index1d) {
+            return (int) value[index1d];
         }
 
         @Override
-        public long getInt64() {
-            return (long) value[getArrayIndex1D()];
+        long getInt64At(int index1d) {
+            return (long) value[index1d];
         }
 
         @Override
-        public float getFloat32() {
-            return value[getArrayIndex1D()];
+        float getFloat32At(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public double getFloat64() {
-            return value[getArrayIndex1D()];
+        double getFloat64At(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public int getRoundedInt32() {
-            return Math.round(value[getArrayIndex1D()]);
+        int getRoundedInt32At(int index1d) {
+            return Math.round(value[index1d]);
         }
 
         @Override
-        public long getRoundedInt64() {
-            return Math.round(value[getArrayIndex1D()]);
+        long getRoundedInt64At(int index1d) {
+            return Math.round(value[index1d]);
         }
 
         @Override
-        public String getString() {
+        String getStringAt(int index1d) {
             throw new PuffinBasicInternalError("Can't cast int32 to String");
         }
 
         @Override
-        public void setInt32(int value) {
-            this.value[getArrayIndex1D()] = value;
+        void setInt32At(int index1d, int value) {
+            this.value[index1d] = value;
         }
 
         @Override
-        public void setInt64(long value) {
-            this.value[getArrayIndex1D()] = (int) value;
+        void setInt64At(int index1d, long value) {
+            this.value[index1d] = (int) value;
         }
 
         @Override
-        public void setFloat32(float value) {
-            this.value[getArrayIndex1D()] = (int) value;
+        void setFloat32At(int index1d, float value) {
+            this.value[index1d] = (int) value;
         }
 
         @Override
-        public void setFloat64(double value) {
-            this.value[getArrayIndex1D()] = (int) value;
+        void setFloat64At(int index1d, double value) {
+            this.value[index1d] = (int) value;
         }
 
         @Override
-        public void setString(String value) {
+        void setStringAt(int index1d, String value) {
             throw new PuffinBasicInternalError("Can't cast String to int32: '" + value + "'");
         }
     }
@@ -2640,6 +3282,14 @@ public class STObjects {
 
         private double[] value;
 
+        @Override
+        STFloat64ArrayValue newView() {
+            var view = new STFloat64ArrayValue();
+            view.replace(this);
+            view.value = value;
+            return view;
+        }
+
         @Override
         public void fill(Number fill) {
             Arrays.fill(value, fill.doubleValue());
@@ -2656,77 +3306,77 @@ public class STObjects {
         }
 
         @Override
-        public String printFormat() {
-            return Formatter.printFormatFloat64(value[getArrayIndex1D()]);
+        String printFormatAt(int index1d) {
+            return Formatter.printFormatFloat64(value[index1d]);
         }
 
         @Override
-        public String writeFormat() {
-            return Formatter.writeFormatFloat64(value[getArrayIndex1D()]);
+        String writeFormatAt(int index1d) {
+            return Formatter.writeFormatFloat64(value[index1d]);
         }
 
         @Override
-        public void assign(STValue entry) {
-            value[getArrayIndex1D()] = entry.getFloat64();
+        void assignAt(int index1d, STValue entry) {
+            value[index1d] = entry.getFloat64();
         }
 
         @Override
-        public int getInt32() {
-            return (int) value[getArrayIndex1D()];
+        int getInt32At(int index1d) {
+            return (int) value[index1d];
         }
 
         @Override
-        public long getInt64() {
-            return (long) value[getArrayIndex1D()];
+        long getInt64At(int index1d) {
+            return (long) value[index1d];
         }
 
         @Override
-        public float getFloat32() {
-            return (float) value[getArrayIndex1D()];
+        float getFloat32At(int index1d) {
+            return (float) value[index1d];
         }
 
         @Override
-        public double getFloat64() {
-            return value[getArrayIndex1D()];
+        double getFloat64At(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public int getRoundedInt32() {
-            return (int) Math.round(value[getArrayIndex1D()]);
+        int getRoundedInt32At(int index1d) {
+            return (int) Math.round(value[index1d]);
         }
 
         @Override
-        public long getRoundedInt64() {
-            return Math.round(value[getArrayIndex1D()]);
+        long getRoundedInt64At(int index1d) {
+            return Math.round(value[index1d]);
         }
 
         @Override
-        public String getString() {
+        String getStringAt(int index1d) {
             throw new PuffinBasicInternalError("Can't cast int32 to String");
         }
 
         @Override
-        public void setInt32(int value) {
-            this.value[getArrayIndex1D()] = value;
+        void setInt32At(int index1d, int value) {
+            this.value[index1d] = value;
         }
 
         @Override
-        public void setInt64(long value) {
-            this.value[getArrayIndex1D()] = (int) value;
+        void setInt64At(int index1d, long value) {
+            this.value[index1d] = (int) value;
         }
 
         @Override
-        public void setFloat32(float value) {
-            this.value[getArrayIndex1D()] = (int) value;
+        void setFloat32At(int index1d, float value) {
+            this.value[index1d] = (int) value;
         }
 
         @Override
-        public void setFloat64(double value) {
-            this.value[getArrayIndex1D()] = (int) value;
+        void setFloat64At(int index1d, double value) {
+            this.value[index1d] = (int) value;
         }
 
         @Override
-        public void setString(String value) {
+        void setStringAt(int index1d, String value) {
             throw new PuffinBasicInternalError("Can't cast String to int32: '" + value + "'");
         }
     }
@@ -2735,6 +3385,14 @@ public class STObjects {
 
         private String[] value;
 
+        @Override
+        STStringArrayValue newView() {
+            var view = new STStringArrayValue();
+            view.replace(this);
+            view.value = value;
+            return view;
+        }
+
         @Override
         public void fillString(String fill) {
             Arrays.fill(value, fill);
@@ -2752,78 +3410,78 @@ public class STObjects {
         }
 
         @Override
-        public String printFormat() {
-            return Formatter.printFormatString(value[getArrayIndex1D()]);
+        String printFormatAt(int index1d) {
+            return Formatter.printFormatString(value[index1d]);
         }
 
         @Override
-        public String writeFormat() {
-            return Formatter.writeFormatString(value[getArrayIndex1D()]);
+        String writeFormatAt(int index1d) {
+            return Formatter.writeFormatString(value[index1d]);
         }
 
         @Override
-        public void assign(STValue entry) {
-            value[getArrayIndex1D()] = entry.getString();
+        void assignAt(int index1d, STValue entry) {
+            value[index1d] = entry.getString();
         }
 
         @Override
-        public int getInt32() {
+        int getInt32At(int index1d) {
             throw new PuffinBasicInternalError("Can't cast String to int32");
         }
 
         @Override
-        public long getInt64() {
+        long getInt64At(int index1d) {
             throw new PuffinBasicInternalError("Can't cast String to int64");
         }
 
         @Override
-        public float getFloat32() {
+        float getFloat32At(int index1d) {
             throw new PuffinBasicInternalError("Can't cast String to float32");
         }
 
         @Override
-        public double getFloat64() {
+        double getFloat64At(int index1d) {
             throw new PuffinBasicInternalError("Can't cast String to float64");
         }
 
         @Override
-        public int getRoundedInt32() {
+        int getRoundedInt32At(int index1d) {
             throw new PuffinBasicInternalError("Can't cast String to int32");
         }
 
         @Override
-        public long getRoundedInt64() {
+        long getRoundedInt64At(int index1d) {
             throw new PuffinBasicInternalError("Can't cast String to int64");
         }
 
         @Override
-        public String getString() {
-            return value[getArrayIndex1D()];
+        String getStringAt(int index1d) {
+            return value[index1d];
         }
 
         @Override
-        public void setInt32(int value) {
+        void setInt32At(int index1d, int value) {
             throw new PuffinBasicInternalError("Can't cast int32 to String");
         }
 
         @Override
-        public void setInt64(long value) {
+        void setInt64At(int index1d, long value) {
             throw new PuffinBasicInternalError("Can't cast int64 to String");
         }
 
         @Override
-        public void setFloat32(float value) {
+        void setFloat32At(int index1d, float value) {
             throw new PuffinBasicInternalError("Can't cast float32 to String");
         }
 
         @Override
-        public void setFloat64(double value) {
+        void setFloat64At(int index1d, double value) {
             throw new PuffinBasicInternalError("Can't cast float64 to String");
         }
 
         @Override
-        public void setString(String value) {
-            this.value[getArrayIndex1D()] = value;
+        void setStringAt(int index1d, String value) {
+            this.value[index1d] = value;
         }
     }
 
@@ -2916,17 +3574,23 @@ public class STObjects {
     }
 
     static final class STList extends STCompositeValue {
-        private final List<Object> list;
-        private final MemberFunctions memberFunctions;
+        private final ListStorage list;
+        private final ListType listType;
+
+        STList(ListType listType) {
+            super(PuffinBasicTypeId.LIST, listType.type.getAtomTypeId());
+            this.listType = listType;
+            this.list = STCollections.newList(listType.type);
+        }
 
-        STList(PuffinBasicType type, MemberFunctions memberFunctions) {
-            super(PuffinBasicTypeId.LIST, type.getAtomTypeId());
-            this.memberFunctions = memberFunctions;
-            this.list = new ArrayList<>();
+        @Override
+        public boolean hasMemberFunctions() {
+            return true;
         }
 
-        public void call(String funcName, STValue[] params, STValue result) {
-            memberFunctions.get(funcName).callHandler.call(list, params, result);
+        @Override
+        public void call(int funcIndex, STValue[] params, STValue result) {
+            listType.memberFunctions.get(funcIndex).callHandler.call(list, params, result);
         }
 
         @Override
@@ -2941,17 +3605,23 @@ public class STObjects {
     }
 
     static final class STSet extends STCompositeValue {
-        private final ObjectSet<Object> set;
-        private final MemberFunctions memberFunctions;
+        private final SetStorage set;
+        private final SetType setType;
+
+        STSet(SetType setType) {
+            super(PuffinBasicTypeId.SET, setType.type.getAtomTypeId());
+            this.setType = setType;
+            this.set = STCollections.newSet(setType.type);
+        }
 
-        STSet(PuffinBasicType type, MemberFunctions memberFunctions) {
-            super(PuffinBasicTypeId.SET, type.getAtomTypeId());
-            this.memberFunctions = memberFunctions;
-            this.set = new ObjectOpenHashSet<>();
+        @Override
+        public boolean hasMemberFunctions() {
+            return true;
         }
 
-        public void call(String funcName, STValue[] params, STValue result) {
-            memberFunctions.get(funcName).callHandler.call(set, params, result);
+        @Override
+        public void call(int funcIndex, STValue[] params, STValue result) {
+            setType.memberFunctions.get(funcIndex).callHandler.call(set, params, result);
         }
 
         @Override
@@ -2966,17 +3636,23 @@ public class STObjects {
     }
 
     static final class STDict extends STCompositeValue {
-        private final Object2ObjectMap<Object, Object> dict;
-        private final MemberFunctions memberFunctions;
+        private final DictStorage dict;
+        private final DictType dictType;
+
+        STDict(DictType dictType) {
+            super(PuffinBasicTypeId.DICT, dictType.valueType.getAtomTypeId());
+            this.dictType = dictType;
+            this.dict = STCollections.newDict(dictType.keyType, dictType.valueType);
+        }
 
-        STDict(PuffinBasicType valueType, MemberFunctions memberFunctions) {
-            super(PuffinBasicTypeId.DICT, valueType.getAtomTypeId());
-            this.memberFunctions = memberFunctions;
-            this.dict = new Object2ObjectOpenHashMap<>();
+        @Override
+        public boolean hasMemberFunctions() {
+            return true;
         }
 
-        public void call(String funcName, STValue[] params, STValue result) {
-            memberFunctions.get(funcName).callHandler.call(dict, params, result);
+        @Override
+        public void call(int funcIndex, STValue[] params, STValue result) {
+            dictType.memberFunctions.get(funcIndex).callHandler.call(dict, params, result);
         }
 
         @Override
@@ -2990,24 +3666,58 @@ public class STObjects {
         }
     }
 
+    static final class STStringBuilder extends STCompositeValue {
+        private final StringBuilder sb;
+        private final StringBuilderType sbType;
+
+        STStringBuilder(StringBuilderType sbType) {
+            super(PuffinBasicTypeId.STRINGBUILDER, PuffinBasicAtomTypeId.STRING);
+            this.sbType = sbType;
+            this.sb = new StringBuilder();
+        }
+
+        @Override
+        public boolean hasMemberFunctions() {
+            return true;
+        }
+
+        @Override
+        public void call(int funcIndex, STValue[] params, STValue result) {
+            sbType.memberFunctions.get(funcIndex).callHandler.call(sb, params, result);
+        }
+
+        @Override
+        public boolean hasLen() {
+            return true;
+        }
+
+        @Override
+        public int len() {
+            return sb.length();
+        }
+    }
+
+    // Members are entries of the instance, indexed by their member ref id,
+    // so they are not in the symbol table and are collected with the instance.
     public static final class STStruct extends STCompositeValue {
         private final StructType structType;
-        private final Int2IntMap memberRefIdToValueId;
+        private final STEntry[] members;
 
         STStruct(PuffinBasicSymbolTable symbolTable, StructType type) {
             super(PuffinBasicTypeId.STRUCT, PuffinBasicAtomTypeId.COMPOSITE);
             this.structType = type;
-            this.memberRefIdToValueId = new Int2IntOpenHashMap();
-            for (var entry : structType.nameToRefIdMap.object2IntEntrySet()) {
-                var memberRefId = entry.getIntValue();
-                var valueType = structType.refIdToTypeMap.get(memberRefId);
-                var valueId = symbolTable.addTmp(valueType, e -> e.getValue().setInitialized());
-                this.memberRefIdToValueId.put(memberRefId, valueId);
+            this.members = new STEntry[type.getNumMembers()];
+            for (int i = 0; i < members.length; i++) {
+                var valueType = type.refIdToTypeMap.get(i);
+                var member = valueType.canBeLValue() ? new STLValue(null, valueType) : new STTmp(null, valueType);
+                member.createAndSetInstance(symbolTable);
+                member.getValue().setInitialized();
+                members[i] = member;
             }
         }
 
-        public int getMember(int memberRefId) {
-            return memberRefIdToValueId.getOrDefault(memberRefId, NULL_ID);
+        public STEntry getMember(int memberRefId) {
+            return members[memberRefId];
         }
 
         @Override
@@ -3025,8 +3735,7 @@ public class STObjects {
                         "Expected struct " + structType + ", but found " + other.structType
                 );
             }
-            this.memberRefIdToValueId.clear();
-            this.memberRefIdToValueId.putAll(((STStruct) entry).memberRefIdToValueId);
+            System.arraycopy(other.members, 0, members, 0, members.length);
         }
     }
 }
@@ -6,13 +6,15 @@ import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.puffinbasic.domain.STObjects.STEntry;
 import org.puffinbasic.domain.Variable.VariableName;
+import org.puffinbasic.error.PuffinBasicInternalError;
+
+import java.io.Serializable;
 
 import static org.puffinbasic.domain.PuffinBasicSymbolTable.NULL_ID;
 
-public interface Scope {
+public interface Scope extends Serializable {
 
-    int getCallerInstrId();
-    Scope createRuntimeScope(int callerInstrId);
+    FrameLayout getFrameLayout();
     Scope createChild(int funcId, boolean localScope);
     Scope getChild(int funcId);
     Scope getSearchScope();
@@ -26,7 +28,6 @@ public interface Scope {
 
     final class GlobalScope implements Scope {
         private static final int INITIAL_ENTRY_TABLE_SIZE = 1024;
-        private final int callerInstrId;
         private final Int2ObjectMap<Scope> funcIdToScope;
         // This is an optimization to make entry access fast at runtime.
         //private final ObjectList<STEntry> entryMap;
@@ -34,36 +35,14 @@ public interface Scope {
         private final Object2IntMap<VariableName> variableNameToEntry;
 
         GlobalScope() {
-            this(
-                    NULL_ID,
-                    new Int2ObjectOpenHashMap<>(),
-                    new STEntry[INITIAL_ENTRY_TABLE_SIZE],
-                    new Object2IntOpenHashMap<>());
-        }
-
-        private GlobalScope(
-                int callerInstrId,
-                Int2ObjectMap<Scope> funcIdToScope,
-                STEntry[] entryMap,
-                Object2IntMap<VariableName> variableNameToEntry) {
-            this.callerInstrId = callerInstrId;
-            this.funcIdToScope = funcIdToScope;
-            this.entryMap = entryMap;
-            this.variableNameToEntry = variableNameToEntry;
-        }
-
-        @Override
-        public Scope createRuntimeScope(int callerInstrId) {
-            return new GlobalScope(
-                    callerInstrId,
-                    funcIdToScope,
-                    entryMap,
-                    variableNameToEntry);
+            this.funcIdToScope = new Int2ObjectOpenHashMap<>();
+            this.entryMap = new STEntry[INITIAL_ENTRY_TABLE_SIZE];
+            this.variableNameToEntry = new Object2IntOpenHashMap<>();
         }
 
         @Override
-        public int getCallerInstrId() {
-            return callerInstrId;
+        public FrameLayout getFrameLayout() {
+            throw new PuffinBasicInternalError("Global scope doesn't have a frame");
         }
 
         @Override
@@ -143,47 +122,22 @@ public interface Scope {
 
     final class ChildScope implements Scope {
         private final Scope parent;
-        private final int callerInstrId;
         private final Int2ObjectMap<Scope> funcIdToScope;
         private final Int2ObjectMap<STEntry> entryMap;
         private final Object2IntMap<VariableName> variableNameToEntry;
+        private final FrameLayout frameLayout;
 
         ChildScope(Scope parent) {
-            this(parent,
-                    NULL_ID,
-                    new Int2ObjectOpenHashMap<>(),
-                    new Int2ObjectOpenHashMap<>(),
-                    new Object2IntOpenHashMap<>());
-        }
-
-        private ChildScope(
-                Scope parent,
-                int callerInstrId,
-                Int2ObjectMap<Scope> funcIdToScope,
-                Int2ObjectMap<STEntry> entryMap,
-                Object2IntMap<VariableName> variableNameToEntry)
-        {
             this.parent = parent;
-            this.callerInstrId = callerInstrId;
-            this.funcIdToScope = funcIdToScope;
-            this.entryMap = entryMap;
-            this.variableNameToEntry = variableNameToEntry;
+            this.funcIdToScope = new Int2ObjectOpenHashMap<>();
+            this.entryMap = new Int2ObjectOpenHashMap<>();
+            this.variableNameToEntry = new Object2IntOpenHashMap<>();
+            this.frameLayout = new FrameLayout();
         }
 
         @Override
-        public Scope createRuntimeScope(int callerInstrId) {
-            return new ChildScope(
-                    parent,
-                    callerInstrId,
-                    new Int2ObjectOpenHashMap<>(funcIdToScope),
-                    new Int2ObjectOpenHashMap<>(entryMap),
-                    new Object2IntOpenHashMap<>(variableNameToEntry)
-            );
-        }
-
-        @Override
-        public int getCallerInstrId() {
-            return callerInstrId;
+        public FrameLayout getFrameLayout() {
+            return frameLayout;
         }
 
         @Override
@@ -229,6 +183,7 @@ public interface Scope {
         @Override
         public void putEntry(int id, STEntry entry) {
             entryMap.put(id, entry);
+            frameLayout.addSlot(id, entry);
         }
 
         @Override
@@ -244,47 +199,22 @@ public interface Scope {
 
     final class LocalScope implements Scope {
         private final Scope parent;
-        private final int callerInstrId;
         private final Int2ObjectMap<Scope> funcIdToScope;
         private final Int2ObjectMap<STEntry> entryMap;
         private final Object2IntMap<VariableName> variableNameToEntry;
+        private final FrameLayout frameLayout;
 
         LocalScope(Scope parent) {
-            this(parent,
-                    NULL_ID,
-                    new Int2ObjectOpenHashMap<>(),
-                    new Int2ObjectOpenHashMap<>(),
-                    new Object2IntOpenHashMap<>());
-        }
-
-        private LocalScope(
-                Scope parent,
-                int callerInstrId,
-                Int2ObjectMap<Scope> funcIdToScope,
-                Int2ObjectMap<STEntry> entryMap,
-                Object2IntMap<VariableName> variableNameToEntry)
-        {
             this.parent = parent;
-            this.callerInstrId = callerInstrId;
-            this.funcIdToScope = funcIdToScope;
-            this.entryMap = entryMap;
-            this.variableNameToEntry = variableNameToEntry;
-        }
-
-        @Override
-        public Scope createRuntimeScope(int callerInstrId) {
-            return new LocalScope(
-                    parent,
-                    callerInstrId,
-                    new Int2ObjectOpenHashMap<>(funcIdToScope),
-                    new Int2ObjectOpenHashMap<>(entryMap),
-                    new Object2IntOpenHashMap<>(variableNameToEntry)
-            );
+            this.funcIdToScope = new Int2ObjectOpenHashMap<>();
+            this.entryMap = new Int2ObjectOpenHashMap<>();
+            this.variableNameToEntry = new Object2IntOpenHashMap<>();
+            this.frameLayout = new FrameLayout();
         }
 
         @Override
-        public int getCallerInstrId() {
-            return callerInstrId;
+        public FrameLayout getFrameLayout() {
+            return frameLayout;
         }
 
         @Override
@@ -330,6 +260,7 @@ public interface Scope {
         @Override
         public void putEntry(int id, STEntry entry) {
             entryMap.put(id, entry);
+            frameLayout.addSlot(id, entry);
         }
 
         @Override
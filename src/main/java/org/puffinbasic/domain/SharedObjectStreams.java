@@ -0,0 +1,84 @@
+package org.puffinbasic.domain;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Object streams which write shared objects as their index in a list instead of
+ * serializing them, so that all copies read from the stream refer to the same objects.
+ */
+public final class SharedObjectStreams {
+
+    private SharedObjectStreams() {}
+
+    private static final class SharedRef implements Serializable {
+        final int index;
+
+        SharedRef(int index) {
+            this.index = index;
+        }
+    }
+
+    public static final class ReplacingOutputStream extends ObjectOutputStream {
+        private final Predicate<Object> isShared;
+        private final List<Object> shared;
+        private final IdentityHashMap<Object, SharedRef> refs;
+
+        // Objects matching isShared are added to shared.
+        public ReplacingOutputStream(OutputStream out, Predicate<Object> isShared, List<Object> shared)
+                throws IOException
+        {
+            super(out);
+            this.isShared = isShared;
+            this.shared = shared;
+            this.refs = new IdentityHashMap<>();
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            if (isShared.test(obj)) {
+                return refs.computeIfAbsent(obj, o -> {
+                    shared.add(o);
+                    return new SharedRef(shared.size() - 1);
+                });
+            }
+            return obj;
+        }
+    }
+
+    public static final class ResolvingInputStream extends ObjectInputStream {
+        private final Object[] shared;
+        private final Function<Object, Object> resolve;
+
+        // A shared object is read as resolve(object), once per copy.
+        public ResolvingInputStream(InputStream in, Object[] shared, Function<Object, Object> resolve)
+                throws IOException
+        {
+            super(in);
+            this.shared = shared;
+            this.resolve = resolve;
+            enableResolveObject(true);
+        }
+
+        public ResolvingInputStream(InputStream in, Object[] shared) throws IOException {
+            this(in, shared, Function.identity());
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) {
+            if (obj instanceof SharedRef) {
+                return resolve.apply(shared[((SharedRef) obj).index]);
+            }
+            return obj;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.puffinbasic.domain;
+
+import org.puffinbasic.domain.STObjects.AbstractSTArrayValue;
+import org.puffinbasic.domain.STObjects.STDict;
+import org.puffinbasic.domain.STObjects.STList;
+import org.puffinbasic.domain.STObjects.STSet;
+import org.puffinbasic.domain.STObjects.STStringBuilder;
+import org.puffinbasic.domain.SharedObjectStreams.ReplacingOutputStream;
+import org.puffinbasic.domain.SharedObjectStreams.ResolvingInputStream;
+import org.puffinbasic.error.PuffinBasicInternalError;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A serialized copy of a running symbol table, from which the workers of a PARFOR
+ * get private copies of all entries. Arrays are not copied, the arrays of a copy
+ * share their elements with the symbol table. LISTs, SETs, DICTs and STRINGBUILDERs
+ * are not copied either, they are shared as is, the PARFOR body can only read them.
+ */
+public final class SymbolTableSnapshot {
+
+    private final byte[] serialized;
+    private final Object[] shared;
+
+    private SymbolTableSnapshot(byte[] serialized, Object[] shared) {
+        this.serialized = serialized;
+        this.shared = shared;
+    }
+
+    private static boolean isShared(Object obj) {
+        return obj instanceof AbstractSTArrayValue
+                || obj instanceof STList
+                || obj instanceof STSet
+                || obj instanceof STDict
+                || obj instanceof STStringBuilder;
+    }
+
+    private static Object resolve(Object obj) {
+        return obj instanceof AbstractSTArrayValue ? ((AbstractSTArrayValue) obj).newView() : obj;
+    }
+
+    public static SymbolTableSnapshot of(PuffinBasicSymbolTable symbolTable) {
+        var shared = new ArrayList<>();
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new ReplacingOutputStream(bytes, SymbolTableSnapshot::isShared, shared)) {
+            out.writeObject(symbolTable);
+        } catch (IOException e) {
+            throw new PuffinBasicInternalError("Failed to snapshot the symbol table: " + e.getMessage());
+        }
+        return new SymbolTableSnapshot(bytes.toByteArray(), shared.toArray());
+    }
+
+    public PuffinBasicSymbolTable newCopy() {
+        // Each copy gets one view of each array
+        try (var in = new ResolvingInputStream(
+                new ByteArrayInputStream(serialized), shared, SymbolTableSnapshot::resolve))
+        {
+            return (PuffinBasicSymbolTable) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new PuffinBasicInternalError("Failed to copy the symbol table: " + e.getMessage());
+        }
+    }
+}
@@ -18,6 +18,7 @@ public class PuffinBasicSemanticError extends RuntimeException {
         MISMATCHED_ENDIF,
         MISMATCHED_ELSEBEGIN,
         BAD_FUNCTION_DEF,
+        BAD_PARFOR,
     }
 
     public PuffinBasicSemanticError(
@@ -7,6 +7,7 @@ import org.jetbrains.annotations.Nullable;
 public interface PuffinBasicFile {
 
     int DEFAULT_RECORD_LEN = 128;
+    int DEFAULT_OUTPUT_BUFFER_SIZE = 64 * 1024;
 
     void setFieldParams(
             PuffinBasicSymbolTable symbolTable,
@@ -17,6 +18,10 @@ public interface PuffinBasicFile {
 
     long getFileSizeInBytes();
 
+    long getBytesRead();
+
+    long getBytesWritten();
+
     String readLine();
 
     byte[] readBytes(int n);
@@ -25,6 +30,14 @@ public interface PuffinBasicFile {
 
     void writeByte(byte b);
 
+    void write(byte[] bytes, int offset, int length);
+
+    // Writes out the buffered output, if any.
+    default void flush() {}
+
+    // Called before the program waits (SLEEP, INKEY$ and repaints), so that its output is shown.
+    default void flushBeforeWait() {}
+
     boolean eof();
 
     void put(@Nullable Integer recordNumber, PuffinBasicSymbolTable symbolTable);
@@ -67,4 +80,15 @@ public interface PuffinBasicFile {
         OPEN,
         CLOSED
     }
+
+    // When the buffered output to stdout is written out and flushed.
+    enum FlushPolicy {
+        // After each line
+        LINE,
+        // When the buffer is full, and before the program waits
+        SIZE,
+        // Only before reading stdin and when the program ends,
+        // a full buffer is written out without being flushed.
+        EXPLICIT
+    }
 }
@@ -1,21 +1,39 @@
 package org.puffinbasic.file;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import org.puffinbasic.error.PuffinBasicRuntimeError;
 import org.puffinbasic.file.PuffinBasicFile.FileAccessMode;
 import org.puffinbasic.file.PuffinBasicFile.FileOpenMode;
 
+import java.nio.file.Path;
+
 import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.ILLEGAL_FILE_ACCESS;
 
 public class PuffinBasicFiles {
 
     public final PuffinBasicFile sys;
-    private final Int2ObjectMap<PuffinBasicFile> files;
+    // Directory relative file names are resolved against, null for the working directory.
+    private final Path directory;
+    // Buffer size of files opened for OUTPUT or APPEND
+    private final int outputBufferSize;
+    // Copied on open, so that it can be read by another thread (runtime metrics).
+    private volatile Int2ObjectMap<PuffinBasicFile> files;
 
     public PuffinBasicFiles(PuffinBasicFile sys) {
+        this(sys, null);
+    }
+
+    public PuffinBasicFiles(PuffinBasicFile sys, Path directory) {
+        this(sys, directory, PuffinBasicFile.DEFAULT_OUTPUT_BUFFER_SIZE);
+    }
+
+    public PuffinBasicFiles(PuffinBasicFile sys, Path directory, int outputBufferSize) {
         this.files = new Int2ObjectOpenHashMap<>();
         this.sys = sys;
+        this.directory = directory;
+        this.outputBufferSize = outputBufferSize;
     }
 
     public PuffinBasicFile open(
@@ -26,6 +44,9 @@ public class PuffinBasicFiles {
             int recordLen)
     {
         assertPositiveFileNumber(fileNumber);
+        if (directory != null) {
+            filename = directory.resolve(filename).toString();
+        }
         PuffinBasicFile file;
         if (openMode == FileOpenMode.RANDOM) {
             file = new PuffinBasicRandomAccessFile(
@@ -36,9 +57,9 @@ public class PuffinBasicFiles {
         } else if (openMode == FileOpenMode.INPUT) {
             file = new PuffinBasicSequentialAccessInputFile(filename);
         } else if (openMode == FileOpenMode.OUTPUT) {
-            file = new PuffinBasicSequentialAccessOutputFile(filename, false);
+            file = new PuffinBasicSequentialAccessOutputFile(filename, false, outputBufferSize);
         } else {
-            file = new PuffinBasicSequentialAccessOutputFile(filename, true);
+            file = new PuffinBasicSequentialAccessOutputFile(filename, true, outputBufferSize);
         }
 
         var existing = files.get(fileNumber);
@@ -51,7 +72,9 @@ public class PuffinBasicFiles {
             );
         }
 
-        files.put(fileNumber, file);
+        var updated = new Int2ObjectOpenHashMap<>(files);
+        updated.put(fileNumber, file);
+        files = updated;
         return file;
     }
 
@@ -76,11 +99,17 @@ public class PuffinBasicFiles {
         return file;
     }
 
+    // File number -> file, of the files opened so far.
+    public Int2ObjectMap<PuffinBasicFile> getFiles() {
+        return Int2ObjectMaps.unmodifiable(files);
+    }
+
     public void closeAll() {
         for (var file : files.values()) {
             if (file.isOpen()) {
                 file.close();
             }
         }
+        sys.flush();
     }
 }
@@ -29,6 +29,8 @@ public class PuffinBasicRandomAccessFile implements PuffinBasicFile {
     private long currentFilePosBytes;
     private int lastGetRecordNumber;
     private int lastPutRecordNumber;
+    private long bytesRead;
+    private long bytesWritten;
     private FileState fileState;
 
     public PuffinBasicRandomAccessFile(
@@ -109,6 +111,16 @@ public class PuffinBasicRandomAccessFile implements PuffinBasicFile {
         }
     }
 
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
     @Override
     public boolean eof() {
         return currentFilePosBytes >= getFileSizeInBytes();
@@ -155,6 +167,7 @@ public class PuffinBasicRandomAccessFile implements PuffinBasicFile {
         // Write the record buffer to file
         try {
             file.write(recordBuffer);
+            bytesWritten += recordBuffer.length;
         } catch (IOException e) {
             throw new PuffinBasicRuntimeError(
                     IO_ERROR,
@@ -184,6 +197,7 @@ public class PuffinBasicRandomAccessFile implements PuffinBasicFile {
         // Seek to record number and read the record into record buffer
         try {
             file.readFully(recordBuffer);
+            bytesRead += recordBuffer.length;
         } catch (IOException e) {
             throw new PuffinBasicRuntimeError(
                     IO_ERROR,
@@ -293,4 +307,12 @@ public class PuffinBasicRandomAccessFile implements PuffinBasicFile {
                 "Not implemented for RandomAccessFile!"
         );
     }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        throw new PuffinBasicRuntimeError(
+                ILLEGAL_FILE_ACCESS,
+                "Not implemented for RandomAccessFile!"
+        );
+    }
 }
@@ -63,6 +63,16 @@ public class PuffinBasicSequentialAccessInputFile implements PuffinBasicFile {
         return new File(filename).length();
     }
 
+    @Override
+    public long getBytesRead() {
+        return bytesAccessed;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return 0;
+    }
+
     @Override
     public String readLine() {
         assertOpen();
@@ -104,6 +114,11 @@ public class PuffinBasicSequentialAccessInputFile implements PuffinBasicFile {
         throwIllegalAccess();
     }
 
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        throwIllegalAccess();
+    }
+
     @Override
     public boolean eof() {
         assertOpen();
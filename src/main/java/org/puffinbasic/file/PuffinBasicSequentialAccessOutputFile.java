@@ -25,6 +25,12 @@ public class PuffinBasicSequentialAccessOutputFile implements PuffinBasicFile {
 
     public PuffinBasicSequentialAccessOutputFile(
             @NotNull String filename, boolean append)
+    {
+        this(filename, append, PuffinBasicFile.DEFAULT_OUTPUT_BUFFER_SIZE);
+    }
+
+    public PuffinBasicSequentialAccessOutputFile(
+            @NotNull String filename, boolean append, int bufferSize)
     {
         Preconditions.checkNotNull(filename);
 
@@ -32,7 +38,7 @@ public class PuffinBasicSequentialAccessOutputFile implements PuffinBasicFile {
         this.bytesAccessed = 0;
 
         try {
-            this.out = new PrintStream(new BufferedOutputStream(new FileOutputStream(filename, append)));
+            this.out = new PrintStream(new BufferedOutputStream(new FileOutputStream(filename, append), bufferSize));
         } catch (FileNotFoundException e) {
             throw new PuffinBasicRuntimeError(
                     IO_ERROR,
@@ -59,6 +65,16 @@ public class PuffinBasicSequentialAccessOutputFile implements PuffinBasicFile {
         return 0;
     }
 
+    @Override
+    public long getBytesRead() {
+        return 0;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesAccessed;
+    }
+
     @Override
     public String readLine() {
         throw getIllegalAccess();
@@ -88,6 +104,19 @@ public class PuffinBasicSequentialAccessOutputFile implements PuffinBasicFile {
         }
     }
 
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        bytesAccessed += length;
+        try {
+            out.write(bytes, offset, length);
+        } catch (Exception e) {
+            throw new PuffinBasicRuntimeError(
+                    IO_ERROR,
+                    "Failed to write buffer to output, error: " + e.getMessage()
+            );
+        }
+    }
+
     @Override
     public boolean eof() {
         return false;
@@ -17,15 +17,26 @@ import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.IO_ERROR;
 
 public class SystemInputOutputFile implements PuffinBasicFile {
 
+    private static final byte NEWLINE = (byte) '\n';
     private final BufferedReader in;
     private final PrintStream out;
+    private final FlushPolicy flushPolicy;
+    // Output not yet written to out
+    private final byte[] buffer;
+    private int count;
+    private long bytesRead;
+    private long bytesWritten;
 
     public SystemInputOutputFile(
             InputStream in,
-            PrintStream out)
+            PrintStream out,
+            int bufferSize,
+            FlushPolicy flushPolicy)
     {
         this.in = new BufferedReader(new InputStreamReader(in));
         this.out = out;
+        this.flushPolicy = flushPolicy;
+        this.buffer = new byte[bufferSize];
     }
 
     @Override
@@ -46,8 +57,19 @@ public class SystemInputOutputFile implements PuffinBasicFile {
         return 0;
     }
 
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
     @Override
     public byte[] readBytes(int n) {
+        flush();
         byte[] line = readLine().getBytes(StandardCharsets.US_ASCII);
         if (n >= line.length) {
             return line;
@@ -60,8 +82,11 @@ public class SystemInputOutputFile implements PuffinBasicFile {
 
     @Override
     public String readLine() {
+        flush();
         try {
-            return in.readLine().stripTrailing();
+            var line = in.readLine();
+            bytesRead += line.length();
+            return line.stripTrailing();
         } catch (IOException e) {
             throw new PuffinBasicRuntimeError(
                     IO_ERROR,
@@ -72,13 +97,67 @@ public class SystemInputOutputFile implements PuffinBasicFile {
 
     @Override
     public void print(String s) {
+        writeBuffer();
+        bytesWritten += s.length();
         out.print(s);
     }
 
     @Override
     public void writeByte(byte b) {
+        bytesWritten++;
+        boolean full = count == buffer.length;
+        if (full) {
+            writeBuffer();
+        }
+        buffer[count++] = b;
+        afterWrite(full, b == NEWLINE);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        bytesWritten += length;
+        boolean full = count + length > buffer.length;
+        if (full) {
+            writeBuffer();
+        }
+        if (length > buffer.length) {
+            writeOut(bytes, offset, length);
+        } else {
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+        afterWrite(full, length > 0 && bytes[offset + length - 1] == NEWLINE);
+    }
+
+    private void afterWrite(boolean full, boolean endsWithNewline) {
+        if (flushPolicy == FlushPolicy.LINE ? endsWithNewline : full && flushPolicy == FlushPolicy.SIZE) {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() {
+        writeBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void flushBeforeWait() {
+        if (count > 0 && flushPolicy != FlushPolicy.EXPLICIT) {
+            flush();
+        }
+    }
+
+    private void writeBuffer() {
+        if (count > 0) {
+            writeOut(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void writeOut(byte[] bytes, int offset, int length) {
         try {
-            out.write((char) b);
+            out.write(bytes, offset, length);
         } catch (Exception e) {
             throw new PuffinBasicRuntimeError(
                     IO_ERROR,
@@ -11,7 +11,9 @@ import org.puffinbasic.antlr4.PuffinBasicParser;
 import org.puffinbasic.error.PuffinBasicRuntimeError;
 import org.puffinbasic.error.PuffinBasicSyntaxError;
 
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -29,6 +31,7 @@ public class LinenumberListener extends PuffinBasicBaseListener {
     private final CharStream input;
     private final ThrowOnDuplicate throwOnDuplicate;
     private final Int2ObjectSortedMap<String> sortedLines;
+    private final Int2ObjectSortedMap<PuffinBasicParser.LineContext> sortedLineContexts;
     private final Set<String> importFiles;
     private int numLinenum;
     private int numNoLinenum;
@@ -43,6 +46,7 @@ public class LinenumberListener extends PuffinBasicBaseListener {
         this.input = Preconditions.checkNotNull(input);
         this.throwOnDuplicate = Preconditions.checkNotNull(throwOnDuplicate);
         this.sortedLines = new Int2ObjectAVLTreeMap<>();
+        this.sortedLineContexts = new Int2ObjectAVLTreeMap<>();
         this.importFiles = new LinkedHashSet<>();
     }
 
@@ -55,6 +59,13 @@ public class LinenumberListener extends PuffinBasicBaseListener {
         return String.join("", sortedLines.values());
     }
 
+    // Parse trees of the lines sorted by line number, the IR is generated from these
+    // so that the sorted code doesn't have to be parsed again.
+    public List<PuffinBasicParser.LineContext> getSortedLines() {
+        checkLinenumberMode();
+        return new ArrayList<>(sortedLineContexts.values());
+    }
+
     public Set<String> getImportFiles() {
         return importFiles;
     }
@@ -92,6 +103,7 @@ public class LinenumberListener extends PuffinBasicBaseListener {
         }
 
         var oldLine = sortedLines.put(linenum, line);
+        sortedLineContexts.put(linenum, ctx);
         if (oldLine != null) {
             var message = "Duplicate line number!" + System.lineSeparator() +
                     "OLD:" + System.lineSeparator() +
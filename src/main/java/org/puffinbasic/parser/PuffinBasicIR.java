@@ -4,11 +4,12 @@ import org.antlr.v4.runtime.misc.Interval;
 import org.jetbrains.annotations.NotNull;
 import org.puffinbasic.domain.PuffinBasicSymbolTable;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
-public class PuffinBasicIR {
+public class PuffinBasicIR implements Serializable {
 
     public enum OpCode {
         COMMENT("comment"),
@@ -31,8 +32,7 @@ public class PuffinBasicIR {
         PRINT("?"),
         PRINTUSING("?f"),
         FLUSH("flush"),
-        RESET_ARRAY_IDX("resetArrIdx"),
-        SET_ARRAY_IDX("setArrIdx"),
+        ARRAY_ELEM("arrayElem"),
         GOTO_LINENUM("goto"),
         GOTO_LABEL("gotoLabel"),
         GOTO_LABEL_IF("gotoLabelIf"),
@@ -59,6 +59,7 @@ public class PuffinBasicIR {
         ADDF32("f32+"),
         ADDF64("f64+"),
         CONCAT("concat"),
+        STR_APPEND("str_append"),
         SUBI32("i32-"),
         SUBI64("i64-"),
         SUBF32("f32-"),
@@ -157,6 +158,9 @@ public class PuffinBasicIR {
         ARRAYCOPY("arraycopy"),
         ARRAY2DSHIFTHOR("array2dshifthor"),
         ARRAY2DSHIFTVER("array2dshiftver"),
+        ARRAYOP("arrayop"),
+        ARRAY1DPCTS("array1dpcts"),
+        ARRAY1DHIST("array1dhist"),
         ARRAY2DFINDROW("array2dFindRow"),
         ARRAY2DFINDCOLUMN("array2sFindColumn"),
         LEN("len"),
@@ -213,7 +217,6 @@ public class PuffinBasicIR {
         FONT("font"),
         CLS("cls"),
         BEEP("beep"),
-        ARRAYREF("arrayref"),
         HSB2RGB("hsb2rgb"),
         LOADWAV("loadwav"),
         PLAYWAV("playwav"),
@@ -229,6 +232,41 @@ public class PuffinBasicIR {
         MOUSEBUTTONPRESSED("mousebuttonpressed"),
         MOUSEBUTTONRELEASED("mousebuttonreleased"),
         ISKEYPRESSED("iskeypressed"),
+        // PARFOR: runs the iterations of the body up to the PARFOR_NEXT (at the label in result)
+        // in parallel, from op1 (init) with end and step in the preceding PARAM2, op2 is the variable.
+        PARFOR("parfor"),
+        PARFOR_NEXT("parforNext"),
+        // Superinstructions, generated by the IR optimizer.
+        // CMP_BRANCH_<cmp>_<type>: GOTO label (in result) if op1 <cmp> op2.
+        CMP_BRANCH_EQ_I32("gotoIfi32="),
+        CMP_BRANCH_EQ_I64("gotoIfi64="),
+        CMP_BRANCH_EQ_F32("gotoIff32="),
+        CMP_BRANCH_EQ_F64("gotoIff64="),
+        CMP_BRANCH_NE_I32("gotoIfi32<>"),
+        CMP_BRANCH_NE_I64("gotoIfi64<>"),
+        CMP_BRANCH_NE_F32("gotoIff32<>"),
+        CMP_BRANCH_NE_F64("gotoIff64<>"),
+        CMP_BRANCH_LT_I32("gotoIfi32<"),
+        CMP_BRANCH_LT_I64("gotoIfi64<"),
+        CMP_BRANCH_LT_F32("gotoIff32<"),
+        CMP_BRANCH_LT_F64("gotoIff64<"),
+        CMP_BRANCH_LE_I32("gotoIfi32<="),
+        CMP_BRANCH_LE_I64("gotoIfi64<="),
+        CMP_BRANCH_LE_F32("gotoIff32<="),
+        CMP_BRANCH_LE_F64("gotoIff64<="),
+        CMP_BRANCH_GT_I32("gotoIfi32>"),
+        CMP_BRANCH_GT_I64("gotoIfi64>"),
+        CMP_BRANCH_GT_F32("gotoIff32>"),
+        CMP_BRANCH_GT_F64("gotoIff64>"),
+        CMP_BRANCH_GE_I32("gotoIfi32>="),
+        CMP_BRANCH_GE_I64("gotoIfi64>="),
+        CMP_BRANCH_GE_F32("gotoIff32>="),
+        CMP_BRANCH_GE_F64("gotoIff64>="),
+        // FOR_STEP_<type>: op1 += op2 (result is op1), then runs the CMP_BRANCH which follows it.
+        FOR_STEP_I32("forStepI32"),
+        FOR_STEP_I64("forStepI64"),
+        FOR_STEP_F32("forStepF32"),
+        FOR_STEP_F64("forStepF64"),
         ;
 
         public final String repr;
@@ -259,6 +297,12 @@ public class PuffinBasicIR {
         return new ArrayList<>(instructions);
     }
 
+    // Replaces the instructions with an optimized version of them.
+    public void setInstructions(List<Instruction> instructions) {
+        this.instructions.clear();
+        this.instructions.addAll(instructions);
+    }
+
     public Instruction addInstruction(
             PuffinBasicSourceFile sourceFile, int linenum, int startIndex, int stopIndex,
             @NotNull OpCode opCode, int op1, int op2, int result)
@@ -273,7 +317,7 @@ public class PuffinBasicIR {
         return symbolTable;
     }
 
-    public static final class InputRef {
+    public static final class InputRef implements Serializable {
         public final PuffinBasicSourceFile sourceFile;
         public final int lineNumber;
         public final int inputStartIndex;
@@ -308,7 +352,7 @@ public class PuffinBasicIR {
         }
     }
 
-    public static final class Instruction {
+    public static final class Instruction implements Serializable {
         public final InputRef inputRef;
         public final OpCode opCode;
         public int op1;
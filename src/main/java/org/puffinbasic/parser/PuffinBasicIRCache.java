@@ -0,0 +1,173 @@
+package org.puffinbasic.parser;
+
+import org.puffinbasic.error.PuffinBasicInternalError;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Cache of the IR of a program in a .pbc file.
+ * An entry is used if the program is unchanged: same content hash of the main file and
+ * of all its imports (as resolved by {@link PuffinBasicImportPath}), same graphics mode and
+ * same IR optimization level.
+ */
+public final class PuffinBasicIRCache {
+
+    public static final String CACHE_FILE_SUFFIX = ".pbc";
+
+    private static final int MAGIC = 0x50424331;
+    private static final int VERSION = 6;
+    private static final int HASH_LENGTH = 32;
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "org.puffinbasic.**;it.unimi.dsi.fastutil.**;java.lang.*;java.util.*;java.util.concurrent.atomic.*;java.time.*;!*");
+
+    private final PuffinBasicImportPath importPath;
+    private final boolean graphics;
+    private final int optimizationLevel;
+
+    public PuffinBasicIRCache(PuffinBasicImportPath importPath, boolean graphics, int optimizationLevel) {
+        this.importPath = importPath;
+        this.graphics = graphics;
+        this.optimizationLevel = optimizationLevel;
+    }
+
+    // foo.bas is cached in foo.pbc, or in <cacheDir>/<content hash>.pbc.
+    public static Path getCacheFile(String sourceFilename, String cacheDir, byte[] sourceHash) {
+        if (cacheDir != null) {
+            return Paths.get(cacheDir, toHex(sourceHash) + CACHE_FILE_SUFFIX);
+        }
+        var index = sourceFilename.lastIndexOf('.');
+        var basename = index > Math.max(sourceFilename.lastIndexOf('/'), sourceFilename.lastIndexOf('\\'))
+                ? sourceFilename.substring(0, index)
+                : sourceFilename;
+        return Paths.get(basename + CACHE_FILE_SUFFIX);
+    }
+
+    public static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new PuffinBasicInternalError("SHA-256 is not supported: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the cached entry, or null if the cache file is missing, unreadable or stale.
+     */
+    public Entry load(Path cacheFile, byte[] sourceHash) {
+        if (!Files.isRegularFile(cacheFile)) {
+            return null;
+        }
+        try (var in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            in.setObjectInputFilter(FILTER);
+            if (in.readInt() != MAGIC
+                    || in.readInt() != VERSION
+                    || in.readBoolean() != graphics
+                    || in.readInt() != optimizationLevel
+                    || !Arrays.equals(readHash(in), sourceHash))
+            {
+                return null;
+            }
+            int numImports = in.readInt();
+            for (int i = 0; i < numImports; i++) {
+                var relativePath = in.readUTF();
+                var importHash = readHash(in);
+                var importFile = Paths.get(importPath.find(relativePath));
+                if (!Arrays.equals(hash(Files.readAllBytes(importFile)), importHash)) {
+                    return null;
+                }
+            }
+            var sourceFile = (PuffinBasicSourceFile) in.readObject();
+            var ir = (PuffinBasicIR) in.readObject();
+            return new Entry(sourceFile, ir);
+        } catch (Exception e) {
+            // Corrupt, written by another version, or an import is gone.
+            return null;
+        }
+    }
+
+    /**
+     * Writes the entry, the IR must not have been run.
+     * The cache is best effort, a failed write leaves no cache file behind.
+     */
+    public void store(Path cacheFile, byte[] sourceHash, PuffinBasicSourceFile sourceFile, PuffinBasicIR ir) {
+        Path tmpFile = null;
+        try {
+            var dir = cacheFile.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            tmpFile = Files.createTempFile(dir, cacheFile.getFileName().toString(), ".tmp");
+            try (var out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeBoolean(graphics);
+                out.writeInt(optimizationLevel);
+                writeHash(out, sourceHash);
+                var importFiles = sourceFile.getImportFiles();
+                out.writeInt(importFiles.size());
+                for (var importFile : importFiles) {
+                    var relativePath = importFile.getRelativePath();
+                    out.writeUTF(relativePath);
+                    writeHash(out, hash(Files.readAllBytes(Paths.get(importPath.find(relativePath)))));
+                }
+                out.writeObject(sourceFile);
+                out.writeObject(ir);
+            }
+            // Concurrent runs of the same program replace the file atomically.
+            Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            if (tmpFile != null) {
+                try {
+                    Files.deleteIfExists(tmpFile);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static void writeHash(ObjectOutputStream out, byte[] hash) throws IOException {
+        out.write(hash);
+    }
+
+    private static byte[] readHash(ObjectInputStream in) throws IOException {
+        var hash = new byte[HASH_LENGTH];
+        in.readFully(hash);
+        return hash;
+    }
+
+    private static String toHex(byte[] bytes) {
+        var sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    public static final class Entry {
+        private final PuffinBasicSourceFile sourceFile;
+        private final PuffinBasicIR ir;
+
+        Entry(PuffinBasicSourceFile sourceFile, PuffinBasicIR ir) {
+            this.sourceFile = sourceFile;
+            this.ir = ir;
+        }
+
+        public PuffinBasicSourceFile getSourceFile() {
+            return sourceFile;
+        }
+
+        public PuffinBasicIR getIR() {
+            return ir;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package org.puffinbasic.parser;
 
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import org.antlr.v4.runtime.CharStream;
@@ -14,6 +16,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.puffinbasic.antlr4.PuffinBasicBaseListener;
 import org.puffinbasic.antlr4.PuffinBasicParser;
+import org.puffinbasic.antlr4.PuffinBasicParser.ExprContext;
 import org.puffinbasic.antlr4.PuffinBasicParser.VariableContext;
 import org.puffinbasic.domain.STObjects;
 import org.puffinbasic.domain.STObjects.ArrayType;
@@ -26,6 +29,7 @@ import org.puffinbasic.domain.STObjects.STUDF;
 import org.puffinbasic.domain.STObjects.STVariable;
 import org.puffinbasic.domain.STObjects.ScalarType;
 import org.puffinbasic.domain.STObjects.SetType;
+import org.puffinbasic.domain.STObjects.StringBuilderType;
 import org.puffinbasic.domain.Variable;
 import org.puffinbasic.domain.Variable.VariableKindHint;
 import org.puffinbasic.domain.Variable.VariableName;
@@ -37,11 +41,13 @@ import org.puffinbasic.file.PuffinBasicFile.FileOpenMode;
 import org.puffinbasic.file.PuffinBasicFile.LockMode;
 import org.puffinbasic.parser.PuffinBasicIR.Instruction;
 import org.puffinbasic.parser.PuffinBasicIR.OpCode;
+import org.puffinbasic.runtime.ArrayOps;
 import org.puffinbasic.runtime.GraphicsUtil;
 import org.puffinbasic.runtime.Numbers;
 import org.puffinbasic.runtime.Types;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -55,10 +61,13 @@ import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.FLOAT;
 import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.INT32;
 import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.INT64;
 import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.STRING;
+import static org.puffinbasic.domain.STObjects.PuffinBasicTypeId.ARRAY;
+import static org.puffinbasic.domain.STObjects.PuffinBasicTypeId.SCALAR;
 import static org.puffinbasic.domain.STObjects.PuffinBasicTypeId.UDF;
 import static org.puffinbasic.error.PuffinBasicSemanticError.ErrorCode.BAD_ARGUMENT;
 import static org.puffinbasic.error.PuffinBasicSemanticError.ErrorCode.BAD_ASSIGNMENT;
 import static org.puffinbasic.error.PuffinBasicSemanticError.ErrorCode.BAD_FUNCTION_DEF;
+import static org.puffinbasic.error.PuffinBasicSemanticError.ErrorCode.BAD_PARFOR;
 import static org.puffinbasic.error.PuffinBasicSemanticError.ErrorCode.DATA_TYPE_MISMATCH;
 import static org.puffinbasic.error.PuffinBasicSemanticError.ErrorCode.FOR_WITHOUT_NEXT;
 import static org.puffinbasic.error.PuffinBasicSemanticError.ErrorCode.INSUFFICIENT_UDF_ARGS;
@@ -233,23 +242,8 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
                     } else if (variable.isArray()) {
                         if (!ctx.expr().isEmpty()) {
                             // Array
-                            ir.addInstruction(
-                                    sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
-                                    OpCode.RESET_ARRAY_IDX,
-                                    varId, NULL_ID, NULL_ID);
-
-                            for (var exprCtx : ctx.expr()) {
-                                var exprInstr = lookupInstruction(exprCtx);
-                                ir.addInstruction(
-                                        sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
-                                        OpCode.SET_ARRAY_IDX,
-                                        varId, exprInstr.result, NULL_ID);
-                            }
                             var refId = ir.getSymbolTable().addArrayReference(varEntry);
-                            ir.addInstruction(
-                                    sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
-                                    OpCode.ARRAYREF,
-                                    varId, refId, refId);
+                            addArrayElement(ctx, ctx.expr(), refId);
                             idHolder.set(refId);
                         }
                     } else if (variable.isUDF()) {
@@ -356,29 +350,38 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
                 ir.getSymbolTable().addRef(leafType));
 
         if (!ctx.expr().isEmpty()) {
-            ir.addInstruction(
-                    sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
-                    OpCode.RESET_ARRAY_IDX,
-                    result.result, NULL_ID, NULL_ID);
-
-            for (var exprCtx : ctx.expr()) {
-                var exprInstr = lookupInstruction(exprCtx);
-                ir.addInstruction(
-                        sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
-                        OpCode.SET_ARRAY_IDX,
-                        result.result, exprInstr.result, NULL_ID);
-            }
             var refId = ir.getSymbolTable().addArrayReference(
                     (STObjects.STLValue) ir.getSymbolTable().get(result.result));
-            result = ir.addInstruction(
-                    sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
-                    OpCode.ARRAYREF,
-                    result.result, refId, refId);
+            result = addArrayElement(ctx, ctx.expr(), refId);
         }
 
         return result;
     }
 
+    // Points the array reference to the element at the indices, in one ARRAY_ELEM.
+    // Up to 2 indices are its operands, more are passed as params.
+    private Instruction addArrayElement(ParserRuleContext ctx, List<ExprContext> exprs, int refId) {
+        int index1 = NULL_ID;
+        int index2 = NULL_ID;
+        if (exprs.size() <= 2) {
+            index1 = lookupInstruction(exprs.get(0)).result;
+            if (exprs.size() == 2) {
+                index2 = lookupInstruction(exprs.get(1)).result;
+            }
+        } else {
+            for (var exprCtx : exprs) {
+                ir.addInstruction(
+                        sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                        OpCode.PARAM1,
+                        lookupInstruction(exprCtx).result, NULL_ID, NULL_ID);
+            }
+        }
+        return ir.addInstruction(
+                sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                OpCode.ARRAY_ELEM,
+                index1, index2, refId);
+    }
+
     //
     // Expr
     //
@@ -551,7 +554,13 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
         var dt2 = ir.getSymbolTable().get(instr2res).getType().getAtomTypeId();
         boolean plus = ctx.PLUS() != null;
         if (dt1 == STRING && dt2 == STRING) {
-            if (plus) {
+            if (plus && isSelfAppend(ctx)) {
+                // S$ = S$ + expr appends to S$ in place, exitLetstmt doesn't assign
+                nodeToInstruction.put(ctx, ir.addInstruction(
+                        sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                        OpCode.STR_APPEND, instr2res, instr1res, instr1res
+                ));
+            } else if (plus) {
                 nodeToInstruction.put(ctx, ir.addInstruction(
                         sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
                         OpCode.CONCAT, instr1res, instr2res,
@@ -593,6 +602,31 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
         }
     }
 
+    // Whether ctx is the whole right side of a LET of a scalar String variable,
+    // and its left operand is the same variable.
+    private boolean isSelfAppend(PuffinBasicParser.ExprPlusMinusContext ctx) {
+        if (!(ctx.getParent() instanceof PuffinBasicParser.LetstmtContext)) {
+            return false;
+        }
+        var letCtx = (PuffinBasicParser.LetstmtContext) ctx.getParent();
+        if (letCtx.expr() != ctx
+                || letCtx.variable().leafvariable() == null
+                || !(ctx.expr(0) instanceof PuffinBasicParser.ExprVariableContext)) {
+            return false;
+        }
+        var varInstruction = lookupInstruction(letCtx.variable());
+        var exprInstruction = lookupInstruction(ctx.expr(0));
+        if (varInstruction.opCode != OpCode.VARIABLE
+                || exprInstruction.opCode != OpCode.VARIABLE
+                || varInstruction.result != exprInstruction.result) {
+            return false;
+        }
+        var entry = ir.getSymbolTable().get(varInstruction.result);
+        return entry instanceof STVariable
+                && ((STVariable) entry).getVariable().isScalar()
+                && entry.getType().getAtomTypeId() == STRING;
+    }
+
     private void addArithmeticOpExpr(
             ParserRuleContext parent, OpCode opCode, PuffinBasicParser.ExprContext exprLeft, PuffinBasicParser.ExprContext exprRight) {
         var exprL = lookupInstruction(exprLeft);
@@ -1562,6 +1596,7 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
         var objectType = ir.getSymbolTable().get(varInstruction.result).getType();
         var funcName = ctx.funcname().getText();
         var returnType = objectType.getFuncCallReturnType(funcName);
+        var funcIndex = objectType.getFuncCallIndex(funcName);
 
         List<PuffinBasicType> paramTypes = new ArrayList<>(ctx.expr().size());
         for (var exprCtx : ctx.expr()) {
@@ -1578,7 +1613,7 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
         nodeToInstruction.put(ctx, ir.addInstruction(
                 sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
                 OpCode.MEMBER_FUNC_CALL, varInstruction.result,
-                ir.getSymbolTable().addTmp(STRING, e -> e.getValue().setString(funcName)),
+                ir.getSymbolTable().addTmp(INT32, e -> e.getValue().setInt32(funcIndex)),
                 ir.getSymbolTable().addTmp(returnType, e -> {})
         ));
     }
@@ -1700,6 +1735,19 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
         );
     }
 
+    @Override
+    public void exitStringbuilderstmt(PuffinBasicParser.StringbuilderstmtContext ctx) {
+        var instanceName = ctx.sbname.VARNAME().getText();
+
+        var variableName = new VariableName(instanceName, null, COMPOSITE);
+        var id = ir.getSymbolTable().addCompositeVariable(
+                variableName, new STVariable(null, new Variable(variableName, new StringBuilderType())));
+        ir.addInstruction(
+                sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                OpCode.CREATE_INSTANCE, id, NULL_ID, id
+        );
+    }
+
     @Override
     public void exitDictstmt(PuffinBasicParser.DictstmtContext ctx) {
         var keyAtomType = PuffinBasicAtomTypeId.lookup(ctx.dictk1.getText());
@@ -1797,6 +1845,10 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
                     valueType = new ScalarType(PuffinBasicAtomTypeId.lookup(compCtx.dictv2.getText()));
                 }
                 struct.declareField(name, new DictType(keyType, valueType));
+            } else if (compCtx.STRINGBUILDER() != null) {
+                // string builder
+                var name = new VariableName(compCtx.elem.VARNAME().getText(), null, COMPOSITE);
+                struct.declareField(name, new StringBuilderType());
             } else if (compCtx.struct1 != null) {
                 // struct
                 var memberType = compCtx.struct1.VARNAME().getText();
@@ -1844,6 +1896,12 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
             );
         }
 
+        if (exprInstruction.opCode == OpCode.STR_APPEND) {
+            // Already appended in place
+            nodeToInstruction.put(ctx, exprInstruction);
+            return;
+        }
+
         var assignInstruction = ir.addInstruction(
                 sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
                 OpCode.ASSIGN, exprInstruction.result, varInstruction.result, varInstruction.result
@@ -2052,6 +2110,7 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
                             sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
                             OpCode.LABEL, ir.getSymbolTable().addLabel(), NULL_ID, NULL_ID
                     );
+                    udfState.bodyStart = ir.getInstructions().size();
                     // Push child scope
                     ir.getSymbolTable().pushDeclarationScope(varId, false);
                 });
@@ -2091,6 +2150,7 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
                             sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
                             OpCode.LABEL, ir.getSymbolTable().addLabel(), NULL_ID, NULL_ID
                     );
+                    udfState.bodyEnd = ir.getInstructions().size() - 1;
                     // Patch GOTO postFuncDecl
                     udfState.gotoPostFuncDecl.patchOp1(labelPostFuncDecl.op1);
                 });
@@ -2136,6 +2196,7 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
                             sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
                             OpCode.LABEL, ir.getSymbolTable().addLabel(), NULL_ID, NULL_ID
                     );
+                    currentUdfState.bodyStart = ir.getInstructions().size();
                     // Push child scope
                     ir.getSymbolTable().pushDeclarationScope(varId, true);
                 });
@@ -2193,6 +2254,10 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
                     valueType = new ScalarType(PuffinBasicAtomTypeId.lookup(compCtx.dictv2.getText()));
                 }
                 paramType = new DictType(keyType, valueType);
+            } else if (compCtx.STRINGBUILDER() != null) {
+                // string builder
+                paramName = new VariableName(compCtx.elem.VARNAME().getText(), null, COMPOSITE);
+                paramType = new StringBuilderType();
             } else if (compCtx.struct1 != null) {
                 // struct
                 var memberType = compCtx.struct1.VARNAME().getText();
@@ -2283,6 +2348,7 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
                 OpCode.LABEL, ir.getSymbolTable().addLabel(), NULL_ID, NULL_ID
         );
         // Patch GOTO LABEL gotoCaller
+        currentUdfState.bodyEnd = ir.getInstructions().size() - 1;
         currentUdfState.gotoLabelGotoCaller.forEach(g -> g.patchOp1(labelGotocaller.op1));
         // Patch GOTO postFuncDecl
         currentUdfState.gotoPostFuncDecl.patchOp1(labelPostFuncDecl.op1);
@@ -2564,6 +2630,206 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
         forLoopStateList.add(forLoopState);
     }
 
+    /*
+     * stepCopy = step or 1 (default)
+     * endCopy = end
+     * PARAM2 endCopy stepCopy
+     * PARFOR init var labelBodyEnd
+     * Body
+     * labelBodyEnd
+     * PARFOR_NEXT
+     */
+    @Override
+    public void exitParforstmt(PuffinBasicParser.ParforstmtContext ctx) {
+        var varInstr = lookupInstruction(ctx.variable());
+        var init = lookupInstruction(ctx.expr(0));
+        var end = lookupInstruction(ctx.expr(1));
+        var stVariable = ir.getSymbolTable().get(varInstr.result);
+        if (!(stVariable instanceof STVariable) || stVariable.getType().getTypeId() != SCALAR) {
+            throw new PuffinBasicSemanticError(
+                    BAD_PARFOR,
+                    getCtxString(ctx),
+                    "PARFOR variable must be a scalar variable"
+            );
+        }
+        Types.assertNumeric(stVariable.getType().getAtomTypeId(), () -> getCtxString(ctx));
+        Types.assertNumeric(ir.getSymbolTable().get(init.result).getType().getAtomTypeId(),
+                () -> getCtxString(ctx));
+        Types.assertNumeric(ir.getSymbolTable().get(end.result).getType().getAtomTypeId(),
+                () -> getCtxString(ctx));
+
+        int tmpStep;
+        if (ctx.expr(2) != null) {
+            var step = lookupInstruction(ctx.expr(2));
+            Types.assertNumeric(ir.getSymbolTable().get(step.result).getType().getAtomTypeId(),
+                    () -> getCtxString(ctx));
+            tmpStep = ir.getSymbolTable().addTmpCompatibleWith(step.result);
+            ir.addInstruction(
+                    sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                    OpCode.COPY, step.result, tmpStep, tmpStep
+            );
+        } else {
+            tmpStep = ir.getSymbolTable().addTmp(INT32, e -> e.getValue().setInt32(1));
+        }
+        var tmpEnd = ir.getSymbolTable().addTmpCompatibleWith(end.result);
+        ir.addInstruction(
+                sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                OpCode.ASSIGN, end.result, tmpEnd, tmpEnd
+        );
+        ir.addInstruction(
+                sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                OpCode.PARAM2, tmpEnd, tmpStep, NULL_ID
+        );
+
+        var forLoopState = new ForLoopState();
+        forLoopState.variable = ((STVariable) stVariable).getVariable();
+        forLoopState.parforInstrNum = ir.getInstructions().size();
+        forLoopState.parfor = ir.addInstruction(
+                sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                OpCode.PARFOR, init.result, varInstr.result, ir.getSymbolTable().addLabel()
+        );
+        forLoopStateList.add(forLoopState);
+    }
+
+    // The iterations of a PARFOR run concurrently, so its body can only compute: it can't do I/O,
+    // graphics or sound, change array dimensions, jump out of the body or call a subroutine.
+    private static final EnumSet<OpCode> PARFOR_BAD_OPS = EnumSet.of(
+            OpCode.GOTO_LINENUM, OpCode.PUSH_RETLABEL, OpCode.RETURN, OpCode.END,
+            OpCode.DIM, OpCode.REALLOCARRAY,
+            OpCode.PRINT, OpCode.PRINTUSING, OpCode.FLUSH, OpCode.WRITE,
+            OpCode.INPUT, OpCode.INPUTDLR, OpCode.LINE_INPUT, OpCode.INKEYDLR,
+            OpCode.OPEN, OpCode.CLOSE_ALL, OpCode.CLOSE, OpCode.FIELD, OpCode.PUTF, OpCode.GETF,
+            OpCode.LOC, OpCode.LOF, OpCode.EOF, OpCode.LSET, OpCode.RSET,
+            OpCode.READ, OpCode.RESTORE, OpCode.RANDOMIZE, OpCode.RANDOMIZE_TIMER, OpCode.SLEEP,
+            OpCode.SCREEN, OpCode.REPAINT, OpCode.CIRCLE, OpCode.LINE, OpCode.COLOR, OpCode.PAINT,
+            OpCode.PSET, OpCode.GPUT, OpCode.GGET, OpCode.BUFFERCOPYHOR, OpCode.LOADIMG, OpCode.SAVEIMG,
+            OpCode.DRAWSTR, OpCode.DRAW, OpCode.FONT, OpCode.CLS, OpCode.BEEP,
+            OpCode.LOADWAV, OpCode.PLAYWAV, OpCode.STOPWAV, OpCode.LOOPWAV,
+            OpCode.MOUSEMOVEDX, OpCode.MOUSEMOVEDY, OpCode.MOUSEDRAGGEDX, OpCode.MOUSEDRAGGEDY,
+            OpCode.MOUSEBUTTONCLICKED, OpCode.MOUSEBUTTONPRESSED, OpCode.MOUSEBUTTONRELEASED,
+            OpCode.ISKEYPRESSED
+    );
+
+    // Functions called from a PARFOR body can DIM their local arrays, each worker has its own.
+    private static final EnumSet<OpCode> PARFOR_FUNCTION_BAD_OPS = EnumSet.copyOf(PARFOR_BAD_OPS);
+    static {
+        PARFOR_FUNCTION_BAD_OPS.removeAll(EnumSet.of(OpCode.DIM, OpCode.REALLOCARRAY));
+    }
+
+    private void checkParforBody(ForLoopState state) {
+        var instructions = ir.getInstructions();
+        checkParforInstructions(state.parforInstrNum + 1, instructions.size(), PARFOR_BAD_OPS, new IntOpenHashSet());
+        var bodyLabels = new IntOpenHashSet();
+        for (int i = state.parforInstrNum + 1; i < instructions.size(); i++) {
+            var instruction = instructions.get(i);
+            if (instruction.opCode == OpCode.LABEL) {
+                bodyLabels.add(instruction.op1);
+            }
+        }
+        boolean callingUdf = false;
+        for (int i = state.parforInstrNum + 1; i < instructions.size(); i++) {
+            var instruction = instructions.get(i);
+            var opCode = instruction.opCode;
+            if (opCode == OpCode.PUSH_RT_SCOPE) {
+                callingUdf = true;
+            } else if (opCode == OpCode.GOTO_LABEL && callingUdf) {
+                // Jumps to the function, which returns into the body
+                callingUdf = false;
+            } else if ((opCode == OpCode.GOTO_LABEL && !bodyLabels.contains(instruction.op1))
+                    || (opCode == OpCode.GOTO_LABEL_IF && !bodyLabels.contains(instruction.op2))) {
+                throw new PuffinBasicSemanticError(
+                        BAD_PARFOR,
+                        ir.getCodeStreamFor(instruction),
+                        "PARFOR body can't jump out of the body"
+                );
+            }
+        }
+    }
+
+    // Checks the instructions in [start, end) of a PARFOR body, or of a function it calls, and the
+    // functions they call. Workers share the LISTs, SETs, DICTs and STRINGBUILDERs and have private
+    // copies of structs, so only the composites declared in the body (or function) can be changed.
+    private void checkParforInstructions(int start, int end, EnumSet<OpCode> badOps, IntSet checkedUdfs) {
+        var instructions = ir.getInstructions();
+        var symbolTable = ir.getSymbolTable();
+        // Composites declared here, and their struct members
+        var owned = new IntOpenHashSet();
+        // Members of structs declared outside
+        var sharedMembers = new IntOpenHashSet();
+        for (int i = start; i < end; i++) {
+            var instruction = instructions.get(i);
+            var opCode = instruction.opCode;
+            if (badOps.contains(opCode)) {
+                throw new PuffinBasicSemanticError(
+                        BAD_PARFOR,
+                        ir.getCodeStreamFor(instruction),
+                        "PARFOR body can't use: " + opCode.name()
+                );
+            }
+            switch (opCode) {
+                case CREATE_INSTANCE:
+                    owned.add(instruction.result);
+                    break;
+                case STRUCT_LVALUE:
+                    if (owned.contains(instruction.op1)) {
+                        owned.add(instruction.result);
+                    } else {
+                        sharedMembers.add(instruction.result);
+                    }
+                    break;
+                case MEMBER_FUNC_CALL: {
+                    int funcIndex = symbolTable.get(instruction.op2).getValue().getInt32();
+                    if (!owned.contains(instruction.op1)
+                            && symbolTable.get(instruction.op1).getType().isMutatingFuncCall(funcIndex)) {
+                        throw newParforSharedWriteError(instruction);
+                    }
+                }
+                    break;
+                case ASSIGN:
+                case STR_APPEND:
+                    if (isSharedComposite(owned, sharedMembers, instruction.result)) {
+                        throw newParforSharedWriteError(instruction);
+                    }
+                    break;
+                case SWAP:
+                    if (isSharedComposite(owned, sharedMembers, instruction.op1)
+                            || isSharedComposite(owned, sharedMembers, instruction.op2)) {
+                        throw newParforSharedWriteError(instruction);
+                    }
+                    break;
+                case PUSH_RT_SCOPE: {
+                    var udfState = udfStateMap.get(((STVariable) symbolTable.get(instruction.op1)).getVariable());
+                    if (checkedUdfs.add(instruction.op1)) {
+                        checkParforInstructions(
+                                udfState.bodyStart,
+                                udfState.bodyEnd == -1 ? instructions.size() : udfState.bodyEnd,
+                                PARFOR_FUNCTION_BAD_OPS,
+                                checkedUdfs);
+                    }
+                }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // A struct member, or a composite, not declared in the checked instructions.
+    private boolean isSharedComposite(IntSet owned, IntSet sharedMembers, int id) {
+        if (owned.contains(id)) {
+            return false;
+        }
+        return sharedMembers.contains(id) || ir.getSymbolTable().get(id).getType().getAtomTypeId() == COMPOSITE;
+    }
+
+    private PuffinBasicSemanticError newParforSharedWriteError(Instruction instruction) {
+        return new PuffinBasicSemanticError(
+                BAD_PARFOR,
+                ir.getCodeStreamFor(instruction),
+                "PARFOR body can't change a LIST, SET, DICT, STRINGBUILDER or struct declared outside of it"
+        );
+    }
+
     @Override
     public void exitNextstmt(PuffinBasicParser.NextstmtContext ctx) {
         List<ForLoopState> states = new ArrayList<>(1);
@@ -2620,6 +2886,19 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
         }
 
         for (ForLoopState state : states) {
+            if (state.parfor != null) {
+                checkParforBody(state);
+                // LABEL bodyEnd, where the iterations end
+                ir.addInstruction(
+                        sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                        OpCode.LABEL, state.parfor.result, NULL_ID, NULL_ID
+                );
+                ir.addInstruction(
+                        sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                        OpCode.PARFOR_NEXT, NULL_ID, NULL_ID, NULL_ID
+                );
+                continue;
+            }
             // GOTO APPLY STEP
             ir.addInstruction(
                     sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
@@ -4071,6 +4350,137 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
                 OpCode.ARRAY2DSHIFTVER, varInstr.result, expr.result, NULL_ID);
     }
 
+    @Override
+    public void exitArrayopstmt(PuffinBasicParser.ArrayopstmtContext ctx) {
+        var dstInstr = getArrayNdVariableInstruction(ctx, ctx.dst);
+        var dstType = ir.getSymbolTable().get(dstInstr.result).getType().getAtomTypeId();
+        var symbol = unquote(ctx.op.getText());
+        var operator = ArrayOps.Operator.lookup(symbol);
+        if (operator == null) {
+            throw new PuffinBasicSemanticError(
+                    BAD_ARGUMENT,
+                    getCtxString(ctx),
+                    "Unknown ARRAYOP operator: " + symbol
+            );
+        }
+        if (!operator.supports(dstType)) {
+            throw new PuffinBasicSemanticError(
+                    DATA_TYPE_MISMATCH,
+                    getCtxString(ctx),
+                    "ARRAYOP operator " + operator.symbol + " is not supported for " + dstType + " arrays"
+            );
+        }
+        int numArgs = ctx.src2 == null ? 1 : 2;
+        if (numArgs != operator.numArgs) {
+            throw new PuffinBasicSemanticError(
+                    BAD_ARGUMENT,
+                    getCtxString(ctx),
+                    "ARRAYOP operator " + operator.symbol + " expects " + operator.numArgs
+                            + " operand(s), but found: " + numArgs
+            );
+        }
+
+        var src1 = lookupInstruction(ctx.src1);
+        boolean isArray = checkArrayOpOperand(ctx, src1.result, dstType);
+        int src2Id = NULL_ID;
+        if (ctx.src2 != null) {
+            var src2 = lookupInstruction(ctx.src2);
+            isArray |= checkArrayOpOperand(ctx, src2.result, dstType);
+            src2Id = src2.result;
+        }
+        if (!isArray) {
+            throw new PuffinBasicSemanticError(
+                    BAD_ARGUMENT,
+                    getCtxString(ctx),
+                    "ARRAYOP expects an array operand"
+            );
+        }
+
+        ir.addInstruction(
+                sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                OpCode.PARAM2, src1.result, src2Id, NULL_ID);
+        ir.addInstruction(
+                sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                OpCode.ARRAYOP, dstInstr.result,
+                ir.getSymbolTable().addTmp(INT32, e -> e.getValue().setInt32(operator.ordinal())),
+                NULL_ID);
+    }
+
+    @Override
+    public void exitArray1dpctsstmt(PuffinBasicParser.Array1dpctsstmtContext ctx) {
+        var srcInstr = getArray1dVariableInstruction(ctx, ctx.src, true);
+        var pctsInstr = getArray1dVariableInstruction(ctx, ctx.pcts, true);
+        var dstInstr = getArray1dVariableInstruction(ctx, ctx.dst, false);
+        var dstType = ir.getSymbolTable().get(dstInstr.result).getType().getAtomTypeId();
+        if (dstType != DOUBLE) {
+            throw new PuffinBasicSemanticError(
+                    DATA_TYPE_MISMATCH,
+                    getCtxString(ctx),
+                    "ARRAY1DPCTS expects a Double destination array, but found: " + dstType
+            );
+        }
+
+        ir.addInstruction(
+                sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                OpCode.PARAM2, pctsInstr.result, dstInstr.result, NULL_ID);
+        ir.addInstruction(
+                sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                OpCode.ARRAY1DPCTS, srcInstr.result, NULL_ID, NULL_ID);
+    }
+
+    @Override
+    public void exitArray1dhiststmt(PuffinBasicParser.Array1dhiststmtContext ctx) {
+        var srcInstr = getArray1dVariableInstruction(ctx, ctx.src, true);
+        var srcType = ir.getSymbolTable().get(srcInstr.result).getType().getAtomTypeId();
+        if (srcType != INT32 && srcType != DOUBLE) {
+            throw new PuffinBasicSemanticError(
+                    DATA_TYPE_MISMATCH,
+                    getCtxString(ctx),
+                    "ARRAY1DHIST expects an Int32 or Double array, but found: " + srcType
+            );
+        }
+        var dstInstr = getArray1dVariableInstruction(ctx, ctx.dst, false);
+        var dstType = ir.getSymbolTable().get(dstInstr.result).getType().getAtomTypeId();
+        if (dstType != INT32) {
+            throw new PuffinBasicSemanticError(
+                    DATA_TYPE_MISMATCH,
+                    getCtxString(ctx),
+                    "ARRAY1DHIST expects an Int32 count array, but found: " + dstType
+            );
+        }
+
+        if (ctx.lo != null) {
+            var lo = lookupInstruction(ctx.lo);
+            var hi = lookupInstruction(ctx.hi);
+            Types.assertNumeric(ir.getSymbolTable().get(lo.result).getType().getAtomTypeId(), () -> getCtxString(ctx));
+            Types.assertNumeric(ir.getSymbolTable().get(hi.result).getType().getAtomTypeId(), () -> getCtxString(ctx));
+            ir.addInstruction(
+                    sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                    OpCode.PARAM2, lo.result, hi.result, NULL_ID);
+        }
+        ir.addInstruction(
+                sourceFile, currentLineNumber, ctx.start.getStartIndex(), ctx.stop.getStopIndex(),
+                OpCode.ARRAY1DHIST, srcInstr.result, dstInstr.result, NULL_ID);
+    }
+
+    // Returns whether the operand is an array, array operands must have the type of the destination.
+    private boolean checkArrayOpOperand(ParserRuleContext ctx, int id, PuffinBasicAtomTypeId dstType) {
+        var type = ir.getSymbolTable().get(id).getType();
+        if (type.getTypeId() == ARRAY) {
+            if (type.getAtomTypeId() != dstType) {
+                throw new PuffinBasicSemanticError(
+                        DATA_TYPE_MISMATCH,
+                        getCtxString(ctx),
+                        "ARRAYOP array data type mismatch: " + type.getAtomTypeId()
+                                + " is not compatible with " + dstType
+                );
+            }
+            return true;
+        }
+        Types.assertNumeric(type.getAtomTypeId(), () -> getCtxString(ctx));
+        return false;
+    }
+
     @Override
     public void exitArrayfillstmt(PuffinBasicParser.ArrayfillstmtContext ctx) {
         var varInstr = getArrayNdVariableInstruction(ctx, ctx.variable());
@@ -4190,6 +4600,9 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
         public Instruction gotoPostFuncDecl;
         public Instruction labelFuncStart;
         public int udfId;
+        // Instructions of the function body, end is -1 while it's declared
+        public int bodyStart;
+        public int bodyEnd = -1;
         public final List<Instruction> gotoLabelGotoCaller;
 
         public UDFState(VariableName variableName, STUDF udfEntry) {
@@ -4208,6 +4621,9 @@ public class PuffinBasicIRListener extends PuffinBasicBaseListener {
         public Variable variable;
         public Instruction labelApplyStep;
         public Instruction gotoAfterNext;
+        // Set for a PARFOR
+        public Instruction parfor;
+        public int parforInstrNum;
     }
 
     private static final class IfState {
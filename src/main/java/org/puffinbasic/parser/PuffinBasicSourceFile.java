@@ -1,29 +1,39 @@
 package org.puffinbasic.parser;
 
 import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CodePointCharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.puffinbasic.antlr4.PuffinBasicParser.LineContext;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Objects;
 
-public class PuffinBasicSourceFile {
+public class PuffinBasicSourceFile implements Serializable {
 
     private final String relativePath;
     private final String libtag;
     private final String sourceCode;
-    private final CharStream sourceCodeStream;
+    // Parse trees are not serialized, the stream is serialized as text.
+    private transient CharStream sourceCodeStream;
+    private transient List<LineContext> sortedLines;
     private final LinkedHashSet<PuffinBasicSourceFile> importFiles;
 
     public PuffinBasicSourceFile(
             String relativePath,
             String libtag,
             String sourceCode,
-            CodePointCharStream sourceCodeStream,
+            CharStream sourceCodeStream,
+            List<LineContext> sortedLines,
             LinkedHashSet<PuffinBasicSourceFile> importFiles) {
         this.relativePath = relativePath;
         this.libtag = libtag;
         this.sourceCode = sourceCode;
         this.sourceCodeStream = sourceCodeStream;
+        this.sortedLines = sortedLines;
         this.importFiles = new LinkedHashSet<>(importFiles);
     }
 
@@ -43,10 +53,26 @@ public class PuffinBasicSourceFile {
         return sourceCode;
     }
 
+    // The original (unsorted) source code, parse tree and instruction indexes refer to it.
     public CharStream getSourceCodeStream() {
         return sourceCodeStream;
     }
 
+    public List<LineContext> getSortedLines() {
+        return sortedLines;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(sourceCodeStream.toString());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.sourceCodeStream = CharStreams.fromString((String) in.readObject());
+        this.sortedLines = List.of();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
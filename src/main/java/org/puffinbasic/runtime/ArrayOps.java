@@ -0,0 +1,491 @@
+package org.puffinbasic.runtime;
+
+import org.puffinbasic.domain.PuffinBasicSymbolTable;
+import org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId;
+import org.puffinbasic.domain.STObjects.PuffinBasicTypeId;
+import org.puffinbasic.domain.STObjects.STEntry;
+import org.puffinbasic.domain.STObjects.STFloat64ArrayValue;
+import org.puffinbasic.domain.STObjects.STInt32ArrayValue;
+import org.puffinbasic.error.PuffinBasicRuntimeError;
+import org.puffinbasic.parser.PuffinBasicIR.Instruction;
+
+import static org.puffinbasic.domain.PuffinBasicSymbolTable.NULL_ID;
+import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.DATA_TYPE_MISMATCH;
+import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.ILLEGAL_FUNCTION_PARAM;
+import static org.puffinbasic.runtime.Functions.throwUnsupportedType;
+
+/**
+ * Whole-array elementwise operations (ARRAYOP) on Int32 and Double arrays.
+ * Each operator and shape (array-array, array-scalar, scalar-array) is a plain
+ * counted loop over the backing int[] or double[], which the JIT unrolls and vectorizes.
+ */
+public final class ArrayOps {
+
+    public enum Operator {
+        ADD("+", 2, true, true),
+        SUB("-", 2, true, true),
+        MUL("*", 2, true, true),
+        DIV("/", 2, false, true),
+        IDIV("\\", 2, true, false),
+        MOD("MOD", 2, true, false),
+        POW("^", 2, false, true),
+        MIN("MIN", 2, true, true),
+        MAX("MAX", 2, true, true),
+        NEG("NEG", 1, true, true),
+        ABS("ABS", 1, true, true),
+        SQR("SQR", 1, false, true),
+        SIN("SIN", 1, false, true),
+        COS("COS", 1, false, true),
+        TAN("TAN", 1, false, true),
+        ATN("ATN", 1, false, true),
+        EXP("EXP", 1, false, true),
+        LOG("LOG", 1, false, true),
+        INT("INT", 1, false, true),
+        FIX("FIX", 1, false, true);
+
+        public final String symbol;
+        public final int numArgs;
+        private final boolean int32;
+        private final boolean float64;
+
+        Operator(String symbol, int numArgs, boolean int32, boolean float64) {
+            this.symbol = symbol;
+            this.numArgs = numArgs;
+            this.int32 = int32;
+            this.float64 = float64;
+        }
+
+        public boolean supports(PuffinBasicAtomTypeId type) {
+            return (type == PuffinBasicAtomTypeId.INT32 && int32)
+                    || (type == PuffinBasicAtomTypeId.DOUBLE && float64);
+        }
+
+        // Returns null if there is no such operator.
+        public static Operator lookup(String symbol) {
+            for (var operator : OPERATORS) {
+                if (operator.symbol.equalsIgnoreCase(symbol)) {
+                    return operator;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final Operator[] OPERATORS = Operator.values();
+
+    private ArrayOps() {}
+
+    static void arrayOp(PuffinBasicSymbolTable symbolTable, Instruction param, Instruction instruction) {
+        var operator = OPERATORS[symbolTable.get(instruction.op2).getValue().getInt32()];
+        var dstEntry = symbolTable.get(instruction.op1);
+        var src1 = symbolTable.get(param.op1);
+        var src2 = param.op2 == NULL_ID ? null : symbolTable.get(param.op2);
+        switch (dstEntry.getType().getAtomTypeId()) {
+            case INT32: {
+                int[] dst = ((STInt32ArrayValue) dstEntry.getValue()).getValue();
+                if (src2 == null) {
+                    int32Unary(operator, dst, getInt32Array(src1, dst.length));
+                } else if (!isArray(src1)) {
+                    int32Binary(operator, dst, src1.getValue().getInt32(), getInt32Array(src2, dst.length));
+                } else if (!isArray(src2)) {
+                    int32Binary(operator, dst, getInt32Array(src1, dst.length), src2.getValue().getInt32());
+                } else {
+                    int32Binary(operator, dst, getInt32Array(src1, dst.length), getInt32Array(src2, dst.length));
+                }
+            }
+                break;
+            case DOUBLE: {
+                double[] dst = ((STFloat64ArrayValue) dstEntry.getValue()).getValue();
+                if (src2 == null) {
+                    float64Unary(operator, dst, getFloat64Array(src1, dst.length));
+                } else if (!isArray(src1)) {
+                    float64Binary(operator, dst, src1.getValue().getFloat64(), getFloat64Array(src2, dst.length));
+                } else if (!isArray(src2)) {
+                    float64Binary(operator, dst, getFloat64Array(src1, dst.length), src2.getValue().getFloat64());
+                } else {
+                    float64Binary(operator, dst, getFloat64Array(src1, dst.length), getFloat64Array(src2, dst.length));
+                }
+            }
+                break;
+            default:
+                throwUnsupportedType(dstEntry.getType().getAtomTypeId());
+        }
+    }
+
+    private static boolean isArray(STEntry entry) {
+        return entry.getType().getTypeId() == PuffinBasicTypeId.ARRAY;
+    }
+
+    private static void checkArray(STEntry entry, PuffinBasicAtomTypeId type, int length) {
+        if (entry.getType().getAtomTypeId() != type) {
+            throw new PuffinBasicRuntimeError(
+                    DATA_TYPE_MISMATCH,
+                    "Array data type mismatch: " + entry.getType().getAtomTypeId()
+                            + " is not compatible with " + type
+            );
+        }
+        int srcLength = entry.getValue().getTotalLength();
+        if (srcLength != length) {
+            throw new PuffinBasicRuntimeError(
+                    ILLEGAL_FUNCTION_PARAM,
+                    "Array length mismatch: " + srcLength + " is not compatible with " + length
+            );
+        }
+    }
+
+    private static int[] getInt32Array(STEntry entry, int length) {
+        checkArray(entry, PuffinBasicAtomTypeId.INT32, length);
+        return ((STInt32ArrayValue) entry.getValue()).getValue();
+    }
+
+    private static double[] getFloat64Array(STEntry entry, int length) {
+        checkArray(entry, PuffinBasicAtomTypeId.DOUBLE, length);
+        return ((STFloat64ArrayValue) entry.getValue()).getValue();
+    }
+
+    private static PuffinBasicRuntimeError unsupported(Operator operator, PuffinBasicAtomTypeId type) {
+        return new PuffinBasicRuntimeError(
+                ILLEGAL_FUNCTION_PARAM,
+                "ARRAYOP operator " + operator.symbol + " is not supported for " + type + " arrays"
+        );
+    }
+
+    private static void int32Unary(Operator operator, int[] d, int[] a) {
+        int n = d.length;
+        switch (operator) {
+            case NEG:
+                for (int i = 0; i < n; i++) {
+                    d[i] = -a[i];
+                }
+                break;
+            case ABS:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.abs(a[i]);
+                }
+                break;
+            default:
+                throw unsupported(operator, PuffinBasicAtomTypeId.INT32);
+        }
+    }
+
+    private static void int32Binary(Operator operator, int[] d, int[] a, int[] b) {
+        int n = d.length;
+        try {
+            switch (operator) {
+                case ADD:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a[i] + b[i];
+                    }
+                    break;
+                case SUB:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a[i] - b[i];
+                    }
+                    break;
+                case MUL:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a[i] * b[i];
+                    }
+                    break;
+                case IDIV:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a[i] / b[i];
+                    }
+                    break;
+                case MOD:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a[i] % b[i];
+                    }
+                    break;
+                case MIN:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = Math.min(a[i], b[i]);
+                    }
+                    break;
+                case MAX:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = Math.max(a[i], b[i]);
+                    }
+                    break;
+                default:
+                    throw unsupported(operator, PuffinBasicAtomTypeId.INT32);
+            }
+        } catch (ArithmeticException e) {
+            throw BytecodeCompiler.divisionByZero();
+        }
+    }
+
+    private static void int32Binary(Operator operator, int[] d, int[] a, int b) {
+        int n = d.length;
+        try {
+            switch (operator) {
+                case ADD:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a[i] + b;
+                    }
+                    break;
+                case SUB:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a[i] - b;
+                    }
+                    break;
+                case MUL:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a[i] * b;
+                    }
+                    break;
+                case IDIV:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a[i] / b;
+                    }
+                    break;
+                case MOD:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a[i] % b;
+                    }
+                    break;
+                case MIN:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = Math.min(a[i], b);
+                    }
+                    break;
+                case MAX:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = Math.max(a[i], b);
+                    }
+                    break;
+                default:
+                    throw unsupported(operator, PuffinBasicAtomTypeId.INT32);
+            }
+        } catch (ArithmeticException e) {
+            throw BytecodeCompiler.divisionByZero();
+        }
+    }
+
+    private static void int32Binary(Operator operator, int[] d, int a, int[] b) {
+        int n = d.length;
+        try {
+            switch (operator) {
+                case ADD:
+                case MUL:
+                case MIN:
+                case MAX:
+                    // Commutative
+                    int32Binary(operator, d, b, a);
+                    break;
+                case SUB:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a - b[i];
+                    }
+                    break;
+                case IDIV:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a / b[i];
+                    }
+                    break;
+                case MOD:
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a % b[i];
+                    }
+                    break;
+                default:
+                    throw unsupported(operator, PuffinBasicAtomTypeId.INT32);
+            }
+        } catch (ArithmeticException e) {
+            throw BytecodeCompiler.divisionByZero();
+        }
+    }
+
+    // Like the / operator, a division by zero fails instead of giving infinity.
+    private static void checkNonZero(double[] b) {
+        for (double v : b) {
+            if (v == 0) {
+                throw BytecodeCompiler.divisionByZero();
+            }
+        }
+    }
+
+    private static void float64Unary(Operator operator, double[] d, double[] a) {
+        int n = d.length;
+        switch (operator) {
+            case NEG:
+                for (int i = 0; i < n; i++) {
+                    d[i] = -a[i];
+                }
+                break;
+            case ABS:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.abs(a[i]);
+                }
+                break;
+            case SQR:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.sqrt(a[i]);
+                }
+                break;
+            case SIN:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.sin(a[i]);
+                }
+                break;
+            case COS:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.cos(a[i]);
+                }
+                break;
+            case TAN:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.tan(a[i]);
+                }
+                break;
+            case ATN:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.atan(a[i]);
+                }
+                break;
+            case EXP:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.exp(a[i]);
+                }
+                break;
+            case LOG:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.log(a[i]);
+                }
+                break;
+            case INT:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.floor(a[i]);
+                }
+                break;
+            case FIX:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[i] < 0 ? Math.ceil(a[i]) : Math.floor(a[i]);
+                }
+                break;
+            default:
+                throw unsupported(operator, PuffinBasicAtomTypeId.DOUBLE);
+        }
+    }
+
+    private static void float64Binary(Operator operator, double[] d, double[] a, double[] b) {
+        int n = d.length;
+        switch (operator) {
+            case ADD:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[i] + b[i];
+                }
+                break;
+            case SUB:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[i] - b[i];
+                }
+                break;
+            case MUL:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[i] * b[i];
+                }
+                break;
+            case DIV:
+                checkNonZero(b);
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[i] / b[i];
+                }
+                break;
+            case POW:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.pow(a[i], b[i]);
+                }
+                break;
+            case MIN:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.min(a[i], b[i]);
+                }
+                break;
+            case MAX:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.max(a[i], b[i]);
+                }
+                break;
+            default:
+                throw unsupported(operator, PuffinBasicAtomTypeId.DOUBLE);
+        }
+    }
+
+    private static void float64Binary(Operator operator, double[] d, double[] a, double b) {
+        int n = d.length;
+        switch (operator) {
+            case ADD:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[i] + b;
+                }
+                break;
+            case SUB:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[i] - b;
+                }
+                break;
+            case MUL:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[i] * b;
+                }
+                break;
+            case DIV:
+                if (b == 0) {
+                    throw BytecodeCompiler.divisionByZero();
+                }
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[i] / b;
+                }
+                break;
+            case POW:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.pow(a[i], b);
+                }
+                break;
+            case MIN:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.min(a[i], b);
+                }
+                break;
+            case MAX:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.max(a[i], b);
+                }
+                break;
+            default:
+                throw unsupported(operator, PuffinBasicAtomTypeId.DOUBLE);
+        }
+    }
+
+    private static void float64Binary(Operator operator, double[] d, double a, double[] b) {
+        int n = d.length;
+        switch (operator) {
+            case ADD:
+            case MUL:
+            case MIN:
+            case MAX:
+                // Commutative
+                float64Binary(operator, d, b, a);
+                break;
+            case SUB:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a - b[i];
+                }
+                break;
+            case DIV:
+                checkNonZero(b);
+                for (int i = 0; i < n; i++) {
+                    d[i] = a / b[i];
+                }
+                break;
+            case POW:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.pow(a, b[i]);
+                }
+                break;
+            default:
+                throw unsupported(operator, PuffinBasicAtomTypeId.DOUBLE);
+        }
+    }
+}
@@ -2,8 +2,6 @@ package org.puffinbasic.runtime;
 
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.puffinbasic.domain.PuffinBasicSymbolTable;
 import org.puffinbasic.domain.STObjects;
 import org.puffinbasic.domain.STObjects.AbstractSTEntry;
@@ -27,14 +25,23 @@ import static org.puffinbasic.runtime.Functions.throwUnsupportedType;
 final class ArraysUtil {
 
     static final class ArrayState {
-        private int dimIndex;
+        // Indices of an element of an array with more than 2 dimensions
+        private int[] indices = new int[0];
+        // Copy of an array's values for the order statistics, reused across calls
+        private double[] scratch = new double[0];
 
-        int getAndIncrement() {
-            return dimIndex++;
+        int[] getIndices(int length) {
+            if (indices.length < length) {
+                indices = new int[length];
+            }
+            return indices;
         }
 
-        void reset() {
-            dimIndex = 0;
+        double[] getScratch(int length) {
+            if (scratch.length < length) {
+                scratch = new double[length];
+            }
+            return scratch;
         }
     }
 
@@ -43,12 +50,11 @@ final class ArraysUtil {
         for (var param : params) {
             dims.add(symbolTable.get(param.op1).getValue().getInt32());
         }
-        symbolTable.get(instruction.op1).getValue().setArrayDimensions(dims);
-    }
-
-    static void resetIndex(ArrayState state, PuffinBasicSymbolTable symbolTable, Instruction instruction) {
-        state.reset();
-        symbolTable.get(instruction.op1).getValue().resetArrayIndex();
+        // A new value, like LIST, so that a recursive call doesn't overwrite the array
+        // of the call it interrupted, whose frame holds the previous value.
+        var arrayEntry = (AbstractSTEntry) symbolTable.get(instruction.op1);
+        arrayEntry.createAndSetInstance(symbolTable);
+        arrayEntry.getValue().setArrayDimensions(dims);
     }
 
     static void allocArray(PuffinBasicSymbolTable symbolTable, List<Instruction> params, Instruction instruction) {
@@ -74,14 +80,24 @@ final class ArraysUtil {
         ((AbstractSTEntry) arrayEntry).createAndSetInstance(symbolTable);
     }
 
-    static void setIndex(ArrayState state, PuffinBasicSymbolTable symbolTable, Instruction instruction) {
-        int index = symbolTable.get(instruction.op2).getValue().getInt32();
-        symbolTable.get(instruction.op1).getValue().setArrayIndex(state.getAndIncrement(), index);
+    static void arrayElement(STEntry indexEntry, STEntry refEntry) {
+        refEntry.getValue().setArrayReferenceIndex(indexEntry.getValue().getInt32());
     }
 
-    static void arrayref(PuffinBasicSymbolTable symbolTable, Instruction instruction) {
-        var index = symbolTable.get(instruction.op1).getValue().getArrayIndex1D();
-        symbolTable.get(instruction.result).getValue().setArrayReferenceIndex1D(index);
+    static void arrayElement(STEntry index1Entry, STEntry index2Entry, STEntry refEntry) {
+        refEntry.getValue().setArrayReferenceIndex(
+                index1Entry.getValue().getInt32(), index2Entry.getValue().getInt32());
+    }
+
+    static void arrayElement(
+            PuffinBasicSymbolTable symbolTable, ArrayState state, List<Instruction> params, STEntry refEntry)
+    {
+        int numIndices = params.size();
+        var indices = state.getIndices(numIndices);
+        for (int i = 0; i < numIndices; i++) {
+            indices[i] = symbolTable.get(params.get(i).op1).getValue().getInt32();
+        }
+        refEntry.getValue().setArrayReferenceIndex(indices, numIndices);
     }
 
     static void arrayfill(PuffinBasicSymbolTable symbolTable, Instruction instruction) {
@@ -513,50 +529,19 @@ final class ArraysUtil {
         var arrayEntry = symbolTable.get(instruction.op1);
         var array = arrayEntry.getValue();
         var result = symbolTable.get(instruction.result).getValue();
+        boolean empty = array.getTotalLength() == 0;
         switch (arrayEntry.getType().getAtomTypeId()) {
-            case INT32: {
-                int[] value = ((STInt32ArrayValue) array).getValue();
-                var min = Integer.MAX_VALUE;
-                for (var v : value) {
-                    if (v < min) {
-                        min = v;
-                    }
-                }
-                result.setInt32(min);
-            }
+            case INT32:
+                result.setInt32(empty ? Integer.MAX_VALUE : Reductions.min(((STInt32ArrayValue) array).getValue()));
                 break;
-            case INT64: {
-                long[] value = ((STInt64ArrayValue) array).getValue();
-                var min = Long.MAX_VALUE;
-                for (var v : value) {
-                    if (v < min) {
-                        min = v;
-                    }
-                }
-                result.setInt64(min);
-            }
+            case INT64:
+                result.setInt64(empty ? Long.MAX_VALUE : Reductions.min(((STInt64ArrayValue) array).getValue()));
                 break;
-            case FLOAT: {
-                float[] value = ((STFloat32ArrayValue) array).getValue();
-                var min = Float.MAX_VALUE;
-                for (var v : value) {
-                    if (v < min) {
-                        min = v;
-                    }
-                }
-                result.setFloat32(min);
-            }
+            case FLOAT:
+                result.setFloat32(empty ? Float.MAX_VALUE : Reductions.min(((STFloat32ArrayValue) array).getValue()));
                 break;
-            case DOUBLE: {
-                double[] value = ((STFloat64ArrayValue) array).getValue();
-                var min = Double.MAX_VALUE;
-                for (var v : value) {
-                    if (v < min) {
-                        min = v;
-                    }
-                }
-                result.setFloat64(min);
-            }
+            case DOUBLE:
+                result.setFloat64(empty ? Double.MAX_VALUE : Reductions.min(((STFloat64ArrayValue) array).getValue()));
                 break;
             default:
                 throwUnsupportedType(arrayEntry.getType().getAtomTypeId());
@@ -567,51 +552,20 @@ final class ArraysUtil {
         var arrayEntry = symbolTable.get(instruction.op1);
         var array = arrayEntry.getValue();
         var result = symbolTable.get(instruction.result).getValue();
+        boolean empty = array.getTotalLength() == 0;
         switch (arrayEntry.getType().getAtomTypeId()) {
-            case INT32: {
-                int[] value = ((STInt32ArrayValue) array).getValue();
-                var max = Integer.MIN_VALUE;
-                for (var v : value) {
-                    if (v > max) {
-                        max = v;
-                    }
-                }
-                result.setInt32(max);
-            }
-            break;
-            case INT64: {
-                long[] value = ((STInt64ArrayValue) array).getValue();
-                var max = Long.MIN_VALUE;
-                for (var v : value) {
-                    if (v > max) {
-                        max = v;
-                    }
-                }
-                result.setInt64(max);
-            }
-            break;
-            case FLOAT: {
-                float[] value = ((STFloat32ArrayValue) array).getValue();
-                var max = Float.MIN_VALUE;
-                for (var v : value) {
-                    if (v > max) {
-                        max = v;
-                    }
-                }
-                result.setFloat32(max);
-            }
-            break;
-            case DOUBLE: {
-                double[] value = ((STFloat64ArrayValue) array).getValue();
-                var max = Double.MIN_VALUE;
-                for (var v : value) {
-                    if (v > max) {
-                        max = v;
-                    }
-                }
-                result.setFloat64(max);
-            }
-            break;
+            case INT32:
+                result.setInt32(empty ? Integer.MIN_VALUE : Reductions.max(((STInt32ArrayValue) array).getValue()));
+                break;
+            case INT64:
+                result.setInt64(empty ? Long.MIN_VALUE : Reductions.max(((STInt64ArrayValue) array).getValue()));
+                break;
+            case FLOAT:
+                result.setFloat32(empty ? -Float.MAX_VALUE : Reductions.max(((STFloat32ArrayValue) array).getValue()));
+                break;
+            case DOUBLE:
+                result.setFloat64(empty ? -Double.MAX_VALUE : Reductions.max(((STFloat64ArrayValue) array).getValue()));
+                break;
             default:
                 throwUnsupportedType(arrayEntry.getType().getAtomTypeId());
         }
@@ -620,118 +574,226 @@ final class ArraysUtil {
     static void array1dMean(PuffinBasicSymbolTable symbolTable, Instruction instruction) {
         var arrayEntry = symbolTable.get(instruction.op1);
         var result = symbolTable.get(instruction.result).getValue();
-        var stats = array1dSummaryStats(arrayEntry);
-        result.setFloat64(stats.getMean());
+        result.setFloat64(array1dSum(arrayEntry) / arrayEntry.getValue().getTotalLength());
     }
 
     static void array1dStddev(PuffinBasicSymbolTable symbolTable, Instruction instruction) {
         var arrayEntry = symbolTable.get(instruction.op1);
-        var array = arrayEntry.getValue();
         var result = symbolTable.get(instruction.result).getValue();
-        var stats = array1dSummaryStats(arrayEntry);
-        result.setFloat64(Math.sqrt(stats.getVariance()));
+        int n = arrayEntry.getValue().getTotalLength();
+        final double variance;
+        if (n <= 1) {
+            variance = n == 0 ? Double.NaN : 0;
+        } else {
+            variance = array1dSumSquaredDeviations(arrayEntry, array1dSum(arrayEntry) / n) / (n - 1);
+        }
+        result.setFloat64(Math.sqrt(variance));
     }
 
     static void array1dSum(PuffinBasicSymbolTable symbolTable, Instruction instruction) {
         var arrayEntry = symbolTable.get(instruction.op1);
         var result = symbolTable.get(instruction.result).getValue();
-        var stats = array1dSummaryStats(arrayEntry);
-        result.setFloat64(stats.getSum());
+        result.setFloat64(array1dSum(arrayEntry));
     }
 
-    static void array1dMedian(PuffinBasicSymbolTable symbolTable, Instruction instruction) {
+    static void array1dMedian(PuffinBasicSymbolTable symbolTable, ArrayState state, Instruction instruction) {
         var arrayEntry = symbolTable.get(instruction.op1);
         var result = symbolTable.get(instruction.result).getValue();
-        var stats = array1dDescriptiveStats(arrayEntry);
-        result.setFloat64(stats.getPercentile(50));
+        var values = state.getScratch(arrayEntry.getValue().getTotalLength());
+        result.setFloat64(Selection.percentile(values, copyValues(arrayEntry, values, true), 50));
     }
 
-    static void array1dPercentile(PuffinBasicSymbolTable symbolTable, Instruction instruction) {
+    static void array1dPercentile(PuffinBasicSymbolTable symbolTable, ArrayState state, Instruction instruction) {
         var arrayEntry = symbolTable.get(instruction.op1);
         var pct = symbolTable.get(instruction.op2).getValue().getFloat64();
-        if (pct < 0 || pct > 100) {
+        checkPercentile(pct);
+        var result = symbolTable.get(instruction.result).getValue();
+        var values = state.getScratch(arrayEntry.getValue().getTotalLength());
+        result.setFloat64(Selection.percentile(values, copyValues(arrayEntry, values, true), pct));
+    }
+
+    static void array1dPercentiles(
+            PuffinBasicSymbolTable symbolTable,
+            ArrayState state,
+            Instruction param,
+            Instruction instruction)
+    {
+        var arrayEntry = symbolTable.get(instruction.op1);
+        var pctsEntry = symbolTable.get(param.op1);
+        var resultEntry = symbolTable.get(param.op2);
+        int numPcts = pctsEntry.getValue().getTotalLength();
+        if (resultEntry.getValue().getTotalLength() != numPcts) {
+            throw new PuffinBasicRuntimeError(
+                    ILLEGAL_FUNCTION_PARAM,
+                    "Array length mismatch: " + resultEntry.getValue().getTotalLength()
+                            + " is not compatible with " + numPcts
+            );
+        }
+        var pcts = new double[numPcts];
+        copyValues(pctsEntry, pcts, false);
+        for (int i = 0; i < numPcts; i++) {
+            checkPercentile(pcts[i]);
+        }
+        var values = state.getScratch(arrayEntry.getValue().getTotalLength());
+        Selection.percentiles(
+                values,
+                copyValues(arrayEntry, values, true),
+                pcts,
+                ((STFloat64ArrayValue) resultEntry.getValue()).getValue());
+    }
+
+    private static void checkPercentile(double pct) {
+        if (!(pct >= 0 && pct <= 100)) {
             throw new PuffinBasicRuntimeError(
                     PuffinBasicRuntimeError.ErrorCode.DATA_OUT_OF_RANGE,
                     "Percentile value out of range: " + pct
             );
         }
-        var result = symbolTable.get(instruction.result).getValue();
-        var stats = array1dDescriptiveStats(arrayEntry);
-        result.setFloat64(stats.getPercentile(pct));
     }
 
-    private static SummaryStatistics array1dSummaryStats(STEntry array) {
-        var stats = new SummaryStatistics();
+    // Copies the values of the array, except NaNs if skipNaN, and returns the number of values copied.
+    private static int copyValues(STEntry array, double[] values, boolean skipNaN) {
+        int n = 0;
         switch (array.getType().getAtomTypeId()) {
             case INT32: {
                 int[] value = ((STInt32ArrayValue) array.getValue()).getValue();
                 for (int v : value) {
-                    stats.addValue(v);
+                    values[n++] = v;
                 }
             }
             break;
             case INT64: {
                 long[] value = ((STInt64ArrayValue) array.getValue()).getValue();
                 for (long v : value) {
-                    stats.addValue(v);
+                    values[n++] = v;
                 }
             }
             break;
             case FLOAT: {
                 float[] value = ((STFloat32ArrayValue) array.getValue()).getValue();
                 for (float v : value) {
-                    stats.addValue(v);
+                    if (!skipNaN || !Float.isNaN(v)) {
+                        values[n++] = v;
+                    }
                 }
             }
             break;
             case DOUBLE: {
                 double[] value = ((STFloat64ArrayValue) array.getValue()).getValue();
                 for (double v : value) {
-                    stats.addValue(v);
+                    if (!skipNaN || !Double.isNaN(v)) {
+                        values[n++] = v;
+                    }
                 }
             }
             break;
             default:
                 throwUnsupportedType(array.getType().getAtomTypeId());
         }
-        return stats;
+        return n;
     }
 
-    private static DescriptiveStatistics array1dDescriptiveStats(STEntry array) {
-        var stats = new DescriptiveStatistics();
-        switch (array.getType().getAtomTypeId()) {
+    // Counts the values in each of the equal width buckets over [lo, hi], hi is in the last bucket.
+    // Values outside [lo, hi] are not counted.
+    static void array1dHistogram(PuffinBasicSymbolTable symbolTable, List<Instruction> params, Instruction instruction) {
+        var arrayEntry = symbolTable.get(instruction.op1);
+        int[] counts = ((STInt32ArrayValue) symbolTable.get(instruction.op2).getValue()).getValue();
+        int numBuckets = counts.length;
+        Arrays.fill(counts, 0);
+        if (numBuckets == 0) {
+            return;
+        }
+        switch (arrayEntry.getType().getAtomTypeId()) {
             case INT32: {
-                int[] value = ((STInt32ArrayValue) array.getValue()).getValue();
-                for (int v : value) {
-                    stats.addValue(v);
-                }
-            }
-            break;
-            case INT64: {
-                long[] value = ((STInt64ArrayValue) array.getValue()).getValue();
-                for (long v : value) {
-                    stats.addValue(v);
+                int[] value = ((STInt32ArrayValue) arrayEntry.getValue()).getValue();
+                if (value.length == 0) {
+                    return;
+                }
+                double lo;
+                double hi;
+                if (params.isEmpty()) {
+                    lo = Reductions.min(value);
+                    hi = Reductions.max(value);
+                } else {
+                    lo = symbolTable.get(params.get(0).op1).getValue().getFloat64();
+                    hi = symbolTable.get(params.get(0).op2).getValue().getFloat64();
                 }
-            }
-            break;
-            case FLOAT: {
-                float[] value = ((STFloat32ArrayValue) array.getValue()).getValue();
-                for (float v : value) {
-                    stats.addValue(v);
+                double scale = bucketScale(lo, hi, numBuckets);
+                for (int v : value) {
+                    if (v >= lo && v <= hi) {
+                        counts[Math.min((int) ((v - lo) * scale), numBuckets - 1)]++;
+                    }
                 }
             }
             break;
             case DOUBLE: {
-                double[] value = ((STFloat64ArrayValue) array.getValue()).getValue();
+                double[] value = ((STFloat64ArrayValue) arrayEntry.getValue()).getValue();
+                if (value.length == 0) {
+                    return;
+                }
+                double lo;
+                double hi;
+                if (params.isEmpty()) {
+                    lo = Reductions.min(value);
+                    hi = Reductions.max(value);
+                } else {
+                    lo = symbolTable.get(params.get(0).op1).getValue().getFloat64();
+                    hi = symbolTable.get(params.get(0).op2).getValue().getFloat64();
+                }
+                double scale = bucketScale(lo, hi, numBuckets);
                 for (double v : value) {
-                    stats.addValue(v);
+                    if (v >= lo && v <= hi) {
+                        counts[Math.min((int) ((v - lo) * scale), numBuckets - 1)]++;
+                    }
                 }
             }
             break;
+            default:
+                throwUnsupportedType(arrayEntry.getType().getAtomTypeId());
+        }
+    }
+
+    // Buckets per unit, all values are in the first bucket if lo == hi.
+    private static double bucketScale(double lo, double hi, int numBuckets) {
+        if (!(lo <= hi)) {
+            throw new PuffinBasicRuntimeError(
+                    ILLEGAL_FUNCTION_PARAM,
+                    "Histogram range is empty: " + lo + " to " + hi
+            );
+        }
+        return lo == hi ? 0 : numBuckets / (hi - lo);
+    }
+
+    private static double array1dSum(STEntry array) {
+        switch (array.getType().getAtomTypeId()) {
+            case INT32:
+                return Reductions.sum(((STInt32ArrayValue) array.getValue()).getValue());
+            case INT64:
+                return Reductions.sum(((STInt64ArrayValue) array.getValue()).getValue());
+            case FLOAT:
+                return Reductions.sum(((STFloat32ArrayValue) array.getValue()).getValue());
+            case DOUBLE:
+                return Reductions.sum(((STFloat64ArrayValue) array.getValue()).getValue());
+            default:
+                throwUnsupportedType(array.getType().getAtomTypeId());
+                return Double.NaN;
+        }
+    }
+
+    private static double array1dSumSquaredDeviations(STEntry array, double mean) {
+        switch (array.getType().getAtomTypeId()) {
+            case INT32:
+                return Reductions.sumSquaredDeviations(((STInt32ArrayValue) array.getValue()).getValue(), mean);
+            case INT64:
+                return Reductions.sumSquaredDeviations(((STInt64ArrayValue) array.getValue()).getValue(), mean);
+            case FLOAT:
+                return Reductions.sumSquaredDeviations(((STFloat32ArrayValue) array.getValue()).getValue(), mean);
+            case DOUBLE:
+                return Reductions.sumSquaredDeviations(((STFloat64ArrayValue) array.getValue()).getValue(), mean);
             default:
                 throwUnsupportedType(array.getType().getAtomTypeId());
+                return Double.NaN;
         }
-        return stats;
     }
 
     static void array2dFindRow(
@@ -0,0 +1,1035 @@
+package org.puffinbasic.runtime;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.puffinbasic.domain.PuffinBasicSymbolTable;
+import org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId;
+import org.puffinbasic.domain.STObjects.STEntry;
+import org.puffinbasic.domain.STObjects.STValue;
+import org.puffinbasic.domain.STObjects.STVariable;
+import org.puffinbasic.error.PuffinBasicInternalError;
+import org.puffinbasic.error.PuffinBasicRuntimeError;
+import org.puffinbasic.parser.PuffinBasicIR.OpCode;
+import org.puffinbasic.runtime.ClosureCompiler.Fallback;
+import org.puffinbasic.runtime.Linker.LinkedInstruction;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.objectweb.asm.Opcodes.*;
+import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.DOUBLE;
+import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.FLOAT;
+import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.INT32;
+import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.INT64;
+import static org.puffinbasic.domain.STObjects.PuffinBasicTypeId.SCALAR;
+import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.DIVISION_BY_ZERO;
+import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.INTERRUPTED_ERROR;
+import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.NOT_INITIALIZED;
+import static org.puffinbasic.runtime.Linker.NO_TARGET;
+
+/**
+ * Compiles linked instructions into a JVM class, so that HotSpot can JIT the program.
+ * Numeric scalars of the global scope live in JVM locals, jumps to resolved targets
+ * become branches, and all other instructions call the fallback (the switch
+ * interpreter) after the locals they reference are written back to the symbol table.
+ */
+final class BytecodeCompiler {
+
+    private static final AtomicInteger CLASS_ID = new AtomicInteger();
+
+    private static final String CODE_NAME = Type.getInternalName(CompiledCode.class);
+    private static final String ENTRY_NAME = Type.getInternalName(STEntry.class);
+    private static final String VALUE_NAME = Type.getInternalName(STValue.class);
+    private static final String FALLBACK_NAME = Type.getInternalName(Fallback.class);
+    private static final String ENTRIES_DESC = Type.getDescriptor(STEntry[].class);
+    private static final String INSTRUCTIONS_DESC = Type.getDescriptor(LinkedInstruction[].class);
+    private static final String FALLBACK_DESC = Type.getDescriptor(Fallback.class);
+    private static final String LINKED_DESC = Type.getDescriptor(LinkedInstruction.class);
+    private static final EnumSet<OpCode> CMP_BRANCH_OPS =
+            EnumSet.range(OpCode.CMP_BRANCH_EQ_I32, OpCode.CMP_BRANCH_GE_F64);
+    private static final EnumSet<OpCode> FOR_STEP_OPS =
+            EnumSet.range(OpCode.FOR_STEP_I32, OpCode.FOR_STEP_F64);
+
+    // JVM locals of the generated run(pc) method.
+    private static final int THIS = 0;
+    private static final int PC = 1;
+    private static final int ENTRIES = 2;
+    private static final int INSTRUCTIONS = 3;
+    private static final int FALLBACK = 4;
+    private static final int SCRATCH_WIDE = 5;
+    private static final int SCRATCH_INT = 7;
+    private static final int COUNTS = 8;
+    private static final int FIRST_FREE = 9;
+
+    abstract static class CompiledCode {
+        final STEntry[] entries;
+        final LinkedInstruction[] instructions;
+        final Fallback fallback;
+        // Instruction being executed when run() threw, or the line being run when profiled.
+        int pc;
+        // Instruction# -> #times run, when metrics are enabled.
+        long[] counts;
+        // Set to stop the run, checked at loop headers and fallbacks.
+        volatile boolean cancelled;
+
+        CompiledCode(STEntry[] entries, LinkedInstruction[] instructions, Fallback fallback) {
+            this.entries = entries;
+            this.instructions = instructions;
+            this.fallback = fallback;
+        }
+
+        // Runs until END, the end of the program, or a jump to an instruction
+        // which is not an entry point, and returns the next program counter.
+        abstract int run(int pc);
+    }
+
+    // Returns null if the program is too large to fit in a single JVM method.
+    // The generated class only depends on the program, so runs of the same program
+    // can share it through codeClasses (if not null), each with its own entries.
+    static CompiledCode compile(
+            PuffinBasicSymbolTable symbolTable,
+            LinkedInstruction[] instructions,
+            int[] entryPoints,
+            Fallback fallback,
+            boolean profiled,
+            long[] counts,
+            ConcurrentMap<String, Class<?>> codeClasses)
+    {
+        var className = Type.getInternalName(BytecodeCompiler.class) + "$Program" + CLASS_ID.incrementAndGet();
+        var generator = new Generator(symbolTable, instructions, profiled, counts != null);
+        byte[] bytes;
+        try {
+            bytes = generator.generate(className, entryPoints);
+        } catch (MethodTooLargeException e) {
+            return null;
+        }
+        try {
+            var codeClass = codeClasses != null
+                    ? codeClasses.computeIfAbsent(profiled + "," + (counts != null), key -> defineClass(bytes))
+                    : defineClass(bytes);
+            var code = (CompiledCode) codeClass
+                    .getDeclaredConstructor(STEntry[].class, LinkedInstruction[].class, Fallback.class)
+                    .newInstance(generator.getEntries(), instructions, fallback);
+            code.counts = counts;
+            return code;
+        } catch (ReflectiveOperationException e) {
+            throw new PuffinBasicInternalError("Failed to load compiled program: " + e.getMessage());
+        }
+    }
+
+    private static Class<?> defineClass(byte[] bytes) {
+        try {
+            return MethodHandles.lookup().defineClass(bytes);
+        } catch (IllegalAccessException e) {
+            throw new PuffinBasicInternalError("Failed to load compiled program: " + e.getMessage());
+        }
+    }
+
+    static PuffinBasicRuntimeError cancelled() {
+        return new PuffinBasicRuntimeError(
+                INTERRUPTED_ERROR,
+                "Cancelled"
+        );
+    }
+
+    static PuffinBasicRuntimeError divisionByZero() {
+        return new PuffinBasicRuntimeError(
+                DIVISION_BY_ZERO,
+                "Division by zero"
+        );
+    }
+
+    static PuffinBasicRuntimeError notInitialized() {
+        return new PuffinBasicRuntimeError(
+                NOT_INITIALIZED,
+                "Value cannot be read without initializing"
+        );
+    }
+
+    private enum Kind {
+        // Temporary which is never written, emitted as a literal
+        CONST,
+        // Temporary held in a JVM local
+        LOCAL,
+        // Variable held in a JVM local, with a second local flagging whether it is set
+        VARIABLE,
+        // Variable whose value object is held in a JVM local
+        VALUE,
+        // Any other entry, the value is looked up on each access
+        ENTRY
+    }
+
+    private static final class Operand {
+        final Kind kind;
+        final PuffinBasicAtomTypeId type;
+        final STEntry entry;
+        final int index;
+        final int slot;
+        final int flagSlot;
+
+        Operand(Kind kind, PuffinBasicAtomTypeId type, STEntry entry, int index, int slot, int flagSlot) {
+            this.kind = kind;
+            this.type = type;
+            this.entry = entry;
+            this.index = index;
+            this.slot = slot;
+            this.flagSlot = flagSlot;
+        }
+
+        boolean isLocal() {
+            return kind == Kind.LOCAL || kind == Kind.VARIABLE;
+        }
+    }
+
+    private static final class Generator {
+        private final PuffinBasicSymbolTable symbolTable;
+        private final LinkedInstruction[] instructions;
+        private final boolean profiled;
+        private final boolean counted;
+        private final IntSet written;
+        private final IntSet varrefTargets;
+        private final IntSet pinned;
+        private final Int2ObjectMap<Operand> operands;
+        private final List<STEntry> entries;
+        private final List<Operand> locals;
+        private final List<Operand> values;
+        private int nextSlot;
+        private MethodVisitor mv;
+        private Label[] labels;
+
+        Generator(
+                PuffinBasicSymbolTable symbolTable,
+                LinkedInstruction[] instructions,
+                boolean profiled,
+                boolean counted)
+        {
+            this.symbolTable = symbolTable;
+            this.instructions = instructions;
+            this.profiled = profiled;
+            this.counted = counted;
+            this.written = new IntOpenHashSet();
+            this.varrefTargets = new IntOpenHashSet();
+            this.pinned = new IntOpenHashSet();
+            this.operands = new Int2ObjectOpenHashMap<>();
+            this.entries = new ArrayList<>();
+            this.locals = new ArrayList<>();
+            this.values = new ArrayList<>();
+            this.nextSlot = FIRST_FREE;
+        }
+
+        STEntry[] getEntries() {
+            return entries.toArray(new STEntry[0]);
+        }
+
+        byte[] generate(String className, int[] entryPoints) {
+            for (var linked : instructions) {
+                var instruction = linked.instruction;
+                written.add(instruction.result);
+                switch (instruction.opCode) {
+                    case VARREF:
+                        varrefTargets.add(instruction.op2);
+                        written.add(instruction.op2);
+                        pinned.add(instruction.op1);
+                        pinned.add(instruction.op2);
+                        break;
+                    case PARAM1:
+                    case PARAM2:
+                        // Params are read (and written, e.g. by INPUT) by a later instruction
+                        pinned.add(instruction.op1);
+                        pinned.add(instruction.op2);
+                        break;
+                    case ASSIGN:
+                    case COPY:
+                    case PARAM_COPY:
+                        written.add(instruction.op2);
+                        break;
+                    case SWAP:
+                        written.add(instruction.op1);
+                        written.add(instruction.op2);
+                        break;
+                    default:
+                }
+            }
+            // Classify the operands of all native instructions before emitting,
+            // so that fallbacks know which temporaries live in JVM locals.
+            var isNative = new boolean[instructions.length];
+            for (int i = 0; i < instructions.length; i++) {
+                isNative[i] = classify(instructions[i]);
+            }
+            // Targets of backward jumps, each loop has one.
+            var isLoopHeader = new boolean[instructions.length];
+            for (int i = 0; i < instructions.length; i++) {
+                int target = instructions[i].target;
+                if (target != Linker.NO_TARGET && target <= i) {
+                    isLoopHeader[target] = true;
+                }
+            }
+
+            var cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+                @Override
+                protected String getCommonSuperClass(String type1, String type2) {
+                    return "java/lang/Object";
+                }
+            };
+            cw.visit(V11, ACC_FINAL | ACC_SUPER, className, null, CODE_NAME, null);
+            generateConstructor(cw);
+
+            mv = cw.visitMethod(0, "run", "(I)I", null, null);
+            mv.visitCode();
+            var tryStart = new Label();
+            var tryEnd = new Label();
+            var handler = new Label();
+            mv.visitTryCatchBlock(tryStart, tryEnd, handler, null);
+            mv.visitLabel(tryStart);
+
+            loadField("entries", ENTRIES_DESC, ENTRIES);
+            loadField("instructions", INSTRUCTIONS_DESC, INSTRUCTIONS);
+            loadField("fallback", FALLBACK_DESC, FALLBACK);
+            if (counted) {
+                loadField("counts", "[J", COUNTS);
+            }
+            for (var op : values) {
+                loadEntryValue(op);
+                mv.visitVarInsn(ASTORE, op.slot);
+            }
+            for (var op : locals) {
+                reloadIfInitialized(op);
+            }
+
+            var dispatch = new Label();
+            var exit = new Label();
+            labels = new Label[instructions.length + 1];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = new Label();
+            }
+            mv.visitJumpInsn(GOTO, dispatch);
+
+            for (int i = 0; i < instructions.length; i++) {
+                mv.visitLabel(labels[i]);
+                if (isLoopHeader[i]) {
+                    checkCancelled(i);
+                }
+                if (profiled && (isLineStart(i) || isNative[i] != isNative[i - 1])) {
+                    // Publish the program counter for the profiler, at each line and switch to or from fallbacks
+                    mv.visitVarInsn(ALOAD, THIS);
+                    pushInt(i);
+                    mv.visitFieldInsn(PUTFIELD, CODE_NAME, "pc", "I");
+                }
+                if (counted) {
+                    // counts[i]++
+                    mv.visitVarInsn(ALOAD, COUNTS);
+                    pushInt(i);
+                    mv.visitInsn(DUP2);
+                    mv.visitInsn(LALOAD);
+                    mv.visitInsn(LCONST_1);
+                    mv.visitInsn(LADD);
+                    mv.visitInsn(LASTORE);
+                }
+                if (isNative[i]) {
+                    generateNative(i, instructions[i]);
+                } else {
+                    generateFallback(i, instructions[i], dispatch);
+                }
+            }
+            mv.visitLabel(labels[instructions.length]);
+            pushInt(instructions.length);
+            mv.visitVarInsn(ISTORE, PC);
+            mv.visitJumpInsn(GOTO, exit);
+
+            mv.visitLabel(dispatch);
+            var keys = Arrays.stream(entryPoints)
+                    .filter(pc -> pc >= 0 && pc < instructions.length)
+                    .distinct()
+                    .sorted()
+                    .toArray();
+            var targets = new Label[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                targets[i] = labels[keys[i]];
+            }
+            mv.visitVarInsn(ILOAD, PC);
+            mv.visitLookupSwitchInsn(exit, keys, targets);
+
+            mv.visitLabel(exit);
+            for (var op : locals) {
+                flush(op);
+            }
+            mv.visitVarInsn(ILOAD, PC);
+            mv.visitInsn(IRETURN);
+            mv.visitLabel(tryEnd);
+
+            mv.visitLabel(handler);
+            mv.visitVarInsn(ALOAD, THIS);
+            mv.visitVarInsn(ILOAD, PC);
+            mv.visitFieldInsn(PUTFIELD, CODE_NAME, "pc", "I");
+            mv.visitInsn(ATHROW);
+
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+            cw.visitEnd();
+            return cw.toByteArray();
+        }
+
+        private boolean isLineStart(int i) {
+            if (i == 0) {
+                return true;
+            }
+            var inputRef = instructions[i].instruction.getInputRef();
+            var prevInputRef = instructions[i - 1].instruction.getInputRef();
+            return inputRef.sourceFile != prevInputRef.sourceFile || inputRef.lineNumber != prevInputRef.lineNumber;
+        }
+
+        private void generateConstructor(ClassWriter cw) {
+            var desc = "(" + ENTRIES_DESC + INSTRUCTIONS_DESC + FALLBACK_DESC + ")V";
+            var ctor = cw.visitMethod(0, "<init>", desc, null, null);
+            ctor.visitCode();
+            ctor.visitVarInsn(ALOAD, 0);
+            ctor.visitVarInsn(ALOAD, 1);
+            ctor.visitVarInsn(ALOAD, 2);
+            ctor.visitVarInsn(ALOAD, 3);
+            ctor.visitMethodInsn(INVOKESPECIAL, CODE_NAME, "<init>", desc, false);
+            ctor.visitInsn(RETURN);
+            ctor.visitMaxs(0, 0);
+            ctor.visitEnd();
+        }
+
+        private Operand operand(int id, STEntry entry) {
+            if (entry == null) {
+                return null;
+            }
+            var op = operands.get(id);
+            if (op != null) {
+                return op;
+            }
+            var type = entry.getType();
+            var atomType = type.getAtomTypeId();
+            if (type.getTypeId() != SCALAR || !isNumeric(atomType)) {
+                return null;
+            }
+            if (!entry.isLValue()) {
+                if (!written.contains(id) && entry.getValue().isInitialized()) {
+                    op = new Operand(Kind.CONST, atomType, entry, -1, -1, -1);
+                } else {
+                    op = new Operand(Kind.LOCAL, atomType, entry, addEntry(entry), allocate(atomType), -1);
+                    locals.add(op);
+                }
+            } else if (entry.getClass() == STVariable.class && !pinned.contains(id)) {
+                op = new Operand(Kind.VARIABLE, atomType, entry, addEntry(entry), allocate(atomType), nextSlot++);
+                locals.add(op);
+            } else if (entry.getClass() == STVariable.class && !varrefTargets.contains(id)) {
+                op = new Operand(Kind.VALUE, atomType, entry, addEntry(entry), nextSlot++, -1);
+                values.add(op);
+            } else {
+                op = new Operand(Kind.ENTRY, atomType, entry, addEntry(entry), -1, -1);
+            }
+            operands.put(id, op);
+            return op;
+        }
+
+        private int addEntry(STEntry entry) {
+            entries.add(entry);
+            return entries.size() - 1;
+        }
+
+        private int allocate(PuffinBasicAtomTypeId type) {
+            int slot = nextSlot;
+            nextSlot += asmType(type).getSize();
+            return slot;
+        }
+
+        private boolean classify(LinkedInstruction linked) {
+            var instruction = linked.instruction;
+            switch (instruction.opCode) {
+                case COMMENT:
+                case VARIABLE:
+                case VALUE:
+                case LABEL:
+                    return true;
+                case GOTO_LABEL:
+                case GOTO_LINENUM:
+                    return linked.target != NO_TARGET;
+                case GOTO_LABEL_IF:
+                    return linked.target != NO_TARGET
+                            && operand(instruction.op1, linked.op1) != null;
+                case CMP_BRANCH_EQ_I32: case CMP_BRANCH_EQ_I64: case CMP_BRANCH_EQ_F32: case CMP_BRANCH_EQ_F64:
+                case CMP_BRANCH_NE_I32: case CMP_BRANCH_NE_I64: case CMP_BRANCH_NE_F32: case CMP_BRANCH_NE_F64:
+                case CMP_BRANCH_LT_I32: case CMP_BRANCH_LT_I64: case CMP_BRANCH_LT_F32: case CMP_BRANCH_LT_F64:
+                case CMP_BRANCH_LE_I32: case CMP_BRANCH_LE_I64: case CMP_BRANCH_LE_F32: case CMP_BRANCH_LE_F64:
+                case CMP_BRANCH_GT_I32: case CMP_BRANCH_GT_I64: case CMP_BRANCH_GT_F32: case CMP_BRANCH_GT_F64:
+                case CMP_BRANCH_GE_I32: case CMP_BRANCH_GE_I64: case CMP_BRANCH_GE_F32: case CMP_BRANCH_GE_F64:
+                    return linked.target != NO_TARGET
+                            && operand(instruction.op1, linked.op1) != null
+                            && operand(instruction.op2, linked.op2) != null;
+                case ASSIGN:
+                case COPY: {
+                    var a = operand(instruction.op1, linked.op1);
+                    var b = operand(instruction.op2, linked.op2);
+                    return a != null && b != null && b.kind != Kind.CONST;
+                }
+                case UNARY_MINUS:
+                case NOT: {
+                    var a = operand(instruction.op1, linked.op1);
+                    var r = operand(instruction.result, linked.result);
+                    return a != null && r != null && r.kind != Kind.CONST;
+                }
+                case IDIV:
+                case MOD: {
+                    var a = operand(instruction.op1, linked.op1);
+                    var b = operand(instruction.op2, linked.op2);
+                    var r = operand(instruction.result, linked.result);
+                    return a != null && b != null && r != null && r.kind != Kind.CONST
+                            && a.type == INT32 && b.type == INT32;
+                }
+                default:
+                    if (binaryType(instruction.opCode) == null) {
+                        return false;
+                    }
+                    var a = operand(instruction.op1, linked.op1);
+                    var b = operand(instruction.op2, linked.op2);
+                    var r = operand(instruction.result, linked.result);
+                    return a != null && b != null && r != null && r.kind != Kind.CONST;
+            }
+        }
+
+        private void generateNative(int pc, LinkedInstruction linked) {
+            var instruction = linked.instruction;
+            var opCode = instruction.opCode;
+            switch (opCode) {
+                case COMMENT:
+                case VARIABLE:
+                case VALUE:
+                case LABEL:
+                    return;
+                case GOTO_LABEL:
+                case GOTO_LINENUM:
+                    mv.visitJumpInsn(GOTO, labels[linked.target]);
+                    return;
+                default:
+            }
+
+            pushInt(pc);
+            mv.visitVarInsn(ISTORE, PC);
+            var a = operands.get(instruction.op1);
+            var b = operands.get(instruction.op2);
+            var r = operands.get(instruction.result);
+            switch (opCode) {
+                case GOTO_LABEL_IF:
+                    load(a, INT64);
+                    mv.visitInsn(LCONST_0);
+                    mv.visitInsn(LCMP);
+                    mv.visitJumpInsn(IFNE, labels[linked.target]);
+                    return;
+                case ASSIGN:
+                case COPY:
+                    prepareStore(b);
+                    load(a, b.type);
+                    store(b, b.type);
+                    return;
+                case UNARY_MINUS:
+                    prepareStore(r);
+                    load(a, a.type);
+                    mv.visitInsn(asmType(a.type).getOpcode(INEG));
+                    store(r, a.type);
+                    return;
+                case NOT:
+                    // Booleans are -1/0, so NOT (and AND, OR, ...) are plain bitwise operators.
+                    prepareStore(r);
+                    load(a, INT64);
+                    mv.visitLdcInsn(-1L);
+                    mv.visitInsn(LXOR);
+                    store(r, INT64);
+                    return;
+                case IDIV: {
+                    var divide = new Label();
+                    load(b, INT32);
+                    mv.visitVarInsn(ISTORE, SCRATCH_INT);
+                    mv.visitVarInsn(ILOAD, SCRATCH_INT);
+                    mv.visitJumpInsn(IFNE, divide);
+                    throwError("divisionByZero");
+                    mv.visitLabel(divide);
+                    prepareStore(r);
+                    load(a, INT32);
+                    mv.visitVarInsn(ILOAD, SCRATCH_INT);
+                    mv.visitInsn(IDIV);
+                    store(r, INT32);
+                    return;
+                }
+                case MOD:
+                    prepareStore(r);
+                    load(a, INT32);
+                    load(b, INT32);
+                    mv.visitInsn(IREM);
+                    store(r, INT32);
+                    return;
+                case FDIV: {
+                    var divide = new Label();
+                    load(b, DOUBLE);
+                    mv.visitVarInsn(DSTORE, SCRATCH_WIDE);
+                    mv.visitVarInsn(DLOAD, SCRATCH_WIDE);
+                    mv.visitInsn(DCONST_0);
+                    mv.visitInsn(DCMPL);
+                    mv.visitJumpInsn(IFNE, divide);
+                    throwError("divisionByZero");
+                    mv.visitLabel(divide);
+                    prepareStore(r);
+                    load(a, DOUBLE);
+                    mv.visitVarInsn(DLOAD, SCRATCH_WIDE);
+                    mv.visitInsn(DDIV);
+                    store(r, DOUBLE);
+                    return;
+                }
+                default:
+            }
+
+            var type = binaryType(opCode);
+            if (isCompareBranch(opCode)) {
+                load(a, type);
+                load(b, type);
+                compareAndJump(opCode, type, labels[linked.target]);
+                return;
+            }
+            prepareStore(r);
+            load(a, type);
+            load(b, type);
+            switch (opCode) {
+                case ADDI32: case ADDI64: case ADDF32: case ADDF64:
+                // The loop's end check is the next instruction.
+                case FOR_STEP_I32: case FOR_STEP_I64: case FOR_STEP_F32: case FOR_STEP_F64:
+                    mv.visitInsn(asmType(type).getOpcode(IADD));
+                    store(r, type);
+                    return;
+                case SUBI32: case SUBI64: case SUBF32: case SUBF64:
+                    mv.visitInsn(asmType(type).getOpcode(ISUB));
+                    store(r, type);
+                    return;
+                case MULI32: case MULI64: case MULF32: case MULF64:
+                    mv.visitInsn(asmType(type).getOpcode(IMUL));
+                    store(r, type);
+                    return;
+                case AND:
+                    mv.visitInsn(LAND);
+                    store(r, INT64);
+                    return;
+                case OR:
+                    mv.visitInsn(LOR);
+                    store(r, INT64);
+                    return;
+                case XOR:
+                    mv.visitInsn(LXOR);
+                    store(r, INT64);
+                    return;
+                case EQV:
+                    mv.visitInsn(LXOR);
+                    mv.visitLdcInsn(-1L);
+                    mv.visitInsn(LXOR);
+                    store(r, INT64);
+                    return;
+                case IMP:
+                    // ~v1 | v2
+                    mv.visitVarInsn(LSTORE, SCRATCH_WIDE);
+                    mv.visitLdcInsn(-1L);
+                    mv.visitInsn(LXOR);
+                    mv.visitVarInsn(LLOAD, SCRATCH_WIDE);
+                    mv.visitInsn(LOR);
+                    store(r, INT64);
+                    return;
+                default:
+                    compare(opCode, type);
+                    store(r, INT64);
+            }
+        }
+
+        private void compare(OpCode opCode, PuffinBasicAtomTypeId type) {
+            var isTrue = new Label();
+            var done = new Label();
+            compareAndJump(opCode, type, isTrue);
+            mv.visitInsn(LCONST_0);
+            mv.visitJumpInsn(GOTO, done);
+            mv.visitLabel(isTrue);
+            mv.visitLdcInsn(-1L);
+            mv.visitLabel(done);
+        }
+
+        // Compares the two operands on the stack and jumps to the target if the comparison holds.
+        private void compareAndJump(OpCode opCode, PuffinBasicAtomTypeId type, Label target) {
+            int jump;
+            switch (opCode) {
+                case EQI32: case EQI64: case EQF32: case EQF64:
+                case CMP_BRANCH_EQ_I32: case CMP_BRANCH_EQ_I64: case CMP_BRANCH_EQ_F32: case CMP_BRANCH_EQ_F64:
+                    jump = IFEQ;
+                    break;
+                case NEI32: case NEI64: case NEF32: case NEF64:
+                case CMP_BRANCH_NE_I32: case CMP_BRANCH_NE_I64: case CMP_BRANCH_NE_F32: case CMP_BRANCH_NE_F64:
+                    jump = IFNE;
+                    break;
+                case LTI32: case LTI64: case LTF32: case LTF64:
+                case CMP_BRANCH_LT_I32: case CMP_BRANCH_LT_I64: case CMP_BRANCH_LT_F32: case CMP_BRANCH_LT_F64:
+                    jump = IFLT;
+                    break;
+                case LEI32: case LEI64: case LEF32: case LEF64:
+                case CMP_BRANCH_LE_I32: case CMP_BRANCH_LE_I64: case CMP_BRANCH_LE_F32: case CMP_BRANCH_LE_F64:
+                    jump = IFLE;
+                    break;
+                case GTI32: case GTI64: case GTF32: case GTF64:
+                case CMP_BRANCH_GT_I32: case CMP_BRANCH_GT_I64: case CMP_BRANCH_GT_F32: case CMP_BRANCH_GT_F64:
+                    jump = IFGT;
+                    break;
+                case GEI32: case GEI64: case GEF32: case GEF64:
+                case CMP_BRANCH_GE_I32: case CMP_BRANCH_GE_I64: case CMP_BRANCH_GE_F32: case CMP_BRANCH_GE_F64:
+                    jump = IFGE;
+                    break;
+                default:
+                    throw new PuffinBasicInternalError("Not a comparison: " + opCode);
+            }
+            switch (type) {
+                case INT32:
+                    // IF_ICMPxx follows the same order as IFxx
+                    jump += IF_ICMPEQ - IFEQ;
+                    break;
+                case INT64:
+                    mv.visitInsn(LCMP);
+                    break;
+                case FLOAT:
+                    mv.visitMethodInsn(INVOKESTATIC, "java/lang/Float", "compare", "(FF)I", false);
+                    break;
+                default:
+                    mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "compare", "(DD)I", false);
+            }
+            mv.visitJumpInsn(jump, target);
+        }
+
+        private void generateFallback(int pc, LinkedInstruction linked, Label dispatch) {
+            var instruction = linked.instruction;
+            var synced = new ArrayList<Operand>(3);
+            if (instruction.opCode == OpCode.PARFOR) {
+                // The workers copy the whole symbol table
+                for (var op : operands.values()) {
+                    if (op.isLocal()) {
+                        synced.add(op);
+                    }
+                }
+            } else if (instruction.opCode == OpCode.PUSH_RT_SCOPE || instruction.opCode == OpCode.POP_RT_SCOPE) {
+                // Recursive calls save and restore the entries of the function's scope
+                for (var e : operands.int2ObjectEntrySet()) {
+                    var op = e.getValue();
+                    if (op.isLocal() && symbolTable.isFrameEntry(instruction.op1, e.getIntKey())) {
+                        synced.add(op);
+                    }
+                }
+            } else {
+                var ids = new IntArrayList(new int[] {instruction.op1, instruction.op2, instruction.result});
+                if (isForStep(instruction.opCode)) {
+                    // Also runs the loop's end check
+                    ids.add(instructions[pc + 1].instruction.op2);
+                }
+                for (int id : ids) {
+                    var op = operands.get(id);
+                    if (op != null && op.isLocal() && !synced.contains(op)) {
+                        synced.add(op);
+                    }
+                }
+            }
+            for (var op : synced) {
+                flush(op);
+            }
+            checkCancelled(pc);
+            pushInt(pc);
+            mv.visitVarInsn(ISTORE, PC);
+            mv.visitVarInsn(ALOAD, FALLBACK);
+            mv.visitVarInsn(ALOAD, INSTRUCTIONS);
+            pushInt(pc);
+            mv.visitInsn(AALOAD);
+            pushInt(pc);
+            mv.visitMethodInsn(INVOKEINTERFACE, FALLBACK_NAME, "exec", "(" + LINKED_DESC + "I)I", true);
+            mv.visitVarInsn(ISTORE, PC);
+            for (var op : synced) {
+                reloadIfInitialized(op);
+            }
+            mv.visitVarInsn(ILOAD, PC);
+            pushInt(pc + 1);
+            mv.visitJumpInsn(IF_ICMPEQ, labels[pc + 1]);
+            if (isForStep(instruction.opCode)) {
+                mv.visitVarInsn(ILOAD, PC);
+                pushInt(pc + 2);
+                mv.visitJumpInsn(IF_ICMPEQ, labels[pc + 2]);
+            }
+            mv.visitJumpInsn(GOTO, dispatch);
+        }
+
+        private void load(Operand op, PuffinBasicAtomTypeId type) {
+            switch (op.kind) {
+                case CONST:
+                    pushConstant(op.entry.getValue(), type);
+                    break;
+                case VARIABLE: {
+                    var initialized = new Label();
+                    mv.visitVarInsn(ILOAD, op.flagSlot);
+                    mv.visitJumpInsn(IFNE, initialized);
+                    throwError("notInitialized");
+                    mv.visitLabel(initialized);
+                }
+                // fall through
+                case LOCAL:
+                    mv.visitVarInsn(asmType(op.type).getOpcode(ILOAD), op.slot);
+                    convert(op.type, type);
+                    break;
+                default:
+                    loadValue(op);
+                    mv.visitMethodInsn(INVOKEINTERFACE, VALUE_NAME, getter(type), "()" + descriptor(type), true);
+            }
+        }
+
+        private void prepareStore(Operand op) {
+            if (!op.isLocal()) {
+                loadValue(op);
+            }
+        }
+
+        private void store(Operand op, PuffinBasicAtomTypeId type) {
+            if (op.isLocal()) {
+                convert(type, op.type);
+                mv.visitVarInsn(asmType(op.type).getOpcode(ISTORE), op.slot);
+                setFlag(op, ICONST_1);
+            } else {
+                mv.visitMethodInsn(INVOKEINTERFACE, VALUE_NAME, setter(type), "(" + descriptor(type) + ")V", true);
+            }
+        }
+
+        // Pushes the STValue of an entry.
+        private void loadValue(Operand op) {
+            if (op.kind == Kind.VALUE) {
+                mv.visitVarInsn(ALOAD, op.slot);
+            } else {
+                loadEntryValue(op);
+            }
+        }
+
+        private void loadEntryValue(Operand op) {
+            mv.visitVarInsn(ALOAD, ENTRIES);
+            pushInt(op.index);
+            mv.visitInsn(AALOAD);
+            mv.visitMethodInsn(INVOKEINTERFACE, ENTRY_NAME, "getValue", "()" + Type.getDescriptor(STValue.class), true);
+        }
+
+        // Writes a local back to the symbol table.
+        private void flush(Operand op) {
+            var skip = new Label();
+            if (op.kind == Kind.VARIABLE) {
+                mv.visitVarInsn(ILOAD, op.flagSlot);
+                mv.visitJumpInsn(IFEQ, skip);
+            }
+            loadEntryValue(op);
+            mv.visitVarInsn(asmType(op.type).getOpcode(ILOAD), op.slot);
+            mv.visitMethodInsn(INVOKEINTERFACE, VALUE_NAME, setter(op.type), "(" + descriptor(op.type) + ")V", true);
+            mv.visitLabel(skip);
+        }
+
+        // Reads a local from the symbol table, uninitialized values are read as zero.
+        private void reloadIfInitialized(Operand op) {
+            var uninitialized = new Label();
+            var done = new Label();
+            loadEntryValue(op);
+            mv.visitInsn(DUP);
+            mv.visitMethodInsn(INVOKEINTERFACE, VALUE_NAME, "isInitialized", "()Z", true);
+            mv.visitJumpInsn(IFEQ, uninitialized);
+            mv.visitMethodInsn(INVOKEINTERFACE, VALUE_NAME, getter(op.type), "()" + descriptor(op.type), true);
+            mv.visitVarInsn(asmType(op.type).getOpcode(ISTORE), op.slot);
+            setFlag(op, ICONST_1);
+            mv.visitJumpInsn(GOTO, done);
+            mv.visitLabel(uninitialized);
+            mv.visitInsn(POP);
+            mv.visitInsn(zero(op.type));
+            mv.visitVarInsn(asmType(op.type).getOpcode(ISTORE), op.slot);
+            setFlag(op, ICONST_0);
+            mv.visitLabel(done);
+        }
+
+        private void setFlag(Operand op, int value) {
+            if (op.kind == Kind.VARIABLE) {
+                mv.visitInsn(value);
+                mv.visitVarInsn(ISTORE, op.flagSlot);
+            }
+        }
+
+        private void checkCancelled(int pc) {
+            var running = new Label();
+            mv.visitVarInsn(ALOAD, THIS);
+            mv.visitFieldInsn(GETFIELD, CODE_NAME, "cancelled", "Z");
+            mv.visitJumpInsn(IFEQ, running);
+            pushInt(pc);
+            mv.visitVarInsn(ISTORE, PC);
+            throwError("cancelled");
+            mv.visitLabel(running);
+        }
+
+        private void throwError(String factory) {
+            mv.visitMethodInsn(
+                    INVOKESTATIC,
+                    Type.getInternalName(BytecodeCompiler.class),
+                    factory,
+                    "()" + Type.getDescriptor(PuffinBasicRuntimeError.class),
+                    false);
+            mv.visitInsn(ATHROW);
+        }
+
+        private void loadField(String name, String desc, int slot) {
+            mv.visitVarInsn(ALOAD, THIS);
+            mv.visitFieldInsn(GETFIELD, CODE_NAME, name, desc);
+            mv.visitVarInsn(ASTORE, slot);
+        }
+
+        private void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                mv.visitInsn(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                mv.visitIntInsn(BIPUSH, value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                mv.visitIntInsn(SIPUSH, value);
+            } else {
+                mv.visitLdcInsn(value);
+            }
+        }
+
+        private void pushConstant(STValue value, PuffinBasicAtomTypeId type) {
+            switch (type) {
+                case INT32:
+                    pushInt(value.getInt32());
+                    break;
+                case INT64:
+                    mv.visitLdcInsn(value.getInt64());
+                    break;
+                case FLOAT:
+                    mv.visitLdcInsn(value.getFloat32());
+                    break;
+                default:
+                    mv.visitLdcInsn(value.getFloat64());
+            }
+        }
+
+        private void convert(PuffinBasicAtomTypeId from, PuffinBasicAtomTypeId to) {
+            if (from == to) {
+                return;
+            }
+            int opcode;
+            switch (from) {
+                case INT32:
+                    opcode = to == INT64 ? I2L : to == FLOAT ? I2F : I2D;
+                    break;
+                case INT64:
+                    opcode = to == INT32 ? L2I : to == FLOAT ? L2F : L2D;
+                    break;
+                case FLOAT:
+                    opcode = to == INT32 ? F2I : to == INT64 ? F2L : F2D;
+                    break;
+                default:
+                    opcode = to == INT32 ? D2I : to == INT64 ? D2L : D2F;
+            }
+            mv.visitInsn(opcode);
+        }
+    }
+
+    private static boolean isNumeric(PuffinBasicAtomTypeId type) {
+        return type == INT32 || type == INT64 || type == FLOAT || type == DOUBLE;
+    }
+
+    // Operand type of the natively compiled binary operators, null for other opcodes.
+    private static PuffinBasicAtomTypeId binaryType(OpCode opCode) {
+        switch (opCode) {
+            case ADDI32: case SUBI32: case MULI32: case FOR_STEP_I32:
+            case EQI32: case NEI32: case LTI32: case LEI32: case GTI32: case GEI32:
+            case CMP_BRANCH_EQ_I32: case CMP_BRANCH_NE_I32: case CMP_BRANCH_LT_I32: case CMP_BRANCH_LE_I32: case CMP_BRANCH_GT_I32: case CMP_BRANCH_GE_I32:
+                return INT32;
+            case ADDI64: case SUBI64: case MULI64: case FOR_STEP_I64:
+            case EQI64: case NEI64: case LTI64: case LEI64: case GTI64: case GEI64:
+            case CMP_BRANCH_EQ_I64: case CMP_BRANCH_NE_I64: case CMP_BRANCH_LT_I64: case CMP_BRANCH_LE_I64: case CMP_BRANCH_GT_I64: case CMP_BRANCH_GE_I64:
+            case AND: case OR: case XOR: case EQV: case IMP:
+                return INT64;
+            case ADDF32: case SUBF32: case MULF32: case FOR_STEP_F32:
+            case EQF32: case NEF32: case LTF32: case LEF32: case GTF32: case GEF32:
+            case CMP_BRANCH_EQ_F32: case CMP_BRANCH_NE_F32: case CMP_BRANCH_LT_F32: case CMP_BRANCH_LE_F32: case CMP_BRANCH_GT_F32: case CMP_BRANCH_GE_F32:
+                return FLOAT;
+            case ADDF64: case SUBF64: case MULF64: case FDIV: case FOR_STEP_F64:
+            case EQF64: case NEF64: case LTF64: case LEF64: case GTF64: case GEF64:
+            case CMP_BRANCH_EQ_F64: case CMP_BRANCH_NE_F64: case CMP_BRANCH_LT_F64: case CMP_BRANCH_LE_F64: case CMP_BRANCH_GT_F64: case CMP_BRANCH_GE_F64:
+                return DOUBLE;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isForStep(OpCode opCode) {
+        return FOR_STEP_OPS.contains(opCode);
+    }
+
+    private static boolean isCompareBranch(OpCode opCode) {
+        return CMP_BRANCH_OPS.contains(opCode);
+    }
+
+    private static Type asmType(PuffinBasicAtomTypeId type) {
+        switch (type) {
+            case INT32:
+                return Type.INT_TYPE;
+            case INT64:
+                return Type.LONG_TYPE;
+            case FLOAT:
+                return Type.FLOAT_TYPE;
+            default:
+                return Type.DOUBLE_TYPE;
+        }
+    }
+
+    private static String descriptor(PuffinBasicAtomTypeId type) {
+        return asmType(type).getDescriptor();
+    }
+
+    private static int zero(PuffinBasicAtomTypeId type) {
+        switch (type) {
+            case INT32:
+                return ICONST_0;
+            case INT64:
+                return LCONST_0;
+            case FLOAT:
+                return FCONST_0;
+            default:
+                return DCONST_0;
+        }
+    }
+
+    private static String getter(PuffinBasicAtomTypeId type) {
+        switch (type) {
+            case INT32:
+                return "getInt32";
+            case INT64:
+                return "getInt64";
+            case FLOAT:
+                return "getFloat32";
+            default:
+                return "getFloat64";
+        }
+    }
+
+    private static String setter(PuffinBasicAtomTypeId type) {
+        switch (type) {
+            case INT32:
+                return "setInt32";
+            case INT64:
+                return "setInt64";
+            case FLOAT:
+                return "setFloat32";
+            default:
+                return "setFloat64";
+        }
+    }
+}
@@ -0,0 +1,851 @@
+package org.puffinbasic.runtime;
+
+import org.puffinbasic.domain.RegisterFile;
+import org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId;
+import org.puffinbasic.domain.STObjects.STEntry;
+import org.puffinbasic.domain.STObjects.STRegister;
+import org.puffinbasic.error.PuffinBasicRuntimeError;
+import org.puffinbasic.parser.PuffinBasicIR.Instruction;
+import org.puffinbasic.parser.PuffinBasicIR.OpCode;
+import org.puffinbasic.runtime.Linker.LinkedInstruction;
+
+import static org.puffinbasic.domain.PuffinBasicSymbolTable.NULL_ID;
+import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.INT32;
+import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.INT64;
+import static org.puffinbasic.parser.PuffinBasicIR.OpCode.GOTO_LABEL_IF;
+import static org.puffinbasic.parser.PuffinBasicIR.OpCode.NOT;
+import static org.puffinbasic.runtime.Linker.NO_TARGET;
+import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.DIVISION_BY_ZERO;
+
+/**
+ * Compiles linked instructions into pre-specialized executable nodes.
+ * Each node executes one instruction and returns the next program counter,
+ * so the interpreter loop becomes {@code pc = nodes[pc].exec(pc)}.
+ * Instructions without a specialized node, or with operands that are not
+ * linked, run through the fallback (the switch interpreter).
+ */
+final class ClosureCompiler {
+
+    static final int END_PC = -1;
+
+    interface Node {
+        int exec(int pc);
+    }
+
+    interface Fallback {
+        int exec(LinkedInstruction linked, int pc);
+    }
+
+    private interface BinaryOperator {
+        void apply(STEntry op1Entry, STEntry op2Entry, STEntry resultEntry);
+    }
+
+    // counts: Instruction# -> #times run, when metrics are enabled.
+    static Node[] compile(LinkedInstruction[] instructions, Fallback fallback, long[] counts) {
+        var nodes = new Node[instructions.length];
+        for (int i = 0; i < nodes.length; i++) {
+            var node = compileRegisters(instructions[i]);
+            if (node == null) {
+                node = compile(instructions[i]);
+            }
+            if (node == null) {
+                node = compileForStep(instructions[i], nodes, counts);
+            }
+            if (node == null) {
+                var linked = instructions[i];
+                node = pc -> fallback.exec(linked, pc);
+            }
+            nodes[i] = node;
+        }
+        return nodes;
+    }
+
+    // Nodes which read and write the register banks directly, used when all operands are
+    // registers of the instruction's type. Banks don't grow once the IR is generated.
+    private static Node compileRegisters(LinkedInstruction linked) {
+        var instruction = linked.instruction;
+        var opCode = instruction.opCode;
+        if (opCode == GOTO_LABEL_IF) {
+            int target = linked.target;
+            if (target == NO_TARGET || !isRegister(linked.op1, INT64)) {
+                return null;
+            }
+            var cond = (STRegister) linked.op1;
+            var v = cond.getRegisters().getInt64();
+            int c = cond.getIndex();
+            return pc -> v[c] != 0 ? target : pc + 1;
+        }
+        if (opCode == NOT) {
+            if (!isRegister(linked.op1, INT64) || !isRegister(linked.result, INT64)) {
+                return null;
+            }
+            var v = ((STRegister) linked.result).getRegisters().getInt64();
+            int a = ((STRegister) linked.op1).getIndex();
+            int r = ((STRegister) linked.result).getIndex();
+            return pc -> {
+                v[r] = ~v[a];
+                return pc + 1;
+            };
+        }
+        if (!(linked.op1 instanceof STRegister)
+                || !(linked.op2 instanceof STRegister)
+                || !(linked.result instanceof STRegister)) {
+            return null;
+        }
+        var op1 = (STRegister) linked.op1;
+        var op2 = (STRegister) linked.op2;
+        var result = (STRegister) linked.result;
+        var type = op1.getType().getAtomTypeId();
+        if (op2.getType().getAtomTypeId() != type) {
+            return null;
+        }
+        var registers = result.getRegisters();
+        int a = op1.getIndex();
+        int b = op2.getIndex();
+        int r = result.getIndex();
+        var resultType = result.getType().getAtomTypeId();
+        if (resultType == INT64 && isComparison(opCode)) {
+            return compareRegisters(opCode, type, registers, a, b, r);
+        }
+        if (resultType != type) {
+            return null;
+        }
+        switch (type) {
+            case INT32: {
+                var v = registers.getInt32();
+                switch (opCode) {
+                    case ADDI32:
+                        return pc -> {
+                            v[r] = v[a] + v[b];
+                            return pc + 1;
+                        };
+                    case SUBI32:
+                        return pc -> {
+                            v[r] = v[a] - v[b];
+                            return pc + 1;
+                        };
+                    case MULI32:
+                        return pc -> {
+                            v[r] = v[a] * v[b];
+                            return pc + 1;
+                        };
+                    default:
+                        return null;
+                }
+            }
+            case INT64: {
+                var v = registers.getInt64();
+                switch (opCode) {
+                    case ADDI64:
+                        return pc -> {
+                            v[r] = v[a] + v[b];
+                            return pc + 1;
+                        };
+                    case SUBI64:
+                        return pc -> {
+                            v[r] = v[a] - v[b];
+                            return pc + 1;
+                        };
+                    case MULI64:
+                        return pc -> {
+                            v[r] = v[a] * v[b];
+                            return pc + 1;
+                        };
+                    // Booleans are -1/0, so the logical operators are bitwise operators.
+                    case AND:
+                        return pc -> {
+                            v[r] = v[a] & v[b];
+                            return pc + 1;
+                        };
+                    case OR:
+                        return pc -> {
+                            v[r] = v[a] | v[b];
+                            return pc + 1;
+                        };
+                    case XOR:
+                        return pc -> {
+                            v[r] = v[a] ^ v[b];
+                            return pc + 1;
+                        };
+                    default:
+                        return null;
+                }
+            }
+            case FLOAT: {
+                var v = registers.getFloat32();
+                switch (opCode) {
+                    case ADDF32:
+                        return pc -> {
+                            v[r] = v[a] + v[b];
+                            return pc + 1;
+                        };
+                    case SUBF32:
+                        return pc -> {
+                            v[r] = v[a] - v[b];
+                            return pc + 1;
+                        };
+                    case MULF32:
+                        return pc -> {
+                            v[r] = v[a] * v[b];
+                            return pc + 1;
+                        };
+                    default:
+                        return null;
+                }
+            }
+            case DOUBLE: {
+                var v = registers.getFloat64();
+                switch (opCode) {
+                    case ADDF64:
+                        return pc -> {
+                            v[r] = v[a] + v[b];
+                            return pc + 1;
+                        };
+                    case SUBF64:
+                        return pc -> {
+                            v[r] = v[a] - v[b];
+                            return pc + 1;
+                        };
+                    case MULF64:
+                        return pc -> {
+                            v[r] = v[a] * v[b];
+                            return pc + 1;
+                        };
+                    case FDIV:
+                        return pc -> {
+                            if (v[b] == 0) {
+                                throw new PuffinBasicRuntimeError(
+                                        DIVISION_BY_ZERO,
+                                        "Division by zero"
+                                );
+                            }
+                            v[r] = v[a] / v[b];
+                            return pc + 1;
+                        };
+                    default:
+                        return null;
+                }
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static Node compareRegisters(
+            OpCode opCode, PuffinBasicAtomTypeId type, RegisterFile registers, int a, int b, int r)
+    {
+        var result = registers.getInt64();
+        switch (opCode) {
+            case EQI32: {
+                var v = registers.getInt32();
+                return pc -> {
+                    result[r] = v[a] == v[b] ? -1 : 0;
+                    return pc + 1;
+                };
+            }
+            case NEI32: {
+                var v = registers.getInt32();
+                return pc -> {
+                    result[r] = v[a] != v[b] ? -1 : 0;
+                    return pc + 1;
+                };
+            }
+            case LTI32: {
+                var v = registers.getInt32();
+                return pc -> {
+                    result[r] = v[a] < v[b] ? -1 : 0;
+                    return pc + 1;
+                };
+            }
+            case LEI32: {
+                var v = registers.getInt32();
+                return pc -> {
+                    result[r] = v[a] <= v[b] ? -1 : 0;
+                    return pc + 1;
+                };
+            }
+            case GTI32: {
+                var v = registers.getInt32();
+                return pc -> {
+                    result[r] = v[a] > v[b] ? -1 : 0;
+                    return pc + 1;
+                };
+            }
+            case GEI32: {
+                var v = registers.getInt32();
+                return pc -> {
+                    result[r] = v[a] >= v[b] ? -1 : 0;
+                    return pc + 1;
+                };
+            }
+            case EQI64:
+                return pc -> {
+                    result[r] = result[a] == result[b] ? -1 : 0;
+                    return pc + 1;
+                };
+            case NEI64:
+                return pc -> {
+                    result[r] = result[a] != result[b] ? -1 : 0;
+                    return pc + 1;
+                };
+            case LTI64:
+                return pc -> {
+                    result[r] = result[a] < result[b] ? -1 : 0;
+                    return pc + 1;
+                };
+            case LEI64:
+                return pc -> {
+                    result[r] = result[a] <= result[b] ? -1 : 0;
+                    return pc + 1;
+                };
+            case GTI64:
+                return pc -> {
+                    result[r] = result[a] > result[b] ? -1 : 0;
+                    return pc + 1;
+                };
+            case GEI64:
+                return pc -> {
+                    result[r] = result[a] >= result[b] ? -1 : 0;
+                    return pc + 1;
+                };
+            case EQF64: {
+                var v = registers.getFloat64();
+                return pc -> {
+                    result[r] = Double.compare(v[a], v[b]) == 0 ? -1 : 0;
+                    return pc + 1;
+                };
+            }
+            case NEF64: {
+                var v = registers.getFloat64();
+                return pc -> {
+                    result[r] = Double.compare(v[a], v[b]) != 0 ? -1 : 0;
+                    return pc + 1;
+                };
+            }
+            case LTF64: {
+                var v = registers.getFloat64();
+                return pc -> {
+                    result[r] = Double.compare(v[a], v[b]) < 0 ? -1 : 0;
+                    return pc + 1;
+                };
+            }
+            case LEF64: {
+                var v = registers.getFloat64();
+                return pc -> {
+                    result[r] = Double.compare(v[a], v[b]) <= 0 ? -1 : 0;
+                    return pc + 1;
+                };
+            }
+            case GTF64: {
+                var v = registers.getFloat64();
+                return pc -> {
+                    result[r] = Double.compare(v[a], v[b]) > 0 ? -1 : 0;
+                    return pc + 1;
+                };
+            }
+            case GEF64: {
+                var v = registers.getFloat64();
+                return pc -> {
+                    result[r] = Double.compare(v[a], v[b]) >= 0 ? -1 : 0;
+                    return pc + 1;
+                };
+            }
+            default:
+                return null;
+        }
+    }
+
+    // A FOR loop's step, then the end check which follows it, counted like the other engines do.
+    private static Node compileForStep(LinkedInstruction linked, Node[] nodes, long[] counts) {
+        var instruction = linked.instruction;
+        final OpCode addOpCode;
+        switch (instruction.opCode) {
+            case FOR_STEP_I32: addOpCode = OpCode.ADDI32; break;
+            case FOR_STEP_I64: addOpCode = OpCode.ADDI64; break;
+            case FOR_STEP_F32: addOpCode = OpCode.ADDF32; break;
+            case FOR_STEP_F64: addOpCode = OpCode.ADDF64; break;
+            default: return null;
+        }
+        var add = new LinkedInstruction(
+                new Instruction(instruction.inputRef, addOpCode, instruction.op1, instruction.op2, instruction.result),
+                linked.op1, linked.op2, linked.result, NO_TARGET);
+        var node = compileRegisters(add);
+        if (node == null) {
+            node = compile(add);
+        }
+        if (node == null) {
+            return null;
+        }
+        var step = node;
+        if (counts != null) {
+            return pc -> {
+                int next = step.exec(pc);
+                counts[next]++;
+                return nodes[next].exec(next);
+            };
+        }
+        return pc -> {
+            int next = step.exec(pc);
+            return nodes[next].exec(next);
+        };
+    }
+
+    private static Node compareBranch(OpCode opCode, STEntry a, STEntry b, int target) {
+        switch (opCode) {
+            case CMP_BRANCH_EQ_I32:
+                return pc -> a.getValue().getInt32() == b.getValue().getInt32() ? target : pc + 1;
+            case CMP_BRANCH_EQ_I64:
+                return pc -> a.getValue().getInt64() == b.getValue().getInt64() ? target : pc + 1;
+            case CMP_BRANCH_EQ_F32:
+                return pc -> Float.compare(a.getValue().getFloat32(), b.getValue().getFloat32()) == 0 ? target : pc + 1;
+            case CMP_BRANCH_EQ_F64:
+                return pc -> Double.compare(a.getValue().getFloat64(), b.getValue().getFloat64()) == 0 ? target : pc + 1;
+            case CMP_BRANCH_NE_I32:
+                return pc -> a.getValue().getInt32() != b.getValue().getInt32() ? target : pc + 1;
+            case CMP_BRANCH_NE_I64:
+                return pc -> a.getValue().getInt64() != b.getValue().getInt64() ? target : pc + 1;
+            case CMP_BRANCH_NE_F32:
+                return pc -> Float.compare(a.getValue().getFloat32(), b.getValue().getFloat32()) != 0 ? target : pc + 1;
+            case CMP_BRANCH_NE_F64:
+                return pc -> Double.compare(a.getValue().getFloat64(), b.getValue().getFloat64()) != 0 ? target : pc + 1;
+            case CMP_BRANCH_LT_I32:
+                return pc -> a.getValue().getInt32() < b.getValue().getInt32() ? target : pc + 1;
+            case CMP_BRANCH_LT_I64:
+                return pc -> a.getValue().getInt64() < b.getValue().getInt64() ? target : pc + 1;
+            case CMP_BRANCH_LT_F32:
+                return pc -> Float.compare(a.getValue().getFloat32(), b.getValue().getFloat32()) < 0 ? target : pc + 1;
+            case CMP_BRANCH_LT_F64:
+                return pc -> Double.compare(a.getValue().getFloat64(), b.getValue().getFloat64()) < 0 ? target : pc + 1;
+            case CMP_BRANCH_LE_I32:
+                return pc -> a.getValue().getInt32() <= b.getValue().getInt32() ? target : pc + 1;
+            case CMP_BRANCH_LE_I64:
+                return pc -> a.getValue().getInt64() <= b.getValue().getInt64() ? target : pc + 1;
+            case CMP_BRANCH_LE_F32:
+                return pc -> Float.compare(a.getValue().getFloat32(), b.getValue().getFloat32()) <= 0 ? target : pc + 1;
+            case CMP_BRANCH_LE_F64:
+                return pc -> Double.compare(a.getValue().getFloat64(), b.getValue().getFloat64()) <= 0 ? target : pc + 1;
+            case CMP_BRANCH_GT_I32:
+                return pc -> a.getValue().getInt32() > b.getValue().getInt32() ? target : pc + 1;
+            case CMP_BRANCH_GT_I64:
+                return pc -> a.getValue().getInt64() > b.getValue().getInt64() ? target : pc + 1;
+            case CMP_BRANCH_GT_F32:
+                return pc -> Float.compare(a.getValue().getFloat32(), b.getValue().getFloat32()) > 0 ? target : pc + 1;
+            case CMP_BRANCH_GT_F64:
+                return pc -> Double.compare(a.getValue().getFloat64(), b.getValue().getFloat64()) > 0 ? target : pc + 1;
+            case CMP_BRANCH_GE_I32:
+                return pc -> a.getValue().getInt32() >= b.getValue().getInt32() ? target : pc + 1;
+            case CMP_BRANCH_GE_I64:
+                return pc -> a.getValue().getInt64() >= b.getValue().getInt64() ? target : pc + 1;
+            case CMP_BRANCH_GE_F32:
+                return pc -> Float.compare(a.getValue().getFloat32(), b.getValue().getFloat32()) >= 0 ? target : pc + 1;
+            case CMP_BRANCH_GE_F64:
+                return pc -> Double.compare(a.getValue().getFloat64(), b.getValue().getFloat64()) >= 0 ? target : pc + 1;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isComparison(OpCode opCode) {
+        switch (opCode) {
+            case EQI32: case NEI32: case LTI32: case LEI32: case GTI32: case GEI32:
+            case EQI64: case NEI64: case LTI64: case LEI64: case GTI64: case GEI64:
+            case EQF64: case NEF64: case LTF64: case LEF64: case GTF64: case GEF64:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isRegister(STEntry entry, PuffinBasicAtomTypeId type) {
+        return entry instanceof STRegister && entry.getType().getAtomTypeId() == type;
+    }
+
+    private static Node compile(LinkedInstruction linked) {
+        var instruction = linked.instruction;
+        switch (instruction.opCode) {
+            case COMMENT:
+            case VARIABLE:
+            case VALUE:
+            case LABEL:
+                return pc -> pc + 1;
+            case GOTO_LABEL:
+            case GOTO_LINENUM: {
+                int target = linked.target;
+                return target == NO_TARGET ? null : pc -> target;
+            }
+            case GOTO_LABEL_IF: {
+                int target = linked.target;
+                var cond = linked.op1;
+                if (target == NO_TARGET || cond == null) {
+                    return null;
+                }
+                return pc -> cond.getValue().getInt64() != 0 ? target : pc + 1;
+            }
+            case CMP_BRANCH_EQ_I32:
+            case CMP_BRANCH_EQ_I64:
+            case CMP_BRANCH_EQ_F32:
+            case CMP_BRANCH_EQ_F64:
+            case CMP_BRANCH_NE_I32:
+            case CMP_BRANCH_NE_I64:
+            case CMP_BRANCH_NE_F32:
+            case CMP_BRANCH_NE_F64:
+            case CMP_BRANCH_LT_I32:
+            case CMP_BRANCH_LT_I64:
+            case CMP_BRANCH_LT_F32:
+            case CMP_BRANCH_LT_F64:
+            case CMP_BRANCH_LE_I32:
+            case CMP_BRANCH_LE_I64:
+            case CMP_BRANCH_LE_F32:
+            case CMP_BRANCH_LE_F64:
+            case CMP_BRANCH_GT_I32:
+            case CMP_BRANCH_GT_I64:
+            case CMP_BRANCH_GT_F32:
+            case CMP_BRANCH_GT_F64:
+            case CMP_BRANCH_GE_I32:
+            case CMP_BRANCH_GE_I64:
+            case CMP_BRANCH_GE_F32:
+            case CMP_BRANCH_GE_F64:
+            {
+                int target = linked.target;
+                if (target == NO_TARGET || linked.op1 == null || linked.op2 == null) {
+                    return null;
+                }
+                return compareBranch(instruction.opCode, linked.op1, linked.op2, target);
+            }
+            default:
+        }
+
+        var a = linked.op1;
+        var b = linked.op2;
+        var r = linked.result;
+        switch (instruction.opCode) {
+            case ASSIGN:
+            case COPY:
+                if (a == null || b == null) {
+                    return null;
+                }
+                return pc -> {
+                    b.getValue().assign(a.getValue());
+                    return pc + 1;
+                };
+            case UNARY_MINUS:
+                return a == null || r == null ? null : unaryMinus(a, r);
+            case NOT:
+                if (a == null || r == null) {
+                    return null;
+                }
+                return pc -> {
+                    Operators.unaryNot(a, r);
+                    return pc + 1;
+                };
+            case STR_APPEND:
+                if (a == null || r == null) {
+                    return null;
+                }
+                return pc -> {
+                    Operators.appendString(a, r);
+                    return pc + 1;
+                };
+            case ARRAY_ELEM:
+                // Arrays of more than 2 dimensions take their indices from params
+                if (a == null || r == null) {
+                    return null;
+                }
+                if (instruction.op2 == NULL_ID) {
+                    return pc -> {
+                        ArraysUtil.arrayElement(a, r);
+                        return pc + 1;
+                    };
+                }
+                if (b == null) {
+                    return null;
+                }
+                return pc -> {
+                    ArraysUtil.arrayElement(a, b, r);
+                    return pc + 1;
+                };
+            default:
+        }
+
+        if (a == null || b == null || r == null) {
+            return null;
+        }
+        switch (instruction.opCode) {
+            case ADDI32:
+                return pc -> {
+                    r.getValue().setInt32(a.getValue().getInt32() + b.getValue().getInt32());
+                    return pc + 1;
+                };
+            case ADDI64:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt64() + b.getValue().getInt64());
+                    return pc + 1;
+                };
+            case ADDF32:
+                return pc -> {
+                    r.getValue().setFloat32(a.getValue().getFloat32() + b.getValue().getFloat32());
+                    return pc + 1;
+                };
+            case ADDF64:
+                return pc -> {
+                    r.getValue().setFloat64(a.getValue().getFloat64() + b.getValue().getFloat64());
+                    return pc + 1;
+                };
+            case SUBI32:
+                return pc -> {
+                    r.getValue().setInt32(a.getValue().getInt32() - b.getValue().getInt32());
+                    return pc + 1;
+                };
+            case SUBI64:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt64() - b.getValue().getInt64());
+                    return pc + 1;
+                };
+            case SUBF32:
+                return pc -> {
+                    r.getValue().setFloat32(a.getValue().getFloat32() - b.getValue().getFloat32());
+                    return pc + 1;
+                };
+            case SUBF64:
+                return pc -> {
+                    r.getValue().setFloat64(a.getValue().getFloat64() - b.getValue().getFloat64());
+                    return pc + 1;
+                };
+            case MULI32:
+                return pc -> {
+                    r.getValue().setInt32(a.getValue().getInt32() * b.getValue().getInt32());
+                    return pc + 1;
+                };
+            case MULI64:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt64() * b.getValue().getInt64());
+                    return pc + 1;
+                };
+            case MULF32:
+                return pc -> {
+                    r.getValue().setFloat32(a.getValue().getFloat32() * b.getValue().getFloat32());
+                    return pc + 1;
+                };
+            case MULF64:
+                return pc -> {
+                    r.getValue().setFloat64(a.getValue().getFloat64() * b.getValue().getFloat64());
+                    return pc + 1;
+                };
+            case FDIV:
+                return pc -> {
+                    var divisor = b.getValue().getFloat64();
+                    if (divisor == 0) {
+                        throw new PuffinBasicRuntimeError(
+                                DIVISION_BY_ZERO,
+                                "Division by zero"
+                        );
+                    }
+                    r.getValue().setFloat64(a.getValue().getFloat64() / divisor);
+                    return pc + 1;
+                };
+            case IDIV:
+                return intOperands(a, b) ? idivInt32(a, b, r) : binary(a, b, r, Operators::idiv);
+            case MOD:
+                return intOperands(a, b) ? modInt32(a, b, r) : binary(a, b, r, Operators::mod);
+            case EXPI32:
+                return binary(a, b, r, Operators::expInt32);
+            case EXPI64:
+                return binary(a, b, r, Operators::expInt64);
+            case EXPF32:
+                return binary(a, b, r, Operators::expFloat32);
+            case EXPF64:
+                return binary(a, b, r, Operators::expFloat64);
+            case EQI32:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt32() == b.getValue().getInt32() ? -1 : 0);
+                    return pc + 1;
+                };
+            case NEI32:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt32() != b.getValue().getInt32() ? -1 : 0);
+                    return pc + 1;
+                };
+            case LTI32:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt32() < b.getValue().getInt32() ? -1 : 0);
+                    return pc + 1;
+                };
+            case LEI32:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt32() <= b.getValue().getInt32() ? -1 : 0);
+                    return pc + 1;
+                };
+            case GTI32:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt32() > b.getValue().getInt32() ? -1 : 0);
+                    return pc + 1;
+                };
+            case GEI32:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt32() >= b.getValue().getInt32() ? -1 : 0);
+                    return pc + 1;
+                };
+            case EQI64:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt64() == b.getValue().getInt64() ? -1 : 0);
+                    return pc + 1;
+                };
+            case NEI64:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt64() != b.getValue().getInt64() ? -1 : 0);
+                    return pc + 1;
+                };
+            case LTI64:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt64() < b.getValue().getInt64() ? -1 : 0);
+                    return pc + 1;
+                };
+            case LEI64:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt64() <= b.getValue().getInt64() ? -1 : 0);
+                    return pc + 1;
+                };
+            case GTI64:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt64() > b.getValue().getInt64() ? -1 : 0);
+                    return pc + 1;
+                };
+            case GEI64:
+                return pc -> {
+                    r.getValue().setInt64(a.getValue().getInt64() >= b.getValue().getInt64() ? -1 : 0);
+                    return pc + 1;
+                };
+            case EQF64:
+                return pc -> {
+                    r.getValue().setInt64(Double.compare(a.getValue().getFloat64(), b.getValue().getFloat64()) == 0 ? -1 : 0);
+                    return pc + 1;
+                };
+            case NEF64:
+                return pc -> {
+                    r.getValue().setInt64(Double.compare(a.getValue().getFloat64(), b.getValue().getFloat64()) != 0 ? -1 : 0);
+                    return pc + 1;
+                };
+            case LTF64:
+                return pc -> {
+                    r.getValue().setInt64(Double.compare(a.getValue().getFloat64(), b.getValue().getFloat64()) < 0 ? -1 : 0);
+                    return pc + 1;
+                };
+            case LEF64:
+                return pc -> {
+                    r.getValue().setInt64(Double.compare(a.getValue().getFloat64(), b.getValue().getFloat64()) <= 0 ? -1 : 0);
+                    return pc + 1;
+                };
+            case GTF64:
+                return pc -> {
+                    r.getValue().setInt64(Double.compare(a.getValue().getFloat64(), b.getValue().getFloat64()) > 0 ? -1 : 0);
+                    return pc + 1;
+                };
+            case GEF64:
+                return pc -> {
+                    r.getValue().setInt64(Double.compare(a.getValue().getFloat64(), b.getValue().getFloat64()) >= 0 ? -1 : 0);
+                    return pc + 1;
+                };
+            case EQF32:
+                return binary(a, b, r, Operators::eqFloat32);
+            case NEF32:
+                return binary(a, b, r, Operators::neFloat32);
+            case LTF32:
+                return binary(a, b, r, Operators::ltFloat32);
+            case LEF32:
+                return binary(a, b, r, Operators::leFloat32);
+            case GTF32:
+                return binary(a, b, r, Operators::gtFloat32);
+            case GEF32:
+                return binary(a, b, r, Operators::geFloat32);
+            case EQSTR:
+                return binary(a, b, r, Operators::eqStr);
+            case NESTR:
+                return binary(a, b, r, Operators::neStr);
+            case LTSTR:
+                return binary(a, b, r, Operators::ltStr);
+            case LESTR:
+                return binary(a, b, r, Operators::leStr);
+            case GTSTR:
+                return binary(a, b, r, Operators::gtStr);
+            case GESTR:
+                return binary(a, b, r, Operators::geStr);
+            case AND:
+                return binary(a, b, r, Operators::and);
+            case OR:
+                return binary(a, b, r, Operators::or);
+            case XOR:
+                return binary(a, b, r, Operators::xor);
+            case EQV:
+                return binary(a, b, r, Operators::eqv);
+            case IMP:
+                return binary(a, b, r, Operators::imp);
+            case LEFTSHIFT:
+                return binary(a, b, r, Operators::leftShift);
+            case RIGHTSHIFT:
+                return binary(a, b, r, Operators::rightShift);
+            case CONCAT:
+                return binary(a, b, r, Operators::concat);
+            default:
+                return null;
+        }
+    }
+
+    private static boolean intOperands(STEntry a, STEntry b) {
+        return a.getType().getAtomTypeId() == INT32 && b.getType().getAtomTypeId() == INT32;
+    }
+
+    private static Node binary(STEntry a, STEntry b, STEntry r, BinaryOperator operator) {
+        return pc -> {
+            operator.apply(a, b, r);
+            return pc + 1;
+        };
+    }
+
+    private static Node idivInt32(STEntry a, STEntry b, STEntry r) {
+        return pc -> {
+            var divisor = b.getValue().getRoundedInt32();
+            if (divisor == 0) {
+                throw new PuffinBasicRuntimeError(
+                        DIVISION_BY_ZERO,
+                        "Division by zero"
+                );
+            }
+            r.getValue().setInt32(a.getValue().getRoundedInt32() / divisor);
+            return pc + 1;
+        };
+    }
+
+    private static Node modInt32(STEntry a, STEntry b, STEntry r) {
+        return pc -> {
+            r.getValue().setInt32(a.getValue().getRoundedInt32() % b.getValue().getRoundedInt32());
+            return pc + 1;
+        };
+    }
+
+    private static Node unaryMinus(STEntry a, STEntry r) {
+        switch (a.getType().getAtomTypeId()) {
+            case INT32:
+                return pc -> {
+                    r.getValue().setInt32(-a.getValue().getInt32());
+                    return pc + 1;
+                };
+            case INT64:
+                return pc -> {
+                    r.getValue().setInt64(-a.getValue().getInt64());
+                    return pc + 1;
+                };
+            case FLOAT:
+                return pc -> {
+                    r.getValue().setFloat32(-a.getValue().getFloat32());
+                    return pc + 1;
+                };
+            case DOUBLE:
+                return pc -> {
+                    r.getValue().setFloat64(-a.getValue().getFloat64());
+                    return pc + 1;
+                };
+            default:
+                return null;
+        }
+    }
+}
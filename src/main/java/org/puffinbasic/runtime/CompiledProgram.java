@@ -0,0 +1,79 @@
+package org.puffinbasic.runtime;
+
+import org.puffinbasic.domain.SharedObjectStreams.ReplacingOutputStream;
+import org.puffinbasic.domain.SharedObjectStreams.ResolvingInputStream;
+import org.puffinbasic.error.PuffinBasicInternalError;
+import org.puffinbasic.parser.PuffinBasicIR;
+import org.puffinbasic.parser.PuffinBasicSourceFile;
+import org.puffinbasic.runtime.PuffinBasicRuntime.ExecutionEngine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable, thread-safe program which can be run any number of times, concurrently.
+ * The symbol table of the IR holds both the program's metadata and the values of its
+ * variables, so each run gets its own copy of the IR, made from a serialized snapshot of
+ * it (the same way as the IR cache), which shares the source files with the other runs.
+ * All other state of a run (files, print buffer, random, call stack) is owned by its
+ * {@link PuffinBasicRuntime}.
+ */
+public final class CompiledProgram {
+
+    private final byte[] serializedIR;
+    private final Object[] sourceFiles;
+    // Classes generated by the bytecode compiler, shared by the runs.
+    private final ConcurrentMap<String, Class<?>> codeClasses;
+
+    private CompiledProgram(byte[] serializedIR, Object[] sourceFiles) {
+        this.serializedIR = serializedIR;
+        this.sourceFiles = sourceFiles;
+        this.codeClasses = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Snapshots the (optimized) IR, it must not have been run.
+     */
+    public static CompiledProgram of(PuffinBasicIR ir) {
+        // Source files hold the source code and are not changed by runs, so they are
+        // shared by all copies of the IR.
+        var sourceFiles = new ArrayList<>();
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new ReplacingOutputStream(bytes, o -> o instanceof PuffinBasicSourceFile, sourceFiles)) {
+            out.writeObject(ir);
+        } catch (IOException e) {
+            throw new PuffinBasicInternalError("Failed to snapshot the IR: " + e.getMessage());
+        }
+        return new CompiledProgram(bytes.toByteArray(), sourceFiles.toArray());
+    }
+
+    /**
+     * Returns a copy of the IR with its own symbol table, for one run.
+     */
+    public PuffinBasicIR newIR() {
+        try (var in = new ResolvingInputStream(new ByteArrayInputStream(serializedIR), sourceFiles)) {
+            return (PuffinBasicIR) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new PuffinBasicInternalError("Failed to copy the IR: " + e.getMessage());
+        }
+    }
+
+    public PuffinBasicRuntime newRuntime(PrintStream out, Environment env, ExecutionEngine engine) {
+        return newRuntime(out, env, engine, null, null);
+    }
+
+    public PuffinBasicRuntime newRuntime(
+            PrintStream out,
+            Environment env,
+            ExecutionEngine engine,
+            Profiler profiler,
+            RuntimeMetrics metrics)
+    {
+        return new PuffinBasicRuntime(newIR(), codeClasses, out, env, engine, profiler, metrics);
+    }
+}
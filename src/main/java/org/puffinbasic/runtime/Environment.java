@@ -1,5 +1,10 @@
 package org.puffinbasic.runtime;
 
+import org.puffinbasic.file.PuffinBasicFile;
+import org.puffinbasic.file.PuffinBasicFile.FlushPolicy;
+
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -7,11 +12,49 @@ public interface Environment {
     String get(String key);
     void set(String key, String value);
 
+    // Input read by INPUT, LINE INPUT and INPUT$ when no file number is given.
+    default InputStream getStdin() {
+        return System.in;
+    }
+
+    // Directory relative file names are resolved against, null for the working directory.
+    default Path getFileDirectory() {
+        return null;
+    }
+
+    // Bytes of output buffered for stdout and for each file opened for OUTPUT or APPEND.
+    default int getOutputBufferSize() {
+        return PuffinBasicFile.DEFAULT_OUTPUT_BUFFER_SIZE;
+    }
+
+    // When the output to stdout is flushed.
+    default FlushPolicy getOutputFlushPolicy() {
+        return FlushPolicy.SIZE;
+    }
+
     class SystemEnv implements Environment {
         private final Map<String, String> overrides;
+        private final InputStream stdin;
+        private final Path fileDirectory;
+        private final int outputBufferSize;
+        private final FlushPolicy outputFlushPolicy;
 
         public SystemEnv() {
+            this(System.in, null);
+        }
+
+        public SystemEnv(InputStream stdin, Path fileDirectory) {
+            this(stdin, fileDirectory, PuffinBasicFile.DEFAULT_OUTPUT_BUFFER_SIZE, FlushPolicy.SIZE);
+        }
+
+        public SystemEnv(
+                InputStream stdin, Path fileDirectory, int outputBufferSize, FlushPolicy outputFlushPolicy)
+        {
             this.overrides = new HashMap<>();
+            this.stdin = stdin;
+            this.fileDirectory = fileDirectory;
+            this.outputBufferSize = outputBufferSize;
+            this.outputFlushPolicy = outputFlushPolicy;
         }
 
         @Override
@@ -24,5 +67,25 @@ public interface Environment {
         public void set(String key, String value) {
             overrides.put(key, value);
         }
+
+        @Override
+        public InputStream getStdin() {
+            return stdin;
+        }
+
+        @Override
+        public Path getFileDirectory() {
+            return fileDirectory;
+        }
+
+        @Override
+        public int getOutputBufferSize() {
+            return outputBufferSize;
+        }
+
+        @Override
+        public FlushPolicy getOutputFlushPolicy() {
+            return outputFlushPolicy;
+        }
     }
 }
@@ -0,0 +1,978 @@
+package org.puffinbasic.runtime;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.puffinbasic.domain.PuffinBasicSymbolTable;
+import org.puffinbasic.domain.STObjects.STVariable;
+import org.puffinbasic.error.PuffinBasicInternalError;
+import org.puffinbasic.parser.PuffinBasicIR;
+import org.puffinbasic.parser.PuffinBasicIR.Instruction;
+import org.puffinbasic.parser.PuffinBasicIR.OpCode;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.puffinbasic.domain.PuffinBasicSymbolTable.NULL_ID;
+import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.INT32;
+import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.INT64;
+import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.STRING;
+import static org.puffinbasic.domain.STObjects.PuffinBasicTypeId.SCALAR;
+
+/**
+ * Optimization passes over the IR, run after the IR is generated and before it is cached or run.
+ * <ul>
+ *     <li>{@code constant-folding}: evaluates operators and math functions of constants with the
+ *     runtime's own implementations, propagates constants copied to temporaries, simplifies
+ *     AND/OR of a constant boolean, and resolves GOTO_LABEL_IF on a constant.</li>
+ *     <li>{@code copy-propagation}: an operator result assigned to a variable is written to the
+ *     variable directly, and reads of a copied temporary read the source of the copy.</li>
+ *     <li>{@code dead-temp-elimination}: removes operators and copies whose result is never read,
+ *     and the VARIABLE, VALUE and COMMENT instructions, which are no-ops at runtime.</li>
+ *     <li>{@code jump-threading}: a jump to a label followed by a GOTO_LABEL goes to its target,
+ *     and a GOTO_LABEL to the next instruction is removed.</li>
+ *     <li>{@code superinstructions}: a comparison (or its NOT) followed by GOTO_LABEL_IF is fused
+ *     into a CMP_BRANCH, and the NEXT of a FOR loop runs the step and the end check with a FOR_STEP
+ *     followed by a CMP_BRANCH back to the body, instead of jumping to the step at the loop's top.</li>
+ * </ul>
+ * The analyses are local to basic blocks. GOTO and RETURN can jump to the start of any line,
+ * so a block doesn't span lines and each line keeps an instruction where it starts.
+ */
+public final class IROptimizer {
+
+    public static final int MAX_LEVEL = 1;
+
+    interface Pass {
+        String getName();
+        List<Instruction> run(PuffinBasicSymbolTable symbolTable, List<Instruction> instructions);
+    }
+
+    private static final List<Pass> O1_PASSES = List.of(
+            new ConstantFolding(),
+            new CopyPropagation(),
+            new DeadTempElimination(),
+            new JumpThreading(),
+            new Superinstructions()
+    );
+
+    // Read op1/op2 (if set), write only the result and can't fail once their operands are set.
+    private static final EnumSet<OpCode> PURE_OPS = EnumSet.of(
+            OpCode.UNARY_MINUS,
+            OpCode.MULI32, OpCode.MULI64, OpCode.MULF32, OpCode.MULF64,
+            OpCode.ADDI32, OpCode.ADDI64, OpCode.ADDF32, OpCode.ADDF64,
+            OpCode.SUBI32, OpCode.SUBI64, OpCode.SUBF32, OpCode.SUBF64,
+            OpCode.CONCAT,
+            OpCode.EQI32, OpCode.EQI64, OpCode.EQF32, OpCode.EQF64, OpCode.EQSTR,
+            OpCode.NEI32, OpCode.NEI64, OpCode.NEF32, OpCode.NEF64, OpCode.NESTR,
+            OpCode.LTI32, OpCode.LTI64, OpCode.LTF32, OpCode.LTF64, OpCode.LTSTR,
+            OpCode.LEI32, OpCode.LEI64, OpCode.LEF32, OpCode.LEF64, OpCode.LESTR,
+            OpCode.GTI32, OpCode.GTI64, OpCode.GTF32, OpCode.GTF64, OpCode.GTSTR,
+            OpCode.GEI32, OpCode.GEI64, OpCode.GEF32, OpCode.GEF64, OpCode.GESTR,
+            OpCode.NOT, OpCode.AND, OpCode.OR, OpCode.XOR, OpCode.EQV, OpCode.IMP
+    );
+
+    // Read op1/op2 (if set) and write only the result, but can fail on some operand values.
+    private static final EnumSet<OpCode> FOLDABLE_OPS = EnumSet.of(
+            OpCode.EXPI32, OpCode.EXPI64, OpCode.EXPF32, OpCode.EXPF64,
+            OpCode.IDIV, OpCode.FDIV, OpCode.MOD, OpCode.LEFTSHIFT, OpCode.RIGHTSHIFT,
+            OpCode.ABS, OpCode.SGN, OpCode.SIN, OpCode.COS, OpCode.TAN, OpCode.ASIN, OpCode.ACOS,
+            OpCode.ATN, OpCode.SINH, OpCode.COSH, OpCode.TANH, OpCode.SQR, OpCode.EEXP,
+            OpCode.LOG, OpCode.LOG10, OpCode.LOG2, OpCode.TORAD, OpCode.TODEG,
+            OpCode.FLOOR, OpCode.CEIL, OpCode.ROUND, OpCode.E, OpCode.PI, OpCode.MIN, OpCode.MAX,
+            OpCode.CINT, OpCode.CLNG, OpCode.CSNG, OpCode.CDBL, OpCode.INT, OpCode.FIX, OpCode.LEN
+    );
+
+    static {
+        FOLDABLE_OPS.addAll(PURE_OPS);
+    }
+
+    // Don't read or write any entry, their operands (if any) are labels or functions.
+    private static final EnumSet<OpCode> NO_ENTRY_OPS = EnumSet.of(
+            OpCode.COMMENT, OpCode.VARIABLE, OpCode.VALUE, OpCode.LABEL,
+            OpCode.GOTO_LABEL, OpCode.GOTO_CALLER, OpCode.PUSH_RETLABEL,
+            OpCode.PUSH_RT_SCOPE, OpCode.POP_RT_SCOPE, OpCode.END
+    );
+
+    // Jump, or save/restore the entries of a function scope.
+    private static final EnumSet<OpCode> BLOCK_END_OPS = EnumSet.of(
+            OpCode.GOTO_LABEL, OpCode.GOTO_LABEL_IF, OpCode.GOTO_LINENUM, OpCode.GOTO_CALLER,
+            OpCode.RETURN, OpCode.END, OpCode.PUSH_RT_SCOPE, OpCode.POP_RT_SCOPE,
+            OpCode.PARFOR, OpCode.PARFOR_NEXT
+    );
+
+    // Comparison, its CMP_BRANCH, the CMP_BRANCH of its complement and the ADD of the same type.
+    // Float comparisons are a total order (Float/Double.compare), so the complement is exact.
+    private static final OpCode[][] COMPARISONS = {
+            {OpCode.EQI32, OpCode.CMP_BRANCH_EQ_I32, OpCode.CMP_BRANCH_NE_I32, OpCode.ADDI32},
+            {OpCode.EQI64, OpCode.CMP_BRANCH_EQ_I64, OpCode.CMP_BRANCH_NE_I64, OpCode.ADDI64},
+            {OpCode.EQF32, OpCode.CMP_BRANCH_EQ_F32, OpCode.CMP_BRANCH_NE_F32, OpCode.ADDF32},
+            {OpCode.EQF64, OpCode.CMP_BRANCH_EQ_F64, OpCode.CMP_BRANCH_NE_F64, OpCode.ADDF64},
+            {OpCode.NEI32, OpCode.CMP_BRANCH_NE_I32, OpCode.CMP_BRANCH_EQ_I32, OpCode.ADDI32},
+            {OpCode.NEI64, OpCode.CMP_BRANCH_NE_I64, OpCode.CMP_BRANCH_EQ_I64, OpCode.ADDI64},
+            {OpCode.NEF32, OpCode.CMP_BRANCH_NE_F32, OpCode.CMP_BRANCH_EQ_F32, OpCode.ADDF32},
+            {OpCode.NEF64, OpCode.CMP_BRANCH_NE_F64, OpCode.CMP_BRANCH_EQ_F64, OpCode.ADDF64},
+            {OpCode.LTI32, OpCode.CMP_BRANCH_LT_I32, OpCode.CMP_BRANCH_GE_I32, OpCode.ADDI32},
+            {OpCode.LTI64, OpCode.CMP_BRANCH_LT_I64, OpCode.CMP_BRANCH_GE_I64, OpCode.ADDI64},
+            {OpCode.LTF32, OpCode.CMP_BRANCH_LT_F32, OpCode.CMP_BRANCH_GE_F32, OpCode.ADDF32},
+            {OpCode.LTF64, OpCode.CMP_BRANCH_LT_F64, OpCode.CMP_BRANCH_GE_F64, OpCode.ADDF64},
+            {OpCode.LEI32, OpCode.CMP_BRANCH_LE_I32, OpCode.CMP_BRANCH_GT_I32, OpCode.ADDI32},
+            {OpCode.LEI64, OpCode.CMP_BRANCH_LE_I64, OpCode.CMP_BRANCH_GT_I64, OpCode.ADDI64},
+            {OpCode.LEF32, OpCode.CMP_BRANCH_LE_F32, OpCode.CMP_BRANCH_GT_F32, OpCode.ADDF32},
+            {OpCode.LEF64, OpCode.CMP_BRANCH_LE_F64, OpCode.CMP_BRANCH_GT_F64, OpCode.ADDF64},
+            {OpCode.GTI32, OpCode.CMP_BRANCH_GT_I32, OpCode.CMP_BRANCH_LE_I32, OpCode.ADDI32},
+            {OpCode.GTI64, OpCode.CMP_BRANCH_GT_I64, OpCode.CMP_BRANCH_LE_I64, OpCode.ADDI64},
+            {OpCode.GTF32, OpCode.CMP_BRANCH_GT_F32, OpCode.CMP_BRANCH_LE_F32, OpCode.ADDF32},
+            {OpCode.GTF64, OpCode.CMP_BRANCH_GT_F64, OpCode.CMP_BRANCH_LE_F64, OpCode.ADDF64},
+            {OpCode.GEI32, OpCode.CMP_BRANCH_GE_I32, OpCode.CMP_BRANCH_LT_I32, OpCode.ADDI32},
+            {OpCode.GEI64, OpCode.CMP_BRANCH_GE_I64, OpCode.CMP_BRANCH_LT_I64, OpCode.ADDI64},
+            {OpCode.GEF32, OpCode.CMP_BRANCH_GE_F32, OpCode.CMP_BRANCH_LT_F32, OpCode.ADDF32},
+            {OpCode.GEF64, OpCode.CMP_BRANCH_GE_F64, OpCode.CMP_BRANCH_LT_F64, OpCode.ADDF64},
+    };
+
+    private static final EnumMap<OpCode, OpCode> CMP_BRANCH_OPS = new EnumMap<>(OpCode.class);
+    private static final EnumMap<OpCode, OpCode> COMPLEMENT_CMP_BRANCH_OPS = new EnumMap<>(OpCode.class);
+    private static final EnumMap<OpCode, OpCode> CMP_BRANCH_STEP_OPS = new EnumMap<>(OpCode.class);
+    private static final EnumMap<OpCode, OpCode> FOR_STEP_OPS = new EnumMap<>(OpCode.class);
+
+    static {
+        for (var comparison : COMPARISONS) {
+            CMP_BRANCH_OPS.put(comparison[0], comparison[1]);
+            COMPLEMENT_CMP_BRANCH_OPS.put(comparison[1], comparison[2]);
+            CMP_BRANCH_STEP_OPS.put(comparison[1], comparison[3]);
+        }
+        FOR_STEP_OPS.put(OpCode.ADDI32, OpCode.FOR_STEP_I32);
+        FOR_STEP_OPS.put(OpCode.ADDI64, OpCode.FOR_STEP_I64);
+        FOR_STEP_OPS.put(OpCode.ADDF32, OpCode.FOR_STEP_F32);
+        FOR_STEP_OPS.put(OpCode.ADDF64, OpCode.FOR_STEP_F64);
+        BLOCK_END_OPS.addAll(CMP_BRANCH_STEP_OPS.keySet());
+    }
+
+    private static final EnumSet<OpCode> NOP_OPS = EnumSet.of(
+            OpCode.COMMENT, OpCode.VARIABLE, OpCode.VALUE
+    );
+
+    private static final int[] NO_IDS = new int[0];
+
+    private IROptimizer() {}
+
+    /**
+     * Optimizes the IR in place, the IR must not have been run.
+     * If dump is not null, prints the IR before and after each pass.
+     */
+    public static void optimize(PuffinBasicIR ir, int level, PrintStream dump) {
+        if (level <= 0) {
+            return;
+        }
+        var symbolTable = ir.getSymbolTable();
+        var instructions = ir.getInstructions();
+        for (var pass : O1_PASSES) {
+            dump(dump, "before " + pass.getName(), instructions);
+            instructions = pass.run(symbolTable, instructions);
+            dump(dump, "after " + pass.getName(), instructions);
+        }
+        ir.setInstructions(instructions);
+    }
+
+    private static void dump(PrintStream out, String title, List<Instruction> instructions) {
+        if (out == null) {
+            return;
+        }
+        out.println("IR " + title + " (" + instructions.size() + " instructions)");
+        for (int i = 0; i < instructions.size(); i++) {
+            out.println(i + ": " + instructions.get(i));
+        }
+    }
+
+    private static final class ConstantFolding implements Pass {
+
+        @Override
+        public String getName() {
+            return "constant-folding";
+        }
+
+        @Override
+        public List<Instruction> run(PuffinBasicSymbolTable symbolTable, List<Instruction> instructions) {
+            var defUse = new DefUse(instructions);
+            var result = new ArrayList<Instruction>(instructions.size());
+            // In order, so that a folded result can be folded into its uses.
+            for (var instruction : instructions) {
+                var folded = fold(symbolTable, defUse, instruction);
+                if (folded != instruction) {
+                    defUse.remove(instruction);
+                    defUse.add(folded);
+                }
+                result.add(folded);
+            }
+            return result;
+        }
+
+        private static Instruction fold(PuffinBasicSymbolTable symbolTable, DefUse defUse, Instruction instruction) {
+            var opCode = instruction.opCode;
+            if (opCode == OpCode.GOTO_LABEL_IF) {
+                if (!defUse.isConstant(symbolTable, instruction.op1)) {
+                    return instruction;
+                }
+                return symbolTable.get(instruction.op1).getValue().getInt64() != 0
+                        ? new Instruction(instruction.inputRef, OpCode.GOTO_LABEL, instruction.op2, NULL_ID, NULL_ID)
+                        : nop(instruction);
+            }
+            if (opCode == OpCode.COPY) {
+                // E.g. a FOR loop's STEP, which makes its sign checks constant.
+                if (!symbolTable.isScalarTmp(instruction.op2)
+                        || defUse.getDefs(instruction.op2) != 1
+                        || !defUse.isConstant(symbolTable, instruction.op1)) {
+                    return instruction;
+                }
+                try {
+                    Types.copy(symbolTable.get(instruction.op1), symbolTable.get(instruction.op2));
+                } catch (RuntimeException e) {
+                    return instruction;
+                }
+                return constant(instruction);
+            }
+            if (!FOLDABLE_OPS.contains(opCode)
+                    || !symbolTable.isScalarTmp(instruction.result)
+                    || defUse.getDefs(instruction.result) != 1) {
+                return instruction;
+            }
+            boolean const1 = instruction.op1 == NULL_ID || defUse.isConstant(symbolTable, instruction.op1);
+            boolean const2 = instruction.op2 == NULL_ID || defUse.isConstant(symbolTable, instruction.op2);
+            if (const1 && const2) {
+                try {
+                    evaluate(symbolTable, instruction);
+                } catch (PuffinBasicInternalError e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    // Raised when the instruction runs.
+                    return instruction;
+                }
+                return constant(instruction);
+            }
+            if ((opCode == OpCode.AND || opCode == OpCode.OR) && (const1 || const2)) {
+                return simplifyLogical(symbolTable, instruction, const1 ? instruction.op1 : instruction.op2,
+                        const1 ? instruction.op2 : instruction.op1);
+            }
+            return instruction;
+        }
+
+        // Booleans are -1/0: AND(-1, x) = OR(0, x) = x, AND(0, x) = 0 and OR(-1, x) = -1.
+        private static Instruction simplifyLogical(
+                PuffinBasicSymbolTable symbolTable, Instruction instruction, int constId, int otherId)
+        {
+            var constEntry = symbolTable.get(constId);
+            var resultEntry = symbolTable.get(instruction.result);
+            var resultType = resultEntry.getType().getAtomTypeId();
+            // x must be a temporary, a variable could fail its uninitialized read.
+            if (!symbolTable.isScalarTmp(otherId)
+                    || constEntry.getType().getAtomTypeId() == STRING
+                    || (resultType != INT32 && resultType != INT64)) {
+                return instruction;
+            }
+            boolean isAnd = instruction.opCode == OpCode.AND;
+            long value = constEntry.getValue().getInt64();
+            if (value == (isAnd ? 0 : -1)) {
+                if (isAnd) {
+                    Operators.and(constEntry, constEntry, resultEntry);
+                } else {
+                    Operators.or(constEntry, constEntry, resultEntry);
+                }
+                return constant(instruction);
+            }
+            if (value == (isAnd ? -1 : 0)
+                    && symbolTable.get(otherId).getType().getAtomTypeId() == resultType) {
+                return new Instruction(
+                        instruction.inputRef, OpCode.COPY, otherId, instruction.result, instruction.result);
+            }
+            return instruction;
+        }
+
+        private static Instruction constant(Instruction instruction) {
+            return new Instruction(
+                    instruction.inputRef, OpCode.VALUE, instruction.result, NULL_ID, instruction.result);
+        }
+
+        private static void evaluate(PuffinBasicSymbolTable symbolTable, Instruction instruction) {
+            var op1 = symbolTable.getNullableEntry(instruction.op1);
+            var op2 = symbolTable.getNullableEntry(instruction.op2);
+            var result = symbolTable.get(instruction.result);
+            switch (instruction.opCode) {
+                case UNARY_MINUS: Operators.unaryMinus(op1, result); break;
+                case EXPI32: Operators.expInt32(op1, op2, result); break;
+                case EXPI64: Operators.expInt64(op1, op2, result); break;
+                case EXPF32: Operators.expFloat32(op1, op2, result); break;
+                case EXPF64: Operators.expFloat64(op1, op2, result); break;
+                case MULI32: Operators.mulInt32(op1, op2, result); break;
+                case MULI64: Operators.mulInt64(op1, op2, result); break;
+                case MULF32: Operators.mulFloat32(op1, op2, result); break;
+                case MULF64: Operators.mulFloat64(op1, op2, result); break;
+                case IDIV: Operators.idiv(op1, op2, result); break;
+                case FDIV: Operators.fdiv(op1, op2, result); break;
+                case ADDI32: Operators.addInt32(op1, op2, result); break;
+                case ADDI64: Operators.addInt64(op1, op2, result); break;
+                case ADDF32: Operators.addFloat32(op1, op2, result); break;
+                case ADDF64: Operators.addFloat64(op1, op2, result); break;
+                case SUBI32: Operators.subInt32(op1, op2, result); break;
+                case SUBI64: Operators.subInt64(op1, op2, result); break;
+                case SUBF32: Operators.subFloat32(op1, op2, result); break;
+                case SUBF64: Operators.subFloat64(op1, op2, result); break;
+                case MOD: Operators.mod(op1, op2, result); break;
+                case CONCAT: Operators.concat(op1, op2, result); break;
+                case EQI32: Operators.eqInt32(op1, op2, result); break;
+                case EQI64: Operators.eqInt64(op1, op2, result); break;
+                case EQF32: Operators.eqFloat32(op1, op2, result); break;
+                case EQF64: Operators.eqFloat64(op1, op2, result); break;
+                case EQSTR: Operators.eqStr(op1, op2, result); break;
+                case NEI32: Operators.neInt32(op1, op2, result); break;
+                case NEI64: Operators.neInt64(op1, op2, result); break;
+                case NEF32: Operators.neFloat32(op1, op2, result); break;
+                case NEF64: Operators.neFloat64(op1, op2, result); break;
+                case NESTR: Operators.neStr(op1, op2, result); break;
+                case LTI32: Operators.ltInt32(op1, op2, result); break;
+                case LTI64: Operators.ltInt64(op1, op2, result); break;
+                case LTF32: Operators.ltFloat32(op1, op2, result); break;
+                case LTF64: Operators.ltFloat64(op1, op2, result); break;
+                case LTSTR: Operators.ltStr(op1, op2, result); break;
+                case LEI32: Operators.leInt32(op1, op2, result); break;
+                case LEI64: Operators.leInt64(op1, op2, result); break;
+                case LEF32: Operators.leFloat32(op1, op2, result); break;
+                case LEF64: Operators.leFloat64(op1, op2, result); break;
+                case LESTR: Operators.leStr(op1, op2, result); break;
+                case GTI32: Operators.gtInt32(op1, op2, result); break;
+                case GTI64: Operators.gtInt64(op1, op2, result); break;
+                case GTF32: Operators.gtFloat32(op1, op2, result); break;
+                case GTF64: Operators.gtFloat64(op1, op2, result); break;
+                case GTSTR: Operators.gtStr(op1, op2, result); break;
+                case GEI32: Operators.geInt32(op1, op2, result); break;
+                case GEI64: Operators.geInt64(op1, op2, result); break;
+                case GEF32: Operators.geFloat32(op1, op2, result); break;
+                case GEF64: Operators.geFloat64(op1, op2, result); break;
+                case GESTR: Operators.geStr(op1, op2, result); break;
+                case NOT: Operators.unaryNot(op1, result); break;
+                case AND: Operators.and(op1, op2, result); break;
+                case OR: Operators.or(op1, op2, result); break;
+                case XOR: Operators.xor(op1, op2, result); break;
+                case EQV: Operators.eqv(op1, op2, result); break;
+                case IMP: Operators.imp(op1, op2, result); break;
+                case LEFTSHIFT: Operators.leftShift(op1, op2, result); break;
+                case RIGHTSHIFT: Operators.rightShift(op1, op2, result); break;
+                case ABS: Functions.abs(symbolTable, instruction); break;
+                case SGN: Functions.sgn(symbolTable, instruction); break;
+                case SIN: Functions.sin(symbolTable, instruction); break;
+                case COS: Functions.cos(symbolTable, instruction); break;
+                case TAN: Functions.tan(symbolTable, instruction); break;
+                case ASIN: Functions.asin(symbolTable, instruction); break;
+                case ACOS: Functions.acos(symbolTable, instruction); break;
+                case ATN: Functions.atn(symbolTable, instruction); break;
+                case SINH: Functions.sinh(symbolTable, instruction); break;
+                case COSH: Functions.cosh(symbolTable, instruction); break;
+                case TANH: Functions.tanh(symbolTable, instruction); break;
+                case SQR: Functions.sqr(symbolTable, instruction); break;
+                case EEXP: Functions.exp(symbolTable, instruction); break;
+                case LOG: Functions.log(symbolTable, instruction); break;
+                case LOG10: Functions.log10(symbolTable, instruction); break;
+                case LOG2: Functions.log2(symbolTable, instruction); break;
+                case TORAD: Functions.toRad(symbolTable, instruction); break;
+                case TODEG: Functions.toDeg(symbolTable, instruction); break;
+                case FLOOR: Functions.floor(symbolTable, instruction); break;
+                case CEIL: Functions.ceil(symbolTable, instruction); break;
+                case ROUND: Functions.round(symbolTable, instruction); break;
+                case E: Functions.e(symbolTable, instruction); break;
+                case PI: Functions.pi(symbolTable, instruction); break;
+                case MIN: Functions.min(symbolTable, instruction); break;
+                case MAX: Functions.max(symbolTable, instruction); break;
+                case CINT: Functions.cint(symbolTable, instruction); break;
+                case CLNG: Functions.clng(symbolTable, instruction); break;
+                case CSNG: Functions.csng(symbolTable, instruction); break;
+                case CDBL: Functions.cdbl(symbolTable, instruction); break;
+                case INT: Functions.fnint(symbolTable, instruction); break;
+                case FIX: Functions.fix(symbolTable, instruction); break;
+                case LEN: Functions.len(symbolTable, instruction); break;
+                default:
+                    throw new PuffinBasicInternalError("Can't fold: " + instruction.opCode);
+            }
+        }
+    }
+
+    private static final class CopyPropagation implements Pass {
+
+        @Override
+        public String getName() {
+            return "copy-propagation";
+        }
+
+        @Override
+        public List<Instruction> run(PuffinBasicSymbolTable symbolTable, List<Instruction> instructions) {
+            var coalesced = coalesceAssignments(symbolTable, instructions);
+            propagateCopies(symbolTable, coalesced);
+            return coalesced;
+        }
+
+        // OP a b -> T; ASSIGN T -> V becomes OP a b -> V, if T is only used by the ASSIGN.
+        private static List<Instruction> coalesceAssignments(
+                PuffinBasicSymbolTable symbolTable, List<Instruction> instructions)
+        {
+            var defUse = new DefUse(instructions);
+            var leaders = findLeaders(instructions);
+            var result = new ArrayList<Instruction>(instructions.size());
+            for (int i = 0; i < instructions.size(); i++) {
+                var instruction = instructions.get(i);
+                if (i + 1 < instructions.size() && !leaders[i + 1] && FOLDABLE_OPS.contains(instruction.opCode)) {
+                    var next = instructions.get(i + 1);
+                    var tmp = instruction.result;
+                    if (isCopy(next)
+                            && next.op1 == tmp
+                            && symbolTable.isScalarTmp(tmp)
+                            && defUse.getDefs(tmp) == 1
+                            && defUse.getUses(tmp) == 1
+                            && isScalarVariable(symbolTable, next.op2)
+                            && symbolTable.get(tmp).getType().getAtomTypeId()
+                                == symbolTable.get(next.op2).getType().getAtomTypeId()) {
+                        result.add(new Instruction(
+                                instruction.inputRef, instruction.opCode, instruction.op1, instruction.op2, next.op2));
+                        i++;
+                        continue;
+                    }
+                }
+                result.add(instruction);
+            }
+            return result;
+        }
+
+        // After COPY S -> T, reads of T read S until the end of the block, or until S or T is written.
+        private static void propagateCopies(PuffinBasicSymbolTable symbolTable, List<Instruction> instructions) {
+            var defUse = new DefUse(instructions);
+            var leaders = findLeaders(instructions);
+            for (int i = 0; i < instructions.size(); i++) {
+                var copy = instructions.get(i);
+                if (!isCopy(copy)) {
+                    continue;
+                }
+                int src = copy.op1;
+                int dst = copy.op2;
+                if (src == dst
+                        || !symbolTable.isScalarTmp(src)
+                        || !symbolTable.isScalarTmp(dst)
+                        || defUse.getDefs(dst) != 1
+                        || symbolTable.get(src).getType().getAtomTypeId()
+                            != symbolTable.get(dst).getType().getAtomTypeId()) {
+                    continue;
+                }
+                for (int j = i + 1; j < instructions.size() && !leaders[j]; j++) {
+                    var instruction = instructions.get(j);
+                    var replaced = replaceReads(instruction, dst, src);
+                    if (replaced != instruction) {
+                        instructions.set(j, replaced);
+                    }
+                    if (writes(instruction, src) || writes(instruction, dst)) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        private static Instruction replaceReads(Instruction instruction, int from, int to) {
+            var opCode = instruction.opCode;
+            if (FOLDABLE_OPS.contains(opCode)) {
+                if (instruction.op1 == from || instruction.op2 == from) {
+                    return new Instruction(
+                            instruction.inputRef,
+                            opCode,
+                            instruction.op1 == from ? to : instruction.op1,
+                            instruction.op2 == from ? to : instruction.op2,
+                            instruction.result);
+                }
+            } else if (isCopy(instruction) || opCode == OpCode.GOTO_LABEL_IF) {
+                if (instruction.op1 == from) {
+                    return new Instruction(
+                            instruction.inputRef, opCode, to, instruction.op2, instruction.result);
+                }
+            }
+            return instruction;
+        }
+
+        private static boolean writes(Instruction instruction, int id) {
+            for (var written : getWrites(instruction)) {
+                if (written == id) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class DeadTempElimination implements Pass {
+
+        @Override
+        public String getName() {
+            return "dead-temp-elimination";
+        }
+
+        @Override
+        public List<Instruction> run(PuffinBasicSymbolTable symbolTable, List<Instruction> instructions) {
+            var defUse = new DefUse(instructions);
+            var leaders = findLeaders(instructions);
+            var removed = new boolean[instructions.size()];
+            // Variables read or written earlier in the block, so known to be initialized.
+            var initialized = new IntOpenHashSet();
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int i = 0; i < instructions.size(); i++) {
+                    if (leaders[i]) {
+                        initialized.clear();
+                    }
+                    if (removed[i]) {
+                        continue;
+                    }
+                    var instruction = instructions.get(i);
+                    if (isDead(symbolTable, defUse, initialized, instructions, leaders, removed, i)) {
+                        removed[i] = true;
+                        defUse.remove(instruction);
+                        changed = true;
+                    } else if (FOLDABLE_OPS.contains(instruction.opCode) || isCopy(instruction)) {
+                        for (var id : getReads(instruction)) {
+                            initialized.add(id);
+                        }
+                        for (var id : getWrites(instruction)) {
+                            initialized.add(id);
+                        }
+                    }
+                }
+            }
+            return compact(instructions, removed);
+        }
+
+        private static boolean isDead(
+                PuffinBasicSymbolTable symbolTable,
+                DefUse defUse,
+                IntSet initialized,
+                List<Instruction> instructions,
+                boolean[] leaders,
+                boolean[] removed,
+                int instrNum)
+        {
+            var instruction = instructions.get(instrNum);
+            if (NOP_OPS.contains(instruction.opCode)) {
+                return true;
+            }
+            int resultId;
+            if (PURE_OPS.contains(instruction.opCode)) {
+                resultId = instruction.result;
+            } else if (isCopy(instruction)) {
+                resultId = instruction.op2;
+            } else {
+                return false;
+            }
+            if (!symbolTable.isScalarTmp(resultId) || defUse.getUses(resultId) != 0) {
+                return false;
+            }
+            // Removing the read of an uninitialized variable would hide its error.
+            for (var id : getReads(instruction)) {
+                if (!symbolTable.isScalarTmp(id)
+                        && !(isScalarVariable(symbolTable, id)
+                        && (initialized.contains(id) || isReadNext(symbolTable, instructions, leaders, removed, instrNum, id)))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Whether the variable is read again in the block, after only operators of temporaries,
+        // e.g. by the other end checks of a FOR loop. The error is then raised by that read.
+        private static boolean isReadNext(
+                PuffinBasicSymbolTable symbolTable,
+                List<Instruction> instructions,
+                boolean[] leaders,
+                boolean[] removed,
+                int instrNum,
+                int id)
+        {
+            for (int i = instrNum + 1; i < instructions.size() && !leaders[i]; i++) {
+                if (removed[i]) {
+                    continue;
+                }
+                var instruction = instructions.get(i);
+                var reads = getReads(instruction);
+                for (var read : reads) {
+                    if (read == id) {
+                        return true;
+                    }
+                }
+                if (!PURE_OPS.contains(instruction.opCode)) {
+                    return false;
+                }
+                for (var read : reads) {
+                    if (!symbolTable.isScalarTmp(read)) {
+                        return false;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class JumpThreading implements Pass {
+
+        @Override
+        public String getName() {
+            return "jump-threading";
+        }
+
+        @Override
+        public List<Instruction> run(PuffinBasicSymbolTable symbolTable, List<Instruction> instructions) {
+            var labelToInstrNum = getLabelToInstrNum(instructions);
+            var removed = new boolean[instructions.size()];
+            for (int i = 0; i < instructions.size(); i++) {
+                var instruction = instructions.get(i);
+                if (instruction.opCode == OpCode.GOTO_LABEL) {
+                    int label = getFinalTarget(instructions, labelToInstrNum, instruction.op1);
+                    if (label != instruction.op1) {
+                        instruction = new Instruction(instruction.inputRef, OpCode.GOTO_LABEL, label, NULL_ID, NULL_ID);
+                        instructions.set(i, instruction);
+                    }
+                    int target = labelToInstrNum.get(label);
+                    removed[i] = target > i && skipNoOps(instructions, i + 1) >= target;
+                } else if (instruction.opCode == OpCode.GOTO_LABEL_IF) {
+                    int label = getFinalTarget(instructions, labelToInstrNum, instruction.op2);
+                    if (label != instruction.op2) {
+                        instructions.set(i, new Instruction(
+                                instruction.inputRef, OpCode.GOTO_LABEL_IF, instruction.op1, label, NULL_ID));
+                    }
+                }
+            }
+            return compact(instructions, removed);
+        }
+
+        private static int getFinalTarget(List<Instruction> instructions, Int2IntMap labelToInstrNum, int label) {
+            var visited = new IntOpenHashSet();
+            visited.add(label);
+            while (true) {
+                int instrNum = labelToInstrNum.get(label);
+                if (instrNum == -1) {
+                    return label;
+                }
+                int next = skipNoOps(instructions, instrNum);
+                if (next == instructions.size()
+                        || instructions.get(next).opCode != OpCode.GOTO_LABEL
+                        || !visited.add(instructions.get(next).op1)) {
+                    return label;
+                }
+                label = instructions.get(next).op1;
+            }
+        }
+    }
+
+    private static final class Superinstructions implements Pass {
+
+        @Override
+        public String getName() {
+            return "superinstructions";
+        }
+
+        @Override
+        public List<Instruction> run(PuffinBasicSymbolTable symbolTable, List<Instruction> instructions) {
+            return rotateForLoops(symbolTable, fuseCompareAndBranch(instructions));
+        }
+
+        // CMP a b T; [NOT T U;] GOTO_LABEL_IF T|U L -> CMP_BRANCH a b L
+        private static List<Instruction> fuseCompareAndBranch(List<Instruction> instructions) {
+            var defUse = new DefUse(instructions);
+            var leaders = findLeaders(instructions);
+            var removed = new boolean[instructions.size()];
+            for (int i = 0; i < instructions.size(); i++) {
+                var instruction = instructions.get(i);
+                var branchOpCode = CMP_BRANCH_OPS.get(instruction.opCode);
+                if (branchOpCode == null || !isSingleUseTmp(defUse, instruction.result)) {
+                    continue;
+                }
+                int cond = instruction.result;
+                int branch = i + 1;
+                if (branch < instructions.size()
+                        && !leaders[branch]
+                        && instructions.get(branch).opCode == OpCode.NOT
+                        && instructions.get(branch).op1 == cond
+                        && isSingleUseTmp(defUse, instructions.get(branch).result)) {
+                    branchOpCode = COMPLEMENT_CMP_BRANCH_OPS.get(branchOpCode);
+                    cond = instructions.get(branch).result;
+                    branch++;
+                }
+                if (branch < instructions.size()
+                        && !leaders[branch]
+                        && instructions.get(branch).opCode == OpCode.GOTO_LABEL_IF
+                        && instructions.get(branch).op1 == cond) {
+                    instructions.set(i, new Instruction(
+                            instruction.inputRef, branchOpCode,
+                            instruction.op1, instruction.op2, instructions.get(branch).op2));
+                    for (int j = i + 1; j <= branch; j++) {
+                        removed[j] = true;
+                    }
+                    i = branch;
+                }
+            }
+            return compact(instructions, removed);
+        }
+
+        private static boolean isSingleUseTmp(DefUse defUse, int id) {
+            return defUse.getDefs(id) == 1 && defUse.getUses(id) == 1;
+        }
+
+        // The NEXT of a FOR loop jumps to the step at the top of the loop:
+        //   Lstep: ADD var step var; Lcheck: CMP_BRANCH var end Lexit; body...; GOTO_LABEL Lstep; Lexit:
+        // It's replaced by the step and the complemented end check, which jumps back to the body:
+        //   FOR_STEP var step var; CMP_BRANCH' var end Lbody
+        private static List<Instruction> rotateForLoops(
+                PuffinBasicSymbolTable symbolTable, List<Instruction> instructions)
+        {
+            var labelToInstrNum = getLabelToInstrNum(instructions);
+            // Index of the top CMP_BRANCH -> label inserted after it, before the body.
+            var bodyLabels = new Int2IntOpenHashMap();
+            bodyLabels.defaultReturnValue(NULL_ID);
+            // Index of the FOR_STEP -> CMP_BRANCH inserted after it.
+            var backBranches = new Int2ObjectOpenHashMap<Instruction>();
+            for (int i = 0; i < instructions.size(); i++) {
+                var site = instructions.get(i);
+                if (site.opCode != OpCode.GOTO_LABEL || labelToInstrNum.get(site.op1) == -1) {
+                    continue;
+                }
+                int stepInstrNum = skipNoOps(instructions, labelToInstrNum.get(site.op1));
+                int checkInstrNum = skipNoOps(instructions, stepInstrNum + 1);
+                if (checkInstrNum >= instructions.size()) {
+                    continue;
+                }
+                var step = instructions.get(stepInstrNum);
+                var check = instructions.get(checkInstrNum);
+                var stepOpCode = FOR_STEP_OPS.get(step.opCode);
+                if (stepOpCode == null
+                        || step.op1 != step.result
+                        || CMP_BRANCH_STEP_OPS.get(check.opCode) != step.opCode
+                        || check.op1 != step.op1) {
+                    continue;
+                }
+                if (!isFallThroughTo(instructions, labelToInstrNum, i, check.result)) {
+                    continue;
+                }
+                int bodyLabel = bodyLabels.get(checkInstrNum);
+                if (bodyLabel == NULL_ID) {
+                    bodyLabel = symbolTable.addLabel();
+                    bodyLabels.put(checkInstrNum, bodyLabel);
+                }
+                instructions.set(i, new Instruction(site.inputRef, stepOpCode, step.op1, step.op2, step.result));
+                backBranches.put(i, new Instruction(
+                        site.inputRef, COMPLEMENT_CMP_BRANCH_OPS.get(check.opCode), check.op1, check.op2, bodyLabel));
+            }
+            if (backBranches.isEmpty()) {
+                return instructions;
+            }
+            var result = new ArrayList<Instruction>(instructions.size() + 2 * backBranches.size());
+            for (int i = 0; i < instructions.size(); i++) {
+                result.add(instructions.get(i));
+                var backBranch = backBranches.get(i);
+                if (backBranch != null) {
+                    result.add(backBranch);
+                }
+                int bodyLabel = bodyLabels.get(i);
+                if (bodyLabel != NULL_ID) {
+                    // Has the position of the body's first instruction, so a line still starts where it did.
+                    var bodyStart = instructions.get(Math.min(i + 1, instructions.size() - 1));
+                    result.add(new Instruction(bodyStart.inputRef, OpCode.LABEL, bodyLabel, NULL_ID, NULL_ID));
+                }
+            }
+            return result;
+        }
+    }
+
+    // Whether falling through the instruction goes to the label (or to a GOTO_LABEL to it,
+    // e.g. the exit of an inner loop after jump-threading is the outer loop's step).
+    private static boolean isFallThroughTo(
+            List<Instruction> instructions, Int2IntMap labelToInstrNum, int instrNum, int label)
+    {
+        int target = labelToInstrNum.get(label);
+        int next = skipNoOps(instructions, instrNum + 1);
+        return (target > instrNum && next >= target)
+                || (next < instructions.size()
+                && instructions.get(next).opCode == OpCode.GOTO_LABEL
+                && instructions.get(next).op1 == label);
+    }
+
+    // Def and use counts of the entries.
+    private static final class DefUse {
+        private final Int2IntOpenHashMap defs;
+        private final Int2IntOpenHashMap uses;
+
+        DefUse(List<Instruction> instructions) {
+            this.defs = new Int2IntOpenHashMap();
+            this.uses = new Int2IntOpenHashMap();
+            for (var instruction : instructions) {
+                add(instruction);
+            }
+        }
+
+        void add(Instruction instruction) {
+            update(instruction, 1);
+        }
+
+        void remove(Instruction instruction) {
+            update(instruction, -1);
+        }
+
+        private void update(Instruction instruction, int delta) {
+            for (var id : getReads(instruction)) {
+                uses.addTo(id, delta);
+            }
+            for (var id : getWrites(instruction)) {
+                defs.addTo(id, delta);
+            }
+        }
+
+        int getDefs(int id) {
+            return defs.get(id);
+        }
+
+        int getUses(int id) {
+            return uses.get(id);
+        }
+
+        // A temporary set when the IR was generated (or folded) and never written.
+        boolean isConstant(PuffinBasicSymbolTable symbolTable, int id) {
+            return symbolTable.isScalarTmp(id)
+                    && getDefs(id) == 0
+                    && symbolTable.get(id).getValue().isInitialized();
+        }
+    }
+
+    private static int[] getReads(Instruction instruction) {
+        var opCode = instruction.opCode;
+        if (NO_ENTRY_OPS.contains(opCode)) {
+            return NO_IDS;
+        } else if (opCode == OpCode.GOTO_LABEL_IF || isCopy(instruction)) {
+            return ids(instruction.op1);
+        } else if (CMP_BRANCH_STEP_OPS.containsKey(opCode)) {
+            return ids(instruction.op1, instruction.op2);
+        } else if (FOLDABLE_OPS.contains(opCode)) {
+            return ids(instruction.op1, instruction.op2);
+        } else {
+            // Unknown instructions are assumed to read and write all their operands.
+            return ids(instruction.op1, instruction.op2, instruction.result);
+        }
+    }
+
+    private static int[] getWrites(Instruction instruction) {
+        var opCode = instruction.opCode;
+        if (NO_ENTRY_OPS.contains(opCode)
+                || opCode == OpCode.GOTO_LABEL_IF
+                || CMP_BRANCH_STEP_OPS.containsKey(opCode)) {
+            return NO_IDS;
+        } else if (isCopy(instruction)) {
+            return ids(instruction.op2);
+        } else if (FOLDABLE_OPS.contains(opCode)) {
+            return ids(instruction.result);
+        } else {
+            return ids(instruction.op1, instruction.op2, instruction.result);
+        }
+    }
+
+    private static int[] ids(int... ids) {
+        int n = 0;
+        for (var id : ids) {
+            if (id != NULL_ID) {
+                ids[n++] = id;
+            }
+        }
+        return n == ids.length ? ids : Arrays.copyOf(ids, n);
+    }
+
+    private static boolean isCopy(Instruction instruction) {
+        return instruction.opCode == OpCode.ASSIGN || instruction.opCode == OpCode.COPY;
+    }
+
+    // A plain scalar variable: not a function, a by-ref parameter or an array element.
+    private static boolean isScalarVariable(PuffinBasicSymbolTable symbolTable, int id) {
+        var entry = symbolTable.getNullableEntry(id);
+        return entry != null
+                && entry.getClass() == STVariable.class
+                && entry.getType().getTypeId() == SCALAR;
+    }
+
+    private static Int2IntMap getLabelToInstrNum(List<Instruction> instructions) {
+        Int2IntMap labelToInstrNum = new Int2IntOpenHashMap();
+        labelToInstrNum.defaultReturnValue(-1);
+        for (int i = 0; i < instructions.size(); i++) {
+            var instruction = instructions.get(i);
+            if (instruction.opCode == OpCode.LABEL) {
+                labelToInstrNum.put(instruction.op1, i);
+            }
+        }
+        return labelToInstrNum;
+    }
+
+    // Index of the first instruction from i which does something at runtime.
+    private static int skipNoOps(List<Instruction> instructions, int i) {
+        while (i < instructions.size()
+                && (instructions.get(i).opCode == OpCode.LABEL || NOP_OPS.contains(instructions.get(i).opCode))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static Instruction nop(Instruction instruction) {
+        return new Instruction(instruction.inputRef, OpCode.COMMENT, NULL_ID, NULL_ID, NULL_ID);
+    }
+
+    // Instructions which can be jumped to, or follow a jump or a scope change.
+    private static boolean[] findLeaders(List<Instruction> instructions) {
+        var leaders = new boolean[instructions.size()];
+        for (int i = 0; i < instructions.size(); i++) {
+            var instruction = instructions.get(i);
+            if (i == 0 || instruction.opCode == OpCode.LABEL) {
+                leaders[i] = true;
+            } else {
+                var prev = instructions.get(i - 1);
+                leaders[i] = BLOCK_END_OPS.contains(prev.opCode)
+                        || prev.inputRef.lineNumber != instruction.inputRef.lineNumber
+                        || prev.inputRef.sourceFile != instruction.inputRef.sourceFile;
+            }
+        }
+        return leaders;
+    }
+
+    // Drops the removed instructions. GOTO and RETURN to a line go to the first instruction
+    // with the line's number, so a line keeps a no-op where it starts if all of it is removed.
+    private static List<Instruction> compact(List<Instruction> instructions, boolean[] removed) {
+        var result = new ArrayList<Instruction>(instructions.size());
+        var lineNumbers = new IntOpenHashSet();
+        int start = 0;
+        while (start < instructions.size()) {
+            int lineNumber = instructions.get(start).inputRef.lineNumber;
+            int end = start + 1;
+            while (end < instructions.size() && instructions.get(end).inputRef.lineNumber == lineNumber) {
+                end++;
+            }
+            if (lineNumber >= 0 && lineNumbers.add(lineNumber) && allRemoved(removed, start, end)) {
+                result.add(nop(instructions.get(start)));
+            } else {
+                for (int i = start; i < end; i++) {
+                    if (!removed[i]) {
+                        result.add(instructions.get(i));
+                    }
+                }
+            }
+            start = end;
+        }
+        return result;
+    }
+
+    private static boolean allRemoved(boolean[] removed, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!removed[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
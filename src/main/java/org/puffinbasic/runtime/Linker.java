@@ -0,0 +1,126 @@
+package org.puffinbasic.runtime;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.puffinbasic.domain.PuffinBasicSymbolTable;
+import org.puffinbasic.domain.STObjects.STEntry;
+import org.puffinbasic.domain.STObjects.STValue;
+import org.puffinbasic.parser.PuffinBasicIR.Instruction;
+import org.puffinbasic.parser.PuffinBasicIR.OpCode;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.puffinbasic.domain.PuffinBasicSymbolTable.NULL_ID;
+
+final class Linker {
+
+    static final int NO_TARGET = -1;
+
+    private static final EnumSet<OpCode> CMP_BRANCH_OPS =
+            EnumSet.range(OpCode.CMP_BRANCH_EQ_I32, OpCode.CMP_BRANCH_GE_F64);
+
+    static LinkedInstruction[] link(
+            PuffinBasicSymbolTable symbolTable, List<Instruction> instructions, Int2IntMap lineNumToInstrNum)
+    {
+        var labelToInstrNum = computeLabelToInstructionNumber(instructions);
+        var linked = new LinkedInstruction[instructions.size()];
+        for (int i = 0; i < linked.length; i++) {
+            var instruction = instructions.get(i);
+            linked[i] = new LinkedInstruction(
+                    instruction,
+                    resolve(symbolTable, instruction.op1),
+                    resolve(symbolTable, instruction.op2),
+                    resolve(symbolTable, instruction.result),
+                    resolveTarget(symbolTable, instructions, labelToInstrNum, lineNumToInstrNum, instruction)
+            );
+        }
+        return linked;
+    }
+
+    private static STEntry resolve(PuffinBasicSymbolTable symbolTable, int id) {
+        // Entries are never replaced once declared, function calls save and restore
+        // the entries of their scope, so all ids can be resolved ahead of time.
+        return id == NULL_ID ? null : symbolTable.getNullableEntry(id);
+    }
+
+    private static Int2IntMap computeLabelToInstructionNumber(List<Instruction> instructions) {
+        var labelToInstrNum = new Int2IntOpenHashMap();
+        labelToInstrNum.defaultReturnValue(NO_TARGET);
+        for (int i = 0; i < instructions.size(); i++) {
+            var instruction = instructions.get(i);
+            if (instruction.opCode == OpCode.LABEL) {
+                labelToInstrNum.put(instruction.op1, i);
+            }
+        }
+        return labelToInstrNum;
+    }
+
+    // Instruction# the instruction jumps (or returns) to, labels and line numbers
+    // are resolved once here instead of on each jump.
+    private static int resolveTarget(
+            PuffinBasicSymbolTable symbolTable,
+            List<Instruction> instructions,
+            Int2IntMap labelToInstrNum,
+            Int2IntMap lineNumToInstrNum,
+            Instruction instruction)
+    {
+        final int instrNum;
+        switch (instruction.opCode) {
+            case GOTO_LABEL:
+            case PUSH_RETLABEL:
+                instrNum = labelToInstrNum.get(instruction.op1);
+                break;
+            case PARFOR:
+                // The end of the body, which is just before its PARFOR_NEXT
+                instrNum = labelToInstrNum.get(instruction.result);
+                break;
+            case GOTO_LABEL_IF:
+            case PUSH_RT_SCOPE:
+                instrNum = labelToInstrNum.get(instruction.op2);
+                break;
+            case GOTO_LINENUM:
+            case RETURN: {
+                // The line number is a constant, a missing line fails when the jump runs.
+                var entry = resolve(symbolTable, instruction.op1);
+                instrNum = entry != null && entry.getValue().isInitialized()
+                        ? lineNumToInstrNum.getOrDefault(entry.getValue().getInt32(), NO_TARGET)
+                        : NO_TARGET;
+            }
+                break;
+            default:
+                if (!CMP_BRANCH_OPS.contains(instruction.opCode)) {
+                    return NO_TARGET;
+                }
+                instrNum = labelToInstrNum.get(instruction.result);
+        }
+        return instrNum == NO_TARGET ? NO_TARGET : skipLabels(instructions, instrNum);
+    }
+
+    // Labels are no-ops, so a jump goes to the instruction after them.
+    private static int skipLabels(List<Instruction> instructions, int instrNum) {
+        while (instrNum < instructions.size() && instructions.get(instrNum).opCode == OpCode.LABEL) {
+            instrNum++;
+        }
+        return instrNum;
+    }
+
+    static final class LinkedInstruction {
+        final Instruction instruction;
+        final STEntry op1;
+        final STEntry op2;
+        final STEntry result;
+        // Resolved jump target, NO_TARGET if the instruction doesn't jump or its target is computed.
+        final int target;
+        // Arguments of a MEMBER_FUNC_CALL, allocated by its first call and reused by the next ones.
+        STValue[] args;
+
+        LinkedInstruction(Instruction instruction, STEntry op1, STEntry op2, STEntry result, int target) {
+            this.instruction = instruction;
+            this.op1 = op1;
+            this.op2 = op2;
+            this.result = result;
+            this.target = target;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.puffinbasic.runtime;
+
+import org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId;
+import org.puffinbasic.domain.STObjects.STValue;
+import org.puffinbasic.error.PuffinBasicRuntimeError;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.ILLEGAL_FUNCTION_PARAM;
+
+/**
+ * Iterations of a PARFOR loop, split across the common fork-join pool.
+ * Iteration k sets the loop variable to init + k * step, like a FOR loop
+ * it runs while the variable is not past the end.
+ */
+final class ParallelFor {
+
+    interface Worker {
+        void run(ParallelFor loop, long first, long last);
+    }
+
+    // Leaves per thread of the pool, more than one to balance uneven iterations.
+    private static final int LEAVES_PER_THREAD = 8;
+
+    private final PuffinBasicAtomTypeId type;
+    private final boolean integral;
+    private final long initInt;
+    private final long stepInt;
+    private final double init;
+    private final double step;
+    private final long numIterations;
+
+    ParallelFor(PuffinBasicAtomTypeId type, STValue init, STValue end, STValue step) {
+        this.type = type;
+        this.integral = type == PuffinBasicAtomTypeId.INT32 || type == PuffinBasicAtomTypeId.INT64;
+        this.initInt = init.getInt64();
+        this.stepInt = step.getInt64();
+        this.init = integral ? initInt : init.getFloat64();
+        this.step = integral ? stepInt : step.getFloat64();
+        if (this.step == 0) {
+            throw new PuffinBasicRuntimeError(
+                    ILLEGAL_FUNCTION_PARAM,
+                    "PARFOR STEP can't be 0"
+            );
+        }
+        double span = (end.getFloat64() - this.init) / this.step;
+        this.numIterations = span < 0 ? 0 : (long) Math.floor(span) + 1;
+    }
+
+    long getNumIterations() {
+        return numIterations;
+    }
+
+    // Sets the variable to its value in iteration k.
+    void setVariable(STValue variable, long k) {
+        switch (type) {
+            case INT32:
+                variable.setInt32((int) (initInt + k * stepInt));
+                break;
+            case INT64:
+                variable.setInt64(initInt + k * stepInt);
+                break;
+            case FLOAT:
+                variable.setFloat32((float) (init + k * step));
+                break;
+            default:
+                variable.setFloat64(init + k * step);
+        }
+    }
+
+    // Runs all iterations, each thread of the pool gets its own worker.
+    void run(Supplier<Worker> newWorker) {
+        var pool = ForkJoinPool.commonPool();
+        var workers = new ConcurrentHashMap<Thread, Worker>();
+        long leafSize = Math.max(1, numIterations / ((long) pool.getParallelism() * LEAVES_PER_THREAD));
+        pool.invoke(new Iterations(0, numIterations, leafSize, () ->
+                workers.computeIfAbsent(Thread.currentThread(), t -> newWorker.get())));
+    }
+
+    private final class Iterations extends RecursiveAction {
+        private final long first;
+        private final long last;
+        private final long leafSize;
+        private final Supplier<Worker> worker;
+
+        Iterations(long first, long last, long leafSize, Supplier<Worker> worker) {
+            this.first = first;
+            this.last = last;
+            this.leafSize = leafSize;
+            this.worker = worker;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first <= leafSize) {
+                worker.get().run(ParallelFor.this, first, last);
+            } else {
+                long mid = first + (last - first) / 2;
+                invokeAll(
+                        new Iterations(first, mid, leafSize, worker),
+                        new Iterations(mid, last, leafSize, worker));
+            }
+        }
+    }
+}
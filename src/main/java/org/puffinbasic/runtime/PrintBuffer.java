@@ -1,36 +1,45 @@
 package org.puffinbasic.runtime;
 
-import it.unimi.dsi.fastutil.bytes.ByteArrayList;
-import it.unimi.dsi.fastutil.bytes.ByteList;
 import org.puffinbasic.file.PuffinBasicFile;
 
+import java.util.Arrays;
+
 public class PrintBuffer {
 
     private static final byte SPACE = (byte) ' ';
-    private final ByteList buffer;
+    private static final int INITIAL_CAPACITY = 256;
+    private byte[] buffer;
+    private int size;
     private int cursor;
+    private long numFlushes;
 
     public PrintBuffer() {
-        this.buffer = new ByteArrayList();
+        this.buffer = new byte[INITIAL_CAPACITY];
     }
 
     public void appendAtCursor(String value) {
-        for (int i = buffer.size(); i < cursor + value.length(); i++) {
-            buffer.add(SPACE);
+        int end = cursor + value.length();
+        if (end > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(end, buffer.length * 2));
+        }
+        if (cursor > size) {
+            Arrays.fill(buffer, size, cursor, SPACE);
         }
         for (int i = 0; i < value.length(); i++) {
-            buffer.set(cursor++, (byte) value.charAt(i));
+            buffer[cursor++] = (byte) value.charAt(i);
         }
+        size = Math.max(size, end);
     }
 
+    // Hands the buffered bytes to the file in one write.
     public void flush(PuffinBasicFile file) {
-        for (int i = 0; i < buffer.size(); i++) {
-            file.writeByte(buffer.getByte(i));
-        }
-        for (int i = 0; i < buffer.size(); i++) {
-            buffer.set(i, SPACE);
-        }
-        buffer.clear();
+        file.write(buffer, 0, size);
+        size = 0;
         cursor = 0;
+        numFlushes++;
+    }
+
+    public long getNumFlushes() {
+        return numFlushes;
     }
 }
@@ -0,0 +1,219 @@
+package org.puffinbasic.runtime;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.antlr.v4.runtime.misc.Interval;
+import org.puffinbasic.domain.PuffinBasicSymbolTable;
+import org.puffinbasic.domain.STObjects.STVariable;
+import org.puffinbasic.error.PuffinBasicInternalError;
+import org.puffinbasic.parser.PuffinBasicIR.InputRef;
+import org.puffinbasic.parser.PuffinBasicIR.OpCode;
+import org.puffinbasic.parser.PuffinBasicSourceFile;
+import org.puffinbasic.runtime.Linker.LinkedInstruction;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Sampling profiler, a background thread periodically reads the program counter
+ * and the call stack of the running program. The program itself only publishes
+ * its program counter, so the overhead is independent of the sampling rate.
+ */
+public final class Profiler {
+
+    public static final int DEFAULT_RATE = 100;
+    public static final int DEFAULT_TOP_N = 20;
+    private static final int MAX_DEPTH = 128;
+    private static final String MAIN_FRAME = "<main>";
+
+    private final int rate;
+    // Call sites of the active calls followed by the program counter -> #samples
+    private final Object2IntOpenHashMap<IntArrayList> samples;
+    private final int[] callerInstrIds;
+    private ScheduledExecutorService sampler;
+    private LinkedInstruction[] instructions;
+    private PuffinBasicSymbolTable symbolTable;
+    private volatile IntSupplier programCounter;
+    private int numSamples;
+
+    public Profiler(int rate) {
+        if (rate <= 0) {
+            throw new PuffinBasicInternalError("Bad profiler rate: " + rate);
+        }
+        this.rate = rate;
+        this.samples = new Object2IntOpenHashMap<>();
+        this.callerInstrIds = new int[MAX_DEPTH];
+    }
+
+    void start(LinkedInstruction[] instructions, PuffinBasicSymbolTable symbolTable) {
+        this.instructions = instructions;
+        this.symbolTable = symbolTable;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "PuffinBasicProfiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        sampler.scheduleAtFixedRate(this::sample, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Source of the program counter of the execution engine, until then nothing is sampled.
+    void setProgramCounter(IntSupplier programCounter) {
+        this.programCounter = programCounter;
+    }
+
+    void stop() {
+        if (sampler == null) {
+            return;
+        }
+        sampler.shutdown();
+        try {
+            sampler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        programCounter = null;
+    }
+
+    private void sample() {
+        var source = programCounter;
+        if (source == null) {
+            return;
+        }
+        int pc = source.getAsInt();
+        if (pc < 0 || pc >= instructions.length) {
+            return;
+        }
+        int depth = symbolTable.getCallerInstrIds(callerInstrIds);
+        var stack = new IntArrayList(depth + 1);
+        for (int i = 0; i < depth; i++) {
+            int callerInstrId = callerInstrIds[i];
+            if (callerInstrId >= 0 && callerInstrId < instructions.length) {
+                stack.add(callerInstrId);
+            }
+        }
+        stack.add(pc);
+        samples.addTo(stack, 1);
+        numSamples++;
+    }
+
+    public int getNumSamples() {
+        return numSamples;
+    }
+
+    /**
+     * Prints the source lines with the most samples, self counts the samples
+     * in the line and total also those in the functions it calls.
+     */
+    public void printHotLines(PrintStream out, int topN) {
+        var self = new Object2IntOpenHashMap<String>();
+        var total = new Object2IntOpenHashMap<String>();
+        var lineRefs = new HashMap<String, InputRef>();
+        for (var e : samples.object2IntEntrySet()) {
+            var stack = e.getKey();
+            int count = e.getIntValue();
+            var onStack = new ArrayList<String>(stack.size());
+            String line = null;
+            for (int i = 0; i < stack.size(); i++) {
+                var inputRef = instructions[stack.getInt(i)].instruction.getInputRef();
+                line = getLineName(inputRef);
+                lineRefs.putIfAbsent(line, inputRef);
+                // Recursive calls count once in the total
+                if (!onStack.contains(line)) {
+                    onStack.add(line);
+                    total.addTo(line, count);
+                }
+            }
+            // The last line is the one at the program counter
+            self.addTo(line, count);
+        }
+
+        var lines = new ArrayList<>(total.keySet());
+        lines.sort((a, b) -> {
+            int cmp = Integer.compare(self.getInt(b), self.getInt(a));
+            return cmp != 0 ? cmp : Integer.compare(total.getInt(b), total.getInt(a));
+        });
+
+        var sourceTexts = new HashMap<PuffinBasicSourceFile, String>();
+        out.println("[PROFILE] " + numSamples + " samples at " + rate + " Hz");
+        out.println(String.format("%7s %7s %7s %7s  %s", "SELF%", "SELF", "TOTAL%", "TOTAL", "LINE"));
+        for (int i = 0; i < Math.min(topN, lines.size()); i++) {
+            var line = lines.get(i);
+            int selfCount = self.getInt(line);
+            int totalCount = total.getInt(line);
+            out.println(String.format("%6.2f%% %7d %6.2f%% %7d  %s  %s",
+                    percent(selfCount), selfCount, percent(totalCount), totalCount,
+                    line, getSourceLine(sourceTexts, lineRefs.get(line))));
+        }
+    }
+
+    /**
+     * Prints one line per sampled call stack, frames separated by ';' followed by
+     * the number of samples, the input format of flame graph tools.
+     */
+    public void printCollapsedStacks(PrintStream out) {
+        var funcNames = getFuncNamesByCallerInstrId();
+        var stacks = new Object2IntLinkedOpenHashMap<String>();
+        var sb = new StringBuilder();
+        for (var e : samples.object2IntEntrySet()) {
+            var stack = e.getKey();
+            sb.setLength(0);
+            sb.append(MAIN_FRAME);
+            for (int i = 0; i < stack.size(); i++) {
+                if (i > 0) {
+                    // The call site identifies the function called by the frame.
+                    sb.append(';').append(funcNames.getOrDefault(stack.getInt(i - 1), "?"));
+                }
+                // Line being run by the frame: the call site of the next frame, or the program counter.
+                sb.append(' ').append(getLineName(instructions[stack.getInt(i)].instruction.getInputRef()));
+            }
+            stacks.addTo(sb.toString(), e.getIntValue());
+        }
+        for (var e : stacks.object2IntEntrySet()) {
+            out.println(e.getKey() + " " + e.getIntValue());
+        }
+    }
+
+    private Int2ObjectMap<String> getFuncNamesByCallerInstrId() {
+        var funcNames = new Int2ObjectOpenHashMap<String>();
+        for (var linked : instructions) {
+            var instruction = linked.instruction;
+            if (instruction.opCode == OpCode.PUSH_RT_SCOPE && linked.target != Linker.NO_TARGET) {
+                var entry = symbolTable.get(instruction.op1);
+                funcNames.put(linked.target, entry instanceof STVariable
+                        ? ((STVariable) entry).getVariable().getVariableName().getVarname()
+                        : "?");
+            }
+        }
+        return funcNames;
+    }
+
+    private double percent(int count) {
+        return numSamples == 0 ? 0 : 100.0 * count / numSamples;
+    }
+
+    private static String getLineName(InputRef inputRef) {
+        return inputRef.sourceFile.getRelativePath() + ":" + inputRef.lineNumber;
+    }
+
+    private static String getSourceLine(Map<PuffinBasicSourceFile, String> sourceTexts, InputRef inputRef) {
+        var text = sourceTexts.computeIfAbsent(inputRef.sourceFile, sourceFile -> {
+            var stream = sourceFile.getSourceCodeStream();
+            return stream.getText(Interval.of(0, stream.size() - 1));
+        });
+        // Instructions refer to the original source code by index, find the line holding it.
+        int start = Math.min(Math.max(0, inputRef.inputStartIndex), text.length());
+        int lineStart = start == 0 ? 0 : text.lastIndexOf('\n', start - 1) + 1;
+        int lineEnd = text.indexOf('\n', start);
+        return text.substring(lineStart, lineEnd < 0 ? text.length() : lineEnd).trim();
+    }
+}
@@ -0,0 +1,170 @@
+package org.puffinbasic.runtime;
+
+import org.puffinbasic.error.PuffinBasicInternalError;
+import org.puffinbasic.runtime.PuffinBasicRuntime.ExecutionEngine;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs many programs concurrently in one JVM, each job on its own thread (a virtual
+ * thread when the JVM has them) with its own output, environment, stdin and files.
+ * At most maxConcurrency jobs run at a time, the others wait for a permit.
+ * Results are returned by submit() and also put on the results queue as jobs finish.
+ */
+public final class PuffinBasicHost implements AutoCloseable {
+
+    public enum Status {
+        COMPLETED,
+        FAILED,
+        TIMED_OUT
+    }
+
+    public static final class Job {
+        final String name;
+        final CompiledProgram program;
+        final PrintStream out;
+        final Environment env;
+        final ExecutionEngine engine;
+        // null if the job can run forever
+        final Duration timeout;
+
+        public Job(
+                String name,
+                CompiledProgram program,
+                PrintStream out,
+                Environment env,
+                ExecutionEngine engine,
+                Duration timeout)
+        {
+            this.name = name;
+            this.program = program;
+            this.out = out;
+            this.env = env;
+            this.engine = engine;
+            this.timeout = timeout;
+        }
+    }
+
+    public static final class JobResult {
+        public final String name;
+        public final Status status;
+        // null if completed
+        public final Exception error;
+        public final Duration elapsed;
+
+        JobResult(String name, Status status, Exception error, Duration elapsed) {
+            this.name = name;
+            this.status = status;
+            this.error = error;
+            this.elapsed = elapsed;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final ScheduledExecutorService timer;
+    private final BlockingQueue<JobResult> results;
+
+    public PuffinBasicHost(int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new PuffinBasicInternalError("Bad max concurrency: " + maxConcurrency);
+        }
+        this.executor = newExecutor(maxConcurrency);
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "PuffinBasicHostTimer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.results = new LinkedBlockingQueue<>();
+    }
+
+    // Virtual threads (Java 21+) are looked up at runtime, the build targets Java 11.
+    private static ExecutorService newExecutor(int maxConcurrency) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newFixedThreadPool(maxConcurrency, runnable -> {
+                var thread = new Thread(runnable, "PuffinBasicHostJob");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public Future<JobResult> submit(Job job) {
+        return executor.submit(() -> run(job));
+    }
+
+    // Results of the finished jobs, in the order they finished.
+    public BlockingQueue<JobResult> getResults() {
+        return results;
+    }
+
+    private JobResult run(Job job) throws InterruptedException {
+        permits.acquire();
+        try {
+            var result = execute(job);
+            results.add(result);
+            return result;
+        } finally {
+            permits.release();
+        }
+    }
+
+    private JobResult execute(Job job) {
+        long t0 = System.nanoTime();
+        var timedOut = new AtomicBoolean();
+        ScheduledFuture<?> timeout = null;
+        Status status;
+        Exception error = null;
+        try {
+            var runtime = job.program.newRuntime(job.out, job.env, job.engine);
+            if (job.timeout != null) {
+                timeout = timer.schedule(() -> {
+                    timedOut.set(true);
+                    runtime.cancel();
+                }, job.timeout.toNanos(), TimeUnit.NANOSECONDS);
+            }
+            runtime.execute();
+            status = Status.COMPLETED;
+        } catch (Exception e) {
+            status = timedOut.get() ? Status.TIMED_OUT : Status.FAILED;
+            error = e;
+        } finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            job.out.flush();
+        }
+        return new JobResult(job.name, status, error, Duration.ofNanos(System.nanoTime() - t0));
+    }
+
+    /**
+     * Waits for the submitted jobs to finish.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Jobs without a timeout may run for long
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        timer.shutdownNow();
+    }
+}
@@ -4,6 +4,10 @@ import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntStack;
+import org.puffinbasic.domain.PuffinBasicSymbolTable;
+import org.puffinbasic.domain.STObjects.STEntry;
+import org.puffinbasic.domain.STObjects.STValue;
+import org.puffinbasic.domain.SymbolTableSnapshot;
 import org.puffinbasic.error.PuffinBasicInternalError;
 import org.puffinbasic.error.PuffinBasicRuntimeError;
 import org.puffinbasic.file.PuffinBasicFiles;
@@ -11,29 +15,45 @@ import org.puffinbasic.file.SystemInputOutputFile;
 import org.puffinbasic.parser.PuffinBasicIR;
 import org.puffinbasic.parser.PuffinBasicIR.Instruction;
 import org.puffinbasic.runtime.ArraysUtil.ArrayState;
+import org.puffinbasic.runtime.BytecodeCompiler.CompiledCode;
+import org.puffinbasic.runtime.ClosureCompiler.Node;
 import org.puffinbasic.runtime.Formatter.FormatterCache;
 import org.puffinbasic.runtime.GraphicsRuntime.GraphicsState;
+import org.puffinbasic.runtime.Linker.LinkedInstruction;
 import org.puffinbasic.runtime.Statements.ReadData;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
 
 import static org.puffinbasic.domain.PuffinBasicSymbolTable.NULL_ID;
+import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.INTERRUPTED_ERROR;
 import static org.puffinbasic.parser.PuffinBasicIR.OpCode.DATA;
-import static org.puffinbasic.parser.PuffinBasicIR.OpCode.LABEL;
 
 public class PuffinBasicRuntime {
 
+    public enum ExecutionEngine {
+        SWITCH,
+        CLOSURE,
+        COMPILE
+    }
+
     private final PuffinBasicIR ir;
+    private final PuffinBasicSymbolTable symbolTable;
+    // Runtime which runs the PARFOR this runtime is a worker of, null if not a worker
+    private final PuffinBasicRuntime parent;
+    private final ExecutionEngine engine;
     private PrintBuffer printBuffer;
     private ArrayState arrayState;
-    private IntStack gosubReturnLabelStack;
+    // Instruction# to return to, of the active GOSUBs.
+    private IntStack gosubReturnStack;
     private int programCounter;
+    private LinkedInstruction[] linkedInstructions;
     private Random random;
-    private Int2IntMap labelToInstrNum;
     private Int2IntMap lineNumToInstrNum;
     private List<Instruction> params;
     private FormatterCache formatterCache;
@@ -43,28 +63,88 @@ public class PuffinBasicRuntime {
     private final Environment env;
     private GraphicsState graphicsState;
     private SoundState soundState;
+    private final Profiler profiler;
+    private final RuntimeMetrics metrics;
+    // Classes generated by the bytecode compiler, shared by runs of a CompiledProgram
+    private final ConcurrentMap<String, Class<?>> codeClasses;
+    private volatile boolean cancelled;
+    private volatile CompiledCode compiledCode;
+    private volatile Thread runner;
+    // Closures of a PARFOR worker, null if it runs the switch interpreter
+    private Node[] nodes;
 
     public PuffinBasicRuntime(PuffinBasicIR ir, PrintStream out, Environment env) {
+        this(ir, out, env, ExecutionEngine.SWITCH);
+    }
+
+    public PuffinBasicRuntime(PuffinBasicIR ir, PrintStream out, Environment env, ExecutionEngine engine) {
+        this(ir, out, env, engine, null, null);
+    }
+
+    public PuffinBasicRuntime(
+            PuffinBasicIR ir,
+            PrintStream out,
+            Environment env,
+            ExecutionEngine engine,
+            Profiler profiler,
+            RuntimeMetrics metrics)
+    {
+        this(ir, null, out, env, engine, profiler, metrics);
+    }
+
+    PuffinBasicRuntime(
+            PuffinBasicIR ir,
+            ConcurrentMap<String, Class<?>> codeClasses,
+            PrintStream out,
+            Environment env,
+            ExecutionEngine engine,
+            Profiler profiler,
+            RuntimeMetrics metrics)
+    {
         this.ir = ir;
+        this.symbolTable = ir.getSymbolTable();
+        this.parent = null;
+        this.codeClasses = codeClasses;
         this.out = out;
         this.env = env;
+        this.engine = engine;
+        this.profiler = profiler;
+        this.metrics = metrics;
     }
 
-    private Int2IntMap computeLabelToInstructionNumber(List<Instruction> instructions) {
-        Int2IntMap labelToInstrNum = new Int2IntOpenHashMap();
-        for (int i = 0; i < instructions.size(); i++) {
-            var instr = instructions.get(i);
-            if (instr.opCode == LABEL) {
-                labelToInstrNum.put(instr.op1, i);
-            }
-        }
-        return labelToInstrNum;
+    // A worker of a PARFOR, with its own copy of the symbol table, see runParFor().
+    private PuffinBasicRuntime(PuffinBasicRuntime parent, PuffinBasicSymbolTable symbolTable) {
+        this.ir = parent.ir;
+        this.symbolTable = symbolTable;
+        this.parent = parent;
+        this.codeClasses = null;
+        this.out = parent.out;
+        this.env = parent.env;
+        this.engine = parent.engine;
+        this.profiler = null;
+        this.metrics = null;
+        this.lineNumToInstrNum = parent.lineNumToInstrNum;
+        this.linkedInstructions = Linker.link(symbolTable, ir.getInstructions(), lineNumToInstrNum);
+        this.printBuffer = parent.printBuffer;
+        this.arrayState = new ArrayState();
+        this.gosubReturnStack = new IntArrayList();
+        this.random = new Random();
+        this.formatterCache = new FormatterCache();
+        this.params = new ArrayList<>(4);
+        this.files = parent.files;
+        this.readData = parent.readData;
+        this.graphicsState = parent.graphicsState;
+        this.soundState = parent.soundState;
+        // Workers of the closure and the compile engines run the body as closures
+        this.nodes = engine == ExecutionEngine.SWITCH
+                ? null
+                : ClosureCompiler.compile(linkedInstructions, this::runFallback, null);
     }
 
-    private int getInstrNumForLabel(int id) {
-        var instrNum = labelToInstrNum.getOrDefault(id, -1);
-        if (instrNum == -1) {
-            throw new PuffinBasicInternalError("Failed to find instruction# for label: " + id);
+    private int getTarget(LinkedInstruction linked) {
+        var instrNum = linked.target;
+        if (instrNum == Linker.NO_TARGET) {
+            throw new PuffinBasicInternalError("Failed to find jump target for: " + linked.instruction);
         }
         return instrNum;
     }
@@ -90,60 +170,318 @@ public class PuffinBasicRuntime {
         return instrNum;
     }
 
+    // Runs the program, errors are printed to stderr.
     public void run() {
+        try {
+            execute();
+        } catch (Exception e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    // Runs the program, and throws its error (if any).
+    public void execute() {
+        this.runner = Thread.currentThread();
         var instructions = ir.getInstructions();
-        this.labelToInstrNum = computeLabelToInstructionNumber(instructions);
         this.lineNumToInstrNum = computeLineNumberToInstructionNumber(instructions);
+        this.linkedInstructions = Linker.link(symbolTable, instructions, lineNumToInstrNum);
         this.printBuffer = new PrintBuffer();
         this.arrayState = new ArrayState();
-        this.gosubReturnLabelStack = new IntArrayList();
+        this.gosubReturnStack = new IntArrayList();
         this.random = new Random();
         this.formatterCache = new FormatterCache();
         this.params = new ArrayList<>(4);
-        this.files = new PuffinBasicFiles(new SystemInputOutputFile(System.in, out));
+        this.files = new PuffinBasicFiles(
+                new SystemInputOutputFile(
+                        env.getStdin(), out, env.getOutputBufferSize(), env.getOutputFlushPolicy()),
+                env.getFileDirectory(),
+                env.getOutputBufferSize());
         this.readData = processDataInstructions(instructions);
         this.graphicsState = new GraphicsState();
         this.soundState = new SoundState();
+        if (profiler != null) {
+            profiler.start(linkedInstructions, symbolTable);
+        }
+        if (metrics != null) {
+            metrics.start(linkedInstructions, printBuffer, files);
+        }
 
         try {
-            var numInstructions = instructions.size();
-            boolean end = false;
-            while (!end && programCounter < numInstructions) {
-                var instruction = instructions.get(programCounter);
-                try {
-                    end = runInstruction(instruction);
-                } catch (PuffinBasicRuntimeError e) {
-                    throw new PuffinBasicRuntimeError(e, instruction, ir.getCodeStreamFor(instruction));
-                } catch (Exception e) {
-                    throw new PuffinBasicRuntimeError(e, instruction, ir.getCodeStreamFor(instruction));
-                }
+            if (engine == ExecutionEngine.CLOSURE) {
+                runNodes(linkedInstructions);
+            } else if (engine == ExecutionEngine.COMPILE) {
+                runCompiled(linkedInstructions);
+            } else {
+                runSwitch(linkedInstructions);
             }
-        } catch (Exception e) {
-            e.printStackTrace(System.err);
         } finally {
+            if (profiler != null) {
+                profiler.stop();
+            }
+            if (metrics != null) {
+                metrics.stop();
+            }
+            // Files left open (e.g. by a cancelled run) are flushed and released,
+            // and the buffered stdout is written out.
+            files.closeAll();
             GraphicsRuntime.end(graphicsState);
             soundState.close();
         }
     }
 
+    /**
+     * Stops the run (from another thread), it fails with INTERRUPTED_ERROR
+     * at the next instruction, or the next loop iteration of compiled code.
+     */
+    public void cancel() {
+        cancelled = true;
+        var code = compiledCode;
+        if (code != null) {
+            code.cancelled = true;
+        }
+        // Wakes up SLEEP
+        var thread = runner;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void checkCancelled() {
+        if (cancelled || (parent != null && parent.cancelled)) {
+            throw new PuffinBasicRuntimeError(
+                    INTERRUPTED_ERROR,
+                    "Cancelled"
+            );
+        }
+    }
+
+    private void runSwitch(LinkedInstruction[] linkedInstructions) {
+        if (profiler != null) {
+            profiler.setProgramCounter(() -> programCounter);
+        }
+        var counts = getInstructionCounts();
+        var numInstructions = linkedInstructions.length;
+        boolean end = false;
+        while (!end && programCounter < numInstructions) {
+            var linked = linkedInstructions[programCounter];
+            var instruction = linked.instruction;
+            // A loop-invariant test, the JIT hoists it out of the loop when metrics are disabled.
+            if (counts != null) {
+                counts[programCounter]++;
+            }
+            try {
+                checkCancelled();
+                end = runInstruction(linked);
+            } catch (PuffinBasicRuntimeError e) {
+                throw new PuffinBasicRuntimeError(e, instruction, ir.getCodeStreamFor(instruction));
+            } catch (Exception e) {
+                throw new PuffinBasicRuntimeError(e, instruction, ir.getCodeStreamFor(instruction));
+            }
+        }
+    }
+
+    private void runNodes(LinkedInstruction[] linkedInstructions) {
+        var nodes = ClosureCompiler.compile(linkedInstructions, this::runFallback, getInstructionCounts());
+        if (profiler != null) {
+            profiler.setProgramCounter(() -> programCounter);
+        }
+        var counts = getInstructionCounts();
+        var numInstructions = nodes.length;
+        int pc = programCounter;
+        while (pc >= 0 && pc < numInstructions) {
+            if (counts != null) {
+                counts[pc]++;
+            }
+            try {
+                checkCancelled();
+                // Published for the profiler, a plain store is cheap enough to not need a separate loop.
+                programCounter = pc;
+                pc = nodes[pc].exec(pc);
+            } catch (PuffinBasicRuntimeError e) {
+                var instruction = linkedInstructions[pc].instruction;
+                throw new PuffinBasicRuntimeError(e, instruction, ir.getCodeStreamFor(instruction));
+            } catch (Exception e) {
+                var instruction = linkedInstructions[pc].instruction;
+                throw new PuffinBasicRuntimeError(e, instruction, ir.getCodeStreamFor(instruction));
+            }
+        }
+    }
+
+    private void runCompiled(LinkedInstruction[] linkedInstructions) {
+        var code = BytecodeCompiler.compile(
+                symbolTable,
+                linkedInstructions,
+                computeEntryPoints(linkedInstructions),
+                this::runFallback,
+                profiler != null,
+                getInstructionCounts(),
+                codeClasses);
+        if (code == null) {
+            runSwitch(linkedInstructions);
+            return;
+        }
+        compiledCode = code;
+        if (cancelled) {
+            code.cancelled = true;
+        }
+        if (profiler != null) {
+            profiler.setProgramCounter(() -> code.pc);
+        }
+        var numInstructions = linkedInstructions.length;
+        int pc = programCounter;
+        while (pc >= 0 && pc < numInstructions) {
+            try {
+                pc = code.run(pc);
+                if (pc >= 0 && pc < numInstructions) {
+                    // Jumped to an instruction which is not an entry point of the compiled code
+                    code.pc = pc;
+                    if (code.counts != null) {
+                        code.counts[pc]++;
+                    }
+                    pc = runFallback(linkedInstructions[pc], pc);
+                }
+            } catch (PuffinBasicRuntimeError e) {
+                var instruction = linkedInstructions[code.pc].instruction;
+                throw new PuffinBasicRuntimeError(e, instruction, ir.getCodeStreamFor(instruction));
+            } catch (Exception e) {
+                var instruction = linkedInstructions[code.pc].instruction;
+                throw new PuffinBasicRuntimeError(e, instruction, ir.getCodeStreamFor(instruction));
+            }
+        }
+    }
+
+    // Instructions which can be reached by a jump run by the fallback (jump targets and line numbers).
+    private int[] computeEntryPoints(LinkedInstruction[] linkedInstructions) {
+        var entryPoints = new IntArrayList();
+        entryPoints.add(0);
+        for (var linked : linkedInstructions) {
+            if (linked.target != Linker.NO_TARGET) {
+                entryPoints.add(linked.target);
+            }
+        }
+        entryPoints.addAll(lineNumToInstrNum.values());
+        return entryPoints.toIntArray();
+    }
+
+    private long[] getInstructionCounts() {
+        return metrics != null ? metrics.getInstructionCounts() : null;
+    }
+
+    private int runFallback(LinkedInstruction linked, int pc) {
+        programCounter = pc;
+        return runInstruction(linked) ? ClosureCompiler.END_PC : programCounter;
+    }
+
+    // Runs the iterations of the body in parallel, each worker thread has its own copy of the
+    // symbol table, made when the loop starts: all scalars are private, arrays are shared.
+    // A PARFOR nested in another one runs its iterations in the worker of the outer one.
+    private int runParFor(LinkedInstruction linked) {
+        if (params.size() != 1) {
+            throw new PuffinBasicInternalError("Expected 1 param, but found: " + params.size());
+        }
+        var endAndStep = params.get(0);
+        params.clear();
+        var variable = op2(linked);
+        var loop = new ParallelFor(
+                variable.getType().getAtomTypeId(),
+                op1(linked).getValue(),
+                symbolTable.get(endAndStep.op1).getValue(),
+                symbolTable.get(endAndStep.op2).getValue());
+        int bodyStart = programCounter + 1;
+        int bodyEnd = getTarget(linked);
+        int varId = linked.instruction.op2;
+        if (parent != null) {
+            runIterations(loop, varId, bodyStart, bodyEnd, 0, loop.getNumIterations());
+        } else if (loop.getNumIterations() > 0) {
+            var snapshot = SymbolTableSnapshot.of(symbolTable);
+            loop.run(() -> {
+                var worker = new PuffinBasicRuntime(this, snapshot.newCopy());
+                return (l, first, last) -> worker.runIterations(l, varId, bodyStart, bodyEnd, first, last);
+            });
+        }
+        // Like a FOR loop, the variable ends past the last iteration
+        loop.setVariable(variable.getValue(), loop.getNumIterations());
+        return bodyEnd;
+    }
+
+    private void runIterations(ParallelFor loop, int varId, int bodyStart, int bodyEnd, long first, long last) {
+        var variable = symbolTable.get(varId).getValue();
+        for (long k = first; k < last; k++) {
+            loop.setVariable(variable, k);
+            if (nodes != null) {
+                runBodyNodes(bodyStart, bodyEnd);
+            } else {
+                runBodySwitch(bodyStart, bodyEnd);
+            }
+        }
+    }
+
+    private void runBodySwitch(int bodyStart, int bodyEnd) {
+        programCounter = bodyStart;
+        while (programCounter != bodyEnd) {
+            var instruction = linkedInstructions[programCounter].instruction;
+            try {
+                checkCancelled();
+                runInstruction(linkedInstructions[programCounter]);
+            } catch (PuffinBasicRuntimeError e) {
+                throw new PuffinBasicRuntimeError(e, instruction, ir.getCodeStreamFor(instruction));
+            } catch (Exception e) {
+                throw new PuffinBasicRuntimeError(e, instruction, ir.getCodeStreamFor(instruction));
+            }
+        }
+    }
+
+    private void runBodyNodes(int bodyStart, int bodyEnd) {
+        int pc = bodyStart;
+        while (pc != bodyEnd) {
+            try {
+                checkCancelled();
+                programCounter = pc;
+                pc = nodes[pc].exec(pc);
+            } catch (PuffinBasicRuntimeError e) {
+                var instruction = linkedInstructions[pc].instruction;
+                throw new PuffinBasicRuntimeError(e, instruction, ir.getCodeStreamFor(instruction));
+            } catch (Exception e) {
+                var instruction = linkedInstructions[pc].instruction;
+                throw new PuffinBasicRuntimeError(e, instruction, ir.getCodeStreamFor(instruction));
+            }
+        }
+    }
+
     private ReadData processDataInstructions(List<Instruction> instructions) {
         return new ReadData(instructions.stream().filter(i -> i.opCode == DATA).map(instruction ->
-                ir.getSymbolTable().get(instruction.op1)
+                symbolTable.get(instruction.op1)
         ).collect(Collectors.toList()));
     }
 
-    private boolean runInstruction(Instruction instruction) {
+    private STEntry op1(LinkedInstruction linked) {
+        var entry = linked.op1;
+        return entry != null ? entry : symbolTable.get(linked.instruction.op1);
+    }
+
+    private STEntry op2(LinkedInstruction linked) {
+        var entry = linked.op2;
+        return entry != null ? entry : symbolTable.get(linked.instruction.op2);
+    }
+
+    private STEntry result(LinkedInstruction linked) {
+        var entry = linked.result;
+        return entry != null ? entry : symbolTable.get(linked.instruction.result);
+    }
+
+    private boolean runInstruction(LinkedInstruction linked) {
+        var instruction = linked.instruction;
         int nextProgramCounter = programCounter + 1;
 
         switch (instruction.opCode) {
             case VARREF:
-                Types.varref(ir.getSymbolTable(), instruction);
+                Types.varref(symbolTable, instruction);
                 break;
             case DIM: {
                 if (params.isEmpty()) {
                     throw new PuffinBasicInternalError("Expected >0 params, but found none!");
                 }
-                ArraysUtil.dim(ir.getSymbolTable(), params, instruction);
+                ArraysUtil.dim(symbolTable, params, instruction);
                 params.clear();
             }
             break;
@@ -151,7 +489,7 @@ public class PuffinBasicRuntime {
                 if (params.isEmpty()) {
                     throw new PuffinBasicInternalError("Expected >0 params, but found none!");
                 }
-                ArraysUtil.allocArray(ir.getSymbolTable(), params, instruction);
+                ArraysUtil.allocArray(symbolTable, params, instruction);
                 params.clear();
             }
             break;
@@ -159,23 +497,27 @@ public class PuffinBasicRuntime {
                 if (params.isEmpty()) {
                     throw new PuffinBasicInternalError("Expected >0 params, but found none!");
                 }
-                ArraysUtil.reallocArray(ir.getSymbolTable(), params, instruction);
+                ArraysUtil.reallocArray(symbolTable, params, instruction);
                 params.clear();
             }
             break;
             case CREATE_INSTANCE:
-                Statements.createInstance(ir.getSymbolTable(), instruction);
+                Statements.createInstance(symbolTable, instruction);
                 break;
             case STRUCT_LVALUE: {
                 if (params.isEmpty()) {
                     throw new PuffinBasicInternalError("Expected >0 params, but found none!");
                 }
-                Statements.structLValue(ir.getSymbolTable(), params, instruction);
+                Statements.structLValue(symbolTable, params, instruction);
                 params.clear();
             }
                 break;
             case MEMBER_FUNC_CALL: {
-                Statements.memberFuncCall(ir.getSymbolTable(), params, instruction);
+                var args = linked.args;
+                if (args == null || args.length != params.size()) {
+                    args = linked.args = new STValue[params.size()];
+                }
+                Statements.memberFuncCall(symbolTable, params, args, instruction);
                 params.clear();
             }
                 break;
@@ -183,369 +525,458 @@ public class PuffinBasicRuntime {
                 if (params.isEmpty()) {
                     throw new PuffinBasicInternalError("Expected >0 params, but found none!");
                 }
-                Statements.structMemberRef(ir.getSymbolTable(), params, instruction);
+                Statements.structMemberRef(symbolTable, params, instruction);
                 params.clear();
             }
                 break;
             case ASSIGN:
             case COPY:
-                Types.copy(ir.getSymbolTable(), instruction);
+                Types.copy(op1(linked), op2(linked));
                 break;
             case PARAM_COPY:
-                Types.paramCopy(ir.getSymbolTable(), instruction);
+                Types.paramCopy(symbolTable, instruction);
                 break;
             case UNARY_MINUS:
-                Operators.unaryMinus(ir.getSymbolTable(), instruction);
+                Operators.unaryMinus(op1(linked), result(linked));
                 break;
             case PRINT:
-                Statements.print(printBuffer, ir.getSymbolTable(), instruction);
+                Statements.print(printBuffer, symbolTable, instruction);
                 break;
             case PRINTUSING:
-                Statements.printusing(formatterCache, printBuffer, ir.getSymbolTable(), instruction);
+                Statements.printusing(formatterCache, printBuffer, symbolTable, instruction);
                 break;
             case FLUSH:
-                Statements.flush(files, printBuffer, ir.getSymbolTable(), instruction);
-                break;
-            case RESET_ARRAY_IDX:
-                ArraysUtil.resetIndex(arrayState, ir.getSymbolTable(), instruction);
+                Statements.flush(files, printBuffer, symbolTable, instruction);
                 break;
-            case SET_ARRAY_IDX:
-                ArraysUtil.setIndex(arrayState, ir.getSymbolTable(), instruction);
-                break;
-            case ARRAYREF:
-                ArraysUtil.arrayref(ir.getSymbolTable(), instruction);
+            case ARRAY_ELEM:
+                if (instruction.op2 != NULL_ID) {
+                    ArraysUtil.arrayElement(op1(linked), op2(linked), result(linked));
+                } else if (instruction.op1 != NULL_ID) {
+                    ArraysUtil.arrayElement(op1(linked), result(linked));
+                } else {
+                    ArraysUtil.arrayElement(symbolTable, arrayState, params, result(linked));
+                    params.clear();
+                }
                 break;
             case LABEL:
                 break;
-            case GOTO_LINENUM: {
-                var lineNumber = ir.getSymbolTable().get(instruction.op1).getValue().getInt32();
-                nextProgramCounter = getInstrNumForLineNumber(lineNumber);
-            }
+            case GOTO_LINENUM:
+                if (linked.target != Linker.NO_TARGET) {
+                    nextProgramCounter = linked.target;
+                } else {
+                    var lineNumber = op1(linked).getValue().getInt32();
+                    nextProgramCounter = getInstrNumForLineNumber(lineNumber);
+                }
                 break;
             case GOTO_LABEL_IF: {
-                if (ir.getSymbolTable().get(instruction.op1).getValue().getInt64() != 0) {
-                    nextProgramCounter = getInstrNumForLabel(instruction.op2);
+                if (op1(linked).getValue().getInt64() != 0) {
+                    nextProgramCounter = getTarget(linked);
                 }
             }
                 break;
             case GOTO_LABEL:
-                nextProgramCounter = getInstrNumForLabel(instruction.op1);
+                nextProgramCounter = getTarget(linked);
+                break;
+            case CMP_BRANCH_EQ_I32:
+            case CMP_BRANCH_EQ_I64:
+            case CMP_BRANCH_EQ_F32:
+            case CMP_BRANCH_EQ_F64:
+            case CMP_BRANCH_NE_I32:
+            case CMP_BRANCH_NE_I64:
+            case CMP_BRANCH_NE_F32:
+            case CMP_BRANCH_NE_F64:
+            case CMP_BRANCH_LT_I32:
+            case CMP_BRANCH_LT_I64:
+            case CMP_BRANCH_LT_F32:
+            case CMP_BRANCH_LT_F64:
+            case CMP_BRANCH_LE_I32:
+            case CMP_BRANCH_LE_I64:
+            case CMP_BRANCH_LE_F32:
+            case CMP_BRANCH_LE_F64:
+            case CMP_BRANCH_GT_I32:
+            case CMP_BRANCH_GT_I64:
+            case CMP_BRANCH_GT_F32:
+            case CMP_BRANCH_GT_F64:
+            case CMP_BRANCH_GE_I32:
+            case CMP_BRANCH_GE_I64:
+            case CMP_BRANCH_GE_F32:
+            case CMP_BRANCH_GE_F64:
+                if (Operators.compareBranch(instruction.opCode, op1(linked), op2(linked))) {
+                    nextProgramCounter = getTarget(linked);
+                }
+                break;
+            case FOR_STEP_I32:
+            case FOR_STEP_I64:
+            case FOR_STEP_F32:
+            case FOR_STEP_F64: {
+                switch (instruction.opCode) {
+                    case FOR_STEP_I32:
+                        Operators.addInt32(op1(linked), op2(linked), result(linked));
+                        break;
+                    case FOR_STEP_I64:
+                        Operators.addInt64(op1(linked), op2(linked), result(linked));
+                        break;
+                    case FOR_STEP_F32:
+                        Operators.addFloat32(op1(linked), op2(linked), result(linked));
+                        break;
+                    default:
+                        Operators.addFloat64(op1(linked), op2(linked), result(linked));
+                        break;
+                }
+                // Also runs the loop's end check, which always follows the step.
+                var check = linkedInstructions[programCounter + 1];
+                var counts = getInstructionCounts();
+                if (counts != null) {
+                    counts[programCounter + 1]++;
+                }
+                nextProgramCounter = Operators.compareBranch(check.instruction.opCode, op1(check), op2(check))
+                        ? getTarget(check)
+                        : programCounter + 2;
+            }
                 break;
             case GOTO_CALLER:
-                nextProgramCounter = ir.getSymbolTable().getCurrentScope().getCallerInstrId();
+                nextProgramCounter = symbolTable.getCallerInstrId();
                 break;
             case PUSH_RT_SCOPE:
-                ir.getSymbolTable().pushRuntimeScope(instruction.op1, getInstrNumForLabel(instruction.op2));
+                symbolTable.pushRuntimeScope(instruction.op1, getTarget(linked));
                 break;
             case POP_RT_SCOPE:
-                ir.getSymbolTable().popScope();
+                symbolTable.popRuntimeScope();
                 break;
             case PUSH_RETLABEL:
-                gosubReturnLabelStack.push(instruction.op1);
+                gosubReturnStack.push(getTarget(linked));
                 break;
             case RETURN: {
                 if (instruction.op1 == NULL_ID) {
-                    nextProgramCounter = getInstrNumForLabel(gosubReturnLabelStack.popInt());
+                    nextProgramCounter = gosubReturnStack.popInt();
                 } else {
-                    // Ignore label because we need to return to the lineNumber
-                    gosubReturnLabelStack.popInt();
-                    var lineNumber = ir.getSymbolTable().get(instruction.op1).getValue().getInt32();
-                    nextProgramCounter = getInstrNumForLineNumber(lineNumber);
+                    // Ignore the return address because we need to return to the lineNumber
+                    gosubReturnStack.popInt();
+                    if (linked.target != Linker.NO_TARGET) {
+                        nextProgramCounter = linked.target;
+                    } else {
+                        var lineNumber = op1(linked).getValue().getInt32();
+                        nextProgramCounter = getInstrNumForLineNumber(lineNumber);
+                    }
                 }
             }
                 break;
             case EXPI32:
-                Operators.expInt32(ir.getSymbolTable(), instruction);
+                Operators.expInt32(op1(linked), op2(linked), result(linked));
                 break;
             case EXPI64:
-                Operators.expInt64(ir.getSymbolTable(), instruction);
+                Operators.expInt64(op1(linked), op2(linked), result(linked));
                 break;
             case EXPF32:
-                Operators.expFloat32(ir.getSymbolTable(), instruction);
+                Operators.expFloat32(op1(linked), op2(linked), result(linked));
                 break;
             case EXPF64:
-                Operators.expFloat64(ir.getSymbolTable(), instruction);
+                Operators.expFloat64(op1(linked), op2(linked), result(linked));
                 break;
             case MULI32:
-                Operators.mulInt32(ir.getSymbolTable(), instruction);
+                Operators.mulInt32(op1(linked), op2(linked), result(linked));
                 break;
             case MULI64:
-                Operators.mulInt64(ir.getSymbolTable(), instruction);
+                Operators.mulInt64(op1(linked), op2(linked), result(linked));
                 break;
             case MULF32:
-                Operators.mulFloat32(ir.getSymbolTable(), instruction);
+                Operators.mulFloat32(op1(linked), op2(linked), result(linked));
                 break;
             case MULF64:
-                Operators.mulFloat64(ir.getSymbolTable(), instruction);
+                Operators.mulFloat64(op1(linked), op2(linked), result(linked));
                 break;
             case IDIV:
-                Operators.idiv(ir.getSymbolTable(), instruction);
+                Operators.idiv(op1(linked), op2(linked), result(linked));
                 break;
             case FDIV:
-                Operators.fdiv(ir.getSymbolTable(), instruction);
+                Operators.fdiv(op1(linked), op2(linked), result(linked));
                 break;
             case ADDI32:
-                Operators.addInt32(ir.getSymbolTable(), instruction);
+                Operators.addInt32(op1(linked), op2(linked), result(linked));
                 break;
             case ADDI64:
-                Operators.addInt64(ir.getSymbolTable(), instruction);
+                Operators.addInt64(op1(linked), op2(linked), result(linked));
                 break;
             case ADDF32:
-                Operators.addFloat32(ir.getSymbolTable(), instruction);
+                Operators.addFloat32(op1(linked), op2(linked), result(linked));
                 break;
             case ADDF64:
-                Operators.addFloat64(ir.getSymbolTable(), instruction);
+                Operators.addFloat64(op1(linked), op2(linked), result(linked));
                 break;
             case SUBI32:
-                Operators.subInt32(ir.getSymbolTable(), instruction);
+                Operators.subInt32(op1(linked), op2(linked), result(linked));
                 break;
             case SUBI64:
-                Operators.subInt64(ir.getSymbolTable(), instruction);
+                Operators.subInt64(op1(linked), op2(linked), result(linked));
                 break;
             case SUBF32:
-                Operators.subFloat32(ir.getSymbolTable(), instruction);
+                Operators.subFloat32(op1(linked), op2(linked), result(linked));
                 break;
             case SUBF64:
-                Operators.subFloat64(ir.getSymbolTable(), instruction);
+                Operators.subFloat64(op1(linked), op2(linked), result(linked));
                 break;
             case MOD:
-                Operators.mod(ir.getSymbolTable(), instruction);
+                Operators.mod(op1(linked), op2(linked), result(linked));
                 break;
             case EQI32:
-                Operators.eqInt32(ir.getSymbolTable(), instruction);
+                Operators.eqInt32(op1(linked), op2(linked), result(linked));
                 break;
             case EQI64:
-                Operators.eqInt64(ir.getSymbolTable(), instruction);
+                Operators.eqInt64(op1(linked), op2(linked), result(linked));
                 break;
             case EQF32:
-                Operators.eqFloat32(ir.getSymbolTable(), instruction);
+                Operators.eqFloat32(op1(linked), op2(linked), result(linked));
                 break;
             case EQF64:
-                Operators.eqFloat64(ir.getSymbolTable(), instruction);
+                Operators.eqFloat64(op1(linked), op2(linked), result(linked));
                 break;
             case EQSTR:
-                Operators.eqStr(ir.getSymbolTable(), instruction);
+                Operators.eqStr(op1(linked), op2(linked), result(linked));
                 break;
             case NEI32:
-                Operators.neInt32(ir.getSymbolTable(), instruction);
+                Operators.neInt32(op1(linked), op2(linked), result(linked));
                 break;
             case NEI64:
-                Operators.neInt64(ir.getSymbolTable(), instruction);
+                Operators.neInt64(op1(linked), op2(linked), result(linked));
                 break;
             case NEF32:
-                Operators.neFloat32(ir.getSymbolTable(), instruction);
+                Operators.neFloat32(op1(linked), op2(linked), result(linked));
                 break;
             case NEF64:
-                Operators.neFloat64(ir.getSymbolTable(), instruction);
+                Operators.neFloat64(op1(linked), op2(linked), result(linked));
                 break;
             case NESTR:
-                Operators.neStr(ir.getSymbolTable(), instruction);
+                Operators.neStr(op1(linked), op2(linked), result(linked));
                 break;
             case LTI32:
-                Operators.ltInt32(ir.getSymbolTable(), instruction);
+                Operators.ltInt32(op1(linked), op2(linked), result(linked));
                 break;
             case LTI64:
-                Operators.ltInt64(ir.getSymbolTable(), instruction);
+                Operators.ltInt64(op1(linked), op2(linked), result(linked));
                 break;
             case LTF32:
-                Operators.ltFloat32(ir.getSymbolTable(), instruction);
+                Operators.ltFloat32(op1(linked), op2(linked), result(linked));
                 break;
             case LTF64:
-                Operators.ltFloat64(ir.getSymbolTable(), instruction);
+                Operators.ltFloat64(op1(linked), op2(linked), result(linked));
                 break;
             case LTSTR:
-                Operators.ltStr(ir.getSymbolTable(), instruction);
+                Operators.ltStr(op1(linked), op2(linked), result(linked));
                 break;
             case LEI32:
-                Operators.leInt32(ir.getSymbolTable(), instruction);
+                Operators.leInt32(op1(linked), op2(linked), result(linked));
                 break;
             case LEI64:
-                Operators.leInt64(ir.getSymbolTable(), instruction);
+                Operators.leInt64(op1(linked), op2(linked), result(linked));
                 break;
             case LEF32:
-                Operators.leFloat32(ir.getSymbolTable(), instruction);
+                Operators.leFloat32(op1(linked), op2(linked), result(linked));
                 break;
             case LEF64:
-                Operators.leFloat64(ir.getSymbolTable(), instruction);
+                Operators.leFloat64(op1(linked), op2(linked), result(linked));
                 break;
             case LESTR:
-                Operators.leStr(ir.getSymbolTable(), instruction);
+                Operators.leStr(op1(linked), op2(linked), result(linked));
                 break;
             case GTI32:
-                Operators.gtInt32(ir.getSymbolTable(), instruction);
+                Operators.gtInt32(op1(linked), op2(linked), result(linked));
                 break;
             case GTI64:
-                Operators.gtInt64(ir.getSymbolTable(), instruction);
+                Operators.gtInt64(op1(linked), op2(linked), result(linked));
                 break;
             case GTF32:
-                Operators.gtFloat32(ir.getSymbolTable(), instruction);
+                Operators.gtFloat32(op1(linked), op2(linked), result(linked));
                 break;
             case GTF64:
-                Operators.gtFloat64(ir.getSymbolTable(), instruction);
+                Operators.gtFloat64(op1(linked), op2(linked), result(linked));
                 break;
             case GTSTR:
-                Operators.gtStr(ir.getSymbolTable(), instruction);
+                Operators.gtStr(op1(linked), op2(linked), result(linked));
                 break;
             case GEI32:
-                Operators.geInt32(ir.getSymbolTable(), instruction);
+                Operators.geInt32(op1(linked), op2(linked), result(linked));
                 break;
             case GEI64:
-                Operators.geInt64(ir.getSymbolTable(), instruction);
+                Operators.geInt64(op1(linked), op2(linked), result(linked));
                 break;
             case GEF32:
-                Operators.geFloat32(ir.getSymbolTable(), instruction);
+                Operators.geFloat32(op1(linked), op2(linked), result(linked));
                 break;
             case GEF64:
-                Operators.geFloat64(ir.getSymbolTable(), instruction);
+                Operators.geFloat64(op1(linked), op2(linked), result(linked));
                 break;
             case GESTR:
-                Operators.geStr(ir.getSymbolTable(), instruction);
+                Operators.geStr(op1(linked), op2(linked), result(linked));
                 break;
             case NOT:
-                Operators.unaryNot(ir.getSymbolTable(), instruction);
+                Operators.unaryNot(op1(linked), result(linked));
                 break;
             case AND:
-                Operators.and(ir.getSymbolTable(), instruction);
+                Operators.and(op1(linked), op2(linked), result(linked));
                 break;
             case OR:
-                Operators.or(ir.getSymbolTable(), instruction);
+                Operators.or(op1(linked), op2(linked), result(linked));
                 break;
             case XOR:
-                Operators.xor(ir.getSymbolTable(), instruction);
+                Operators.xor(op1(linked), op2(linked), result(linked));
                 break;
             case EQV:
-                Operators.eqv(ir.getSymbolTable(), instruction);
+                Operators.eqv(op1(linked), op2(linked), result(linked));
                 break;
             case IMP:
-                Operators.imp(ir.getSymbolTable(), instruction);
+                Operators.imp(op1(linked), op2(linked), result(linked));
                 break;
             case LEFTSHIFT:
-                Operators.leftShift(ir.getSymbolTable(), instruction);
+                Operators.leftShift(op1(linked), op2(linked), result(linked));
                 break;
             case RIGHTSHIFT:
-                Operators.rightShift(ir.getSymbolTable(), instruction);
+                Operators.rightShift(op1(linked), op2(linked), result(linked));
                 break;
             case END:
                 return true;
             case ABS:
-                Functions.abs(ir.getSymbolTable(), instruction);
+                Functions.abs(symbolTable, instruction);
                 break;
             case ASC:
-                Functions.asc(ir.getSymbolTable(), instruction);
+                Functions.asc(symbolTable, instruction);
                 break;
             case SIN:
-                Functions.sin(ir.getSymbolTable(), instruction);
+                Functions.sin(symbolTable, instruction);
                 break;
             case COS:
-                Functions.cos(ir.getSymbolTable(), instruction);
+                Functions.cos(symbolTable, instruction);
                 break;
             case TAN:
-                Functions.tan(ir.getSymbolTable(), instruction);
+                Functions.tan(symbolTable, instruction);
                 break;
             case ASIN:
-                Functions.asin(ir.getSymbolTable(), instruction);
+                Functions.asin(symbolTable, instruction);
                 break;
             case ACOS:
-                Functions.acos(ir.getSymbolTable(), instruction);
+                Functions.acos(symbolTable, instruction);
                 break;
             case ATN:
-                Functions.atn(ir.getSymbolTable(), instruction);
+                Functions.atn(symbolTable, instruction);
                 break;
             case SINH:
-                Functions.sinh(ir.getSymbolTable(), instruction);
+                Functions.sinh(symbolTable, instruction);
                 break;
             case COSH:
-                Functions.cosh(ir.getSymbolTable(), instruction);
+                Functions.cosh(symbolTable, instruction);
                 break;
             case TANH:
-                Functions.tanh(ir.getSymbolTable(), instruction);
+                Functions.tanh(symbolTable, instruction);
                 break;
             case SQR:
-                Functions.sqr(ir.getSymbolTable(), instruction);
+                Functions.sqr(symbolTable, instruction);
                 break;
             case LOG:
-                Functions.log(ir.getSymbolTable(), instruction);
+                Functions.log(symbolTable, instruction);
                 break;
             case LOG10:
-                Functions.log10(ir.getSymbolTable(), instruction);
+                Functions.log10(symbolTable, instruction);
                 break;
             case LOG2:
-                Functions.log2(ir.getSymbolTable(), instruction);
+                Functions.log2(symbolTable, instruction);
                 break;
             case EEXP:
-                Functions.exp(ir.getSymbolTable(), instruction);
+                Functions.exp(symbolTable, instruction);
                 break;
             case TORAD:
-                Functions.toRad(ir.getSymbolTable(), instruction);
+                Functions.toRad(symbolTable, instruction);
                 break;
             case TODEG:
-                Functions.toDeg(ir.getSymbolTable(), instruction);
+                Functions.toDeg(symbolTable, instruction);
                 break;
             case FLOOR:
-                Functions.floor(ir.getSymbolTable(), instruction);
+                Functions.floor(symbolTable, instruction);
                 break;
             case CEIL:
-                Functions.ceil(ir.getSymbolTable(), instruction);
+                Functions.ceil(symbolTable, instruction);
                 break;
             case ROUND:
-                Functions.round(ir.getSymbolTable(), instruction);
+                Functions.round(symbolTable, instruction);
                 break;
             case E:
-                Functions.e(ir.getSymbolTable(), instruction);
+                Functions.e(symbolTable, instruction);
                 break;
             case PI:
-                Functions.pi(ir.getSymbolTable(), instruction);
+                Functions.pi(symbolTable, instruction);
                 break;
             case MIN:
-                Functions.min(ir.getSymbolTable(), instruction);
+                Functions.min(symbolTable, instruction);
                 break;
             case MAX:
-                Functions.max(ir.getSymbolTable(), instruction);
+                Functions.max(symbolTable, instruction);
                 break;
             case ARRAYFILL:
-                ArraysUtil.arrayfill(ir.getSymbolTable(), instruction);
+                ArraysUtil.arrayfill(symbolTable, instruction);
                 break;
             case ARRAYCOPY:
-                ArraysUtil.arrayCopy(ir.getSymbolTable(), instruction);
+                ArraysUtil.arrayCopy(symbolTable, instruction);
                 break;
             case ARRAY1DMIN:
-                ArraysUtil.array1dMin(ir.getSymbolTable(), instruction);
+                ArraysUtil.array1dMin(symbolTable, instruction);
                 break;
             case ARRAY1DMAX:
-                ArraysUtil.array1dMax(ir.getSymbolTable(), instruction);
+                ArraysUtil.array1dMax(symbolTable, instruction);
                 break;
             case ARRAY1DMEAN:
-                ArraysUtil.array1dMean(ir.getSymbolTable(), instruction);
+                ArraysUtil.array1dMean(symbolTable, instruction);
                 break;
             case ARRAY1DSUM:
-                ArraysUtil.array1dSum(ir.getSymbolTable(), instruction);
+                ArraysUtil.array1dSum(symbolTable, instruction);
                 break;
             case ARRAY1DSTD:
-                ArraysUtil.array1dStddev(ir.getSymbolTable(), instruction);
+                ArraysUtil.array1dStddev(symbolTable, instruction);
                 break;
             case ARRAY1DMEDIAN:
-                ArraysUtil.array1dMedian(ir.getSymbolTable(), instruction);
+                ArraysUtil.array1dMedian(symbolTable, arrayState, instruction);
                 break;
             case ARRAY1DPCT:
-                ArraysUtil.array1dPercentile(ir.getSymbolTable(), instruction);
+                ArraysUtil.array1dPercentile(symbolTable, arrayState, instruction);
                 break;
             case ARRAY1DSORT:
-                ArraysUtil.array1dSort(ir.getSymbolTable(), instruction);
+                ArraysUtil.array1dSort(symbolTable, instruction);
                 break;
             case ARRAY1DBINSEARCH:
-                ArraysUtil.array1dBinSearch(ir.getSymbolTable(), instruction);
+                ArraysUtil.array1dBinSearch(symbolTable, instruction);
                 break;
             case ARRAY2DSHIFTVER:
-                ArraysUtil.array2dShiftVertical(ir.getSymbolTable(), instruction);
+                ArraysUtil.array2dShiftVertical(symbolTable, instruction);
                 break;
             case ARRAY2DSHIFTHOR:
-                ArraysUtil.array2dShiftHorizontal(ir.getSymbolTable(), instruction);
+                ArraysUtil.array2dShiftHorizontal(symbolTable, instruction);
                 break;
             case ARRAY1DCOPY: {
                 if (params.size() != 2) {
                     throw new PuffinBasicInternalError("Expected 2 params, but found: " + params);
                 }
-                ArraysUtil.array1DCopy(ir.getSymbolTable(), params.get(0), params.get(1), instruction);
+                ArraysUtil.array1DCopy(symbolTable, params.get(0), params.get(1), instruction);
+                params.clear();
+            }
+            break;
+            case ARRAYOP: {
+                if (params.size() != 1) {
+                    throw new PuffinBasicInternalError("Expected 1 param, but found: " + params);
+                }
+                ArrayOps.arrayOp(symbolTable, params.get(0), instruction);
+                params.clear();
+            }
+            break;
+            case ARRAY1DPCTS: {
+                if (params.size() != 1) {
+                    throw new PuffinBasicInternalError("Expected 1 param, but found: " + params);
+                }
+                ArraysUtil.array1dPercentiles(symbolTable, arrayState, params.get(0), instruction);
+                params.clear();
+            }
+            break;
+            case ARRAY1DHIST: {
+                if (params.size() > 1) {
+                    throw new PuffinBasicInternalError("Expected at most 1 param, but found: " + params);
+                }
+                ArraysUtil.array1dHistogram(symbolTable, params, instruction);
                 params.clear();
             }
             break;
@@ -553,7 +984,7 @@ public class PuffinBasicRuntime {
                 if (params.size() != 2) {
                     throw new PuffinBasicInternalError("Expected 2 params, but found: " + params);
                 }
-                ArraysUtil.array2dFindRow(ir.getSymbolTable(), params, instruction);
+                ArraysUtil.array2dFindRow(symbolTable, params, instruction);
                 params.clear();
             }
             break;
@@ -561,81 +992,86 @@ public class PuffinBasicRuntime {
                 if (params.size() != 2) {
                     throw new PuffinBasicInternalError("Expected 2 params, but found: " + params);
                 }
-                ArraysUtil.array2dFindColumn(ir.getSymbolTable(), params, instruction);
+                ArraysUtil.array2dFindColumn(symbolTable, params, instruction);
                 params.clear();
             }
             break;
             case CINT:
-                Functions.cint(ir.getSymbolTable(), instruction);
+                Functions.cint(symbolTable, instruction);
                 break;
             case CLNG:
-                Functions.clng(ir.getSymbolTable(), instruction);
+                Functions.clng(symbolTable, instruction);
                 break;
             case CSNG:
-                Functions.csng(ir.getSymbolTable(), instruction);
+                Functions.csng(symbolTable, instruction);
                 break;
             case CDBL:
-                Functions.cdbl(ir.getSymbolTable(), instruction);
+                Functions.cdbl(symbolTable, instruction);
                 break;
             case CHRDLR:
-                Functions.chrdlr(ir.getSymbolTable(), instruction);
+                Functions.chrdlr(symbolTable, instruction);
                 break;
             case CVI:
-                Functions.cvi(ir.getSymbolTable(), instruction);
+                Functions.cvi(symbolTable, instruction);
                 break;
             case CVL:
-                Functions.cvl(ir.getSymbolTable(), instruction);
+                Functions.cvl(symbolTable, instruction);
                 break;
             case CVS:
-                Functions.cvs(ir.getSymbolTable(), instruction);
+                Functions.cvs(symbolTable, instruction);
                 break;
             case CVD:
-                Functions.cvd(ir.getSymbolTable(), instruction);
+                Functions.cvd(symbolTable, instruction);
                 break;
             case MKIDLR:
-                Functions.mkidlr(ir.getSymbolTable(), instruction);
+                Functions.mkidlr(symbolTable, instruction);
                 break;
             case MKLDLR:
-                Functions.mkldlr(ir.getSymbolTable(), instruction);
+                Functions.mkldlr(symbolTable, instruction);
                 break;
             case MKSDLR:
-                Functions.mksdlr(ir.getSymbolTable(), instruction);
+                Functions.mksdlr(symbolTable, instruction);
                 break;
             case MKDDLR:
-                Functions.mkddlr(ir.getSymbolTable(), instruction);
+                Functions.mkddlr(symbolTable, instruction);
                 break;
             case SPACEDLR:
-                Functions.spacedlr(ir.getSymbolTable(), instruction);
+                Functions.spacedlr(symbolTable, instruction);
                 break;
             case STRDLR:
-                Functions.strdlr(ir.getSymbolTable(), instruction);
+                Functions.strdlr(symbolTable, instruction);
                 break;
             case VAL:
-                Functions.val(ir.getSymbolTable(), instruction);
+                Functions.val(symbolTable, instruction);
                 break;
             case INT:
-                Functions.fnint(ir.getSymbolTable(), instruction);
+                Functions.fnint(symbolTable, instruction);
                 break;
             case FIX:
-                Functions.fix(ir.getSymbolTable(), instruction);
+                Functions.fix(symbolTable, instruction);
                 break;
             case LEN:
-                Functions.len(ir.getSymbolTable(), instruction);
+                Functions.len(symbolTable, instruction);
                 break;
             case HEXDLR:
-                Functions.hexdlr(ir.getSymbolTable(), instruction);
+                Functions.hexdlr(symbolTable, instruction);
                 break;
             case OCTDLR:
-                Functions.octdlr(ir.getSymbolTable(), instruction);
+                Functions.octdlr(symbolTable, instruction);
                 break;
             case LEFTDLR:
-                Functions.leftdlr(ir.getSymbolTable(), instruction);
+                Functions.leftdlr(symbolTable, instruction);
                 break;
             case RIGHTDLR:
-                Functions.rightdlr(ir.getSymbolTable(), instruction);
+                Functions.rightdlr(symbolTable, instruction);
                 break;
             case SPLITDLR:
-                Functions.splitdlr(ir.getSymbolTable(), instruction);
+                Functions.splitdlr(symbolTable, instruction);
+                break;
+            case PARFOR:
+                nextProgramCounter = runParFor(linked);
+                break;
+            case PARFOR_NEXT:
                 break;
             case PARAM1:
             case PARAM2:
@@ -645,7 +1081,7 @@ public class PuffinBasicRuntime {
                 if (params.size() != 1) {
                     throw new PuffinBasicInternalError("Expected 1 param, but found: " + params);
                 }
-                Functions.instr(ir.getSymbolTable(), params.get(0), instruction);
+                Functions.instr(symbolTable, params.get(0), instruction);
                 params.clear();
             }
                 break;
@@ -653,7 +1089,7 @@ public class PuffinBasicRuntime {
                 if (params.size() != 1) {
                     throw new PuffinBasicInternalError("Expected 1 param, but found: " + params);
                 }
-                Functions.middlr(ir.getSymbolTable(), params.get(0), instruction);
+                Functions.middlr(symbolTable, params.get(0), instruction);
                 params.clear();
             }
                 break;
@@ -661,7 +1097,7 @@ public class PuffinBasicRuntime {
                 if (params.size() != 1) {
                     throw new PuffinBasicInternalError("Expected 1 param, but found: " + params);
                 }
-                Statements.middlr(ir.getSymbolTable(), params.get(0), instruction);
+                Statements.middlr(symbolTable, params.get(0), instruction);
                 params.clear();
             }
             break;
@@ -669,7 +1105,7 @@ public class PuffinBasicRuntime {
                 if (params.size() != 2) {
                     throw new PuffinBasicInternalError("Expected 2 params, but found: " + params);
                 }
-                Statements.open(files, ir.getSymbolTable(), params.get(0), params.get(1), instruction);
+                Statements.open(files, symbolTable, params.get(0), params.get(1), instruction);
                 params.clear();
             }
                 break;
@@ -677,10 +1113,10 @@ public class PuffinBasicRuntime {
                 Statements.closeAll(files);
                 break;
             case CLOSE:
-                Statements.close(files, ir.getSymbolTable(), instruction);
+                Statements.close(files, symbolTable, instruction);
                 break;
             case FIELD: {
-                Statements.field(files, ir.getSymbolTable(), params, instruction);
+                Statements.field(files, symbolTable, params, instruction);
                 params.clear();
             }
                 break;
@@ -688,63 +1124,66 @@ public class PuffinBasicRuntime {
                 if (params.size() != 1) {
                     throw new PuffinBasicInternalError("Expected 1 param, but found: " + params);
                 }
-                GraphicsRuntime.hsb2rgb(ir.getSymbolTable(), params.get(0), instruction);
+                GraphicsRuntime.hsb2rgb(symbolTable, params.get(0), instruction);
                 params.clear();
             }
             break;
             case PUTF:
-                Statements.putf(files, ir.getSymbolTable(), instruction);
+                Statements.putf(files, symbolTable, instruction);
                 break;
             case GETF:
-                Statements.getf(files, ir.getSymbolTable(), instruction);
+                Statements.getf(files, symbolTable, instruction);
                 break;
             case LOC:
-                Functions.loc(files, ir.getSymbolTable(), instruction);
+                Functions.loc(files, symbolTable, instruction);
                 break;
             case LOF:
-                Functions.lof(files, ir.getSymbolTable(), instruction);
+                Functions.lof(files, symbolTable, instruction);
                 break;
             case EOF:
-                Functions.eof(files, ir.getSymbolTable(), instruction);
+                Functions.eof(files, symbolTable, instruction);
                 break;
             case RND:
-                Functions.rnd(random, ir.getSymbolTable(), instruction);
+                Functions.rnd(random, symbolTable, instruction);
                 break;
             case RANDOMIZE:
-                Statements.randomize(random, ir.getSymbolTable(), instruction);
+                Statements.randomize(random, symbolTable, instruction);
                 break;
             case RANDOMIZE_TIMER:
                 Statements.randomizeTimer(random);
                 break;
             case SGN:
-                Functions.sgn(ir.getSymbolTable(), instruction);
+                Functions.sgn(symbolTable, instruction);
                 break;
             case LSET:
-                Statements.lset(ir.getSymbolTable(), instruction);
+                Statements.lset(symbolTable, instruction);
                 break;
             case RSET:
-                Statements.rset(ir.getSymbolTable(), instruction);
+                Statements.rset(symbolTable, instruction);
                 break;
             case TIMER:
-                Functions.timer(ir.getSymbolTable(), instruction);
+                Functions.timer(symbolTable, instruction);
                 break;
             case TIMERMILLIS:
-                Functions.timerMillis(ir.getSymbolTable(), instruction);
+                Functions.timerMillis(symbolTable, instruction);
                 break;
             case STRINGDLR:
-                Functions.stringdlr(ir.getSymbolTable(), instruction);
+                Functions.stringdlr(symbolTable, instruction);
                 break;
             case SWAP:
-                Statements.swap(ir.getSymbolTable(), instruction);
+                Statements.swap(symbolTable, instruction);
                 break;
             case CONCAT:
-                Operators.concat(ir.getSymbolTable(), instruction);
+                Operators.concat(op1(linked), op2(linked), result(linked));
+                break;
+            case STR_APPEND:
+                Operators.appendString(op1(linked), result(linked));
                 break;
             case INPUTDLR:
-                Functions.inputdlr(files, ir.getSymbolTable(), instruction);
+                Functions.inputdlr(files, symbolTable, instruction);
                 break;
             case INPUT: {
-                Statements.input(files, ir.getSymbolTable(), params, instruction);
+                Statements.input(files, symbolTable, params, instruction);
                 params.clear();
             }
                 break;
@@ -752,12 +1191,12 @@ public class PuffinBasicRuntime {
                 if (params.size() != 1) {
                     throw new PuffinBasicInternalError("Expected 1 param, but found: " + params);
                 }
-                Statements.lineinput(files, ir.getSymbolTable(), params.get(0), instruction);
+                Statements.lineinput(files, symbolTable, params.get(0), instruction);
                 params.clear();
             }
             break;
             case WRITE:
-                Statements.write(printBuffer, ir.getSymbolTable(), instruction);
+                Statements.write(printBuffer, symbolTable, instruction);
                 break;
             case DATA:
                 break;
@@ -765,30 +1204,32 @@ public class PuffinBasicRuntime {
                 readData.restore();
                 break;
             case READ:
-                Statements.read(readData, ir.getSymbolTable(), instruction);
+                Statements.read(readData, symbolTable, instruction);
                 break;
             case ENVIRONDLR:
-                Functions.environdlr(env, ir.getSymbolTable(), instruction);
+                Functions.environdlr(env, symbolTable, instruction);
                 break;
             case SLEEP:
-                Statements.sleep(ir.getSymbolTable(), instruction);
+                files.sys.flushBeforeWait();
+                Statements.sleep(symbolTable, instruction);
                 break;
             case SCREEN: {
                 if (params.size() != 3) {
                     throw new PuffinBasicInternalError("Expected 1 param, but found: " + params);
                 }
-                GraphicsRuntime.screen(graphicsState, ir.getSymbolTable(), params, instruction);
+                GraphicsRuntime.screen(graphicsState, symbolTable, params, instruction);
                 params.clear();
             }
             break;
             case REPAINT:
+                files.sys.flushBeforeWait();
                 GraphicsRuntime.repaint(graphicsState);
                 break;
             case CIRCLE: {
                 if (params.size() != 3) {
                         throw new PuffinBasicInternalError("Expected 3 params, but found: " + params);
                 }
-                GraphicsRuntime.circle(graphicsState, ir.getSymbolTable(), params, instruction);
+                GraphicsRuntime.circle(graphicsState, symbolTable, params, instruction);
                 params.clear();
             }
             break;
@@ -796,7 +1237,7 @@ public class PuffinBasicRuntime {
                 if (params.size() != 2) {
                     throw new PuffinBasicInternalError("Expected 2 params, but found: " + params);
                 }
-                GraphicsRuntime.line(graphicsState, ir.getSymbolTable(), params, instruction);
+                GraphicsRuntime.line(graphicsState, symbolTable, params, instruction);
                 params.clear();
             }
             break;
@@ -804,7 +1245,7 @@ public class PuffinBasicRuntime {
                 if (params.size() != 1) {
                     throw new PuffinBasicInternalError("Expected 1 params, but found: " + params);
                 }
-                GraphicsRuntime.color(graphicsState, ir.getSymbolTable(), params.get(0), instruction);
+                GraphicsRuntime.color(graphicsState, symbolTable, params.get(0), instruction);
                 params.clear();
             }
             break;
@@ -812,7 +1253,7 @@ public class PuffinBasicRuntime {
                 if (params.size() != 2) {
                     throw new PuffinBasicInternalError("Expected 2 params, but found: " + params);
                 }
-                GraphicsRuntime.paint(graphicsState, ir.getSymbolTable(), params, instruction);
+                GraphicsRuntime.paint(graphicsState, symbolTable, params, instruction);
                 params.clear();
             }
             break;
@@ -820,7 +1261,7 @@ public class PuffinBasicRuntime {
                 if (params.size() != 2) {
                     throw new PuffinBasicInternalError("Expected 2 params, but found: " + params);
                 }
-                GraphicsRuntime.pset(graphicsState, ir.getSymbolTable(), params, instruction);
+                GraphicsRuntime.pset(graphicsState, symbolTable, params, instruction);
                 params.clear();
             }
             break;
@@ -828,7 +1269,7 @@ public class PuffinBasicRuntime {
                 if (params.size() != 2) {
                     throw new PuffinBasicInternalError("Expected 2 params, but found: " + params);
                 }
-                GraphicsRuntime.get(graphicsState, ir.getSymbolTable(), params, instruction);
+                GraphicsRuntime.get(graphicsState, symbolTable, params, instruction);
                 params.clear();
             }
             break;
@@ -836,7 +1277,7 @@ public class PuffinBasicRuntime {
                 if (params.size() != 2) {
                     throw new PuffinBasicInternalError("Expected 2 params, but found: " + params);
                 }
-                GraphicsRuntime.put(graphicsState, ir.getSymbolTable(), params.get(0), params.get(1), instruction);
+                GraphicsRuntime.put(graphicsState, symbolTable, params.get(0), params.get(1), instruction);
                 params.clear();
             }
             break;
@@ -844,7 +1285,7 @@ public class PuffinBasicRuntime {
                 if (params.size() != 1) {
                     throw new PuffinBasicInternalError("Expected 1 param, but found: " + params);
                 }
-                GraphicsRuntime.bufferCopyHor(graphicsState, ir.getSymbolTable(), params.get(0), instruction);
+                GraphicsRuntime.bufferCopyHor(graphicsState, symbolTable, params.get(0), instruction);
                 params.clear();
             }
                 break;
@@ -852,7 +1293,7 @@ public class PuffinBasicRuntime {
                 if (params.size() != 1) {
                     throw new PuffinBasicInternalError("Expected 1 param, but found: " + params);
                 }
-                GraphicsRuntime.font(graphicsState, ir.getSymbolTable(), params.get(0), instruction);
+                GraphicsRuntime.font(graphicsState, symbolTable, params.get(0), instruction);
                 params.clear();
             }
             break;
@@ -860,21 +1301,22 @@ public class PuffinBasicRuntime {
                 if (params.size() != 1) {
                     throw new PuffinBasicInternalError("Expected 1 param, but found: " + params);
                 }
-                GraphicsRuntime.drawstr(graphicsState, ir.getSymbolTable(), params.get(0), instruction);
+                GraphicsRuntime.drawstr(graphicsState, symbolTable, params.get(0), instruction);
                 params.clear();
             }
             break;
             case LOADIMG:
-                GraphicsRuntime.loadimg(ir.getSymbolTable(), instruction);
+                GraphicsRuntime.loadimg(symbolTable, instruction);
                 break;
             case SAVEIMG:
-                GraphicsRuntime.saveimg(ir.getSymbolTable(), instruction);
+                GraphicsRuntime.saveimg(symbolTable, instruction);
                 break;
             case DRAW:
-                GraphicsRuntime.draw(graphicsState, ir.getSymbolTable(), instruction);
+                GraphicsRuntime.draw(graphicsState, symbolTable, instruction);
                 break;
             case INKEYDLR:
-                GraphicsRuntime.inkeydlr(graphicsState, ir.getSymbolTable(), instruction);
+                files.sys.flushBeforeWait();
+                GraphicsRuntime.inkeydlr(graphicsState, symbolTable, instruction);
                 break;
             case CLS:
                 GraphicsRuntime.cls(graphicsState);
@@ -883,40 +1325,40 @@ public class PuffinBasicRuntime {
                 GraphicsRuntime.beep();
                 break;
             case LOADWAV:
-                GraphicsRuntime.loadwav(soundState, ir.getSymbolTable(), instruction);
+                GraphicsRuntime.loadwav(soundState, symbolTable, instruction);
                 break;
             case PLAYWAV:
-                GraphicsRuntime.playwav(soundState, ir.getSymbolTable(), instruction);
+                GraphicsRuntime.playwav(soundState, symbolTable, instruction);
                 break;
             case STOPWAV:
-                GraphicsRuntime.stopwav(soundState, ir.getSymbolTable(), instruction);
+                GraphicsRuntime.stopwav(soundState, symbolTable, instruction);
                 break;
             case LOOPWAV:
-                GraphicsRuntime.loopwav(soundState, ir.getSymbolTable(), instruction);
+                GraphicsRuntime.loopwav(soundState, symbolTable, instruction);
                 break;
             case MOUSEMOVEDX:
-                GraphicsRuntime.mouseMovedX(graphicsState, ir.getSymbolTable(), instruction);
+                GraphicsRuntime.mouseMovedX(graphicsState, symbolTable, instruction);
                 break;
             case MOUSEMOVEDY:
-                GraphicsRuntime.mouseMovedY(graphicsState, ir.getSymbolTable(), instruction);
+                GraphicsRuntime.mouseMovedY(graphicsState, symbolTable, instruction);
                 break;
             case MOUSEDRAGGEDX:
-                GraphicsRuntime.mouseDraggedX(graphicsState, ir.getSymbolTable(), instruction);
+                GraphicsRuntime.mouseDraggedX(graphicsState, symbolTable, instruction);
                 break;
             case MOUSEDRAGGEDY:
-                GraphicsRuntime.mouseDraggedY(graphicsState, ir.getSymbolTable(), instruction);
+                GraphicsRuntime.mouseDraggedY(graphicsState, symbolTable, instruction);
                 break;
             case MOUSEBUTTONCLICKED:
-                GraphicsRuntime.mouseButtonClicked(graphicsState, ir.getSymbolTable(), instruction);
+                GraphicsRuntime.mouseButtonClicked(graphicsState, symbolTable, instruction);
                 break;
             case MOUSEBUTTONPRESSED:
-                GraphicsRuntime.mouseButtonPressed(graphicsState, ir.getSymbolTable(), instruction);
+                GraphicsRuntime.mouseButtonPressed(graphicsState, symbolTable, instruction);
                 break;
             case MOUSEBUTTONRELEASED:
-                GraphicsRuntime.mouseButtonReleased(graphicsState, ir.getSymbolTable(), instruction);
+                GraphicsRuntime.mouseButtonReleased(graphicsState, symbolTable, instruction);
                 break;
             case ISKEYPRESSED:
-                GraphicsRuntime.isKeyPressed(graphicsState, ir.getSymbolTable(), instruction);
+                GraphicsRuntime.isKeyPressed(graphicsState, symbolTable, instruction);
                 break;
         }
 
@@ -0,0 +1,341 @@
+package org.puffinbasic.runtime;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Reductions over the elements of numeric arrays, as primitive loops which don't box or copy.
+ * Float and double sums are Kahan (compensated) sums, the variance is the two-pass algorithm
+ * over a compensated mean, so results are within a few ulps of the exact value, and may differ
+ * in the last bits from a plain left to right sum.
+ * Arrays of at least PARALLEL_THRESHOLD elements are split in chunks across the common fork-join
+ * pool, whose results are combined pairwise. Smaller arrays are reduced without allocating.
+ */
+final class Reductions {
+
+    static final int PARALLEL_THRESHOLD = 1 << 17;
+    // Chunks per thread of the pool, more than one to balance the load.
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    interface Kernel {
+        double apply(int from, int to);
+    }
+
+    private Reductions() {}
+
+    static boolean isParallel(int length) {
+        return length >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    // Reduces [0, length) in chunks, the kernel reduces a chunk, combine reduces two chunk results.
+    static double parallel(int length, Kernel kernel, DoubleBinaryOperator combine) {
+        var pool = ForkJoinPool.commonPool();
+        int chunkSize = Math.max(PARALLEL_THRESHOLD / 2, length / (pool.getParallelism() * CHUNKS_PER_THREAD));
+        var chunk = new Chunk(kernel, combine, 0, length, chunkSize);
+        pool.invoke(chunk);
+        return chunk.result;
+    }
+
+    private static final class Chunk extends RecursiveAction {
+        private final Kernel kernel;
+        private final DoubleBinaryOperator combine;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+        private double result;
+
+        Chunk(Kernel kernel, DoubleBinaryOperator combine, int from, int to, int chunkSize) {
+            this.kernel = kernel;
+            this.combine = combine;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                result = kernel.apply(from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                var left = new Chunk(kernel, combine, from, mid, chunkSize);
+                var right = new Chunk(kernel, combine, mid, to, chunkSize);
+                invokeAll(left, right);
+                result = combine.applyAsDouble(left.result, right.result);
+            }
+        }
+    }
+
+    // Sum
+
+    static double sum(int[] a) {
+        return isParallel(a.length) ? parallel(a.length, (f, t) -> sum(a, f, t), Double::sum) : sum(a, 0, a.length);
+    }
+
+    static double sum(long[] a) {
+        return isParallel(a.length) ? parallel(a.length, (f, t) -> sum(a, f, t), Double::sum) : sum(a, 0, a.length);
+    }
+
+    static double sum(float[] a) {
+        return isParallel(a.length) ? parallel(a.length, (f, t) -> sum(a, f, t), Double::sum) : sum(a, 0, a.length);
+    }
+
+    static double sum(double[] a) {
+        return isParallel(a.length) ? parallel(a.length, (f, t) -> sum(a, f, t), Double::sum) : sum(a, 0, a.length);
+    }
+
+    // Exact, at most 2^31 Int32 values can't overflow a long.
+    static double sum(int[] a, int from, int to) {
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += a[i];
+        }
+        return sum;
+    }
+
+    static double sum(long[] a, int from, int to) {
+        double sum = 0;
+        double c = 0;
+        for (int i = from; i < to; i++) {
+            double y = a[i] - c;
+            double t = sum + y;
+            c = (t - sum) - y;
+            sum = t;
+        }
+        return sum;
+    }
+
+    static double sum(float[] a, int from, int to) {
+        double sum = 0;
+        double c = 0;
+        for (int i = from; i < to; i++) {
+            double y = a[i] - c;
+            double t = sum + y;
+            c = (t - sum) - y;
+            sum = t;
+        }
+        return sum;
+    }
+
+    static double sum(double[] a, int from, int to) {
+        double sum = 0;
+        double c = 0;
+        for (int i = from; i < to; i++) {
+            double y = a[i] - c;
+            double t = sum + y;
+            c = (t - sum) - y;
+            sum = t;
+        }
+        return sum;
+    }
+
+    // Sum of squared deviations from the mean, the numerator of the variance
+
+    static double sumSquaredDeviations(int[] a, double mean) {
+        return isParallel(a.length)
+                ? parallel(a.length, (f, t) -> sumSquaredDeviations(a, f, t, mean), Double::sum)
+                : sumSquaredDeviations(a, 0, a.length, mean);
+    }
+
+    static double sumSquaredDeviations(long[] a, double mean) {
+        return isParallel(a.length)
+                ? parallel(a.length, (f, t) -> sumSquaredDeviations(a, f, t, mean), Double::sum)
+                : sumSquaredDeviations(a, 0, a.length, mean);
+    }
+
+    static double sumSquaredDeviations(float[] a, double mean) {
+        return isParallel(a.length)
+                ? parallel(a.length, (f, t) -> sumSquaredDeviations(a, f, t, mean), Double::sum)
+                : sumSquaredDeviations(a, 0, a.length, mean);
+    }
+
+    static double sumSquaredDeviations(double[] a, double mean) {
+        return isParallel(a.length)
+                ? parallel(a.length, (f, t) -> sumSquaredDeviations(a, f, t, mean), Double::sum)
+                : sumSquaredDeviations(a, 0, a.length, mean);
+    }
+
+    static double sumSquaredDeviations(int[] a, int from, int to, double mean) {
+        double sum = 0;
+        double c = 0;
+        for (int i = from; i < to; i++) {
+            double d = a[i] - mean;
+            double y = d * d - c;
+            double t = sum + y;
+            c = (t - sum) - y;
+            sum = t;
+        }
+        return sum;
+    }
+
+    static double sumSquaredDeviations(long[] a, int from, int to, double mean) {
+        double sum = 0;
+        double c = 0;
+        for (int i = from; i < to; i++) {
+            double d = a[i] - mean;
+            double y = d * d - c;
+            double t = sum + y;
+            c = (t - sum) - y;
+            sum = t;
+        }
+        return sum;
+    }
+
+    static double sumSquaredDeviations(float[] a, int from, int to, double mean) {
+        double sum = 0;
+        double c = 0;
+        for (int i = from; i < to; i++) {
+            double d = a[i] - mean;
+            double y = d * d - c;
+            double t = sum + y;
+            c = (t - sum) - y;
+            sum = t;
+        }
+        return sum;
+    }
+
+    static double sumSquaredDeviations(double[] a, int from, int to, double mean) {
+        double sum = 0;
+        double c = 0;
+        for (int i = from; i < to; i++) {
+            double d = a[i] - mean;
+            double y = d * d - c;
+            double t = sum + y;
+            c = (t - sum) - y;
+            sum = t;
+        }
+        return sum;
+    }
+
+    // Min and max of a non-empty array. Int64 values don't all fit in a double, so their chunks
+    // return the index of their min or max.
+
+    static int min(int[] a) {
+        return isParallel(a.length)
+                ? (int) parallel(a.length, (f, t) -> a[minIndex(a, f, t)], Math::min)
+                : a[minIndex(a, 0, a.length)];
+    }
+
+    static int max(int[] a) {
+        return isParallel(a.length)
+                ? (int) parallel(a.length, (f, t) -> a[maxIndex(a, f, t)], Math::max)
+                : a[maxIndex(a, 0, a.length)];
+    }
+
+    static long min(long[] a) {
+        return isParallel(a.length)
+                ? a[(int) parallel(a.length, (f, t) -> minIndex(a, f, t), (i, j) -> a[(int) j] < a[(int) i] ? j : i)]
+                : a[minIndex(a, 0, a.length)];
+    }
+
+    static long max(long[] a) {
+        return isParallel(a.length)
+                ? a[(int) parallel(a.length, (f, t) -> maxIndex(a, f, t), (i, j) -> a[(int) j] > a[(int) i] ? j : i)]
+                : a[maxIndex(a, 0, a.length)];
+    }
+
+    static float min(float[] a) {
+        return isParallel(a.length)
+                ? (float) parallel(a.length, (f, t) -> a[minIndex(a, f, t)], Math::min)
+                : a[minIndex(a, 0, a.length)];
+    }
+
+    static float max(float[] a) {
+        return isParallel(a.length)
+                ? (float) parallel(a.length, (f, t) -> a[maxIndex(a, f, t)], Math::max)
+                : a[maxIndex(a, 0, a.length)];
+    }
+
+    static double min(double[] a) {
+        return isParallel(a.length)
+                ? parallel(a.length, (f, t) -> a[minIndex(a, f, t)], Math::min)
+                : a[minIndex(a, 0, a.length)];
+    }
+
+    static double max(double[] a) {
+        return isParallel(a.length)
+                ? parallel(a.length, (f, t) -> a[maxIndex(a, f, t)], Math::max)
+                : a[maxIndex(a, 0, a.length)];
+    }
+
+    private static int minIndex(int[] a, int from, int to) {
+        int index = from;
+        for (int i = from + 1; i < to; i++) {
+            if (a[i] < a[index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private static int maxIndex(int[] a, int from, int to) {
+        int index = from;
+        for (int i = from + 1; i < to; i++) {
+            if (a[i] > a[index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private static int minIndex(long[] a, int from, int to) {
+        int index = from;
+        for (int i = from + 1; i < to; i++) {
+            if (a[i] < a[index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private static int maxIndex(long[] a, int from, int to) {
+        int index = from;
+        for (int i = from + 1; i < to; i++) {
+            if (a[i] > a[index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private static int minIndex(float[] a, int from, int to) {
+        int index = from;
+        for (int i = from + 1; i < to; i++) {
+            if (a[i] < a[index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private static int maxIndex(float[] a, int from, int to) {
+        int index = from;
+        for (int i = from + 1; i < to; i++) {
+            if (a[i] > a[index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private static int minIndex(double[] a, int from, int to) {
+        int index = from;
+        for (int i = from + 1; i < to; i++) {
+            if (a[i] < a[index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private static int maxIndex(double[] a, int from, int to) {
+        int index = from;
+        for (int i = from + 1; i < to; i++) {
+            if (a[i] > a[index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+}
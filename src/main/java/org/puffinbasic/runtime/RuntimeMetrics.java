@@ -0,0 +1,268 @@
+package org.puffinbasic.runtime;
+
+import org.puffinbasic.error.PuffinBasicInternalError;
+import org.puffinbasic.error.PuffinBasicRuntimeError;
+import org.puffinbasic.file.PuffinBasicFile;
+import org.puffinbasic.file.PuffinBasicFiles;
+import org.puffinbasic.parser.PuffinBasicIR.OpCode;
+import org.puffinbasic.runtime.Linker.LinkedInstruction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.IO_ERROR;
+
+/**
+ * Counters of a running program, registered as an MBean and/or periodically
+ * written to a file in OpenMetrics text format.
+ * The runtime only counts the instructions it runs (in a plain long[], when
+ * metrics are enabled), all other counters are derived from them or kept by
+ * the print buffer and files, and are read from other threads as is.
+ */
+public final class RuntimeMetrics implements RuntimeMetricsMXBean {
+
+    public static final int DEFAULT_DUMP_INTERVAL_SECONDS = 10;
+    private static final AtomicInteger RUNTIME_ID = new AtomicInteger();
+    private static final String SYS_HANDLE = "SYS";
+    private static final Map<OpCode, String> FAMILIES = computeFamilies();
+
+    private final boolean jmx;
+    private final String dumpFile;
+    private final int dumpIntervalSeconds;
+    private volatile LinkedInstruction[] instructions;
+    private volatile long[] instructionCounts;
+    private volatile PrintBuffer printBuffer;
+    private volatile PuffinBasicFiles files;
+    private ObjectName objectName;
+    private ScheduledExecutorService dumper;
+
+    public RuntimeMetrics(boolean jmx, String dumpFile, int dumpIntervalSeconds) {
+        if (dumpIntervalSeconds <= 0) {
+            throw new PuffinBasicInternalError("Bad metrics dump interval: " + dumpIntervalSeconds);
+        }
+        this.jmx = jmx;
+        this.dumpFile = dumpFile;
+        this.dumpIntervalSeconds = dumpIntervalSeconds;
+    }
+
+    private static Map<OpCode, String> computeFamilies() {
+        var families = new EnumMap<OpCode, String>(OpCode.class);
+        for (var opCode : OpCode.values()) {
+            families.put(opCode, opCode.name().replaceFirst("_?(I32|I64|F32|F64|STR)$", ""));
+        }
+        return families;
+    }
+
+    void start(LinkedInstruction[] instructions, PrintBuffer printBuffer, PuffinBasicFiles files) {
+        this.instructionCounts = new long[instructions.length];
+        this.instructions = instructions;
+        this.printBuffer = printBuffer;
+        this.files = files;
+        if (jmx) {
+            try {
+                objectName = new ObjectName("org.puffinbasic:type=Runtime,id=" + RUNTIME_ID.incrementAndGet());
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            } catch (JMException e) {
+                throw new PuffinBasicInternalError("Failed to register runtime MBean: " + e.getMessage());
+            }
+        }
+        if (dumpFile != null) {
+            dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                var thread = new Thread(runnable, "PuffinBasicMetrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleAtFixedRate(() -> {
+                try {
+                    dump();
+                } catch (PuffinBasicRuntimeError e) {
+                    // Retried at the next interval, and at the end of the run
+                    System.err.println(e.getMessage());
+                }
+            }, dumpIntervalSeconds, dumpIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    // Instruction# -> #times run, incremented by the execution engines.
+    long[] getInstructionCounts() {
+        return instructionCounts;
+    }
+
+    void stop() {
+        if (dumper != null) {
+            dumper.shutdown();
+            try {
+                dumper.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            dump();
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                throw new PuffinBasicInternalError("Failed to unregister runtime MBean: " + e.getMessage());
+            }
+            objectName = null;
+        }
+    }
+
+    private long count(OpCode opCode) {
+        var instructions = this.instructions;
+        var counts = this.instructionCounts;
+        long count = 0;
+        if (instructions != null) {
+            for (int i = 0; i < instructions.length; i++) {
+                if (instructions[i].instruction.opCode == opCode) {
+                    count += counts[i];
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long getInstructionsExecuted() {
+        var counts = this.instructionCounts;
+        long count = 0;
+        if (counts != null) {
+            for (var c : counts) {
+                count += c;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Map<String, Long> getInstructionsExecutedByFamily() {
+        var instructions = this.instructions;
+        var counts = this.instructionCounts;
+        var byFamily = new TreeMap<String, Long>();
+        if (instructions != null) {
+            for (int i = 0; i < instructions.length; i++) {
+                if (counts[i] != 0) {
+                    byFamily.merge(FAMILIES.get(instructions[i].instruction.opCode), counts[i], Long::sum);
+                }
+            }
+        }
+        return byFamily;
+    }
+
+    // Each call pushes the function's runtime scope.
+    @Override
+    public long getUdfCalls() {
+        return count(OpCode.PUSH_RT_SCOPE);
+    }
+
+    @Override
+    public long getScopePops() {
+        return count(OpCode.POP_RT_SCOPE);
+    }
+
+    @Override
+    public Map<String, Long> getFileBytesRead() {
+        return getFileBytes(PuffinBasicFile::getBytesRead);
+    }
+
+    @Override
+    public Map<String, Long> getFileBytesWritten() {
+        return getFileBytes(PuffinBasicFile::getBytesWritten);
+    }
+
+    private Map<String, Long> getFileBytes(ToLongFunction<PuffinBasicFile> getBytes) {
+        var files = this.files;
+        var bytes = new TreeMap<String, Long>();
+        if (files != null) {
+            bytes.put(SYS_HANDLE, getBytes.applyAsLong(files.sys));
+            for (var e : files.getFiles().int2ObjectEntrySet()) {
+                bytes.put(String.valueOf(e.getIntKey()), getBytes.applyAsLong(e.getValue()));
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getPrintBufferFlushes() {
+        var printBuffer = this.printBuffer;
+        return printBuffer != null ? printBuffer.getNumFlushes() : 0;
+    }
+
+    @Override
+    public long getFramesRepainted() {
+        return count(OpCode.REPAINT);
+    }
+
+    @Override
+    public long getInkeyPolls() {
+        return count(OpCode.INKEYDLR);
+    }
+
+    // Writes the counters to a temporary file which replaces the dump file,
+    // so that readers never see a partial dump.
+    private synchronized void dump() {
+        var path = Paths.get(dumpFile);
+        var tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.writeString(tmpPath, toOpenMetrics(), StandardCharsets.UTF_8);
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new PuffinBasicRuntimeError(
+                    IO_ERROR,
+                    "Failed to write metrics: " + dumpFile + ", error: " + e.getMessage()
+            );
+        }
+    }
+
+    String toOpenMetrics() {
+        var sw = new StringWriter();
+        var out = new PrintWriter(sw);
+        writeCounter(out, "instructions", "Instructions executed, by opcode family", "family",
+                getInstructionsExecutedByFamily());
+        writeCounter(out, "udf_calls", "Calls of user defined functions", getUdfCalls());
+        writeCounter(out, "scope_pops", "Runtime scopes popped", getScopePops());
+        writeCounter(out, "file_read_bytes", "Bytes read, by file handle", "handle", getFileBytesRead());
+        writeCounter(out, "file_written_bytes", "Bytes written, by file handle", "handle", getFileBytesWritten());
+        writeCounter(out, "print_buffer_flushes", "Print buffer flushes", getPrintBufferFlushes());
+        writeCounter(out, "frames_repainted", "Graphics frames repainted", getFramesRepainted());
+        writeCounter(out, "inkey_polls", "INKEY$ polls", getInkeyPolls());
+        out.print("# EOF\n");
+        out.flush();
+        return sw.toString();
+    }
+
+    private static void writeCounter(PrintWriter out, String name, String help, long value) {
+        writeHeader(out, name, help);
+        out.print("puffinbasic_" + name + "_total " + value + "\n");
+    }
+
+    private static void writeCounter(
+            PrintWriter out, String name, String help, String label, Map<String, Long> values)
+    {
+        writeHeader(out, name, help);
+        for (var e : values.entrySet()) {
+            out.print("puffinbasic_" + name + "_total{" + label + "=\"" + e.getKey() + "\"} " + e.getValue() + "\n");
+        }
+    }
+
+    private static void writeHeader(PrintWriter out, String name, String help) {
+        out.print("# TYPE puffinbasic_" + name + " counter\n");
+        out.print("# HELP puffinbasic_" + name + " " + help + ".\n");
+    }
+}
@@ -0,0 +1,29 @@
+package org.puffinbasic.runtime;
+
+import java.util.Map;
+
+/**
+ * Counters of a running program, exposed over JMX.
+ */
+public interface RuntimeMetricsMXBean {
+
+    long getInstructionsExecuted();
+
+    // OpCode family (the opcode without its type suffix) -> #instructions executed
+    Map<String, Long> getInstructionsExecutedByFamily();
+
+    long getUdfCalls();
+
+    long getScopePops();
+
+    // File handle ("SYS" or the file number) -> #bytes
+    Map<String, Long> getFileBytesRead();
+
+    Map<String, Long> getFileBytesWritten();
+
+    long getPrintBufferFlushes();
+
+    long getFramesRepainted();
+
+    long getInkeyPolls();
+}
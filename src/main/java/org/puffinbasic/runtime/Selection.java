@@ -0,0 +1,157 @@
+package org.puffinbasic.runtime;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.util.Arrays;
+
+/**
+ * Order statistics (median and percentiles) by selection instead of sorting.
+ * Percentiles are estimated like commons-math's Percentile (legacy estimation, NaN removed),
+ * which ARRAY1DMEDIAN and ARRAY1DPCT used before, the p-th percentile of n values is at
+ * position p * (n + 1) / 100, interpolated between the two order statistics around it.
+ * All the order statistics of several percentiles are found in one introselect pass,
+ * which only partitions the ranges holding a wanted rank, and falls back to sorting a range
+ * when its partitions are too unbalanced.
+ */
+final class Selection {
+
+    // Ranges of at most this size are insertion sorted.
+    private static final int INSERTION_SORT_SIZE = 16;
+
+    private Selection() {}
+
+    // Percentiles (0-100) of the first n values, which are reordered.
+    static void percentiles(double[] values, int n, double[] pcts, double[] result) {
+        if (n == 0) {
+            Arrays.fill(result, 0, pcts.length, Double.NaN);
+            return;
+        }
+        int[] ranks = new int[pcts.length * 2];
+        int numRanks = 0;
+        boolean extremes = false;
+        for (double pct : pcts) {
+            double pos = position(pct, n);
+            if (pos >= 1 && pos < n) {
+                int lower = (int) pos - 1;
+                ranks[numRanks++] = lower;
+                ranks[numRanks++] = lower + 1;
+            } else {
+                extremes = true;
+            }
+        }
+        IntArrays.quickSort(ranks, 0, numRanks);
+        // Min and max are found by a scan, not partitioning
+        double min = Double.NaN;
+        double max = Double.NaN;
+        if (extremes) {
+            min = max = values[0];
+            for (int i = 1; i < n; i++) {
+                min = Math.min(min, values[i]);
+                max = Math.max(max, values[i]);
+            }
+        }
+        select(values, 0, n - 1, ranks, 0, numRanks - 1, 2 * (32 - Integer.numberOfLeadingZeros(n)));
+        for (int i = 0; i < pcts.length; i++) {
+            double pos = position(pcts[i], n);
+            if (pos < 1) {
+                result[i] = min;
+            } else if (pos >= n) {
+                result[i] = max;
+            } else {
+                int lower = (int) pos - 1;
+                double dif = pos - Math.floor(pos);
+                result[i] = values[lower] + dif * (values[lower + 1] - values[lower]);
+            }
+        }
+    }
+
+    // Percentile (0-100) of the first n values, which are reordered.
+    static double percentile(double[] values, int n, double pct) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        double pos = position(pct, n);
+        if (pos < 1 || pos >= n) {
+            double extreme = values[0];
+            for (int i = 1; i < n; i++) {
+                extreme = pos < 1 ? Math.min(extreme, values[i]) : Math.max(extreme, values[i]);
+            }
+            return extreme;
+        }
+        int lower = (int) pos - 1;
+        int depth = 2 * (32 - Integer.numberOfLeadingZeros(n));
+        select(values, 0, n - 1, new int[] {lower, lower + 1}, 0, 1, depth);
+        double dif = pos - Math.floor(pos);
+        return values[lower] + dif * (values[lower + 1] - values[lower]);
+    }
+
+    private static double position(double pct, int n) {
+        return pct * (n + 1) / 100;
+    }
+
+    // Puts the values of the sorted ranks[kLo..kHi] in their sorted position within [lo, hi].
+    private static void select(double[] a, int lo, int hi, int[] ranks, int kLo, int kHi, int depth) {
+        while (kLo <= kHi && lo < hi) {
+            if (hi - lo < INSERTION_SORT_SIZE) {
+                insertionSort(a, lo, hi);
+                return;
+            }
+            if (depth-- == 0) {
+                Arrays.sort(a, lo, hi + 1);
+                return;
+            }
+            // Three-way partition around the median of 3: [lo, lt) < pivot, [lt, gt] == pivot, (gt, hi] > pivot
+            double pivot = medianOf3(a[lo], a[(lo + hi) >>> 1], a[hi]);
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i <= gt) {
+                double v = a[i];
+                if (v < pivot) {
+                    a[i++] = a[lt];
+                    a[lt++] = v;
+                } else if (v > pivot) {
+                    a[i] = a[gt];
+                    a[gt--] = v;
+                } else {
+                    i++;
+                }
+            }
+            // Ranks in [lt, gt] are done, recurse into the smaller side and loop on the other
+            int k = kLo;
+            while (k <= kHi && ranks[k] < lt) {
+                k++;
+            }
+            int leftHi = k - 1;
+            while (k <= kHi && ranks[k] <= gt) {
+                k++;
+            }
+            int rightLo = k;
+            if (lt - lo < hi - gt) {
+                select(a, lo, lt - 1, ranks, kLo, leftHi, depth);
+                lo = gt + 1;
+                kLo = rightLo;
+            } else {
+                select(a, gt + 1, hi, ranks, rightLo, kHi, depth);
+                hi = lt - 1;
+                kHi = leftHi;
+            }
+        }
+    }
+
+    private static double medianOf3(double a, double b, double c) {
+        return a < b ? (b < c ? b : Math.max(a, c)) : (a < c ? a : Math.max(b, c));
+    }
+
+    private static void insertionSort(double[] a, int lo, int hi) {
+        for (int i = lo + 1; i <= hi; i++) {
+            double v = a[i];
+            int j = i - 1;
+            while (j >= lo && a[j] > v) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = v;
+        }
+    }
+}
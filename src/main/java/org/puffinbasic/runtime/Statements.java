@@ -33,6 +33,7 @@ import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.DOUBLE;
 import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.FLOAT;
 import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.INT64;
 import static org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId.STRING;
+import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.BAD_FIELD;
 import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.DATA_OUT_OF_RANGE;
 import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.DATA_TYPE_MISMATCH;
 import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.INDEX_OUT_OF_BOUNDS;
@@ -500,29 +501,35 @@ public class Statements {
         var root = (STObjects.STStruct) symbolTable.get(instruction.op1).getValue();
         for (int i = 0; i < params.size() - 1; i++) {
             var childId = symbolTable.get(params.get(i).op1).getValue().getInt32();
-            var valueId = root.getMember(childId);
-            root = (STObjects.STStruct) symbolTable.get(valueId).getValue();
+            root = (STObjects.STStruct) root.getMember(childId).getValue();
         }
         var childId = symbolTable.get(params.get(params.size() - 1).op1).getValue().getInt32();
-        var valueId = root.getMember(childId);
-        ((STRef) symbolTable.get(instruction.result)).setRef(symbolTable.get(valueId));
+        ((STRef) symbolTable.get(instruction.result)).setRef(root.getMember(childId));
     }
 
+    // op2 is the index of the member function, args has a slot per param and is reused by each call.
     static void memberFuncCall(
             PuffinBasicSymbolTable symbolTable,
             List<Instruction> params,
+            STValue[] args,
             Instruction instruction)
     {
-        STValue[] funcParams = new STValue[params.size()];
-        var object = symbolTable.get(instruction.op1).getValue();
-        var funcName = symbolTable.get(instruction.op2).getValue().getString();
+        var objectEntry = symbolTable.get(instruction.op1);
+        var object = objectEntry.getValue();
+        var funcIndex = symbolTable.get(instruction.op2).getValue().getInt32();
+        if (!object.hasMemberFunctions()) {
+            throw new PuffinBasicRuntimeError(
+                    BAD_FIELD,
+                    "Function call is not supported: " + objectEntry.getType().getFuncCallName(funcIndex)
+            );
+        }
         STValue result = symbolTable.get(instruction.result).getValue();
 
-        for (int i = 0; i < params.size(); i++) {
-            funcParams[i] = symbolTable.get(params.get(i).op1).getValue();
+        for (int i = 0; i < args.length; i++) {
+            args[i] = symbolTable.get(params.get(i).op1).getValue();
         }
 
-        object.call(funcName, funcParams, result);
+        object.call(funcIndex, args, result);
     }
 
     static void structMemberRef(
@@ -533,11 +540,9 @@ public class Statements {
         var root = (STObjects.STStruct) symbolTable.get(instruction.op1).getValue();
         for (int i = 0; i < params.size() -1; i++) {
             var childId = symbolTable.get(params.get(i).op1).getValue().getInt32();
-            var valueId = root.getMember(childId);
-            root = (STObjects.STStruct) symbolTable.get(valueId).getValue();
+            root = (STObjects.STStruct) root.getMember(childId).getValue();
         }
         var childId = symbolTable.get(params.get(params.size() - 1).op1).getValue().getInt32();
-        var valueId = root.getMember(childId);
-        symbolTable.get(instruction.result).getValue().assign(symbolTable.get(valueId).getValue());
+        symbolTable.get(instruction.result).getValue().assign(root.getMember(childId).getValue());
     }
 }
@@ -4,6 +4,7 @@ import org.puffinbasic.domain.PuffinBasicSymbolTable;
 import org.puffinbasic.domain.STObjects;
 import org.puffinbasic.domain.STObjects.ArrayType;
 import org.puffinbasic.domain.STObjects.PuffinBasicAtomTypeId;
+import org.puffinbasic.domain.STObjects.STEntry;
 import org.puffinbasic.domain.STObjects.STLValue;
 import org.puffinbasic.error.PuffinBasicRuntimeError;
 import org.puffinbasic.error.PuffinBasicSemanticError;
@@ -22,9 +23,7 @@ import static org.puffinbasic.error.PuffinBasicSemanticError.ErrorCode.DATA_TYPE
 
 public class Types {
 
-    public static void copy(PuffinBasicSymbolTable symbolTable, Instruction instruction) {
-        var fromEntry = symbolTable.get(instruction.op1);
-        var toEntry = symbolTable.get(instruction.op2);
+    public static void copy(STEntry fromEntry, STEntry toEntry) {
         toEntry.getValue().assign(fromEntry.getValue());
     }
 
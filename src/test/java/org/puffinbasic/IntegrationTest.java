@@ -4,10 +4,20 @@ import org.junit.Before;
 import org.junit.Test;
 import org.puffinbasic.PuffinBasicInterpreterMain.UserOptions;
 import org.puffinbasic.error.PuffinBasicRuntimeError;
+import org.puffinbasic.error.PuffinBasicSemanticError;
+import org.puffinbasic.file.PuffinBasicFile.FlushPolicy;
+import org.puffinbasic.runtime.CompiledProgram;
 import org.puffinbasic.runtime.Environment;
 import org.puffinbasic.runtime.Environment.SystemEnv;
+import org.puffinbasic.runtime.IROptimizer;
+import org.puffinbasic.runtime.PuffinBasicHost;
+import org.puffinbasic.runtime.PuffinBasicHost.Job;
+import org.puffinbasic.runtime.PuffinBasicHost.JobResult;
+import org.puffinbasic.runtime.PuffinBasicHost.Status;
+import org.puffinbasic.runtime.PuffinBasicRuntime.ExecutionEngine;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -15,10 +25,20 @@ import java.io.PrintStream;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.puffinbasic.PuffinBasicInterpreterMain.compile;
 import static org.puffinbasic.PuffinBasicInterpreterMain.interpretAndRun;
+import static org.puffinbasic.PuffinBasicInterpreterMain.interpretCachedAndRun;
 import static org.puffinbasic.error.PuffinBasicRuntimeError.ErrorCode.IO_ERROR;
 
 public class IntegrationTest {
@@ -40,6 +60,14 @@ public class IntegrationTest {
         runTest("nested_forloop.bas", "nested_forloop.bas.output");
     }
 
+    @Test
+    public void testLoopBranches() {
+        runTest("loop_branch.bas", "loop_branch.bas.output");
+        runTest("loop_branch.bas", "loop_branch.bas.output", ExecutionEngine.CLOSURE);
+        runTest("loop_branch.bas", "loop_branch.bas.output", ExecutionEngine.COMPILE);
+        runTest("loop_branch.bas", "loop_branch.bas.output", ExecutionEngine.SWITCH, 0);
+    }
+
     @Test
     public void testScalarVariable() {
         runTest("scalar_var.bas", "scalar_var.bas.output");
@@ -60,6 +88,33 @@ public class IntegrationTest {
         runTest("array_func.bas", "array_func.bas.output");
     }
 
+    @Test
+    public void testArrayReductions() {
+        runTest("reductions.bas", "reductions.bas.output");
+    }
+
+    @Test
+    public void testArrayElement() {
+        runTest("arrayelem.bas", "arrayelem.bas.output");
+        runTest("arrayelem.bas", "arrayelem.bas.output", ExecutionEngine.CLOSURE);
+        runTest("arrayelem.bas", "arrayelem.bas.output", ExecutionEngine.COMPILE);
+        runTest("arrayelem.bas", "arrayelem.bas.output", ExecutionEngine.SWITCH, 0);
+    }
+
+    @Test
+    public void testArrayOrderStats() {
+        runTest("orderstats.bas", "orderstats.bas.output");
+        runTest("orderstats.bas", "orderstats.bas.output", ExecutionEngine.CLOSURE);
+        runTest("orderstats.bas", "orderstats.bas.output", ExecutionEngine.COMPILE);
+    }
+
+    @Test
+    public void testArrayOp() {
+        runTest("arrayop.bas", "arrayop.bas.output");
+        runTest("arrayop.bas", "arrayop.bas.output", ExecutionEngine.CLOSURE);
+        runTest("arrayop.bas", "arrayop.bas.output", ExecutionEngine.COMPILE);
+    }
+
     @Test
     public void testWhile() {
         runTest("while.bas", "while.bas.output");
@@ -80,6 +135,202 @@ public class IntegrationTest {
         runTest("func2.bas", "func2.bas.output");
     }
 
+    @Test
+    public void testRecursion() {
+        runTest("recursion.bas", "recursion.bas.output");
+    }
+
+    @Test
+    public void testProfiled() throws IOException {
+        var tmpdir = Files.createTempDirectory("puffin_basic_test_profile_");
+        var profileFile = tmpdir.resolve("profile.stacks");
+        for (var engine : ExecutionEngine.values()) {
+            var report = new ByteArrayOutputStream();
+            runTest("profile.bas", "profile.bas.output",
+                    UserOptions.ofTestProfiled(engine, 1000, profileFile.toString(), new PrintStream(report)));
+
+            var lines = report.toString().lines().collect(Collectors.toList());
+            var header = lines.get(0).split(" ");
+            assertEquals("[PROFILE]", header[0]);
+            int numSamples = Integer.parseInt(header[1]);
+            assertTrue(numSamples > 0);
+            // The recursive call is the top self line
+            assertTrue(lines.get(2), lines.get(2).endsWith(":3  RETURN fib#(n# - 1) + fib#(n# - 2)"));
+
+            // Collapsed stacks, with all the samples, of lines named <file>:<line#>
+            int numStackSamples = 0;
+            boolean recursive = false;
+            for (var line : Files.readAllLines(profileFile)) {
+                assertTrue(line, line.startsWith("<main> "));
+                recursive |= line.contains(":3;fib ");
+                numStackSamples += Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+            }
+            assertTrue(recursive);
+            assertEquals(numSamples, numStackSamples);
+            Files.delete(profileFile);
+        }
+        Files.delete(tmpdir);
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        var tmpdir = Files.createTempDirectory("puffin_basic_test_metrics_");
+        var metricsFile = tmpdir.resolve("recursion.metrics");
+        List<String> expectedInstructions = null;
+        for (var engine : ExecutionEngine.values()) {
+            runTest("recursion.bas", "recursion.bas.output", UserOptions.ofTestMetered(engine, metricsFile.toString()));
+            // The counters are written when the program ends
+            var metrics = Files.readString(metricsFile);
+            assertTrue(metrics.contains("puffinbasic_udf_calls_total 601\n"));
+            assertTrue(metrics.contains("puffinbasic_scope_pops_total 601\n"));
+            // The FOR step runs the loop's end check in all engines
+            assertTrue(metrics.contains("puffinbasic_instructions_total{family=\"FOR_STEP\"} 11\n"));
+            assertTrue(metrics.endsWith("# EOF\n"));
+            // The same instructions are counted by all engines
+            var instructions = metrics.lines()
+                    .filter(line -> line.startsWith("puffinbasic_instructions_total"))
+                    .collect(Collectors.toList());
+            if (expectedInstructions == null) {
+                expectedInstructions = instructions;
+            } else {
+                assertEquals(engine.name(), expectedInstructions, instructions);
+            }
+            Files.delete(metricsFile);
+        }
+        Files.delete(tmpdir);
+    }
+
+    @Test
+    public void testConcurrentRuns() throws Exception {
+        for (var test : new String[] {"recursion", "struct", "list", "readdata"}) {
+            var program = compile(UserOptions.ofTest(), test + ".bas", loadSourceCodeFromResource(test + ".bas"));
+            var expected = loadOutputFromResource(test + ".bas.output");
+            var executor = Executors.newFixedThreadPool(4);
+            var outputs = new ArrayList<Future<String>>();
+            for (int i = 0; i < 12; i++) {
+                var engine = ExecutionEngine.values()[i % ExecutionEngine.values().length];
+                outputs.add(executor.submit(() -> {
+                    var bos = new ByteArrayOutputStream();
+                    var out = new PrintStream(bos);
+                    program.newRuntime(out, env, engine).run();
+                    out.close();
+                    return new String(bos.toByteArray());
+                }));
+            }
+            for (var output : outputs) {
+                assertEquals(expected, output.get());
+            }
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testHost() throws Exception {
+        var tmpdir = Files.createTempDirectory("puffin_basic_test_host_");
+        var fileProgram = compile(UserOptions.ofTest(), "file.bas",
+                "10 OPEN \"O\", #1, \"job.txt\"\n"
+                + "20 PRINT#1, ENVIRON$(\"JOB\")\n"
+                + "30 CLOSE #1\n"
+                + "40 LINE INPUT A$\n"
+                + "50 PRINT A$\n");
+        try (var host = new PuffinBasicHost(4)) {
+            var jobs = new ArrayList<Future<JobResult>>();
+            var outputs = new ArrayList<ByteArrayOutputStream>();
+            var expected = new ArrayList<String>();
+            for (var test : new String[] {"recursion", "struct", "list", "readdata"}) {
+                var program = compile(UserOptions.ofTest(), test + ".bas", loadSourceCodeFromResource(test + ".bas"));
+                for (var engine : ExecutionEngine.values()) {
+                    var bos = new ByteArrayOutputStream();
+                    jobs.add(host.submit(new Job(test, program, new PrintStream(bos), env, engine, null)));
+                    outputs.add(bos);
+                    expected.add(loadOutputFromResource(test + ".bas.output"));
+                }
+            }
+            // Each job has its own stdin, environment and files
+            for (int i = 0; i < 3; i++) {
+                var jobEnv = new SystemEnv(
+                        new ByteArrayInputStream(("stdin" + i + "\n").getBytes()),
+                        Files.createDirectory(tmpdir.resolve("job" + i)));
+                jobEnv.set("JOB", "job" + i);
+                var bos = new ByteArrayOutputStream();
+                jobs.add(host.submit(new Job(
+                        "file", fileProgram, new PrintStream(bos), jobEnv, ExecutionEngine.values()[i], null)));
+                outputs.add(bos);
+                expected.add("stdin" + i + "\n");
+            }
+            for (int i = 0; i < jobs.size(); i++) {
+                assertEquals(Status.COMPLETED, jobs.get(i).get().status);
+                assertEquals(expected.get(i), new String(outputs.get(i).toByteArray()));
+            }
+            assertEquals(jobs.size(), host.getResults().size());
+        }
+        for (int i = 0; i < 3; i++) {
+            var jobFile = tmpdir.resolve("job" + i).resolve("job.txt");
+            assertEquals("job" + i + "\n", Files.readString(jobFile));
+            Files.delete(jobFile);
+            Files.delete(jobFile.getParent());
+        }
+        Files.delete(tmpdir);
+    }
+
+    @Test
+    public void testHostTimeout() throws Exception {
+        var loop = compile(UserOptions.ofTest(), "loop.bas", "10 GOTO 10\n");
+        var sleep = compile(UserOptions.ofTest(), "sleep.bas", "10 SLEEP 100000\n20 GOTO 10\n");
+        try (var host = new PuffinBasicHost(8)) {
+            var jobs = new ArrayList<Future<JobResult>>();
+            for (var engine : ExecutionEngine.values()) {
+                for (var program : new CompiledProgram[] {loop, sleep}) {
+                    jobs.add(host.submit(new Job(
+                            "timeout", program, new PrintStream(new ByteArrayOutputStream()), env, engine,
+                            Duration.ofMillis(200))));
+                }
+            }
+            for (var job : jobs) {
+                var result = job.get();
+                assertEquals(Status.TIMED_OUT, result.status);
+                assertTrue(result.error.getMessage().startsWith("[INTERRUPTED_ERROR] Cancelled"));
+            }
+        }
+    }
+
+    @Test
+    public void testParfor() {
+        runTest("parfor.bas", "parfor.bas.output");
+        runTest("parfor.bas", "parfor.bas.output", ExecutionEngine.CLOSURE);
+        runTest("parfor.bas", "parfor.bas.output", ExecutionEngine.COMPILE);
+        runTest("parfor.bas", "parfor.bas.output", ExecutionEngine.SWITCH, 0);
+    }
+
+    @Test
+    public void testParforRejectsGosubAndIO() {
+        var bodies = new String[] {
+                "20 GOSUB 100\n", "20 PRINT I%\n", "20 INPUT \"A\"; A%\n", "20 IF I% > 5 THEN GOTO 40\n",
+                "20 t% = F%(I%)\n", "20 t% = G%(I%)\n",
+                "20 L.append(I%)\n", "20 D.put(I%, I%)\n", "20 S.add(I%)\n", "20 B.append(\"x\")\n",
+                "20 P.X% = I%\n", "20 Q.P.X% = I%\n", "20 Q.L.append(I%)\n", "20 t% = H%(L)\n"
+        };
+        var decls = "1 FUNCTION F%(X%) {\n2 PRINT X%\n3 RETURN X%\n4 }\n"
+                + "5 FUNCTION G%(X%) {\n6 RETURN F%(X%)\n7 }\n"
+                + "8 LIST<%> L\n9 DICT<%, %> D\n10 SET<%> S\n11 STRINGBUILDER B\n"
+                + "12 STRUCT point { X% }\n13 STRUCT seg { point P, LIST<%> L }\n14 point P {}\n15 seg Q {}\n"
+                + "16 FUNCTION H%(LIST<%> A) {\n17 A.append(1)\n18 RETURN 1\n19 }\n";
+        for (var body : bodies) {
+            try {
+                compile(UserOptions.ofTest(), "parfor.bas",
+                        decls + "20 PARFOR I% = 1 TO 10\n" + body.replace("20 ", "21 ") + "30 NEXT\n40 END\n100 RETURN\n");
+                fail("Expected BAD_PARFOR for: " + body);
+            } catch (PuffinBasicSemanticError e) {
+                assertTrue(e.getMessage().startsWith("[BAD_PARFOR]"));
+            }
+        }
+    }
+
+    @Test
+    public void testParforLocalComposites() {
+        runTest("parforlocal.bas", "parforlocal.bas.output");
+    }
+
     @Test
     public void testIf() {
         runTest("if.bas", "if.bas.output");
@@ -167,6 +418,54 @@ public class IntegrationTest {
         Files.delete(Path.of(tmpdir, filename));
     }
 
+    @Test
+    public void testOutputBuffering() throws IOException {
+        String tmpdir = System.getProperty("java.io.tmpdir");
+        String filename = "puffin_basic_test_output_buffering_"
+                + Instant.now().getEpochSecond() + ".data";
+        for (var flushPolicy : FlushPolicy.values()) {
+            // Smaller and larger than the printed lines
+            for (int bufferSize : new int[] {1, 7, 4096}) {
+                env = new SystemEnv(System.in, null, bufferSize, flushPolicy);
+                env.set("TEST_TMP_DIR", tmpdir);
+                env.set("TEST_SEQ_FILENAME", filename);
+                runTest("sequentialaccessfile.bas", "sequentialaccessfile.bas.output");
+                runTest("printusing.bas", "printusing.bas.output");
+                Files.delete(Path.of(tmpdir, filename));
+            }
+        }
+    }
+
+    @Test
+    public void testOutputFlushedBeforeSleep() throws Exception {
+        var program = compile(UserOptions.ofTest(), "sleep.bas", "10 PRINT \"hi\"\n20 SLEEP 2000\n");
+        try (var host = new PuffinBasicHost(8)) {
+            var jobs = new ArrayList<Future<JobResult>>();
+            var outputs = new ArrayList<ByteArrayOutputStream>();
+            for (var flushPolicy : new FlushPolicy[] {FlushPolicy.LINE, FlushPolicy.SIZE}) {
+                for (var engine : ExecutionEngine.values()) {
+                    var bos = new ByteArrayOutputStream();
+                    jobs.add(host.submit(new Job(
+                            "sleep", program, new PrintStream(bos),
+                            new SystemEnv(System.in, null, 4096, flushPolicy), engine, null)));
+                    outputs.add(bos);
+                }
+            }
+            var deadline = Instant.now().plusMillis(1500);
+            for (int i = 0; i < jobs.size(); i++) {
+                while (outputs.get(i).size() == 0 && Instant.now().isBefore(deadline)) {
+                    Thread.sleep(10);
+                }
+                // Shown while the program sleeps
+                assertEquals("hi\n", outputs.get(i).toString());
+                assertTrue(!jobs.get(i).isDone());
+            }
+            for (var job : jobs) {
+                assertEquals(Status.COMPLETED, job.get().status);
+            }
+        }
+    }
+
     @Test
     public void testStruct() {
         runTest("struct.bas", "struct.bas.output");
@@ -187,11 +486,117 @@ public class IntegrationTest {
         runTest("dict.bas", "dict.bas.output");
     }
 
+    @Test
+    public void testCollectionStorage() {
+        runTest("collectionstorage.bas", "collectionstorage.bas.output");
+    }
+
+    @Test
+    public void testStructList() {
+        runTest("structlist.bas", "structlist.bas.output");
+    }
+
+    @Test
+    public void testStringBuilder() {
+        runTest("stringbuilder.bas", "stringbuilder.bas.output");
+    }
+
+    @Test
+    public void testClosureEngine() {
+        runTest("forloop.bas", "forloop.bas.output", ExecutionEngine.CLOSURE);
+        runTest("nested_forloop.bas", "nested_forloop.bas.output", ExecutionEngine.CLOSURE);
+        runTest("expr.bas", "expr.bas.output", ExecutionEngine.CLOSURE);
+        runTest("while.bas", "while.bas.output", ExecutionEngine.CLOSURE);
+        runTest("if.bas", "if.bas.output", ExecutionEngine.CLOSURE);
+        runTest("gosub.bas", "gosub.bas.output", ExecutionEngine.CLOSURE);
+        runTest("func2.bas", "func2.bas.output", ExecutionEngine.CLOSURE);
+        runTest("recursion.bas", "recursion.bas.output", ExecutionEngine.CLOSURE);
+        runTest("array_var.bas", "array_var.bas.output", ExecutionEngine.CLOSURE);
+        runTest("struct.bas", "struct.bas.output", ExecutionEngine.CLOSURE);
+    }
+
+    @Test
+    public void testCompileEngine() {
+        runTest("forloop.bas", "forloop.bas.output", ExecutionEngine.COMPILE);
+        runTest("nested_forloop.bas", "nested_forloop.bas.output", ExecutionEngine.COMPILE);
+        runTest("scalar_var.bas", "scalar_var.bas.output", ExecutionEngine.COMPILE);
+        runTest("expr.bas", "expr.bas.output", ExecutionEngine.COMPILE);
+        runTest("while.bas", "while.bas.output", ExecutionEngine.COMPILE);
+        runTest("if.bas", "if.bas.output", ExecutionEngine.COMPILE);
+        runTest("gosub.bas", "gosub.bas.output", ExecutionEngine.COMPILE);
+        runTest("gotolabel.bas", "gotolabel.bas.output", ExecutionEngine.COMPILE);
+        runTest("func2.bas", "func2.bas.output", ExecutionEngine.COMPILE);
+        runTest("recursion.bas", "recursion.bas.output", ExecutionEngine.COMPILE);
+        runTest("udf.bas", "udf.bas.output", ExecutionEngine.COMPILE);
+        runTest("swap.bas", "swap.bas.output", ExecutionEngine.COMPILE);
+        runTest("ref.bas", "ref.bas.output", ExecutionEngine.COMPILE);
+        runTest("readdata.bas", "readdata.bas.output", ExecutionEngine.COMPILE);
+        runTest("array_var.bas", "array_var.bas.output", ExecutionEngine.COMPILE);
+        runTest("struct.bas", "struct.bas.output", ExecutionEngine.COMPILE);
+    }
+
+    @Test
+    public void testUnoptimized() {
+        runTest("forloop.bas", "forloop.bas.output", ExecutionEngine.SWITCH, 0);
+        runTest("nested_forloop.bas", "nested_forloop.bas.output", ExecutionEngine.SWITCH, 0);
+        runTest("expr.bas", "expr.bas.output", ExecutionEngine.SWITCH, 0);
+        runTest("while.bas", "while.bas.output", ExecutionEngine.SWITCH, 0);
+        runTest("if.bas", "if.bas.output", ExecutionEngine.SWITCH, 0);
+        runTest("gosub.bas", "gosub.bas.output", ExecutionEngine.SWITCH, 0);
+        runTest("func2.bas", "func2.bas.output", ExecutionEngine.SWITCH, 0);
+        runTest("recursion.bas", "recursion.bas.output", ExecutionEngine.CLOSURE, 0);
+        runTest("struct.bas", "struct.bas.output", ExecutionEngine.COMPILE, 0);
+    }
+
+    @Test
+    public void testIRCache() throws IOException {
+        var tmpdir = Files.createTempDirectory("puffin_basic_test_ir_cache_");
+        for (var test : new String[] {"func2", "recursion", "readdata", "struct", "list", "dict"}) {
+            var source = tmpdir.resolve(test + ".bas");
+            Files.writeString(source, loadSourceCodeFromResource(test + ".bas"));
+            // The first run writes the cache, the second runs the IR read from the cache.
+            runCachedTest(source, test + ".bas.output");
+            assertTrue(Files.exists(tmpdir.resolve(test + ".pbc")));
+            runCachedTest(source, test + ".bas.output");
+            Files.delete(source);
+            Files.delete(tmpdir.resolve(test + ".pbc"));
+        }
+        Files.delete(tmpdir);
+    }
+
+    private void runCachedTest(Path source, String output) {
+        var bos = new ByteArrayOutputStream();
+        var out = new PrintStream(bos);
+        interpretCachedAndRun(
+                UserOptions.ofTest(),
+                source.toString(),
+                out,
+                env);
+        out.close();
+
+        assertEquals(
+                loadOutputFromResource(output),
+                new String(bos.toByteArray())
+        );
+    }
+
     private void runTest(String source, String output) {
+        runTest(source, output, ExecutionEngine.SWITCH);
+    }
+
+    private void runTest(String source, String output, ExecutionEngine engine) {
+        runTest(source, output, engine, IROptimizer.MAX_LEVEL);
+    }
+
+    private void runTest(String source, String output, ExecutionEngine engine, int optimizationLevel) {
+        runTest(source, output, UserOptions.ofTest(engine, optimizationLevel));
+    }
+
+    private void runTest(String source, String output, UserOptions userOptions) {
         var bos = new ByteArrayOutputStream();
         var out = new PrintStream(bos);
         interpretAndRun(
-                UserOptions.ofTest(),
+                userOptions,
                 loadSourceCodeFromResource(source),
                 out,
                 env);
@@ -0,0 +1,17 @@
+10 FUNCTION F% (N%) {
+20   DIM W%(6)
+30   FOR I% = 0 TO 5 : W%(I%) = I% * 10 : NEXT
+40   IF N% > 0 THEN RETURN W%(N%) + F%(N% - 1)
+50   RETURN 0
+60 }
+100 DIM A%(3, 4, 5) : DIM V%(10) : DIM G#(4, 3) : DIM S$(2, 2)
+110 FOR I% = 0 TO 2 : FOR J% = 0 TO 3 : FOR K% = 0 TO 4 : A%(I%, J%, K%) = I% * 100 + J% * 10 + K% : NEXT : NEXT : NEXT
+120 PRINT A%(2, 3, 4), A%(1, 0, 2), A%(0, 3, 0)
+130 FOR I% = 0 TO 9 : V%(I%) = I% * I% : NEXT
+140 PRINT V%(V%(2)), V%(V%(1) + V%(2)), V%(V%(V%(1)) + 2)
+150 FOR I% = 0 TO 3 : FOR J% = 0 TO 2 : G#(I%, J%) = I% + J% / 10 : NEXT : NEXT
+160 FOR I% = 1 TO 3 : FOR J% = 0 TO 2 : G#(I%, J%) = G#(I% - 1, J%) + G#(I%, J%) : NEXT : NEXT
+170 PRINT G#(3, 0), G#(3, 1), G#(3, 2)
+180 S$(1, 0) = "A" : S$(0, 1) = S$(1, 0) + "B" : PRINT S$(0, 1)
+190 A%(1, 2) = 7 : PRINT A%(1, 2, 0)
+200 PRINT F%(5)
@@ -0,0 +1,29 @@
+10 DIM A#(2, 3) : DIM B#(2, 3) : DIM C#(2, 3)
+20 DIM X%(5) : DIM Y%(5) : DIM Z%(5)
+30 FOR I% = 0 TO 1 : FOR J% = 0 TO 2 : A#(I%, J%) = I% * 3 + J% + 1 : B#(I%, J%) = 2 : NEXT : NEXT
+40 FOR I% = 0 TO 4 : X%(I%) = I% - 2 : Y%(I%) = 3 : NEXT
+50 ARRAYOP C#, A#, "+", B#
+60 GOSUB 1000
+70 ARRAYOP C#, A#, "*", 0.5
+80 GOSUB 1000
+90 ARRAYOP C#, 1, "/", A#
+100 GOSUB 1000
+110 ARRAYOP C#, A#, "^", B#
+120 GOSUB 1000
+130 ARRAYOP C#, A#, "sqr"
+140 GOSUB 1000
+150 ARRAYOP C#, C#, "max", 2
+160 GOSUB 1000
+170 ARRAYOP Z%, X%, "mod", Y%
+180 GOSUB 2000
+190 ARRAYOP Z%, 10, "\", Y%
+200 GOSUB 2000
+210 ARRAYOP Z%, X%, "ABS"
+220 GOSUB 2000
+230 ARRAYOP Z%, X%, "-", 1
+240 GOSUB 2000
+250 END
+1000 FOR I% = 0 TO 1 : FOR J% = 0 TO 2 : PRINT C#(I%, J%); : NEXT : NEXT : PRINT ""
+1010 RETURN
+2000 FOR I% = 0 TO 4 : PRINT Z%(I%); : NEXT : PRINT ""
+2010 RETURN
@@ -0,0 +1,78 @@
+PRINT "DICT of INT32 to INT32"
+DICT<%,%> d1
+FOR I% = 1 TO 1000
+  d1.put(I% * 7, I%)
+NEXT
+d1.put(7, -1)
+PRINT LEN(d1), d1.getOrDefault(7, 0), d1.getOrDefault(70, 0), d1.getOrDefault(8, 99)
+PRINT d1.removeKey(14), d1.removeKey(14), d1.containsKey(14), d1.containsKey(21), LEN(d1)
+auto k1 = d1.keys()
+S@ = 0
+FOR I% = 0 TO LEN(k1) - 1
+  S@ = S@ + k1(I%)
+NEXT
+PRINT LEN(k1), S@
+
+PRINT "DICT of INT64 to FLOAT64"
+DICT<@,#> d2
+d2.put(10000000000@, 1.5)
+d2.put(-3@, -2.25)
+PRINT d2.getOrDefault(10000000000@, 0), d2.getOrDefault(-3@, 0), d2.getOrDefault(4@, 0.125)
+auto k2 = d2.keys()
+PRINT LEN(k2), k2(0) + k2(1)
+
+PRINT "DICT of FLOAT32 to STRING"
+DICT<!,$> d3
+d3.put(0.5, "half")
+d3.put(0.25, "quarter")
+PRINT d3.getOrDefault(0.5, "?"), d3.getOrDefault(0.25, "?"), d3.getOrDefault(0.75, "?")
+PRINT d3.removeKey(0.5), LEN(d3)
+
+PRINT "DICT of STRING to FLOAT32"
+DICT<$,!> d4
+d4.put("a", 1.25)
+d4.put("b", 2.5)
+d4.put("a", 3.75)
+PRINT LEN(d4), d4.getOrDefault("a", 0), d4.getOrDefault("b", 0), d4.getOrDefault("c", -1)
+
+PRINT "DICT of STRING to INT64"
+DICT<$,@> d5
+d5.put("big", 123456789012@)
+PRINT d5.getOrDefault("big", 0@), d5.getOrDefault("none", 7@)
+
+PRINT "DICT of FLOAT64 to INT32"
+DICT<#,%> d6
+d6.put(1.5, 1)
+d6.put(2.5, 2)
+d6.clear()
+d6.put(3.5, 3)
+PRINT LEN(d6), d6.getOrDefault(3.5, 0), d6.containsKey(1.5)
+
+PRINT "SET of FLOAT64"
+SET<#> s1
+s1.add(2.5)
+s1.add(-1.5)
+s1.add(2.5)
+auto v1 = s1.values()
+PRINT LEN(v1), v1(0) + v1(1), v1(0) * v1(1)
+
+PRINT "SET of FLOAT32"
+SET<!> s2
+s2.add(0.5)
+s2.add(0.75)
+auto v2 = s2.values()
+PRINT LEN(v2), v2(0) + v2(1), v2(0) * v2(1)
+
+PRINT "LIST of FLOAT64"
+LIST<#> l1
+l1.append(1.5)
+l1.append(2.5)
+l1.insert(1, 0.25)
+auto v3 = l1.values()
+PRINT LEN(v3), v3(0), v3(1), v3(2), l1.get(1)
+
+PRINT "LIST of FLOAT32"
+LIST<!> l2
+l2.append(1.5)
+l2.insert(0, -0.5)
+PRINT l2.get(0), l2.get(1), LEN(l2)
@@ -0,0 +1,31 @@
+10 FOR I% = 1 TO 3 : PRINT I%; : NEXT I% : PRINT ""
+20 FOR L@ = 5 TO 1 STEP -2 : PRINT L@; : NEXT L@ : PRINT ""
+30 FOR F! = 0 TO 1 STEP 0.25 : PRINT F!; : NEXT F! : PRINT ""
+40 FOR D# = 1 TO 0 STEP -0.5 : PRINT D#; : NEXT D# : PRINT ""
+50 FOR E% = 5 TO 1 : PRINT "NEVER" : NEXT E%
+55 C% = 0
+60 FOR A% = 1 TO 3
+70   FOR B% = A% TO 3
+80     C% = C% + A% * B%
+90 NEXT B%, A%
+100 PRINT A%, B%, C%
+110 FOR K% = 1 TO 10
+120   IF K% = 4 THEN K% = 8
+130   PRINT K%;
+140 NEXT K%
+150 PRINT ""
+160 X# = 10
+170 WHILE X# > 0.5 : X# = X# / 2 : WEND
+180 PRINT X#
+190 N@ = 0
+200 WHILE N@ <> 7 : N@ = N@ + 1 : WEND
+210 PRINT N@
+220 S! = 3.5
+230 IF S! >= 3.5 THEN PRINT "GE" ELSE PRINT "LT"
+240 IF S! <= 3.4 THEN PRINT "LE" ELSE PRINT "GT"
+250 IF NOT (N@ < 7) THEN PRINT "NOT LT"
+260 FOR M% = 1 TO 5
+270   IF M% = 3 THEN GOTO 300
+280 NEXT M%
+290 PRINT "UNREACHED"
+300 PRINT M%
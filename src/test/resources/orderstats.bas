@@ -0,0 +1,15 @@
+10 DIM A#(1001) : DIM B%(12) : DIM P#(5) : DIM R#(5) : DIM H%(4) : DIM C%(3)
+20 FOR I% = 0 TO 1000 : A#(I%) = ((I% * 7919) MOD 1001) / 4 : NEXT
+30 FOR I% = 0 TO 11 : B%(I%) = (I% * 5) MOD 12 - 2 : NEXT
+40 P#(0) = 0 : P#(1) = 10 : P#(2) = 25 : P#(3) = 50 : P#(4) = 99.5
+50 PRINT ARRAY1DMEDIAN(A#), ARRAY1DPCT(A#, 90), ARRAY1DMEDIAN(B%), ARRAY1DPCT(B%, 25)
+60 ARRAY1DPCTS A#, P#, R#
+70 FOR I% = 0 TO 4 : PRINT R#(I%); : NEXT : PRINT ""
+80 ARRAY1DPCTS B%, P#, R#
+90 FOR I% = 0 TO 4 : PRINT R#(I%); : NEXT : PRINT ""
+100 ARRAY1DHIST A#, H%
+110 FOR I% = 0 TO 3 : PRINT H%(I%); : NEXT : PRINT ""
+120 ARRAY1DHIST B%, C%, 0, 6
+130 FOR I% = 0 TO 2 : PRINT C%(I%); : NEXT : PRINT ""
+140 ARRAY1DHIST A#, H%, 100, 100
+150 FOR I% = 0 TO 3 : PRINT H%(I%); : NEXT : PRINT ""
@@ -0,0 +1,27 @@
+10 DEF FNSQ%(X%) = X% * X%
+20 DIM A%(20, 10) : DIM B#(10) : DIM C%(8, 8)
+30 S% = 100
+40 PARFOR I% = 0 TO 19
+50   T% = S% + I%
+60   FOR J% = 0 TO 9
+70     A%(I%, J%) = T% + FNSQ%(J%)
+80   NEXT J%
+90 NEXT I%
+100 PRINT I%
+110 TOTAL@ = 0
+120 FOR I% = 0 TO 19 : FOR J% = 0 TO 9 : TOTAL@ = TOTAL@ + A%(I%, J%) : NEXT : NEXT
+130 PRINT TOTAL@, A%(19, 9)
+140 PARFOR X# = 1 TO 2 STEP 0.25
+150   B#(X# * 4) = X#
+160 NEXT
+170 PRINT X#, B#(4), B#(7), B#(8)
+180 PARFOR I% = 7 TO 0 STEP -1
+190   PARFOR J% = 0 TO 7
+200     C%(I%, J%) = I% * 8 + J%
+210   NEXT J%
+220 NEXT I%
+230 PRINT I%, C%(7, 7), C%(3, 5)
+240 PARFOR I% = 1 TO 0
+250   C%(0, 0) = -1
+260 NEXT
+270 PRINT I%, C%(0, 0)
@@ -0,0 +1,30 @@
+10 FUNCTION F%(X%) {
+11 DIM A%(X%)
+12 LIST<%> L
+13 L.append(X%)
+14 RETURN L.get(0)
+15 }
+16 STRUCT point { X% }
+17 LIST<%> G
+18 G.append(1)
+19 DIM R%(11)
+20 PARFOR I% = 1 TO 10
+21 LIST<%> M
+22 M.append(F%(I%) + G.get(0))
+23 point P {}
+24 P.X% = I%
+25 R%(I%) = M.get(0) + P.X%
+30 NEXT
+40 FOR I% = 1 TO 10 : PRINT R%(I%); : NEXT : PRINT ""
+50 DICT<%, %> E
+51 SET<%> S
+52 STRINGBUILDER B
+53 LIST<point> PTS
+54 FOR I% = 1 TO 10 : E.put(I%, I% * I%) : S.add(I%) : B.append("b") : NEXT
+55 FOR I% = 1 TO 10 : point Q {} : Q.X% = I% : PTS.append(Q) : NEXT
+56 PARFOR I% = 1 TO 10
+57 auto Q2 = PTS.get(I% - 1)
+58 R%(I%) = E.getOrDefault(I%, 0) + S.contains(I%) + LEN(B) + Q2.X%
+59 NEXT
+60 FOR I% = 1 TO 10 : PRINT R%(I%); : NEXT : PRINT ""
+61 PRINT LEN(E), LEN(S), LEN(B), LEN(PTS)
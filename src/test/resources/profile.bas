@@ -0,0 +1,5 @@
+FUNCTION fib#(n#) {
+  IF n# < 2 THEN RETURN n#
+  RETURN fib#(n# - 1) + fib#(n# - 2)
+}
+PRINT fib#(20)
@@ -0,0 +1,37 @@
+FUNCTION fib#(n#) {
+  IF n# < 2 THEN RETURN n#
+  RETURN fib#(n# - 1) + fib#(n# - 2)
+}
+FUNCTION fact@(n%) {
+  IF n% <= 1 THEN RETURN 1
+  RETURN n% * fact@(n% - 1)
+}
+FUNCTION rev$(s$) {
+  IF LEN(s$) <= 1 THEN RETURN s$
+  RETURN rev$(MID$(s$, 2, LEN(s$) - 1)) + LEFT$(s$, 1)
+}
+FUNCTION depth%(n%) {
+  x% = n% * 10
+  IF n% > 0 THEN d% = depth%(n% - 1) ELSE d% = 0
+  RETURN x% + d%
+}
+FUNCTION arrsum%(n%) {
+  DIM A%(10)
+  A%(n%) = n%
+  IF n% > 0 THEN t% = arrsum%(n% - 1) ELSE t% = 0
+  RETURN A%(n%) + t%
+}
+FUNCTION gcd%(a%, b%) {
+  IF b% = 0 THEN RETURN a%
+  RETURN gcd%(b%, a% MOD b%)
+}
+FOR i% = 0 TO 10
+  PRINT fib#(i%);
+NEXT i%
+PRINT ""
+PRINT fact@(15)
+PRINT rev$("PuffinBASIC")
+PRINT depth%(5)
+PRINT gcd%(1071, 462)
+PRINT arrsum%(3)
+PRINT fib#(fib#(7) - 5)
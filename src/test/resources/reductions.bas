@@ -0,0 +1,10 @@
+10 DIM A#(200000) : DIM B%(200000) : DIM F!(10) : DIM L@(200000) : DIM E#(0)
+20 FOR I% = 0 TO 199999
+30   A#(I%) = (I% MOD 1000) / 4 - 500 : B%(I%) = I% MOD 1000 - 300 : L@(I%) = I% * 1000000000@
+40 NEXT
+50 FOR I% = 0 TO 9 : F!(I%) = -I% - 0.5 : NEXT
+60 PRINT ARRAY1DSUM(A#), ARRAY1DMEAN(A#), ARRAY1DSTD(A#), ARRAY1DMIN(A#), ARRAY1DMAX(A#)
+70 PRINT ARRAY1DSUM(B%), ARRAY1DMEAN(B%), ARRAY1DSTD(B%), ARRAY1DMIN(B%), ARRAY1DMAX(B%)
+80 PRINT ARRAY1DSUM(F!), ARRAY1DMEAN(F!), ARRAY1DMIN(F!), ARRAY1DMAX(F!)
+90 PRINT ARRAY1DSUM(L@), ARRAY1DMIN(L@), ARRAY1DMAX(L@)
+100 PRINT ARRAY1DSUM(E#), ARRAY1DMEAN(E#), ARRAY1DSTD(E#)
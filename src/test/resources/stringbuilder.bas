@@ -0,0 +1,50 @@
+STRINGBUILDER sb1
+sb1.append("world")
+sb1.insert(0, "hello ")
+sb1.append("!")
+PRINT sb1.toString(), sb1.len(), LEN(sb1)
+sb1.insert(sb1.len(), "!")
+PRINT sb1.toString()
+sb1.clear()
+PRINT sb1.len(), "[" + sb1.toString() + "]"
+
+STRUCT sbholder { STRINGBUILDER sb, A$ }
+sbholder h1 {}
+h1.sb.append("in struct")
+PRINT h1.sb.toString()
+
+FUNCTION sbjoin$(STRINGBUILDER sb, X$) {
+  sb.append(X$)
+  RETURN sb.toString()
+}
+PRINT sbjoin$(h1.sb, " and func")
+
+S$ = "x"
+FOR I% = 1 TO 10
+  S$ = S$ + CHR$(64 + I%)
+  IF I% = 5 THEN PRINT S$, LEN(S$)
+NEXT
+PRINT S$, LEN(S$)
+S$ = S$ + S$
+PRINT S$
+S$ = "reset"
+S$ = S$ + "!" + "?"
+PRINT S$
+T$ = S$
+S$ = S$ + "."
+PRINT T$; " "; S$
+
+DIM A$(2)
+A$(1) = "a"
+FOR I% = 1 TO 3
+  A$(1) = A$(1) + "b"
+NEXT
+PRINT A$(1)
+h1.A$ = "m"
+h1.A$ = h1.A$ + "n"
+PRINT h1.A$
+V$ = ENVIRON$("PUFFINBASIC_UNSET_ENV")
+W$ = "k"
+W$ = W$ + ENVIRON$("PUFFINBASIC_UNSET_ENV")
+W$ = W$ + "!"
+PRINT W$; LEN(W$)
@@ -0,0 +1,40 @@
+STRUCT point { X%, Y#, N$ }
+STRUCT segment { point a, point b, LIST<%> tags }
+
+LIST<point> pts
+FOR I% = 1 TO 10000
+  point p {}
+  p.X% = I%
+  p.Y# = I% / 4
+  p.N$ = "p" + STR$(I%)
+  pts.append(p)
+NEXT
+PRINT LEN(pts)
+
+S# = 0
+FOR I% = 0 TO LEN(pts) - 1
+  auto q = pts.get(I%)
+  S# = S# + q.X% + q.Y#
+NEXT
+PRINT S#
+
+auto last = pts.get(9999)
+PRINT last.X%, last.Y#, last.N$
+auto first = pts.get(0)
+first.X% = -1
+auto again = pts.get(0)
+PRINT again.X%
+
+LIST<segment> segs
+FOR I% = 1 TO 3
+  segment s {}
+  s.a.X% = I%
+  s.b.X% = I% * 10
+  s.tags.append(I%)
+  s.tags.append(I% + 1)
+  segs.append(s)
+NEXT
+FOR I% = 0 TO LEN(segs) - 1
+  auto t = segs.get(I%)
+  PRINT t.a.X%, t.b.X%, LEN(t.tags), t.tags.get(1)
+NEXT